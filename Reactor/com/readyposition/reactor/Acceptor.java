@@ -1,6 +1,7 @@
 package com.readyposition.reactor;
 
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
@@ -11,9 +12,18 @@ import java.nio.channels.SocketChannel;
 public class Acceptor
     implements TimerHandler, ValveHandler
 {
+    /** The default value for m_maxAccepts. */
+    public final static int DEFAULT_MAX_ACCEPTS = 16;
+
     /** The multiplexed asynchronous I/O reactor. */
     protected IOReactor m_ioReactor;
 
+    /**
+     * The group whose reactors accepted channels are handed to or null
+     * if they stay on m_ioReactor.
+     */
+    protected IOReactorGroup m_group;
+
     /** The object informed of connection events and other acceptor status. */
     protected AcceptorListener m_listener;
 
@@ -26,6 +36,12 @@ public class Acceptor
     /** A timer used to schedule retry attempts after failures. */
     protected Timer m_timer;
 
+    /** The most connections to accept each time the Valve fires. */
+    protected int m_maxAccepts = DEFAULT_MAX_ACCEPTS;
+
+    /** Whether to set SO_REUSEPORT on the listening socket. */
+    protected boolean m_reusePort;
+
     /**
      * Constructs an Acceptor that will listen for connections and will notify
      * an AcceptorListener of its progress.
@@ -40,12 +56,88 @@ public class Acceptor
         m_listener = listener;
     }
 
+    /**
+     * Constructs an Acceptor that will listen for connections on one
+     * reactor and hand the connections it accepts to the reactors of
+     * an IOReactorGroup.  The listener is informed of each connection
+     * on the thread of the reactor that it was handed to.
+     *
+     * @param ioReactor the asynchronous I/O reactor used to listen.
+     * @param group the reactors that accepted connections are handed
+     *              to.  ioReactor may be one of them.
+     * @param listener the object to be informed of connections and
+     *                 other progress.
+     */
+    public Acceptor(IOReactor ioReactor, IOReactorGroup group,
+                    AcceptorListener listener)
+    {
+        this(ioReactor, listener);
+        m_group = group;
+    }
+
+    /**
+     * Constructs an Acceptor that will listen for connections on the
+     * first reactor of an IOReactorGroup and hand the connections it
+     * accepts to the reactors of the group.
+     *
+     * @param group the reactors that accepted connections are handed
+     *              to.
+     * @param listener the object to be informed of connections and
+     *                 other progress.
+     */
+    public Acceptor(IOReactorGroup group, AcceptorListener listener) {
+        this(group.getIOReactor(0), group, listener);
+    }
+
+    /**
+     * Sets the most connections to accept each time the listening
+     * socket is ready.  Any others are accepted on later passes through
+     * the reactor loop so that a flood of connections can't starve the
+     * reactor's other channels.
+     *
+     * @param maxAccepts the most connections to accept at a time.
+     */
+    public void setMaxAccepts(int maxAccepts) {
+        if (maxAccepts <= 0) {
+            throw new IllegalArgumentException("maxAccepts == " + maxAccepts +
+                                               " needs to be > 0");
+        }
+        m_maxAccepts = maxAccepts;
+    }
+
+    /** Gets the most connections to accept at a time. */
+    public int getMaxAccepts() {
+        return m_maxAccepts;
+    }
+
+    /**
+     * Sets whether the listening socket allows other sockets to bind
+     * to the same address (SO_REUSEPORT).  The kernel then spreads
+     * incoming connections across all of them.  This takes effect the
+     * next time listen() is invoked.
+     *
+     * @param reusePort true to set SO_REUSEPORT.
+     * @see AcceptorGroup
+     */
+    public void setReusePort(boolean reusePort) {
+        m_reusePort = reusePort;
+    }
+
+    /** Determines if the listening socket sets SO_REUSEPORT. */
+    public boolean isReusePort() {
+        return m_reusePort;
+    }
+
     /** Attempts to establish a listening socket. */
     public void listen() {
         SocketAddress sa = m_listener.getSocketAddress();
         try {
             m_serverChannel = ServerSocketChannel.open();
             m_serverChannel.configureBlocking(false);
+            if (m_reusePort) {
+                m_serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT,
+                                          Boolean.TRUE);
+            }
             m_listener.setup(m_serverChannel);
             m_serverChannel.socket().bind(sa, 1000);
             m_listener.listening();
@@ -79,6 +171,11 @@ public class Acceptor
     protected void failure(Throwable t) {
         if (m_valve != null) {
             m_valve.close();
+        } else if (m_serverChannel != null) {
+            try {
+                m_serverChannel.close();
+            } catch (Throwable t2) {
+            }
         }
         m_valve = null;
         m_serverChannel = null;
@@ -93,16 +190,41 @@ public class Acceptor
 
     /**
      * Invoked when there is an I/O operation ready to be
-     * performed. This handles the acceptance of new connections.
+     * performed. This handles the acceptance of new connections, up to
+     * m_maxAccepts of them at a time.
      */
     public void valveFire(Valve valve, SelectionKey selectionKey)
     {
-        try {
-            SocketChannel socketChannel = m_serverChannel.accept();
-            socketChannel.configureBlocking(false);
-            m_listener.accepted(m_ioReactor, socketChannel);
-        } catch (Throwable t) {
-            m_listener.acceptFailed(t);
+        // The listener may shut us down along the way.
+        for (int i = 0; i < m_maxAccepts && m_serverChannel != null; i++) {
+            SocketChannel socketChannel = null;
+            try {
+                socketChannel = m_serverChannel.accept();
+                if (socketChannel == null) {
+                    // No more connections waiting (or somebody else
+                    // got to them first).
+                    return;
+                }
+                socketChannel.configureBlocking(false);
+                if (m_group == null) {
+                    m_listener.accepted(m_ioReactor, socketChannel);
+                } else {
+                    m_group.handOff(socketChannel, m_listener);
+                }
+            } catch (Throwable t) {
+                if (socketChannel != null) {
+                    // Nobody else is going to close it.
+                    try {
+                        socketChannel.close();
+                    } catch (Throwable t2) {
+                    }
+                }
+                m_listener.acceptFailed(t);
+                if (socketChannel == null) {
+                    // Accepting itself failed so don't spin on it.
+                    return;
+                }
+            }
         }
     }
 
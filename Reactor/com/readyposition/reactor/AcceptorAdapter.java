@@ -40,6 +40,9 @@ public abstract class AcceptorAdapter implements AcceptorListener {
     /** Used for exponential backoff on listening attempts. */
     protected BackOff m_backOff;
 
+    /** How the retry intervals are spread out. */
+    protected JitterStrategy m_jitter = JitterStrategy.NONE;
+
     /**
      * Creates an AcceptorAdapter where the IP address is the wildcard
      * address and the port number a specified value.
@@ -100,6 +103,24 @@ public abstract class AcceptorAdapter implements AcceptorListener {
         m_maxRetryInterval = max;
     }
 
+    /**
+     * Sets how the retry intervals are spread out.  Jitter keeps acceptors
+     * that failed together from all retrying at the same moments.
+     *
+     * @param jitter how the retry intervals are spread out.
+     */
+    public void setJitter(JitterStrategy jitter) {
+        if (jitter == null) {
+            throw new IllegalArgumentException("jitter is null");
+        }
+        m_jitter = jitter;
+    }
+
+    /** Gets how the retry intervals are spread out. */
+    public JitterStrategy getJitter() {
+        return m_jitter;
+    }
+
     // AcceptorListener methods start here
 
     // Javadoc from interface
@@ -119,16 +140,18 @@ public abstract class AcceptorAdapter implements AcceptorListener {
         }
     }
 
-    // Javadoc from interface
-    public void listening() {
+    // Javadoc from interface.  Synchronized since an AcceptorGroup may
+    // share this listener between reactors.
+    public synchronized void listening() {
         s_logger.info("Acceptor " + m_name + " listening on port " + m_port + ".");
         m_backOff = null;
     }
 
     // Javadoc from interface
-    public long listenFailed(Throwable t) {
+    public synchronized long listenFailed(Throwable t) {
         if (m_backOff == null) {
-            m_backOff = new BackOff(m_minRetryInterval, m_maxRetryInterval);
+            m_backOff = new BackOff(m_minRetryInterval, m_maxRetryInterval,
+                                    m_jitter);
         }
         long nextDelay = m_backOff.getNext();
         s_logger.info("Acceptor " + m_name +
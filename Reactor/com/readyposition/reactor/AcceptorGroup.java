@@ -0,0 +1,104 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * A set of Acceptors, one per reactor of an IOReactorGroup, that all
+ * listen on the same address.  Each one binds its own listening socket
+ * with SO_REUSEPORT so the kernel spreads incoming connections across
+ * the reactors and no single accept loop becomes a bottleneck (e.g.
+ * when thousands of clients reconnect at once after a failover).  A
+ * connection stays on the reactor that accepted it.
+ *
+ * <p>SO_REUSEPORT is only available on some platforms (e.g. Linux).
+ * See isReusePortSupported().  The listener must supply a fixed port
+ * since every Acceptor binds separately.  The listener is shared by
+ * all of the Acceptors so its callbacks may be invoked from several
+ * reactor threads at once.
+ */
+public class AcceptorGroup
+{
+    /** The Acceptors in this group, one per reactor. */
+    protected final Acceptor[] m_acceptors;
+
+    /**
+     * Determines if this platform supports SO_REUSEPORT on listening
+     * sockets.
+     *
+     * @return true if AcceptorGroup can be used here.
+     */
+    public static boolean isReusePortSupported() {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                return channel.supportedOptions().contains(
+                    StandardSocketOptions.SO_REUSEPORT);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Constructs an AcceptorGroup with an Acceptor for every reactor of
+     * an IOReactorGroup.
+     *
+     * @param group the reactors that will listen for connections.
+     * @param listener the object to be informed of connections and
+     *                 other progress.
+     */
+    public AcceptorGroup(IOReactorGroup group, AcceptorListener listener) {
+        m_acceptors = new Acceptor[group.getSize()];
+        for (int i = 0; i < m_acceptors.length; i++) {
+            m_acceptors[i] = new Acceptor(group.getIOReactor(i), listener);
+            m_acceptors[i].setReusePort(true);
+        }
+    }
+
+    /** Gets the number of Acceptors in this group. */
+    public int getSize() {
+        return m_acceptors.length;
+    }
+
+    /**
+     * Gets one of the Acceptors in this group.
+     *
+     * @param index the index of the Acceptor (the same as that of its
+     *              reactor in the IOReactorGroup).
+     * @return the Acceptor at that index.
+     */
+    public Acceptor getAcceptor(int index) {
+        return m_acceptors[index];
+    }
+
+    /**
+     * Sets the most connections each Acceptor accepts each time its
+     * listening socket is ready.
+     *
+     * @param maxAccepts the most connections to accept at a time.
+     * @see Acceptor#setMaxAccepts(int)
+     */
+    public void setMaxAccepts(int maxAccepts) {
+        for (int i = 0; i < m_acceptors.length; i++) {
+            m_acceptors[i].setMaxAccepts(maxAccepts);
+        }
+    }
+
+    /** Attempts to establish every listening socket. */
+    public void listen() {
+        for (int i = 0; i < m_acceptors.length; i++) {
+            m_acceptors[i].listen();
+        }
+    }
+
+    /** Closes every listening socket.  listen() may be invoked again. */
+    public void shutdown() {
+        for (int i = 0; i < m_acceptors.length; i++) {
+            m_acceptors[i].shutdown();
+        }
+    }
+}
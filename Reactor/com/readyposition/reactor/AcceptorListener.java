@@ -42,7 +42,11 @@ public interface AcceptorListener
     long listenFailed(Throwable t);
 
     /**
-     * This is invoked upon successful acceptance of a connection.
+     * This is invoked upon successful acceptance of a connection.  It
+     * is invoked on the thread of the IOReactor that will own the
+     * connection, which is not necessarily the reactor that is
+     * listening when the Acceptor hands connections to an
+     * IOReactorGroup.
      *
      * @param ioReactor the IOReactor used for event dispatch.
      * @param socketChannel a connected SocketChannel.
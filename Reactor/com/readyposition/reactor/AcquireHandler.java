@@ -0,0 +1,26 @@
+package com.readyposition.reactor;
+
+/**
+ * The interface for objects waiting for a connection from a
+ * ConnectionPool.  Every method is invoked on the thread of the
+ * IOReactor the connection belongs to.
+ */
+public interface AcquireHandler
+{
+    /**
+     * Invoked when a connection has been handed out.  It belongs to
+     * the handler until PooledConnection.release() is invoked.
+     *
+     * @param connection the connection.
+     */
+    public void acquired(PooledConnection connection);
+
+    /**
+     * Invoked when no connection could be handed out, because the
+     * timeout expired (a TimeoutException), connecting failed or the
+     * pool was closed.
+     *
+     * @param t why no connection was handed out.
+     */
+    public void acquireFailed(Throwable t);
+}
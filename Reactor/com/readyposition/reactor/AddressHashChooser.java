@@ -0,0 +1,29 @@
+package com.readyposition.reactor;
+
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An IOReactorChooser that hands every channel from the same remote
+ * host to the same reactor of a group.  Only the address is hashed,
+ * not the port, so that several connections from one client share a
+ * reactor (and thus may share state without locking).
+ */
+public class AddressHashChooser implements IOReactorChooser
+{
+    // Javadoc from interface
+    public int choose(IOReactorGroup group, SocketChannel channel) {
+        InetAddress address = channel.socket().getInetAddress();
+        if (address == null) {
+            // Not connected any more. Anywhere will do.
+            return 0;
+        }
+
+        // Spread the bits since addresses often differ only at the end.
+        int hash = address.hashCode();
+        hash ^= (hash >>> 16);
+        hash *= 0x45d9f3b;
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, group.getSize());
+    }
+}
@@ -47,6 +47,28 @@ class Anchor {
      */
     protected final Valve m_valves[] = new Valve[s_ops.length];
 
+    /**
+     * When a Valve last fired or the channel was otherwise active (a la
+     * System.nanoTime()).  Only kept up to date while the channel is
+     * tracked for idleness.
+     */
+    protected long m_lastActivity;
+
+    /** The Valve the channel is tracked with or null if it isn't. */
+    protected Valve m_idleValve;
+
+    /** Told when the channel has been idle for m_idleTimeout. */
+    protected IdleHandler m_idleHandler;
+
+    /** The idle timeout in nanoseconds. */
+    protected long m_idleTimeout;
+
+    /** The previous Anchor in the reactor's idle tracking list. */
+    protected Anchor m_idlePrev;
+
+    /** The next Anchor in the reactor's idle tracking list. */
+    protected Anchor m_idleNext;
+
     /**
      * Constructs an Anchor that represents all of the enabled Valves
      * for a SelectableChannel.
@@ -111,48 +133,59 @@ class Anchor {
     }
 
     /**
-     * Invokes the handlers for Valves that have operations ready.  If
-     * the same Valve is registered for multiple operations that are
-     * ready then we will only fire that Valve a single time so that
-     * it can deal with all of the operations at once.
+     * Invokes the Valves that have operations ready.  If the same
+     * Valve is registered for multiple operations that are ready then
+     * we will only fire that Valve a single time so that it can deal
+     * with all of the operations at once.
      *
      * @param ops the mask containing the list of ready operations.
      */
     protected void fire(int ops) {
-    	for (int i = 0; ops != 0 && i < s_ops.length; i++) {
-            if (m_valves[i] == null || (ops & s_ops[i]) == 0) {
-                // This operation has no Valve or does not
-                // match any ready operations
+        // One store per ready channel.  The time is read once per pass.
+        m_lastActivity = m_ioReactor.m_activityTime;
+
+        for (int i = 0; ops != 0 && i < s_ops.length; i++) {
+            if ((ops & s_ops[i]) == 0) {
+                // This operation isn't ready
+                continue;
+            }
+            Valve valve = m_valves[i];
+            if (valve == null) {
+                // Nobody is interested in this operation any more
+                ops &= ~s_ops[i];
                 continue;
             }
+
+            // Gather up the other ready operations for the same Valve
             int callOps = s_ops[i];
             for (int j = i + 1; j < s_ops.length; j++) {
-                if (m_valves[j] == null || (ops & s_ops[j]) == 0) {
-                    // This operation has no Valve or does not
-                    // match any ready operations
-                    continue;
+                if (m_valves[j] == valve) {
+                    callOps |= (ops & s_ops[j]);
                 }
-                callOps |= s_ops[j];
             }
 
             // Invoke the Valve that is registered for the callOps
+            long start = m_ioReactor.beginHandler(valve);
             try {
-                m_valves[i].getHandler().valveFire(m_valves[i],
-                                                   m_selectionKey);
+                valve.valveFire(valve, m_selectionKey);
             } catch (Throwable t) {
                 s_logger.warn("During " + formatOps(callOps) +
                               " channel processing:" + m_selectionKey.channel(), t);
             }
+            m_ioReactor.endHandler(valve, start);
 
             // Clear out pending operations that have already been handled.
             ops &= ~callOps;
-    	}
+        }
     }
 
-    /** Disables all Valves. */
+    /** Disables all Valves and stops tracking idleness. */
     protected void close() {
         for (int i = 0; i < s_ops.length; i++) {
             m_valves[i] = null;
         }
+        if (m_idleValve != null) {
+            m_ioReactor.idleUnlink(this);
+        }
     }
 }
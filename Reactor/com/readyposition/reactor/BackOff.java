@@ -1,6 +1,13 @@
 package com.readyposition.reactor;
 
-/** Implements a simple exponential backoff timer. */
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Implements a simple exponential backoff timer.  Optionally the
+ * delays are jittered (see JitterStrategy) so that many clients
+ * backing off from the same failure don't all retry at once.
+ */
 public class BackOff {
     /** The minimum amount of time to wait between retries. */
     protected long m_min;
@@ -8,9 +15,18 @@ public class BackOff {
     /** The maximum amount of time to wait between retries. */
     protected long m_max;
 
-    /** The next amount of time to wait between retries. */
+    /**
+     * The next amount of time to wait between retries.  With jitter
+     * this is the ceiling (FULL) or the last delay (DECORRELATED).
+     */
     protected long m_next;
 
+    /** How the delays are spread out. */
+    protected JitterStrategy m_jitter;
+
+    /** Picks jittered delays or null to use ThreadLocalRandom. */
+    protected Random m_random;
+
     /**
      * Constructs a BackOff object.
      *
@@ -18,6 +34,30 @@ public class BackOff {
      * @param max the maximum amount of time to wait between retries.
      */
     public BackOff(long min, long max) {
+        this(min, max, JitterStrategy.NONE, null);
+    }
+
+    /**
+     * Constructs a BackOff object with jitter.
+     *
+     * @param min the minimum amount of time to wait between retries.
+     * @param max the maximum amount of time to wait between retries.
+     * @param jitter how the delays are spread out.
+     */
+    public BackOff(long min, long max, JitterStrategy jitter) {
+        this(min, max, jitter, null);
+    }
+
+    /**
+     * Constructs a BackOff object with jitter.
+     *
+     * @param min the minimum amount of time to wait between retries.
+     * @param max the maximum amount of time to wait between retries.
+     * @param jitter how the delays are spread out.
+     * @param random picks the jittered delays or null to use
+     *               ThreadLocalRandom.
+     */
+    public BackOff(long min, long max, JitterStrategy jitter, Random random) {
         // Argument checking
         if (min <= 0) {
             throw new IllegalArgumentException("min == " + min +
@@ -27,11 +67,21 @@ public class BackOff {
             throw new IllegalArgumentException("max < min, max == " +
                                                max + ", min == " + min);
         }
+        if (jitter == null) {
+            throw new IllegalArgumentException("jitter is null");
+        }
         m_min = min;
         m_max = max;
+        m_jitter = jitter;
+        m_random = random;
         reset();
     }
 
+    /** Gets how the delays are spread out. */
+    public JitterStrategy getJitter() {
+        return m_jitter;
+    }
+
     /**
      * Indicates to the BackOff a successful retry.  This means that the
      * next time we need to retry the minimum time will be used.
@@ -44,11 +94,30 @@ public class BackOff {
      * Gets the number of milliseconds to wait until the next retry.
      * Each time this is called the length of time will increase
      * exponentially but will never exceed the maximum retry time
-     * passed into the constructor.
+     * passed into the constructor.  With FULL jitter the delay is
+     * anywhere from 0 to that time.
      *
      * @return the number of milliseconds to wait until the next retry.
      */
     public long getNext() {
+        switch (m_jitter) {
+        case FULL:
+            return nextLong(0L, grow());
+        case DECORRELATED:
+            long high = (m_next > m_max / 3) ? m_max : m_next * 3;
+            m_next = nextLong(m_min, high);
+            return m_next;
+        default:
+            return grow();
+        }
+    }
+
+    /**
+     * Doubles m_next up to the maximum.
+     *
+     * @return m_next before it was doubled.
+     */
+    protected long grow() {
         long result = m_next;
         if (m_next < m_max) {
             // We need to back off some more.
@@ -60,4 +129,23 @@ public class BackOff {
         }
         return result;
     }
+
+    /**
+     * Picks a number at random.
+     *
+     * @param low the smallest number picked.
+     * @param high the largest number picked.
+     * @return a number from low to high inclusive.
+     */
+    protected long nextLong(long low, long high) {
+        if (high <= low) {
+            return low;
+        }
+        long bound = (high == Long.MAX_VALUE) ? high : high + 1;
+        if (m_random == null) {
+            return ThreadLocalRandom.current().nextLong(low, bound);
+        }
+        // high - low is at most m_max so the remainder's bias is tiny.
+        return low + Math.floorMod(m_random.nextLong(), bound - low);
+    }
 }
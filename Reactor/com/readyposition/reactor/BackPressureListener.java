@@ -0,0 +1,39 @@
+package com.readyposition.reactor;
+
+/**
+ * The interface for objects that want to know when a WorkReactor's
+ * backlog of Work from other threads builds up and drains again, e.g.
+ * to stop reading from the sockets feeding it.  See
+ * WorkReactor.setWatermarks().
+ */
+public interface BackPressureListener {
+    /**
+     * Invoked when the backlog reaches the high watermark.  This is
+     * invoked on the submitting thread that pushed it there.  A typical
+     * response is to submit a Work to the upstream IOReactor that
+     * disables OP_READ on its Valves.
+     *
+     * @param reactor the reactor with the backlog.
+     * @param backlog the number of Works waiting.
+     */
+    public void highWatermark(WorkReactor reactor, int backlog);
+
+    /**
+     * Invoked on the reactor's thread when the backlog falls back to
+     * the low watermark after reaching the high one.
+     *
+     * @param reactor the reactor with the backlog.
+     * @param backlog the number of Works waiting.
+     */
+    public void lowWatermark(WorkReactor reactor, int backlog);
+
+    /**
+     * Invoked on the reactor's thread when a Work is dropped under the
+     * DROP_OLDEST policy.  The Work is pending again and may be
+     * resubmitted.
+     *
+     * @param reactor the reactor that dropped the Work.
+     * @param work the Work that was dropped.
+     */
+    public void workDropped(WorkReactor reactor, Work work);
+}
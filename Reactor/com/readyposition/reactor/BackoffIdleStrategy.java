@@ -0,0 +1,94 @@
+package com.readyposition.reactor;
+
+/**
+ * An IdleStrategy that backs off gradually.  It spins first, then
+ * yields and then parks for exponentially longer periods up to a
+ * maximum.  This keeps the latency low just after a burst of activity
+ * without burning a core once a reactor has been quiet for a while.
+ *
+ * <p>A parked reactor is woken up as usual when work is submitted or
+ * a timer becomes ripe, so the park time only bounds how long the
+ * reactor goes without polling.
+ */
+public class BackoffIdleStrategy implements IdleStrategy
+{
+    /** The default value for m_spins. */
+    public final static int DEFAULT_SPINS = 100;
+
+    /** The default value for m_yields. */
+    public final static int DEFAULT_YIELDS = 10;
+
+    /** The default value for m_minParkTime (1 microsecond). */
+    public final static long DEFAULT_MIN_PARK_TIME = 1000L;
+
+    /** The default value for m_maxParkTime (1 millisecond). */
+    public final static long DEFAULT_MAX_PARK_TIME = 1000000L;
+
+    /** The number of idle passes to spin for. */
+    protected final int m_spins;
+
+    /** The number of idle passes to yield for after spinning. */
+    protected final int m_yields;
+
+    /** The number of nanoseconds for the first park. */
+    protected final long m_minParkTime;
+
+    /** The most nanoseconds to park for at a time. */
+    protected final long m_maxParkTime;
+
+    /**
+     * Constructs a BackoffIdleStrategy.
+     *
+     * @param spins the number of idle passes to spin for.
+     * @param yields the number of idle passes to yield for after
+     *               spinning.
+     * @param minParkTime the number of nanoseconds to park for the
+     *                    first time.  This is doubled on every
+     *                    subsequent idle pass.
+     * @param maxParkTime the most nanoseconds to park for at a time.
+     */
+    public BackoffIdleStrategy(int spins, int yields,
+                               long minParkTime, long maxParkTime)
+    {
+        if (spins < 0 || yields < 0) {
+            throw new IllegalArgumentException(
+                "spins == " + spins + " and yields == " + yields +
+                " need to be >= 0");
+        }
+        if (minParkTime <= 0 || maxParkTime < minParkTime) {
+            throw new IllegalArgumentException(
+                "minParkTime == " + minParkTime + " needs to be > 0 and" +
+                " maxParkTime == " + maxParkTime + " needs to be >= it");
+        }
+        m_spins = spins;
+        m_yields = yields;
+        m_minParkTime = minParkTime;
+        m_maxParkTime = maxParkTime;
+    }
+
+    /** Constructs a BackoffIdleStrategy with the default settings. */
+    public BackoffIdleStrategy() {
+        this(DEFAULT_SPINS, DEFAULT_YIELDS,
+             DEFAULT_MIN_PARK_TIME, DEFAULT_MAX_PARK_TIME);
+    }
+
+    // Javadoc from interface
+    public void idle(WorkReactor reactor, int idleCount) {
+        if (idleCount < m_spins) {
+            Thread.onSpinWait();
+        } else if (idleCount < m_spins + m_yields) {
+            Thread.yield();
+        } else {
+            // Double the park time every pass until it hits the
+            // maximum.  Stop shifting well before it could overflow.
+            int shift = Math.min(idleCount - m_spins - m_yields, 62);
+            long parkTime = m_minParkTime << shift;
+            if (parkTime <= 0 || parkTime > m_maxParkTime ||
+                (parkTime >> shift) != m_minParkTime)
+            {
+                parkTime = m_maxParkTime;
+            }
+            reactor.park(parkTime);
+        }
+    }
+}
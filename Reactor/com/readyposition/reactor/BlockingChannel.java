@@ -0,0 +1,356 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * Lets a connection be handled by straight-line blocking code (read a
+ * request, write a reply, sleep, repeat) instead of a ValveHandler
+ * state machine.  The BlockingHandler runs on a thread of its own.
+ * When it reads or writes and the socket isn't ready, its thread is
+ * parked and the IOReactor that owns the socket unparks it once the
+ * socket's selector says it is.  Sleeps are IOReactor timers.  The
+ * socket stays non-blocking and registered with the reactor's one
+ * Selector, so readiness for every connection is still detected by a
+ * single thread.
+ *
+ * <p>The threads come from a ThreadFactory.  By default each handler
+ * gets a daemon platform thread, which costs a stack per connection.
+ * On a JVM with virtual threads, pass Thread.ofVirtual().factory() to
+ * the constructor to make each handler's thread cheap; parking then
+ * releases the carrier thread.
+ *
+ * <p>Only the handler's own thread may call read(), write() and
+ * sleep().  Interrupting that thread while it is blocked in read() or
+ * write() closes the channel, as it would for an InterruptibleChannel.
+ */
+public class BlockingChannel implements ValveHandler
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(BlockingChannel.class);
+
+    /** The number of bytes read() makes room for by default. */
+    public final static int DEFAULT_READ_LENGTH = 1024;
+
+    /** Used to number the threads made by the default ThreadFactory. */
+    protected final static AtomicInteger s_threadCount = new AtomicInteger();
+
+    /** The IOReactor that detects readiness for the socket. */
+    protected IOReactor m_ioReactor;
+
+    /** The socket being handled. */
+    protected SocketChannel m_socketChannel;
+
+    /** The code that handles the socket. */
+    protected BlockingHandler m_handler;
+
+    /** Makes the thread that the handler runs on. */
+    protected ThreadFactory m_threadFactory;
+
+    /** The thread that the handler runs on once started. */
+    protected volatile Thread m_thread;
+
+    /** The Valve for the socket.  Only changed on the reactor's thread. */
+    protected Valve m_valve;
+
+    /** The operations the handler is waiting for. */
+    protected volatile int m_waitOps;
+
+    /**
+     * Operations the socket has been found ready for that the handler
+     * hasn't consumed yet.
+     */
+    protected AtomicInteger m_readyOps = new AtomicInteger();
+
+    /** Set once the channel has been closed. */
+    protected volatile boolean m_isClosed;
+
+    /**
+     * The number of times await() has asked for m_armWork since it
+     * last read m_waitOps.  m_armWork is only submitted by the request
+     * that finds this at 0, so it is never queued twice.
+     */
+    protected final AtomicInteger m_armRequests = new AtomicInteger();
+
+    /**
+     * Enables the operations the handler is waiting for.  The Valve is
+     * only changed on the reactor's thread so that its record of the
+     * enabled operations is never raced.
+     */
+    protected Work m_armWork = new Work() {
+            public boolean workFire() {
+                int requests = m_armRequests.get();
+                if (m_valve.getIOReactor() == null) {
+                    // Closed underneath us.
+                    m_isClosed = true;
+                    LockSupport.unpark(m_thread);
+                } else {
+                    m_valve.enable(m_waitOps);
+                }
+
+                // Fire again if await() asked after m_waitOps was read.
+                return !m_armRequests.compareAndSet(requests, 0);
+            }
+        };
+
+    /**
+     * Constructs a BlockingChannel whose handler will run on a daemon
+     * platform thread.
+     *
+     * @param ioReactor the IOReactor that will detect readiness.
+     * @param socketChannel a connected socket.
+     * @param handler the code that handles the socket.
+     */
+    public BlockingChannel(IOReactor ioReactor, SocketChannel socketChannel,
+                           BlockingHandler handler)
+    {
+        this(ioReactor, socketChannel, handler, null);
+    }
+
+    /**
+     * Constructs a BlockingChannel.
+     *
+     * @param ioReactor the IOReactor that will detect readiness.
+     * @param socketChannel a connected socket.
+     * @param handler the code that handles the socket.
+     * @param threadFactory makes the thread the handler runs on or null
+     *                      for a daemon platform thread.
+     */
+    public BlockingChannel(IOReactor ioReactor, SocketChannel socketChannel,
+                           BlockingHandler handler, ThreadFactory threadFactory)
+    {
+        m_ioReactor = ioReactor;
+        m_socketChannel = socketChannel;
+        m_handler = handler;
+        if (threadFactory == null) {
+            final String name = ioReactor.getThread().getName() + "_blocking_";
+            threadFactory = new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(
+                            runnable, name + s_threadCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                };
+        }
+        m_threadFactory = threadFactory;
+        m_valve = ioReactor.valveCreate(socketChannel, this);
+    }
+
+    /** Gets the IOReactor that detects readiness for the socket. */
+    public IOReactor getIOReactor() {
+        return m_ioReactor;
+    }
+
+    /** Gets the socket being handled. */
+    public SocketChannel getSocketChannel() {
+        return m_socketChannel;
+    }
+
+    /** Gets the thread the handler runs on or null if not started. */
+    public Thread getThread() {
+        return m_thread;
+    }
+
+    /** Determines if the channel has been closed. */
+    public boolean isClosed() {
+        return m_isClosed;
+    }
+
+    /**
+     * Starts the handler on a new thread.  The channel is closed when
+     * the handler finishes.
+     *
+     * @throws IOException if the socket can't be made non-blocking.
+     * @throws IllegalStateException if the handler was already started.
+     */
+    public synchronized void start() throws IOException {
+        if (m_thread != null) {
+            throw new IllegalStateException(
+                "Attempt to start a BlockingChannel twice.");
+        }
+        m_socketChannel.configureBlocking(false);
+        m_thread = m_threadFactory.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        m_handler.run(BlockingChannel.this);
+                    } catch (Throwable t) {
+                        s_logger.warn(t.toString(), t);
+                    } finally {
+                        close();
+                    }
+                }
+            });
+        m_thread.start();
+    }
+
+    /**
+     * Reads whatever is available, up to DEFAULT_READ_LENGTH bytes,
+     * blocking until there is something to read.
+     *
+     * @param bladder the ByteBladder to read into.
+     * @return the number of bytes read or -1 at end of stream.
+     * @throws IOException if the read failed.
+     */
+    public int read(ByteBladder bladder) throws IOException {
+        return read(bladder, DEFAULT_READ_LENGTH);
+    }
+
+    /**
+     * Reads whatever is available, blocking until there is something
+     * to read.
+     *
+     * @param bladder the ByteBladder to read into.
+     * @param length the number of bytes to make room for.
+     * @return the number of bytes read or -1 at end of stream.
+     * @throws IOException if the read failed.
+     */
+    public int read(ByteBladder bladder, int length) throws IOException {
+        checkThread();
+        for (;;) {
+            int n = bladder.read(m_socketChannel, length);
+            if (n != 0) {
+                return n;
+            }
+            await(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Writes every used byte of a ByteBladder, blocking as long as it
+     * takes for the socket to accept them.
+     *
+     * @param bladder the ByteBladder to write from.
+     * @return the number of bytes written.
+     * @throws IOException if the write failed.
+     */
+    public int write(ByteBladder bladder) throws IOException {
+        checkThread();
+        int total = 0;
+        while (bladder.getUsed() > 0) {
+            int n = bladder.write(m_socketChannel);
+            if (n == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Blocks for a number of milliseconds using a timer on the
+     * IOReactor.
+     *
+     * @param millis the number of milliseconds to sleep for.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void sleep(long millis) throws InterruptedException {
+        checkThread();
+        final Thread thread = m_thread;
+        final AtomicInteger done = new AtomicInteger();
+        Timer timer = m_ioReactor.timerCreateRel(millis, new TimerHandler() {
+                public long timerFire(long scheduledTime, long actualTime) {
+                    done.set(1);
+                    LockSupport.unpark(thread);
+                    return 0L;
+                }
+            });
+        while (done.get() == 0) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                timer.cancel();
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Closes the channel.  A handler blocked in read() or write() gets
+     * an AsynchronousCloseException.  This may be called from any
+     * thread.
+     */
+    public void close() {
+        m_isClosed = true;
+        m_valve.close();
+        Thread thread = m_thread;
+        if (thread != null && thread != Thread.currentThread()) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Invoked on the reactor's thread when the socket is ready.  The
+     * ready operations are disabled again and handed to the handler.
+     */
+    public void valveFire(Valve valve, SelectionKey selectedKey) {
+        int ready = selectedKey.readyOps() & m_waitOps;
+        valve.disable(ready);
+        for (;;) {
+            int ops = m_readyOps.get();
+            if (m_readyOps.compareAndSet(ops, ops | ready)) {
+                break;
+            }
+        }
+        LockSupport.unpark(m_thread);
+    }
+
+    /**
+     * Parks the handler's thread until the socket is ready for an
+     * operation.
+     *
+     * @param ops the operation to wait for.
+     * @throws IOException if the channel was closed or the thread was
+     *                     interrupted while waiting.
+     */
+    protected void await(int ops) throws IOException {
+        if (m_isClosed) {
+            throw new AsynchronousCloseException();
+        }
+        m_waitOps = ops;
+        if (m_armRequests.getAndIncrement() == 0) {
+            m_ioReactor.submitInternal(m_armWork);
+        }
+        for (;;) {
+            int ready = m_readyOps.get();
+            if ((ready & ops) != 0) {
+                if (m_readyOps.compareAndSet(ready, ready & ~ops)) {
+                    return;
+                }
+                continue;
+            }
+            if (m_isClosed) {
+                throw new AsynchronousCloseException();
+            }
+            LockSupport.park(this);
+            if (Thread.currentThread().isInterrupted()) {
+                close();
+                throw new ClosedByInterruptException();
+            }
+        }
+    }
+
+    /**
+     * Makes sure the blocking methods are called by the handler's
+     * thread.
+     *
+     * @throws IllegalStateException if called by another thread.
+     */
+    protected void checkThread() {
+        if (m_thread != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Attempt to block on a BlockingChannel outside its handler.");
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.readyposition.reactor;
+
+/**
+ * The interface for connection handlers written as straight-line
+ * blocking code rather than as a ValveHandler state machine.  See
+ * BlockingChannel.
+ */
+public interface BlockingHandler {
+    /**
+     * Handles a connection from start to finish.  This is invoked on a
+     * thread of its own, not on the reactor's thread, so it may block
+     * in the BlockingChannel's read(), write() and sleep() methods.
+     * The channel is closed when this returns or throws.
+     *
+     * @param channel the connection to handle.
+     * @throws Exception if the connection failed.  The exception is
+     *                   logged.
+     */
+    public void run(BlockingChannel channel) throws Exception;
+}
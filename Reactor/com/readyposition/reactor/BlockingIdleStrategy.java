@@ -0,0 +1,15 @@
+package com.readyposition.reactor;
+
+/**
+ * An IdleStrategy that blocks until work is submitted, a timer
+ * becomes ripe or (for an IOReactor) a channel becomes ready.  This is
+ * the default strategy for every reactor.  Timers that are due within
+ * the reactor's spin time are still waited out by spinning.
+ */
+public class BlockingIdleStrategy implements IdleStrategy
+{
+    // Javadoc from interface
+    public void idle(WorkReactor reactor, int idleCount) {
+        reactor.park(-1L);
+    }
+}
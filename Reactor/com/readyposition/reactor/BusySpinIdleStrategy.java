@@ -0,0 +1,15 @@
+package com.readyposition.reactor;
+
+/**
+ * An IdleStrategy that never gives up the CPU.  This gives the lowest
+ * latency for a reactor whose thread has a core to itself.  Since the
+ * reactor thread never blocks, other threads never have to wake it up
+ * when they submit work.
+ */
+public class BusySpinIdleStrategy implements IdleStrategy
+{
+    // Javadoc from interface
+    public void idle(WorkReactor reactor, int idleCount) {
+        Thread.onSpinWait();
+    }
+}
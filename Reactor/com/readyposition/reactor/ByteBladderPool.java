@@ -0,0 +1,106 @@
+package com.readyposition.reactor;
+
+import java.util.ArrayList;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * A pool of direct ByteBladders.  Direct buffers are expensive to
+ * allocate and are only released when the garbage collector gets
+ * around to it, so connections that need one only now and then (e.g.
+ * to hold bytes the socket wouldn't take) borrow one from the pool and
+ * give it back once it's empty.  Idle connections then hold no
+ * buffers at all.
+ *
+ * <p>This is not thread safe.  Each IOReactor's channels share a pool
+ * used only on that reactor's thread.
+ */
+public class ByteBladderPool
+{
+    /** The default value for m_maxPooled. */
+    public final static int DEFAULT_MAX_POOLED = 64;
+
+    /** The initial capacity of each ByteBladder. */
+    protected final int m_capacity;
+
+    /** The most idle ByteBladders kept for reuse. */
+    protected final int m_maxPooled;
+
+    /** The idle ByteBladders. */
+    protected final ArrayList<ByteBladder> m_pool = new ArrayList<ByteBladder>();
+
+    /** The number of ByteBladders allocated. */
+    protected long m_allocateCount;
+
+    /**
+     * Constructs a ByteBladderPool that keeps up to
+     * DEFAULT_MAX_POOLED idle ByteBladders.
+     *
+     * @param capacity the initial capacity of each ByteBladder.
+     */
+    public ByteBladderPool(int capacity) {
+        this(capacity, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Constructs a ByteBladderPool.
+     *
+     * @param capacity the initial capacity of each ByteBladder.
+     * @param maxPooled the most idle ByteBladders kept for reuse.
+     */
+    public ByteBladderPool(int capacity, int maxPooled) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity == " + capacity +
+                                               " needs to be > 0");
+        }
+        if (maxPooled < 0) {
+            throw new IllegalArgumentException("maxPooled == " + maxPooled +
+                                               " needs to be >= 0");
+        }
+        m_capacity = capacity;
+        m_maxPooled = maxPooled;
+    }
+
+    /** Gets the initial capacity of each ByteBladder. */
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /** Gets the number of idle ByteBladders in the pool. */
+    public int getPooledCount() {
+        return m_pool.size();
+    }
+
+    /** Gets the number of ByteBladders allocated. */
+    public long getAllocateCount() {
+        return m_allocateCount;
+    }
+
+    /**
+     * Takes an empty ByteBladder from the pool, allocating one if the
+     * pool is empty.
+     *
+     * @return an empty direct ByteBladder.
+     */
+    public ByteBladder acquire() {
+        int size = m_pool.size();
+        if (size > 0) {
+            return m_pool.remove(size - 1);
+        }
+        m_allocateCount++;
+        return new ByteBladder(m_capacity, true);
+    }
+
+    /**
+     * Gives a ByteBladder back to the pool.  Its contents are
+     * discarded.  The caller must not use it again.
+     *
+     * @param bladder the ByteBladder.
+     */
+    public void release(ByteBladder bladder) {
+        bladder.clear();
+        if (m_pool.size() < m_maxPooled) {
+            m_pool.add(bladder);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.readyposition.reactor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The Work behind Reactor.submitAsync().  It calls a Callable once and
+ * completes a future with the outcome.  If the future is completed
+ * first (e.g. canceled by the caller) the Callable isn't called.  If
+ * the reactor drops it the future is completed with a
+ * RejectedExecutionException.
+ *
+ * @param <T> the type of the result.
+ */
+class CallableWork<T> extends Work {
+    /** What to call. */
+    protected final Callable<T> m_callable;
+
+    /** Completed with whatever the Callable returns or throws. */
+    protected final CompletableFuture<T> m_future = new CompletableFuture<T>();
+
+    /**
+     * Constructor.
+     *
+     * @param callable what to call.
+     */
+    CallableWork(Callable<T> callable) {
+        m_callable = callable;
+    }
+
+    /** Gets the future completed by this Work. */
+    CompletableFuture<T> getFuture() {
+        return m_future;
+    }
+
+    // Javadoc from interface
+    public boolean workFire() {
+        if (m_future.isDone()) {
+            return false;
+        }
+        try {
+            m_future.complete(m_callable.call());
+        } catch (Throwable t) {
+            m_future.completeExceptionally(t);
+        }
+        return false;
+    }
+
+    // Javadoc from superclass
+    protected void workDropped() {
+        m_future.completeExceptionally(
+            new RejectedExecutionException("Dropped by a full backlog"));
+    }
+}
@@ -0,0 +1,432 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.InvalidMarkException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * A connection that runs the bytes it reads through a chain of
+ * Decoders and the messages it writes through a chain of Encoders, so
+ * that peers deal in messages rather than parsing bytes in
+ * valveFire().
+ *
+ * <p>Bytes are read into a direct ByteBladder.  After each read the
+ * first Decoder picks out as many whole messages as the bladder holds,
+ * each is passed through the rest of the chain and handed to the
+ * CodecHandler in place as a Frame, and its bytes are then consumed.
+ * Whatever is left over waits for the next read.  Nothing is copied
+ * and nothing is allocated per message.
+ *
+ * <p>To write a message call beginMessage(), which reserves room for
+ * the Encoders' headers, append the message to the ByteBladder it
+ * returns and call endMessage().  The Encoders then fill in their
+ * headers and trailers and the bytes are written as far as the socket
+ * will take them, the rest when the socket is writable again.
+ *
+ * <p>Every method must be invoked on the IOReactor's thread.  Other
+ * threads can submit a Work to that reactor.
+ */
+public class CodecChannel implements ValveHandler
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(CodecChannel.class);
+
+    /** The default value for m_readSize. */
+    public final static int DEFAULT_READ_SIZE = 8192;
+
+    /** The IOReactor that detects readiness for the socket. */
+    protected IOReactor m_ioReactor;
+
+    /** The socket being handled. */
+    protected SocketChannel m_socketChannel;
+
+    /** Handles the decoded messages. */
+    protected CodecHandler m_handler;
+
+    /** The Valve for the socket. */
+    protected Valve m_valve;
+
+    /** The inbound chain, starting with the framer. */
+    protected Decoder[] m_decoders;
+
+    /** The outbound chain, ending with the framer. */
+    protected Encoder[] m_encoders;
+
+    /**
+     * Where each Encoder's header is relative to the start of a
+     * message.  The last Encoder's header comes first.
+     */
+    protected int[] m_headerOffsets;
+
+    /** The total length of the Encoders' headers. */
+    protected int m_headerLength;
+
+    /** The bytes read and not yet consumed. */
+    protected ByteBladder m_in = new ByteBladder(true);
+
+    /** The bytes encoded and not yet written. */
+    protected ByteBladder m_out = new ByteBladder(true);
+
+    /** Reused for every message decoded. */
+    protected Frame m_frame = new Frame();
+
+    /** The least room to make in m_in for each read. */
+    protected int m_readSize = DEFAULT_READ_SIZE;
+
+    /**
+     * Where the message being written starts relative to m_out's
+     * 'out' or -1 if none is.
+     */
+    protected int m_messageStart = -1;
+
+    /** The number of messages decoded. */
+    protected long m_messageCount;
+
+    /** Set once the channel has been closed. */
+    protected boolean m_isClosed;
+
+    /**
+     * Constructs a CodecChannel.  Call start() to begin reading.
+     *
+     * @param ioReactor the IOReactor that will detect readiness.
+     * @param socketChannel a connected socket.
+     * @param handler handles the decoded messages.
+     * @param decoders the inbound chain, starting with the framer.
+     * @param encoders the outbound chain, ending with the framer.
+     */
+    public CodecChannel(IOReactor ioReactor, SocketChannel socketChannel,
+                        CodecHandler handler, Decoder[] decoders,
+                        Encoder[] encoders)
+    {
+        if (decoders.length == 0) {
+            throw new IllegalArgumentException("decoders.length == " +
+                                               decoders.length +
+                                               " needs to be > 0");
+        }
+        m_ioReactor = ioReactor;
+        m_socketChannel = socketChannel;
+        m_handler = handler;
+        m_decoders = decoders.clone();
+        m_encoders = encoders.clone();
+        m_headerOffsets = new int[m_encoders.length];
+        for (int i = m_encoders.length - 1; i >= 0; i--) {
+            m_headerOffsets[i] = m_headerLength;
+            m_headerLength += m_encoders[i].getHeaderLength();
+        }
+        m_valve = ioReactor.valveCreate(socketChannel, this);
+    }
+
+    /** Gets the IOReactor that detects readiness for the socket. */
+    public IOReactor getIOReactor() {
+        return m_ioReactor;
+    }
+
+    /** Gets the socket being handled. */
+    public SocketChannel getSocketChannel() {
+        return m_socketChannel;
+    }
+
+    /** Determines if the channel has been closed. */
+    public boolean isClosed() {
+        return m_isClosed;
+    }
+
+    /** Gets the number of messages decoded. */
+    public long getMessageCount() {
+        return m_messageCount;
+    }
+
+    /** Gets the number of encoded bytes not yet written. */
+    public int getQueuedBytes() {
+        return m_out.getUsed();
+    }
+
+    /**
+     * Sets the least room to make in the inbound bladder for each
+     * read.  The bladder grows beyond this when a message needs more.
+     *
+     * @param readSize the number of bytes.
+     */
+    public void setReadSize(int readSize) {
+        if (readSize <= 0) {
+            throw new IllegalArgumentException("readSize == " + readSize +
+                                               " needs to be > 0");
+        }
+        m_readSize = readSize;
+    }
+
+    /** Gets the least room made in the inbound bladder for each read. */
+    public int getReadSize() {
+        return m_readSize;
+    }
+
+    /**
+     * Sets the byte order of both bladders, and so of the length
+     * prefixes and any other multi-byte values the codecs and the
+     * handler get and put.  ByteBladders default to little endian.
+     *
+     * @param byteOrder the ByteOrder, e.g. ByteOrder.BIG_ENDIAN for
+     *                  network byte order.
+     */
+    public void setByteOrder(ByteOrder byteOrder) {
+        m_in.setByteOrder(byteOrder);
+        m_out.setByteOrder(byteOrder);
+    }
+
+    /** Gets the byte order of both bladders. */
+    public ByteOrder getByteOrder() {
+        return m_in.getByteOrder();
+    }
+
+    /**
+     * Makes the socket non-blocking and starts reading.
+     *
+     * @throws IOException if the socket can't be made non-blocking.
+     */
+    public void start() throws IOException {
+        checkThread();
+        m_socketChannel.configureBlocking(false);
+        m_valve.enable(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Stops or restarts reading, e.g. while too many bytes are waiting
+     * to be written.
+     *
+     * @param isEnabled true to read.
+     */
+    public void setReadEnabled(boolean isEnabled) {
+        checkThread();
+        if (isEnabled) {
+            m_valve.enable(SelectionKey.OP_READ);
+        } else {
+            m_valve.disable(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Starts a message.  Room is reserved for the Encoders' headers
+     * and the message is appended to the ByteBladder returned, after
+     * which endMessage() must be called.
+     *
+     * @return the bladder to append the message to.
+     * @throws IllegalStateException if the channel has been closed or
+     *         the last message hasn't been ended.
+     */
+    public ByteBladder beginMessage() {
+        checkThread();
+        if (m_isClosed) {
+            throw new IllegalStateException(
+                "Attempt to write to a closed CodecChannel.");
+        }
+        if (m_messageStart != -1) {
+            throw new IllegalStateException(
+                "Attempt to begin a message before ending the last one.");
+        }
+        m_messageStart = m_out.getUsed();
+
+        // Marks where to roll back to if an Encoder throws.  Making
+        // room keeps the in mark in step as the bladder compacts.
+        m_out.markIn();
+        for (int i = 0; i < m_headerLength; i++) {
+            m_out.putByte((byte)0);
+        }
+        return m_out;
+    }
+
+    /**
+     * Ends the message started by beginMessage().  The Encoders fill
+     * in their headers and trailers and the bytes are written as far
+     * as the socket will take them.
+     *
+     * If an Encoder throws, the message is discarded and the exception
+     * is passed on.
+     *
+     * @throws IllegalStateException if no message has been begun.
+     */
+    public void endMessage() {
+        checkThread();
+        if (m_messageStart == -1) {
+            throw new IllegalStateException(
+                "Attempt to end a message that wasn't begun.");
+        }
+        int start = m_messageStart;
+        try {
+            for (int i = 0; i < m_encoders.length; i++) {
+                Encoder encoder = m_encoders[i];
+                int offset = start + m_headerOffsets[i];
+                int bodyOffset = offset + encoder.getHeaderLength();
+                encoder.encode(m_out, offset, m_out.getUsed() - bodyOffset);
+            }
+        } catch (Throwable t) {
+            discardMessage();
+            throw t;
+        }
+        m_messageStart = -1;
+        flush();
+    }
+
+    /**
+     * Takes a half-encoded message back out of m_out so that flush()
+     * never sends it.
+     */
+    protected void discardMessage() {
+        try {
+            m_out.resetIn();
+        } catch (InvalidMarkException e) {
+            // Something consumed m_out mid-message so there's no
+            // telling where the message starts.  Don't send a corrupt
+            // stream.
+            s_logger.warn("Lost the start of a message, closing " +
+                          m_socketChannel);
+            close();
+        }
+        m_messageStart = -1;
+    }
+
+    /**
+     * Writes as much of what has been encoded as the socket will take.
+     * OP_WRITE is enabled while anything is left.  Nothing is written
+     * while a message is part way through being written since its
+     * headers are still to be filled in.
+     *
+     * @return the number of bytes written or -1 if the write failed.
+     */
+    public int flush() {
+        checkThread();
+        if (m_isClosed || m_messageStart != -1) {
+            return 0;
+        }
+        int n = 0;
+        if (m_out.getUsed() > 0) {
+            try {
+                n = m_out.write(m_socketChannel);
+            } catch (IOException e) {
+                fail(e);
+                return -1;
+            }
+        }
+        if (m_out.getUsed() == 0) {
+            m_out.clear();
+            m_valve.disable(SelectionKey.OP_WRITE);
+        } else {
+            m_valve.enable(SelectionKey.OP_WRITE);
+        }
+        return n;
+    }
+
+    /**
+     * Reads what the socket has and hands every whole message to the
+     * handler.
+     */
+    protected void read() {
+        int n;
+        try {
+            n = m_in.read(m_socketChannel, m_readSize);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (n < 0) {
+            fail(null);
+            return;
+        }
+        try {
+            decode();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Decodes and hands on as many whole messages as m_in holds.
+     *
+     * @throws IOException if a Decoder failed.
+     */
+    protected void decode() throws IOException {
+        Frame frame = m_frame;
+        Decoder framer = m_decoders[0];
+        while (!m_isClosed) {
+            int used = m_in.getUsed();
+            if (used == 0) {
+                // Start again at the front of the buffer.
+                m_in.clear();
+                break;
+            }
+            // The handler may have narrowed the bladder's ByteBuffer
+            // (see Frame.getBuffer()), which would stop the framer
+            // looking past the last message.
+            m_in.getOutBuffer();
+            frame.set(0, used);
+            int consumed = framer.decode(m_in, frame);
+            if (consumed == 0) {
+                break;
+            }
+            boolean isDropped = false;
+            for (int i = 1; i < m_decoders.length && !isDropped; i++) {
+                isDropped = (m_decoders[i].decode(m_in, frame) == 0);
+            }
+            if (!isDropped) {
+                m_messageCount++;
+                m_handler.messageReceived(this, m_in, frame);
+            }
+            if (!m_isClosed) {
+                m_in.consume(consumed);
+            }
+        }
+    }
+
+    /** Closes the channel, discarding anything not yet written. */
+    public void close() {
+        m_isClosed = true;
+        m_valve.close();
+        m_in.clear();
+        m_out.clear();
+        m_messageStart = -1;
+    }
+
+    /**
+     * Closes the channel and tells the handler.
+     *
+     * @param e why the channel closed or null at end of stream.
+     */
+    protected void fail(IOException e) {
+        close();
+        try {
+            m_handler.closed(this, e);
+        } catch (Throwable t) {
+            s_logger.warn(t.toString(), t);
+        }
+    }
+
+    // Javadoc from interface
+    public void valveFire(Valve valve, SelectionKey selectedKey) {
+        int ops = selectedKey.readyOps();
+        if ((ops & SelectionKey.OP_WRITE) != 0) {
+            flush();
+        }
+        if ((ops & SelectionKey.OP_READ) != 0 && !m_isClosed) {
+            read();
+        }
+    }
+
+    /**
+     * Makes sure the channel is used on the reactor's thread.
+     *
+     * @throws IllegalStateException if called by another thread.
+     */
+    protected void checkThread() {
+        if (m_ioReactor.getThread() != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Attempt to use a CodecChannel outside its reactor.");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * The interface for objects that handle the messages decoded by a
+ * CodecChannel.  Every method is invoked on the IOReactor's thread.
+ */
+public interface CodecHandler
+{
+    /**
+     * Invoked for each message decoded.  The message is read in place
+     * and its bytes are consumed as soon as this returns, so anything
+     * worth keeping needs to be copied out.
+     *
+     * @param channel the channel the message arrived on.
+     * @param in the bladder holding the message.
+     * @param frame where the message is in the bladder.
+     */
+    public void messageReceived(CodecChannel channel, ByteBladder in,
+                                Frame frame);
+
+    /**
+     * Invoked when the channel has closed because the peer did, or
+     * because reading, decoding or writing failed.
+     *
+     * @param channel the channel that closed.
+     * @param e why it closed or null at end of stream.
+     */
+    public void closed(CodecChannel channel, IOException e);
+}
@@ -0,0 +1,186 @@
+package com.readyposition.reactor;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the connection attempts a process makes to each destination,
+ * so that when a server comes back the clients that lost it reconnect
+ * at a steady rate rather than all at once.  One ConnectThrottle is
+ * meant to be shared by every Connector in the process, on any number
+ * of reactors.
+ *
+ * <p>Each destination has a token bucket and a cap on attempts in
+ * flight.  An attempt takes a token, which are added at a fixed rate
+ * up to a burst, and counts as in flight until release() is invoked
+ * once it has connected or failed.  An attempt that isn't allowed is
+ * told how long to wait, with some jitter so that those waiting don't
+ * all come back at the same moment.
+ *
+ * <p>This is thread safe.  Destinations are kept for the life of the
+ * throttle.
+ */
+public class ConnectThrottle
+{
+    /** The attempts allowed per second to each destination. */
+    protected final double m_rate;
+
+    /** The most tokens a destination's bucket holds. */
+    protected final int m_burst;
+
+    /** The most attempts in flight to each destination. */
+    protected final int m_maxInFlight;
+
+    /** The state of each destination. */
+    protected final ConcurrentHashMap<SocketAddress, Bucket> m_buckets =
+        new ConcurrentHashMap<SocketAddress, Bucket>();
+
+    /** The number of attempts told to wait. */
+    protected final AtomicLong m_deniedCount = new AtomicLong();
+
+    /**
+     * Constructs a ConnectThrottle.
+     *
+     * @param rate the attempts allowed per second to each destination.
+     * @param burst the most attempts allowed at once to a destination
+     *              that has been quiet.
+     * @param maxInFlight the most attempts in flight to each
+     *                    destination.
+     */
+    public ConnectThrottle(double rate, int burst, int maxInFlight) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate == " + rate +
+                                               " needs to be > 0");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst == " + burst +
+                                               " needs to be > 0");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight == " +
+                                               maxInFlight +
+                                               " needs to be > 0");
+        }
+        m_rate = rate;
+        m_burst = burst;
+        m_maxInFlight = maxInFlight;
+    }
+
+    /** Gets the number of attempts told to wait so far. */
+    public long getDeniedCount() {
+        return m_deniedCount.get();
+    }
+
+    /**
+     * Gets the number of attempts in flight to a destination.
+     *
+     * @param address the destination.
+     * @return the number of attempts in flight.
+     */
+    public int getInFlight(SocketAddress address) {
+        Bucket bucket = m_buckets.get(address);
+        return (bucket == null) ? 0 : bucket.getInFlight();
+    }
+
+    /**
+     * Asks to start a connection attempt.  If it's allowed, release()
+     * must be invoked once the attempt has connected or failed.
+     *
+     * @param address the destination.
+     * @return 0 if the attempt may go ahead or else the number of
+     *         milliseconds to wait before asking again.
+     */
+    public long tryAcquire(SocketAddress address) {
+        Bucket bucket = m_buckets.get(address);
+        if (bucket == null) {
+            Bucket created = new Bucket(m_burst, System.nanoTime());
+            bucket = m_buckets.putIfAbsent(address, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        long wait = bucket.tryAcquire(System.nanoTime());
+        if (wait == 0L) {
+            return 0L;
+        }
+        m_deniedCount.incrementAndGet();
+
+        // Spread out those that were told to wait together.
+        return wait + ThreadLocalRandom.current().nextLong(wait + 1);
+    }
+
+    /**
+     * Ends a connection attempt that tryAcquire() allowed.
+     *
+     * @param address the destination.
+     */
+    public void release(SocketAddress address) {
+        Bucket bucket = m_buckets.get(address);
+        if (bucket != null) {
+            bucket.release();
+        }
+    }
+
+    /** The token bucket and attempts in flight of one destination. */
+    protected class Bucket {
+        /** The tokens available. */
+        protected double m_tokens;
+
+        /** When m_tokens was last brought up to date, in nanoseconds. */
+        protected long m_updateTime;
+
+        /** The attempts in flight. */
+        protected int m_inFlight;
+
+        /**
+         * Constructs a Bucket.
+         *
+         * @param tokens the tokens available to start with.
+         * @param now the current time in nanoseconds.
+         */
+        protected Bucket(double tokens, long now) {
+            m_tokens = tokens;
+            m_updateTime = now;
+        }
+
+        /**
+         * Takes a token and counts an attempt in flight if both are
+         * available.
+         *
+         * @param now the current time in nanoseconds.
+         * @return 0 if the attempt may go ahead or else the number of
+         *         milliseconds until it might.
+         */
+        protected synchronized long tryAcquire(long now) {
+            m_tokens = Math.min(m_burst, m_tokens +
+                                (now - m_updateTime) * m_rate / 1e9);
+            m_updateTime = now;
+            if (m_inFlight >= m_maxInFlight) {
+                // No telling when one will finish.  Check back at the
+                // pace tokens are added.
+                return Math.max(1L, (long)Math.ceil(1000.0 / m_rate));
+            }
+            if (m_tokens < 1.0) {
+                return Math.max(1L, (long)Math.ceil(
+                                    (1.0 - m_tokens) * 1000.0 / m_rate));
+            }
+            m_tokens -= 1.0;
+            m_inFlight++;
+            return 0L;
+        }
+
+        /** Counts the end of an attempt. */
+        protected synchronized void release() {
+            if (m_inFlight > 0) {
+                m_inFlight--;
+            }
+        }
+
+        /** Gets the attempts in flight. */
+        protected synchronized int getInFlight() {
+            return m_inFlight;
+        }
+    }
+}
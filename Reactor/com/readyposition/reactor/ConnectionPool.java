@@ -0,0 +1,676 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of client connections, kept per remote address, spread
+ * across the reactors of an IOReactorGroup.  Connections are opened
+ * with a Connector as they're needed and kept open once released so
+ * that later requests don't pay to connect again.
+ *
+ * <p>Each reactor has its own part of the pool, which only its thread
+ * touches, so there is no locking.  acquire() may be invoked from any
+ * thread.  A caller on one of the group's reactors is served from that
+ * reactor's part, others are dealt out to the reactors in turn.  While
+ * a part has no idle connection to the address callers wait in FIFO
+ * order, each for no longer than its timeout, and more connections are
+ * opened up to the maximum per address per reactor.  The most recently
+ * released connection is handed out first so that it's the least used
+ * ones that go idle long enough to be closed.
+ *
+ * <p>Every check interval a timer on each reactor closes connections
+ * that have been idle too long, closes connections whose oldest
+ * request has waited too long for a response and gives subclasses a
+ * chance to check the rest (see checkHealth()).
+ *
+ * <p>Subclasses supply the framing of requests and responses with
+ * createDecoders() and createEncoders().
+ */
+public abstract class ConnectionPool
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(ConnectionPool.class);
+
+    /** The default value for m_maxConnections. */
+    public final static int DEFAULT_MAX_CONNECTIONS = 8;
+
+    /** The default value for m_maxIdleTime. */
+    public final static long DEFAULT_MAX_IDLE_TIME = 60000L;
+
+    /** The default value for m_requestTimeout. */
+    public final static long DEFAULT_REQUEST_TIMEOUT = 30000L;
+
+    /** The default value for m_checkInterval. */
+    public final static long DEFAULT_CHECK_INTERVAL = 1000L;
+
+    /** The reactors the connections are spread across. */
+    protected final IOReactorGroup m_group;
+
+    /** The part of the pool for each reactor of the group. */
+    protected final Shard[] m_shards;
+
+    /** Picks the part of the pool for callers off the group's threads. */
+    protected final AtomicInteger m_next = new AtomicInteger();
+
+    /** The most connections to an address per reactor. */
+    protected volatile int m_maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    /** Milliseconds before an idle connection is closed. */
+    protected volatile long m_maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+    /**
+     * Milliseconds a connection may go without a response while
+     * requests are waiting or 0 for no limit.
+     */
+    protected volatile long m_requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    /** Milliseconds between checks of the connections. */
+    protected volatile long m_checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    /** The number of connections opened. */
+    protected final AtomicLong m_connectCount = new AtomicLong();
+
+    /** Limits the connection attempts to each address or null. */
+    protected volatile ConnectThrottle m_throttle;
+
+    /** Set once the pool has been closed. */
+    protected volatile boolean m_isClosed;
+
+    /**
+     * Constructs a ConnectionPool.
+     *
+     * @param group the reactors to spread the connections across.
+     */
+    public ConnectionPool(IOReactorGroup group) {
+        m_group = group;
+        m_shards = new Shard[group.getSize()];
+        for (int i = 0; i < m_shards.length; i++) {
+            m_shards[i] = new Shard(group.getIOReactor(i));
+        }
+    }
+
+    /** Gets the reactors the connections are spread across. */
+    public IOReactorGroup getGroup() {
+        return m_group;
+    }
+
+    /** Gets the number of connections opened so far. */
+    public long getConnectCount() {
+        return m_connectCount.get();
+    }
+
+    /**
+     * Sets the most connections to an address per reactor.
+     *
+     * @param maxConnections the limit.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections == " +
+                                               maxConnections +
+                                               " needs to be > 0");
+        }
+        m_maxConnections = maxConnections;
+    }
+
+    /** Gets the most connections to an address per reactor. */
+    public int getMaxConnections() {
+        return m_maxConnections;
+    }
+
+    /**
+     * Sets a ConnectThrottle, which may be shared with other pools and
+     * Connectors, to limit the attempts to connect to each address.
+     *
+     * @param throttle the ConnectThrottle or null for no limit.
+     */
+    public void setThrottle(ConnectThrottle throttle) {
+        m_throttle = throttle;
+    }
+
+    /** Gets the ConnectThrottle or null if there is none. */
+    public ConnectThrottle getThrottle() {
+        return m_throttle;
+    }
+
+    /**
+     * Sets how long connections are checked and how long they may go
+     * unused or without a response.  The check interval takes effect
+     * from the next check.
+     *
+     * @param maxIdleTime milliseconds before an idle connection is
+     *                    closed.
+     * @param requestTimeout milliseconds a connection may go without a
+     *                       response while requests are waiting or 0
+     *                       for no limit.
+     * @param checkInterval milliseconds between checks.
+     */
+    public void setTimeouts(long maxIdleTime, long requestTimeout,
+                            long checkInterval)
+    {
+        if (maxIdleTime <= 0) {
+            throw new IllegalArgumentException("maxIdleTime == " +
+                                               maxIdleTime +
+                                               " needs to be > 0");
+        }
+        if (requestTimeout < 0) {
+            throw new IllegalArgumentException("requestTimeout == " +
+                                               requestTimeout +
+                                               " needs to be >= 0");
+        }
+        if (checkInterval <= 0) {
+            throw new IllegalArgumentException("checkInterval == " +
+                                               checkInterval +
+                                               " needs to be > 0");
+        }
+        m_maxIdleTime = maxIdleTime;
+        m_requestTimeout = requestTimeout;
+        m_checkInterval = checkInterval;
+    }
+
+    /**
+     * Asks for a connection to an address.  The handler is told on the
+     * connection's reactor thread, possibly before this returns, unless
+     * the reactor's backlog is full and refuses the request, in which
+     * case acquireFailed() is invoked on this thread.
+     *
+     * @param address the address to connect to.
+     * @param timeout the most milliseconds to wait.
+     * @param handler told of the connection or why there isn't one.
+     */
+    public void acquire(final SocketAddress address, final long timeout,
+                        final AcquireHandler handler)
+    {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout == " + timeout +
+                                               " needs to be > 0");
+        }
+        final Shard shard = chooseShard();
+        if (shard.m_ioReactor.getThread() == Thread.currentThread()) {
+            shard.acquire(address, timeout, handler);
+            return;
+        }
+        try {
+            // Never run on this thread, whatever the reactor's policy.
+            shard.m_ioReactor.workSubmitOnThread(new Work() {
+                    public boolean workFire() {
+                        shard.acquire(address, timeout, handler);
+                        return false;
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            // The reactor's backlog is full.
+            handler.acquireFailed(e);
+        }
+    }
+
+    /**
+     * Closes every connection and fails every caller still waiting.
+     * This may be invoked from any thread and completes on each
+     * reactor's thread.
+     */
+    public void close() {
+        m_isClosed = true;
+        for (final Shard shard : m_shards) {
+            if (shard.m_ioReactor.getThread() == Thread.currentThread()) {
+                shard.close();
+            } else {
+                // Housekeeping, so never refused or run on this thread.
+                shard.m_ioReactor.submitInternal(new Work() {
+                        public boolean workFire() {
+                            shard.close();
+                            return false;
+                        }
+                    });
+            }
+        }
+    }
+
+    /**
+     * Picks the part of the pool to serve the calling thread.
+     *
+     * @return the Shard of the caller's reactor if it is one of the
+     *         group's, otherwise the next Shard in turn.
+     */
+    protected Shard chooseShard() {
+        Thread current = Thread.currentThread();
+        for (Shard shard : m_shards) {
+            if (shard.m_ioReactor.getThread() == current) {
+                return shard;
+            }
+        }
+        return m_shards[Math.floorMod(m_next.getAndIncrement(),
+                                      m_shards.length)];
+    }
+
+    /**
+     * Creates the inbound chain for a new connection, starting with the
+     * framer that picks out responses.
+     *
+     * @return the Decoders.
+     */
+    protected abstract Decoder[] createDecoders();
+
+    /**
+     * Creates the outbound chain for a new connection, ending with the
+     * framer that frames requests.
+     *
+     * @return the Encoders.
+     */
+    protected abstract Encoder[] createEncoders();
+
+    /**
+     * Invoked right after a socket is created and before it connects
+     * to allow customization of socket options.  This implementation
+     * turns on TCP_NODELAY since pooled connections carry small
+     * requests.
+     *
+     * @param socketChannel the SocketChannel to set up.
+     */
+    protected void setup(SocketChannel socketChannel) {
+        try {
+            socketChannel.socket().setTcpNoDelay(true);
+        } catch (Throwable t) {
+            s_logger.warn("Couldn't enable TCP_NODELAY", t);
+        }
+    }
+
+    /**
+     * Invoked once a connection is open and before it is handed out,
+     * e.g. to set the byte order of its CodecChannel.  This
+     * implementation does nothing.
+     *
+     * @param connection the new connection.
+     */
+    protected void connectionCreated(PooledConnection connection) {}
+
+    /**
+     * Invoked at every check for each connection that is idle in the
+     * pool and hasn't been idle too long.  A subclass may send a ping
+     * with beginRequest() and endRequest(): if the answer doesn't come
+     * back within the request timeout the connection is closed.  This
+     * implementation does nothing, since a connection the peer has
+     * closed is noticed as soon as it happens.
+     *
+     * @param connection the idle connection.
+     */
+    protected void checkHealth(PooledConnection connection) {}
+
+    /**
+     * The part of the pool that belongs to one reactor.  Only that
+     * reactor's thread uses it.
+     */
+    protected class Shard implements TimerHandler {
+        /** The reactor the part belongs to. */
+        protected final IOReactor m_ioReactor;
+
+        /** The connections to each address. */
+        protected final HashMap<SocketAddress, Host> m_hosts =
+            new HashMap<SocketAddress, Host>();
+
+        /** Checks the connections or null before the first is made. */
+        protected Timer m_checkTimer;
+
+        /**
+         * Constructs a Shard.
+         *
+         * @param ioReactor the reactor the part belongs to.
+         */
+        protected Shard(IOReactor ioReactor) {
+            m_ioReactor = ioReactor;
+        }
+
+        /**
+         * Hands out a connection or queues the caller.
+         *
+         * @param address the address to connect to.
+         * @param timeout the most milliseconds to wait.
+         * @param handler told of the connection or why there isn't one.
+         */
+        protected void acquire(SocketAddress address, long timeout,
+                               AcquireHandler handler)
+        {
+            if (m_isClosed) {
+                handler.acquireFailed(new ClosedChannelException());
+                return;
+            }
+            Host host = m_hosts.get(address);
+            if (host == null) {
+                host = new Host(this, address);
+                m_hosts.put(address, host);
+            }
+            if (m_checkTimer == null) {
+                m_checkTimer = m_ioReactor.timerCreateRel(m_checkInterval,
+                                                          this);
+            }
+            host.acquire(new Waiter(host, timeout, handler));
+        }
+
+        /** Closes every connection and fails every waiting caller. */
+        protected void close() {
+            if (m_checkTimer != null) {
+                m_checkTimer.cancel();
+                m_checkTimer = null;
+            }
+            for (Host host : new ArrayList<Host>(m_hosts.values())) {
+                host.close();
+            }
+            m_hosts.clear();
+        }
+
+        // Javadoc from interface
+        public long timerFire(long scheduledTime, long actualTime) {
+            if (m_isClosed) {
+                m_checkTimer = null;
+                return 0L;
+            }
+            for (Host host : new ArrayList<Host>(m_hosts.values())) {
+                host.check(actualTime);
+            }
+            return actualTime + m_checkInterval;
+        }
+    }
+
+    /** A caller waiting for a connection. */
+    protected class Waiter implements TimerHandler {
+        /** The part of the pool waited on. */
+        protected final Host m_host;
+
+        /** The milliseconds the caller is prepared to wait. */
+        protected final long m_timeout;
+
+        /** Told of the connection or why there isn't one. */
+        protected final AcquireHandler m_handler;
+
+        /** Fires when the caller has waited too long. */
+        protected Timer m_timer;
+
+        /**
+         * Constructs a Waiter.
+         *
+         * @param host the part of the pool waited on.
+         * @param timeout the most milliseconds to wait.
+         * @param handler told of the connection or why there isn't one.
+         */
+        protected Waiter(Host host, long timeout, AcquireHandler handler) {
+            m_host = host;
+            m_timeout = timeout;
+            m_handler = handler;
+        }
+
+        /**
+         * Hands the caller a connection.
+         *
+         * @param connection the connection.
+         */
+        protected void acquired(PooledConnection connection) {
+            cancel();
+            try {
+                m_handler.acquired(connection);
+            } catch (Throwable t) {
+                s_logger.warn(t.toString(), t);
+            }
+        }
+
+        /**
+         * Tells the caller there is no connection.
+         *
+         * @param t why.
+         */
+        protected void failed(Throwable t) {
+            cancel();
+            try {
+                m_handler.acquireFailed(t);
+            } catch (Throwable t2) {
+                s_logger.warn(t2.toString(), t2);
+            }
+        }
+
+        /** Stops the timeout. */
+        protected void cancel() {
+            if (m_timer != null) {
+                m_timer.cancel();
+                m_timer = null;
+            }
+        }
+
+        // Javadoc from interface
+        public long timerFire(long scheduledTime, long actualTime) {
+            m_timer = null;
+            if (m_host.m_waiters.remove(this)) {
+                failed(new TimeoutException("No connection to " +
+                                            m_host.m_address + " within " +
+                                            m_timeout + " ms"));
+            }
+            return 0L;
+        }
+    }
+
+    /** The connections of one reactor to one address. */
+    protected class Host implements ConnectorListener {
+        /** The part of the pool the connections belong to. */
+        protected final Shard m_shard;
+
+        /** The address connected to. */
+        protected final SocketAddress m_address;
+
+        /** Every open connection, idle or not. */
+        protected final ArrayList<PooledConnection> m_connections =
+            new ArrayList<PooledConnection>();
+
+        /** The idle connections, most recently released last. */
+        protected final ArrayDeque<PooledConnection> m_idle =
+            new ArrayDeque<PooledConnection>();
+
+        /** The callers waiting for a connection, oldest first. */
+        protected final ArrayDeque<Waiter> m_waiters = new ArrayDeque<Waiter>();
+
+        /** The number of connections being opened. */
+        protected int m_connectingCount;
+
+        /**
+         * Constructs a Host.
+         *
+         * @param shard the part of the pool the connections belong to.
+         * @param address the address connected to.
+         */
+        protected Host(Shard shard, SocketAddress address) {
+            m_shard = shard;
+            m_address = address;
+        }
+
+        /** Gets the address connected to. */
+        public SocketAddress getAddress() {
+            return m_address;
+        }
+
+        /**
+         * Hands out an idle connection or queues the caller and opens
+         * another connection if there's room for one.
+         *
+         * @param waiter the caller.
+         */
+        protected void acquire(Waiter waiter) {
+            PooledConnection connection = m_idle.pollLast();
+            if (connection != null) {
+                connection.m_isIdle = false;
+                waiter.acquired(connection);
+                return;
+            }
+            m_waiters.add(waiter);
+            waiter.m_timer = m_shard.m_ioReactor.timerCreateRel(
+                waiter.m_timeout, waiter);
+            connectIfNeeded();
+        }
+
+        /**
+         * Hands a connection to the oldest waiting caller or puts it
+         * back in the pool.
+         *
+         * @param connection the connection released.
+         */
+        protected void release(PooledConnection connection) {
+            if (connection.m_isIdle) {
+                throw new IllegalStateException(
+                    "Attempt to release a PooledConnection that is already idle.");
+            }
+            if (connection.m_isClosed) {
+                return;
+            }
+            Waiter waiter = m_waiters.poll();
+            if (waiter != null) {
+                waiter.acquired(connection);
+                return;
+            }
+            connection.m_isIdle = true;
+            connection.m_idleSince = System.currentTimeMillis();
+            m_idle.addLast(connection);
+        }
+
+        /**
+         * Forgets a connection that has closed and opens a replacement
+         * if callers are waiting.
+         *
+         * @param connection the connection that closed.
+         */
+        protected void closed(PooledConnection connection) {
+            m_connections.remove(connection);
+            if (connection.m_isIdle) {
+                connection.m_isIdle = false;
+                m_idle.remove(connection);
+            }
+            connectIfNeeded();
+        }
+
+        /** Opens a connection if callers are waiting and there's room. */
+        protected void connectIfNeeded() {
+            if (m_isClosed) {
+                return;
+            }
+            if (m_waiters.size() > m_connectingCount &&
+                m_connections.size() + m_connectingCount < m_maxConnections)
+            {
+                m_connectingCount++;
+                new Connector(m_shard.m_ioReactor, this, m_throttle).connect();
+            }
+        }
+
+        /**
+         * Closes idle connections that have been idle too long and
+         * connections that have waited too long for a response, and
+         * has the rest checked.
+         *
+         * @param now the current time in milliseconds.
+         */
+        protected void check(long now) {
+            long requestTimeout = m_requestTimeout;
+            for (PooledConnection connection :
+                     new ArrayList<PooledConnection>(m_connections))
+            {
+                if (requestTimeout > 0 && connection.getPendingCount() > 0 &&
+                    now - connection.m_progressTime >= requestTimeout)
+                {
+                    connection.fail(new SocketTimeoutException(
+                        "No response from " + m_address + " within " +
+                        requestTimeout + " ms"));
+                } else if (connection.m_isIdle &&
+                           connection.getPendingCount() == 0)
+                {
+                    if (now - connection.m_idleSince >= m_maxIdleTime) {
+                        connection.close();
+                    } else {
+                        checkHealth(connection);
+                    }
+                }
+            }
+            if (m_connections.isEmpty() && m_connectingCount == 0 &&
+                m_waiters.isEmpty())
+            {
+                m_shard.m_hosts.remove(m_address);
+            }
+        }
+
+        /** Closes every connection and fails every waiting caller. */
+        protected void close() {
+            for (PooledConnection connection :
+                     new ArrayList<PooledConnection>(m_connections))
+            {
+                connection.close();
+            }
+            Waiter waiter;
+            while ((waiter = m_waiters.poll()) != null) {
+                waiter.failed(new ClosedChannelException());
+            }
+        }
+
+        // ConnectorListener methods start here
+
+        // Javadoc from interface
+        public SocketAddress getSocketAddress() {
+            return m_address;
+        }
+
+        // Javadoc from interface
+        public void setup(SocketChannel socketChannel) {
+            ConnectionPool.this.setup(socketChannel);
+        }
+
+        // Javadoc from interface
+        public void connecting() {}
+
+        // Javadoc from interface
+        public long connectionFailed(Throwable t) {
+            m_connectingCount--;
+            s_logger.debug("Connection to " + m_address + " failed", t);
+
+            // Each connection is opened for a waiting caller, so the
+            // oldest one hears why there isn't one.
+            Waiter waiter = m_waiters.poll();
+            if (waiter != null) {
+                waiter.failed(t);
+            }
+            connectIfNeeded();
+            return Long.MIN_VALUE;
+        }
+
+        // Javadoc from interface
+        public void connected(IOReactor ioReactor,
+                              SocketChannel socketChannel) {
+            m_connectingCount--;
+            m_connectCount.incrementAndGet();
+            PooledConnection connection = new PooledConnection(
+                this, ioReactor, socketChannel, createDecoders(),
+                createEncoders());
+            m_connections.add(connection);
+            try {
+                connectionCreated(connection);
+                connection.getChannel().start();
+            } catch (IOException e) {
+                connection.fail(e);
+                return;
+            }
+            if (m_isClosed) {
+                connection.close();
+                return;
+            }
+            release(connection);
+        }
+
+        // ConnectorListener methods end here
+    }
+}
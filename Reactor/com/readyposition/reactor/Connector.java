@@ -27,6 +27,15 @@ public class Connector
     /** A timer used to schedule retry attempts after failures. */
     protected Timer m_timer;
 
+    /** Limits the attempts in flight to each destination or null. */
+    protected ConnectThrottle m_throttle;
+
+    /**
+     * The destination of the attempt in progress if m_throttle allowed
+     * it, otherwise null.
+     */
+    protected SocketAddress m_permit;
+
     /**
      * Constructs a Connector that will attempt to connect and will notify a
      * ConnectorListener of its progress.
@@ -35,13 +44,39 @@ public class Connector
      * @param listener the object to be informed of connections and other progress.
      */
     public Connector(IOReactor ioReactor, ConnectorListener listener) {
+        this(ioReactor, listener, null);
+    }
+
+    /**
+     * Constructs a Connector whose attempts are limited by a shared
+     * ConnectThrottle.
+     *
+     * @param ioReactor the asynchronous I/O reactor used to manage activities.
+     * @param listener the object to be informed of connections and other progress.
+     * @param throttle limits the attempts in flight to each destination
+     *                 or null for no limit.
+     */
+    public Connector(IOReactor ioReactor, ConnectorListener listener,
+                     ConnectThrottle throttle) {
         m_ioReactor = ioReactor;
         m_listener = listener;
+        m_throttle = throttle;
     }
 
-    /** Attempts to establish a connected socket. */
+    /**
+     * Attempts to establish a connected socket.  If the ConnectThrottle
+     * doesn't allow an attempt yet, one is made once it might.
+     */
     public void connect() {
         SocketAddress sa = m_listener.getSocketAddress();
+        if (m_throttle != null) {
+            long wait = m_throttle.tryAcquire(sa);
+            if (wait > 0) {
+                m_timer = m_ioReactor.timerCreateRel(wait, this);
+                return;
+            }
+            m_permit = sa;
+        }
         try {
             m_socketChannel = SocketChannel.open();
             m_socketChannel.configureBlocking(false);
@@ -64,9 +99,18 @@ public class Connector
 
     /** This is invoked when a successful connection is established. */
     protected void connected() {
+        releasePermit();
         m_listener.connected(m_ioReactor, m_socketChannel);
     }
 
+    /** Ends the attempt as far as the ConnectThrottle is concerned. */
+    protected void releasePermit() {
+        if (m_permit != null) {
+            m_throttle.release(m_permit);
+            m_permit = null;
+        }
+    }
+
     /**
      * This is called when we fail to establish a connection. This cleans up,
      * notifies the listener, and schedules a retry.
@@ -74,6 +118,7 @@ public class Connector
      * @param t the Throwable that indicates the reason for failure.
      */
     protected void failure(Throwable t) {
+        releasePermit();
         if (m_valve != null)
             {
                 m_valve.close();
@@ -36,6 +36,9 @@ public abstract class ConnectorAdapter implements ConnectorListener {
     /** Used for exponential backoff on connection attempts. */
     protected BackOff m_backOff;
 
+    /** How the retry intervals are spread out. */
+    protected JitterStrategy m_jitter = JitterStrategy.NONE;
+
     /**
      * Constructor for a named instance that will handle the process of
      * connecting to a specific host and port.
@@ -103,6 +106,26 @@ public abstract class ConnectorAdapter implements ConnectorListener {
         m_randomness = randomness;
     }
 
+    /**
+     * Sets how the retry intervals are spread out.  Jitter keeps connectors
+     * that failed together from all retrying at the same moments.
+     * The randomness from setRetryParams() is still added on top, so
+     * it is usually set to 0 along with FULL or DECORRELATED jitter.
+     *
+     * @param jitter how the retry intervals are spread out.
+     */
+    public void setJitter(JitterStrategy jitter) {
+        if (jitter == null) {
+            throw new IllegalArgumentException("jitter is null");
+        }
+        m_jitter = jitter;
+    }
+
+    /** Gets how the retry intervals are spread out. */
+    public JitterStrategy getJitter() {
+        return m_jitter;
+    }
+
     // ConnectorListener methods start here
 
     // Javadoc from interface
@@ -135,7 +158,8 @@ public abstract class ConnectorAdapter implements ConnectorListener {
     // Javadoc from interface.
     public long connectionFailed(Throwable t) {
         if (m_backOff == null) {
-            m_backOff = new BackOff(m_minRetryInterval, m_maxRetryInterval);
+            m_backOff = new BackOff(m_minRetryInterval, m_maxRetryInterval,
+                                    m_jitter);
         }
         long nextDelay = m_backOff.getNext();
         if (m_randomness != 0) {
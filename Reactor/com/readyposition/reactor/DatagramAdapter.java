@@ -0,0 +1,282 @@
+package com.readyposition.reactor;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Convenient abstract implementation of DatagramListener that
+ * provides useful behavior: it joins any multicast groups once the
+ * socket is bound, retries binding with exponential backoff and, if a
+ * subclass says where to find a sequence number in each datagram,
+ * keeps per-source counts of the datagrams that went missing.
+ */
+public abstract class DatagramAdapter implements DatagramListener {
+    /** Logger for this class. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(DatagramAdapter.class);
+
+    /** The name of this adapter. */
+    protected String m_name;
+
+    /** The host name or null for a wildcard address. */
+    protected String m_host;
+
+    /** The local port. */
+    protected int m_port;
+
+    /** The multicast groups to join. */
+    protected List<InetAddress> m_groups = new ArrayList<InetAddress>();
+
+    /** The interface to join the groups on. */
+    protected NetworkInterface m_interface;
+
+    /** The memberships of the bound socket. */
+    protected List<MembershipKey> m_memberships = new ArrayList<MembershipKey>();
+
+    /** Counts the datagrams that went missing from each source. */
+    protected SequenceTracker m_sequenceTracker = new SequenceTracker();
+
+    /** Delay for first bind retry. Defaults to 1 millisecond. */
+    protected long m_minRetryInterval = 1L;
+
+    /** Delay for last bind retry. Defaults to 30 seconds. */
+    protected long m_maxRetryInterval = 30000L;
+
+    /** Used for exponential backoff on bind attempts. */
+    protected BackOff m_backOff;
+
+    /** How the retry intervals are spread out. */
+    protected JitterStrategy m_jitter = JitterStrategy.NONE;
+
+    /**
+     * Creates a DatagramAdapter where the IP address is the wildcard
+     * address and the port number a specified value.
+     *
+     * @param name the name to be associated with the endpoint.
+     * @param port the port number.
+     */
+    public DatagramAdapter(String name, int port) {
+        this(name, null, port);
+    }
+
+    /**
+     * Creates a DatagramAdapter from a hostname and a port number.
+     *
+     * @param name the name to be associated with the endpoint.
+     * @param host the host name.
+     * @param port the port number.
+     */
+    public DatagramAdapter(String name, String host, int port) {
+        m_name = name;
+        m_host = host;
+        m_port = port;
+    }
+
+    /** Gets the name of this adapter. */
+    public String getName() {
+        return m_name;
+    }
+
+    /** Gets the host name. */
+    public String getHost() {
+        return m_host;
+    }
+
+    /** Gets the local port. */
+    public int getPort() {
+        return m_port;
+    }
+
+    /**
+     * Adds a multicast group to join on the given interface.  All the
+     * groups are joined on the same interface and need to be of the
+     * same protocol family.  This takes effect the next time the
+     * endpoint binds.
+     *
+     * @param group the multicast group.
+     * @param networkInterface the interface to join it on.
+     */
+    public void addGroup(InetAddress group, NetworkInterface networkInterface) {
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException("group == " + group +
+                                               " needs to be a multicast address");
+        }
+        m_groups.add(group);
+        m_interface = networkInterface;
+    }
+
+    /**
+     * Sets the min and max retry intervals for exponential backoff on
+     * bind attempts.
+     *
+     * @param min the minimum retry interval.
+     * @param max the maximum retry interval.
+     */
+    public void setRetryParams(long min, long max) {
+        // Argument checking
+        if (min <= 0) {
+            throw new IllegalArgumentException("min == " + min +
+                                               " needs to be > 0");
+        }
+        if (max < min) {
+            throw new IllegalArgumentException("max < min, max == " +
+                                               max + ", min == " + min);
+        }
+        m_minRetryInterval = min;
+        m_maxRetryInterval = max;
+    }
+
+    /**
+     * Sets how the retry intervals are spread out.  Jitter keeps endpoints
+     * that failed together from all retrying at the same moments.
+     *
+     * @param jitter how the retry intervals are spread out.
+     */
+    public void setJitter(JitterStrategy jitter) {
+        if (jitter == null) {
+            throw new IllegalArgumentException("jitter is null");
+        }
+        m_jitter = jitter;
+    }
+
+    /** Gets how the retry intervals are spread out. */
+    public JitterStrategy getJitter() {
+        return m_jitter;
+    }
+
+    /** Gets the tracker that counts missing datagrams per source. */
+    public SequenceTracker getSequenceTracker() {
+        return m_sequenceTracker;
+    }
+
+    // DatagramListener methods start here
+
+    // Javadoc from interface
+    public SocketAddress getSocketAddress() {
+        return (m_host == null) ?
+            new InetSocketAddress(m_port) :
+            new InetSocketAddress(m_host, m_port);
+    }
+
+    // Javadoc from interface
+    public ProtocolFamily getProtocolFamily() {
+        if (m_groups.isEmpty()) {
+            return null;
+        }
+        return (m_groups.get(0) instanceof Inet6Address) ?
+            StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+    }
+
+    // Javadoc from interface
+    public void setup(DatagramChannel channel) {
+        if (m_groups.isEmpty()) {
+            // A unicast endpoint keeps its port to itself.
+            return;
+        }
+
+        // Several receivers of the same group need to share the port.
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR,
+                              Boolean.TRUE);
+        } catch (Throwable t) {
+            s_logger.warn("Couldn't enable SO_REUSEADDR", t);
+        }
+    }
+
+    // Javadoc from interface
+    public void bound(DatagramChannel channel) throws Exception {
+        m_memberships.clear();
+        for (InetAddress group : m_groups) {
+            m_memberships.add(channel.join(group, m_interface));
+        }
+        s_logger.info("Datagram endpoint " + m_name + " bound to port " +
+                      m_port + ", joined " + m_groups + ".");
+        m_backOff = null;
+    }
+
+    // Javadoc from interface
+    public long bindFailed(Throwable t) {
+        if (m_backOff == null) {
+            m_backOff = new BackOff(m_minRetryInterval, m_maxRetryInterval,
+                                    m_jitter);
+        }
+        long nextDelay = m_backOff.getNext();
+        s_logger.info("Datagram endpoint " + m_name +
+                      " bind failed - trying again in " + nextDelay + " ms.", t);
+        return nextDelay;
+    }
+
+    // Javadoc from interface
+    public void received(DatagramEndpoint endpoint, SocketAddress source,
+                         ByteBuffer datagram)
+    {
+        long sequence = getSequence(datagram);
+        if (sequence >= 0) {
+            long missing = m_sequenceTracker.track(source, sequence);
+            if (missing > 0) {
+                gapDetected(source, sequence - missing, missing);
+            }
+        }
+        datagramReceived(endpoint, source, datagram);
+    }
+
+    // Javadoc from interface
+    public void receiveFailed(Throwable t) {
+        s_logger.info("Datagram endpoint " + m_name + " receive failed.", t);
+    }
+
+    // DatagramListener methods end here
+
+    /**
+     * Gets the sequence number of a datagram.  By default datagrams
+     * have none and nothing is tracked.  Subclasses that know the
+     * format override this, e.g. to return datagram.getLong(
+     * datagram.position()).  The datagram's position and limit must be
+     * left as they were.
+     *
+     * @param datagram the contents of the datagram.
+     * @return the sequence number or -1 if there is none.
+     */
+    protected long getSequence(ByteBuffer datagram) {
+        return -1;
+    }
+
+    /**
+     * Invoked when a datagram's sequence number skips ahead of the
+     * last one from the same source.  By default this logs the gap.
+     *
+     * @param source the address that sent the datagrams.
+     * @param first the first sequence number missing.
+     * @param count the number of sequence numbers missing.
+     */
+    protected void gapDetected(SocketAddress source, long first, long count) {
+        s_logger.debug("Datagram endpoint " + m_name + " missed " + count +
+                       " from " + source + " starting at " + first + ".");
+    }
+
+    /**
+     * Invoked to allow subclasses to do something useful with each
+     * datagram.  The buffer is reused as soon as this returns.
+     *
+     * @param endpoint the endpoint that received the datagram.
+     * @param source the address that sent the datagram.
+     * @param datagram the contents of the datagram.
+     */
+    protected abstract void datagramReceived(DatagramEndpoint endpoint,
+                                             SocketAddress source,
+                                             ByteBuffer datagram);
+}
@@ -0,0 +1,291 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * The DatagramEndpoint class binds a UDP socket (unicast or, with the
+ * help of its listener, multicast) and receives datagrams on an
+ * IOReactor.
+ *
+ * <p>Each time the socket is ready, up to m_maxReceives datagrams are
+ * drained into a pool of direct buffers before any of them are handed
+ * to the listener, so that a burst is pulled out of the kernel's
+ * receive buffer quickly and without allocating.  The pool is reused
+ * from one readiness event to the next.
+ */
+public class DatagramEndpoint
+    implements TimerHandler, ValveHandler
+{
+    /** The default value for m_maxReceives. */
+    public final static int DEFAULT_MAX_RECEIVES = 64;
+
+    /** The default value for m_bufferSize. */
+    public final static int DEFAULT_BUFFER_SIZE = 2048;
+
+    /** The multiplexed asynchronous I/O reactor. */
+    protected IOReactor m_ioReactor;
+
+    /** The object informed of datagrams and other endpoint status. */
+    protected DatagramListener m_listener;
+
+    /** The Valve that manages READ events. */
+    protected Valve m_valve;
+
+    /** The channel datagrams are received on. */
+    protected DatagramChannel m_channel;
+
+    /** A timer used to schedule retry attempts after failures. */
+    protected Timer m_timer;
+
+    /** The most datagrams to receive each time the Valve fires. */
+    protected int m_maxReceives = DEFAULT_MAX_RECEIVES;
+
+    /** The size of each buffer in the pool. */
+    protected int m_bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /** The pool of buffers datagrams are received into. */
+    protected ByteBuffer[] m_buffers;
+
+    /** Where each of the datagrams in m_buffers came from. */
+    protected SocketAddress[] m_sources;
+
+    /** The number of datagrams received. */
+    protected long m_receiveCount;
+
+    /** The number of times the Valve fired with datagrams to receive. */
+    protected long m_batchCount;
+
+    /**
+     * Constructs a DatagramEndpoint that will receive datagrams and
+     * will notify a DatagramListener of them and its progress.
+     *
+     * @param ioReactor the asynchronous I/O reactor used to manage
+     *                  activities.
+     * @param listener the object to be informed of datagrams and
+     *                 other progress.
+     */
+    public DatagramEndpoint(IOReactor ioReactor, DatagramListener listener) {
+        m_ioReactor = ioReactor;
+        m_listener = listener;
+    }
+
+    /**
+     * Sets the most datagrams to receive each time the socket is
+     * ready.  This is also the number of buffers in the pool.  Any
+     * others are received on later passes through the reactor loop so
+     * that a flood can't starve the reactor's other channels.  This
+     * takes effect the next time bind() is invoked.
+     *
+     * @param maxReceives the most datagrams to receive at a time.
+     */
+    public void setMaxReceives(int maxReceives) {
+        if (maxReceives <= 0) {
+            throw new IllegalArgumentException("maxReceives == " + maxReceives +
+                                               " needs to be > 0");
+        }
+        m_maxReceives = maxReceives;
+    }
+
+    /** Gets the most datagrams to receive at a time. */
+    public int getMaxReceives() {
+        return m_maxReceives;
+    }
+
+    /**
+     * Sets the size of each buffer in the pool.  The part of a
+     * datagram that doesn't fit is silently discarded (as it is by
+     * DatagramChannel.receive()), so this needs to be at least the
+     * largest datagram expected.  This takes effect the next time
+     * bind() is invoked.
+     *
+     * @param bufferSize the size of each buffer in bytes.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize == " + bufferSize +
+                                               " needs to be > 0");
+        }
+        m_bufferSize = bufferSize;
+    }
+
+    /** Gets the size of each buffer in the pool. */
+    public int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    /** Gets the number of datagrams received. */
+    public long getReceiveCount() {
+        return m_receiveCount;
+    }
+
+    /** Gets the number of times datagrams were received in a batch. */
+    public long getBatchCount() {
+        return m_batchCount;
+    }
+
+    /**
+     * Gets the address the socket is bound to, which tells which port
+     * was picked when binding to port 0.
+     *
+     * @return the local address or null if the socket isn't bound.
+     */
+    public SocketAddress getLocalAddress() {
+        try {
+            return (m_channel == null) ? null : m_channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the channel datagrams are received on, e.g. to send
+     * datagrams from the same port.
+     *
+     * @return the channel or null if the socket isn't bound.
+     */
+    public DatagramChannel getChannel() {
+        return m_channel;
+    }
+
+    /** Attempts to bind the socket and start receiving datagrams. */
+    public void bind() {
+        SocketAddress sa = m_listener.getSocketAddress();
+        ProtocolFamily family = m_listener.getProtocolFamily();
+        try {
+            m_channel = (family == null) ?
+                DatagramChannel.open() : DatagramChannel.open(family);
+            m_channel.configureBlocking(false);
+            m_listener.setup(m_channel);
+            m_channel.bind(sa);
+            m_listener.bound(m_channel);
+            if (m_buffers == null || m_buffers.length != m_maxReceives ||
+                m_buffers[0].capacity() != m_bufferSize)
+            {
+                m_buffers = new ByteBuffer[m_maxReceives];
+                m_sources = new SocketAddress[m_maxReceives];
+                for (int i = 0; i < m_maxReceives; i++) {
+                    m_buffers[i] = ByteBuffer.allocateDirect(m_bufferSize);
+                }
+            }
+            m_valve = m_ioReactor.valveCreate(m_channel, this);
+            m_valve.enable(SelectionKey.OP_READ);
+        } catch (Throwable t) {
+            failure(t);
+        }
+    }
+
+    /**
+     * Closes the socket, which also leaves any multicast groups.  It
+     * is possible to call bind() again.
+     */
+    public void shutdown() {
+        if (m_timer != null) {
+            m_timer.cancel();
+            m_timer = null;
+        }
+        if (m_valve != null) {
+            m_valve.disable(SelectionKey.OP_READ);
+            m_valve.close();
+            m_valve = null;
+            m_channel = null;
+        }
+    }
+
+    /**
+     * This is called when we fail to bind the socket. This cleans up,
+     * notifies the listener, and schedules a retry.
+     *
+     * @param t the Throwable that indicates the reason for failure.
+     */
+    protected void failure(Throwable t) {
+        if (m_valve != null) {
+            m_valve.close();
+        } else if (m_channel != null) {
+            try {
+                m_channel.close();
+            } catch (Throwable t2) {
+            }
+        }
+        m_valve = null;
+        m_channel = null;
+
+        long nextDelay = m_listener.bindFailed(t);
+
+        // If the returned value is Long.MIN_VALUE then we won't retry.
+        if (nextDelay != Long.MIN_VALUE) {
+            m_timer = m_ioReactor.timerCreateRel(nextDelay, this);
+        }
+    }
+
+    /**
+     * Invoked when there is an I/O operation ready to be performed.
+     * This drains up to m_maxReceives datagrams into the pool and then
+     * hands them to the listener in the order they arrived.
+     */
+    public void valveFire(Valve valve, SelectionKey selectionKey)
+    {
+        DatagramChannel channel = m_channel;
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer[] buffers = m_buffers;
+        SocketAddress[] sources = m_sources;
+        int count = 0;
+        try {
+            while (count < buffers.length) {
+                ByteBuffer buffer = buffers[count];
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                if (source == null) {
+                    // Nothing more waiting.
+                    break;
+                }
+                buffer.flip();
+                sources[count++] = source;
+            }
+        } catch (Throwable t) {
+            // Report the failure, then still hand over the datagrams
+            // that arrived before it.
+            m_listener.receiveFailed(t);
+        }
+        if (count == 0) {
+            return;
+        }
+        m_batchCount++;
+        m_receiveCount += count;
+
+        // The listener may shut us down along the way.
+        for (int i = 0; i < count && m_channel == channel; i++) {
+            try {
+                m_listener.received(this, sources[i], buffers[i]);
+            } catch (Throwable t) {
+                m_listener.receiveFailed(t);
+            }
+            sources[i] = null;
+        }
+    }
+
+    /**
+     * Performs work that was previously scheduled to be invoked by a
+     * timer.  This is used to reattempt binding after a failure.
+     *
+     * @param time the time at which the Timer actually fired.
+     */
+    public long timerFire(long time, long actualTime) {
+        if (m_timer == null) {
+            // Be extra careful not to fire the timer after a shutdown.
+            return 0;
+        }
+
+        m_timer = null;
+
+        // Initiate a new attempt.
+        bind();
+        return 0;
+    }
+}
@@ -0,0 +1,77 @@
+package com.readyposition.reactor;
+
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Interface that allows tracking of a DatagramEndpoint's progress in
+ * binding its socket and receiving datagrams.
+ */
+public interface DatagramListener
+{
+    /**
+     * Gets the address to bind the socket to.
+     *
+     * @return the local SocketAddress to receive datagrams at.
+     */
+    SocketAddress getSocketAddress();
+
+    /**
+     * Gets the protocol family of the socket.  Joining a multicast
+     * group needs a socket of the same family as the group.
+     *
+     * @return the ProtocolFamily or null for the platform's default.
+     */
+    ProtocolFamily getProtocolFamily();
+
+    /**
+     * This method is invoked right after the channel is created and
+     * set to non-blocking and before it is bound to allow
+     * customization of socket options.
+     *
+     * @param channel the DatagramChannel to set up.
+     */
+    void setup(DatagramChannel channel);
+
+    /**
+     * This is invoked when the socket is successfully bound and before
+     * any datagrams are received.  This is where multicast groups are
+     * joined.
+     *
+     * @param channel the bound DatagramChannel.
+     * @throws Exception if the channel couldn't be set up, in which
+     *         case it is treated like a failure to bind.
+     */
+    void bound(DatagramChannel channel) throws Exception;
+
+    /**
+     * This is invokved when binding the socket fails.
+     *
+     * @param t the Throwable that indicates why binding failed.
+     * @return the number of milliseconds until the next attempt or
+     *	Long.MIN_VALUE if no more attempts should be made.
+     */
+    long bindFailed(Throwable t);
+
+    /**
+     * This is invoked for each datagram received.  The buffer belongs
+     * to the endpoint and is reused as soon as this returns, so
+     * anything worth keeping needs to be copied out of it.
+     *
+     * @param endpoint the endpoint that received the datagram.
+     * @param source the address that sent the datagram.
+     * @param datagram the contents of the datagram, from its position
+     *                 to its limit.
+     */
+    void received(DatagramEndpoint endpoint, SocketAddress source,
+                  ByteBuffer datagram);
+
+    /**
+     * This is invokved when an attempt to receive datagrams failed.
+     *
+     * @param t the Throwable that indicates why the attempt failed.
+     */
+    void receiveFailed(Throwable t);
+}
@@ -0,0 +1,32 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * One stage of a CodecChannel's inbound chain.  The first decoder is a
+ * framer: it is shown every unconsumed byte and picks out the next
+ * whole message.  Each decoder after it is shown the message the one
+ * before produced and may narrow it (e.g. to strip a header) or drop
+ * it.  Decoders work on the bytes in place and are invoked on the
+ * IOReactor's thread.  Those that keep state between invocations
+ * belong to a single channel.
+ */
+public interface Decoder
+{
+    /**
+     * Decodes a message.
+     *
+     * @param in the bladder holding the bytes read.
+     * @param frame on entry the bytes to decode.  On return the bytes
+     *              of the message to pass on.
+     * @return the number of bytes, starting at the frame's original
+     *         offset, that the message took up, or 0 if there isn't a
+     *         whole message yet.  A decoder that isn't first in the
+     *         chain returns 0 to drop the message.
+     * @throws IOException if the bytes can't be decoded.  The channel
+     *         is closed.
+     */
+    int decode(ByteBladder in, Frame frame) throws IOException;
+}
@@ -0,0 +1,101 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * Frames messages that end with a delimiter, e.g. "\r\n".  The
+ * delimiter isn't part of the message passed on.
+ *
+ * <p>This remembers how far it has searched for the delimiter so that
+ * a long message arriving over many reads is only scanned once.  An
+ * instance therefore belongs to a single channel.
+ */
+public class DelimiterFramer
+    implements Decoder, Encoder
+{
+    /** The bytes that end each message. */
+    protected final byte[] m_delimiter;
+
+    /** The largest message accepted, not counting the delimiter. */
+    protected final int m_maxLength;
+
+    /**
+     * The number of bytes of the current message already searched
+     * without finding the delimiter.
+     */
+    protected int m_searched;
+
+    /**
+     * Constructs a DelimiterFramer.
+     *
+     * @param delimiter the bytes that end each message.
+     * @param maxLength the largest message accepted.  A longer one is
+     *                  taken to mean the stream is corrupt.
+     */
+    public DelimiterFramer(byte[] delimiter, int maxLength) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("delimiter.length == " +
+                                               delimiter.length +
+                                               " needs to be > 0");
+        }
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("maxLength == " + maxLength +
+                                               " needs to be >= 0");
+        }
+        m_delimiter = delimiter.clone();
+        m_maxLength = maxLength;
+    }
+
+    /** Gets the largest message accepted. */
+    public int getMaxLength() {
+        return m_maxLength;
+    }
+
+    // Javadoc from interface
+    public int decode(ByteBladder in, Frame frame) throws IOException {
+        int offset = frame.getOffset();
+        int available = frame.getLength();
+        int delimiterLength = m_delimiter.length;
+        byte first = m_delimiter[0];
+        int last = available - delimiterLength;
+        for (int i = m_searched; i <= last; i++) {
+            if (i > m_maxLength) {
+                break;
+            }
+            if (in.getByte(offset + i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < delimiterLength &&
+                   in.getByte(offset + i + j) == m_delimiter[j]) {
+                j++;
+            }
+            if (j == delimiterLength) {
+                m_searched = 0;
+                frame.set(offset, i);
+                return i + delimiterLength;
+            }
+        }
+
+        // A delimiter may start in the last few bytes searched.
+        m_searched = Math.max(0, last + 1);
+        if (m_searched > m_maxLength) {
+            m_searched = 0;
+            throw new IOException("Message length needs to be <= " +
+                                  m_maxLength);
+        }
+        return 0;
+    }
+
+    // Javadoc from interface
+    public int getHeaderLength() {
+        return 0;
+    }
+
+    // Javadoc from interface
+    public void encode(ByteBladder out, int offset, int length) {
+        out.putBytes(m_delimiter);
+    }
+}
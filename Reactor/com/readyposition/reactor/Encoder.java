@@ -0,0 +1,29 @@
+package com.readyposition.reactor;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * One stage of a CodecChannel's outbound chain.  Encoders wrap a
+ * message in place: room for each encoder's header is reserved before
+ * the message is written, and once it is complete each encoder, from
+ * the first to the last, fills in its header and may append a trailer.
+ * The last encoder is normally a framer.  Encoders are invoked on the
+ * IOReactor's thread.
+ */
+public interface Encoder
+{
+    /** Gets the number of bytes to reserve for this encoder's header. */
+    int getHeaderLength();
+
+    /**
+     * Encodes a message.
+     *
+     * @param out the bladder being written.
+     * @param offset the index of this encoder's header relative to
+     *               'out'.  The message follows the header.
+     * @param length the number of bytes in the message, which includes
+     *               the headers and trailers of the encoders before
+     *               this one.
+     */
+    void encode(ByteBladder out, int offset, int length);
+}
@@ -0,0 +1,362 @@
+package com.readyposition.reactor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a region of a file to a socket with FileChannel.transferTo(),
+ * which lets the operating system move the bytes straight from the
+ * page cache to the socket (e.g. sendfile() on Linux) rather than
+ * copying them through a ByteBuffer.
+ *
+ * <p>start() takes over the Valve's handler for the length of the
+ * transfer.  Whatever the socket won't take straight away is sent when
+ * OP_WRITE fires again, picking up from where the last transferTo()
+ * stopped.  Other ready operations (e.g. OP_READ) are passed on to the
+ * previous handler in the meantime, with OP_WRITE masked out of the
+ * SelectionKey's ready set.  Once the region has been sent the
+ * previous handler is put back, OP_WRITE is returned to how it was
+ * and FileTransferHandler.transferCompleted() is invoked.
+ *
+ * <p>Anything the previous handler had queued should be written before
+ * the transfer starts, or it will go out after the file.
+ *
+ * <p>Every method must be invoked on the IOReactor's thread.  Other
+ * threads can submit a Work to that reactor.
+ */
+public class FileTransfer implements ValveHandler
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(FileTransfer.class);
+
+    /** The default value for m_maxBytesPerFire. */
+    public final static long DEFAULT_MAX_BYTES_PER_FIRE = 4L * 1024 * 1024;
+
+    /** The Valve for the socket. */
+    protected Valve m_valve;
+
+    /** The file being sent. */
+    protected FileChannel m_file;
+
+    /** Told when the transfer finishes. */
+    protected FileTransferHandler m_handler;
+
+    /** The position in the file of the next byte to send. */
+    protected long m_position;
+
+    /** The number of bytes still to send. */
+    protected long m_remaining;
+
+    /** The number of bytes sent so far. */
+    protected long m_transferred;
+
+    /**
+     * The most bytes sent in one pass through the reactor loop, so
+     * that a fast peer doesn't starve the reactor's other channels.
+     */
+    protected long m_maxBytesPerFire = DEFAULT_MAX_BYTES_PER_FIRE;
+
+    /** The Valve's handler before the transfer started. */
+    protected ValveHandler m_previous;
+
+    /** True if OP_WRITE was enabled before the transfer started. */
+    protected boolean m_wasWriteEnabled;
+
+    /** True while the transfer owns the Valve. */
+    protected boolean m_isActive;
+
+    /** The number of transferTo() calls made. */
+    protected long m_transferCount;
+
+    /**
+     * Hands the previous handler the ready operations other than
+     * OP_WRITE, which the transfer owns while it is active.
+     */
+    protected final MaskedKey m_maskedKey = new MaskedKey();
+
+    /**
+     * Constructs a FileTransfer.  Call start() to begin sending.
+     *
+     * @param valve the Valve for a connected, non-blocking socket.
+     * @param file the file to send from.
+     * @param position the position in the file of the first byte to
+     *                 send.
+     * @param count the number of bytes to send.
+     * @param handler told when the transfer finishes.
+     */
+    public FileTransfer(Valve valve, FileChannel file, long position,
+                        long count, FileTransferHandler handler)
+    {
+        if (position < 0) {
+            throw new IllegalArgumentException("position == " + position +
+                                               " needs to be >= 0");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count == " + count +
+                                               " needs to be >= 0");
+        }
+        if (!(valve.getChannel() instanceof WritableByteChannel)) {
+            throw new IllegalArgumentException(
+                "valve needs to manage a WritableByteChannel");
+        }
+        m_valve = valve;
+        m_file = file;
+        m_position = position;
+        m_remaining = count;
+        m_handler = handler;
+    }
+
+    /** Gets the Valve for the socket. */
+    public Valve getValve() {
+        return m_valve;
+    }
+
+    /** Gets the file being sent. */
+    public FileChannel getFile() {
+        return m_file;
+    }
+
+    /** Gets the position in the file of the next byte to send. */
+    public long getPosition() {
+        return m_position;
+    }
+
+    /** Gets the number of bytes still to send. */
+    public long getRemaining() {
+        return m_remaining;
+    }
+
+    /** Gets the number of bytes sent so far. */
+    public long getTransferred() {
+        return m_transferred;
+    }
+
+    /** Gets the number of transferTo() calls made so far. */
+    public long getTransferCount() {
+        return m_transferCount;
+    }
+
+    /** Determines if the transfer still owns the Valve. */
+    public boolean isActive() {
+        return m_isActive;
+    }
+
+    /**
+     * Sets the most bytes sent in one pass through the reactor loop.
+     *
+     * @param maxBytesPerFire the limit.
+     */
+    public void setMaxBytesPerFire(long maxBytesPerFire) {
+        if (maxBytesPerFire <= 0) {
+            throw new IllegalArgumentException("maxBytesPerFire == " +
+                                               maxBytesPerFire +
+                                               " needs to be > 0");
+        }
+        m_maxBytesPerFire = maxBytesPerFire;
+    }
+
+    /**
+     * Takes over the Valve and sends as much as the socket will take.
+     * The transfer may complete before this returns.
+     *
+     * @throws IllegalStateException if the transfer has already been
+     *         started.
+     */
+    public void start() {
+        checkThread();
+        if (m_isActive || m_previous != null) {
+            throw new IllegalStateException(
+                "Attempt to start a FileTransfer more than once.");
+        }
+        m_previous = m_valve.getHandler();
+        m_wasWriteEnabled = (m_valve.getOps() & SelectionKey.OP_WRITE) != 0;
+        m_valve.setHandler(this);
+        m_isActive = true;
+        transfer();
+    }
+
+    /**
+     * Stops the transfer and hands the Valve back to its previous
+     * handler without telling the FileTransferHandler.  Bytes already
+     * sent can't be taken back, so the peer sees part of the region.
+     */
+    public void cancel() {
+        checkThread();
+        if (m_isActive) {
+            release();
+        }
+    }
+
+    /**
+     * Sends until the region has been sent, the socket's buffer is
+     * full or m_maxBytesPerFire bytes have been sent.
+     */
+    protected void transfer() {
+        WritableByteChannel target = (WritableByteChannel)m_valve.getChannel();
+        long budget = m_maxBytesPerFire;
+        try {
+            if (target == null) {
+                // The Valve has been closed.
+                throw new ClosedChannelException();
+            }
+            while (m_remaining > 0) {
+                if (budget <= 0) {
+                    // Carry on next pass.
+                    m_valve.enable(SelectionKey.OP_WRITE);
+                    return;
+                }
+                long n = m_file.transferTo(m_position,
+                                           Math.min(m_remaining, budget),
+                                           target);
+                m_transferCount++;
+                if (n == 0) {
+                    if (m_position >= m_file.size()) {
+                        throw new EOFException("File ended at " + m_position +
+                                               " with " + m_remaining +
+                                               " bytes still to send");
+                    }
+                    // The socket's buffer is full.
+                    m_valve.enable(SelectionKey.OP_WRITE);
+                    return;
+                }
+                m_position += n;
+                m_remaining -= n;
+                m_transferred += n;
+                budget -= n;
+            }
+        } catch (IOException e) {
+            release();
+            try {
+                m_handler.transferFailed(this, e);
+            } catch (Throwable t) {
+                s_logger.warn(t.toString(), t);
+            }
+            return;
+        }
+        release();
+        try {
+            m_handler.transferCompleted(this);
+        } catch (Throwable t) {
+            s_logger.warn(t.toString(), t);
+        }
+    }
+
+    /** Hands the Valve back to its previous handler. */
+    protected void release() {
+        m_isActive = false;
+        if (m_valve.getHandler() == this) {
+            m_valve.setHandler(m_previous);
+        }
+        if (!m_wasWriteEnabled && m_valve.getIOReactor() != null) {
+            m_valve.disable(SelectionKey.OP_WRITE);
+        }
+    }
+
+    // Javadoc from interface
+    public void valveFire(Valve valve, SelectionKey selectedKey) {
+        int ops = selectedKey.readyOps();
+        boolean isWriteOurs = m_isActive;
+        if ((ops & SelectionKey.OP_WRITE) != 0 && isWriteOurs) {
+            transfer();
+        }
+        if ((ops & ~SelectionKey.OP_WRITE) != 0 && m_previous != null &&
+            valve.getChannel() != null)
+        {
+            if (isWriteOurs) {
+                // The transfer used up OP_WRITE, so the previous
+                // handler only hears about the rest.
+                m_maskedKey.wrap(selectedKey, ops & ~SelectionKey.OP_WRITE);
+                try {
+                    m_previous.valveFire(valve, m_maskedKey);
+                } finally {
+                    m_maskedKey.wrap(null, 0);
+                }
+            } else {
+                m_previous.valveFire(valve, selectedKey);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the transfer is used on the reactor's thread.
+     *
+     * @throws IllegalStateException if called by another thread.
+     */
+    protected void checkThread() {
+        IOReactor ioReactor = m_valve.getIOReactor();
+        if (ioReactor != null && ioReactor.getThread() != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Attempt to use a FileTransfer outside its reactor.");
+        }
+    }
+
+    /**
+     * A SelectionKey that reports only some of another key's ready
+     * operations and passes everything else through to it.
+     */
+    protected static class MaskedKey extends SelectionKey {
+        /** The key being wrapped or null. */
+        protected SelectionKey m_key;
+
+        /** The ready operations reported. */
+        protected int m_readyOps;
+
+        /**
+         * Wraps a key.
+         *
+         * @param key the key to wrap or null to let go of the last one.
+         * @param readyOps the ready operations to report.
+         */
+        protected void wrap(SelectionKey key, int readyOps) {
+            m_key = key;
+            m_readyOps = readyOps;
+            attach((key == null) ? null : key.attachment());
+        }
+
+        // Javadoc from superclass
+        public SelectableChannel channel() {
+            return m_key.channel();
+        }
+
+        // Javadoc from superclass
+        public Selector selector() {
+            return m_key.selector();
+        }
+
+        // Javadoc from superclass
+        public boolean isValid() {
+            return m_key.isValid();
+        }
+
+        // Javadoc from superclass
+        public void cancel() {
+            m_key.cancel();
+        }
+
+        // Javadoc from superclass
+        public int interestOps() {
+            return m_key.interestOps();
+        }
+
+        // Javadoc from superclass
+        public SelectionKey interestOps(int ops) {
+            m_key.interestOps(ops);
+            return this;
+        }
+
+        // Javadoc from superclass
+        public int readyOps() {
+            return m_readyOps;
+        }
+    }
+}
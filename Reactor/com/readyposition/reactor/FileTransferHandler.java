@@ -0,0 +1,29 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+/**
+ * The interface for objects that are told when a FileTransfer
+ * finishes.  Every method is invoked on the IOReactor's thread.
+ */
+public interface FileTransferHandler
+{
+    /**
+     * Invoked once every byte of the region has been written.  The
+     * Valve has been handed back to its previous handler.
+     *
+     * @param transfer the transfer that completed.
+     */
+    public void transferCompleted(FileTransfer transfer);
+
+    /**
+     * Invoked when the transfer fails, e.g. because the peer went away
+     * or the file is shorter than the region.  The Valve has been
+     * handed back to its previous handler but is left open; the
+     * handler decides whether to close it.
+     *
+     * @param transfer the transfer that failed.
+     * @param e why it failed.
+     */
+    public void transferFailed(FileTransfer transfer, IOException e);
+}
@@ -0,0 +1,55 @@
+package com.readyposition.reactor;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * Frames messages that are all the same length.  This keeps no state
+ * between invocations so one instance may be shared by every channel
+ * of a reactor.
+ */
+public class FixedLengthFramer
+    implements Decoder, Encoder
+{
+    /** The length of every message. */
+    protected final int m_length;
+
+    /**
+     * Constructs a FixedLengthFramer.
+     *
+     * @param length the length of every message.
+     */
+    public FixedLengthFramer(int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("length == " + length +
+                                               " needs to be > 0");
+        }
+        m_length = length;
+    }
+
+    /** Gets the length of every message. */
+    public int getLength() {
+        return m_length;
+    }
+
+    // Javadoc from interface
+    public int decode(ByteBladder in, Frame frame) {
+        if (frame.getLength() < m_length) {
+            return 0;
+        }
+        frame.set(frame.getOffset(), m_length);
+        return m_length;
+    }
+
+    // Javadoc from interface
+    public int getHeaderLength() {
+        return 0;
+    }
+
+    // Javadoc from interface
+    public void encode(ByteBladder out, int offset, int length) {
+        if (length != m_length) {
+            throw new IllegalArgumentException("length == " + length +
+                                               " needs to be == " + m_length);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.readyposition.reactor;
+
+import java.nio.ByteBuffer;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * A view of one message in a ByteBladder.  The offset is relative to
+ * the bladder's 'out' index, as for ByteBladder's indexed get methods,
+ * so a message is read in place with e.g. in.getInt(frame.getOffset()).
+ *
+ * <p>A CodecChannel reuses a single Frame for every message it decodes
+ * so that no objects are created per message.  Handlers must not hold
+ * on to it.
+ */
+public class Frame
+{
+    /** The index of the first byte relative to 'out'. */
+    protected int m_offset;
+
+    /** The number of bytes. */
+    protected int m_length;
+
+    /** Gets the index of the first byte relative to 'out'. */
+    public int getOffset() {
+        return m_offset;
+    }
+
+    /** Gets the number of bytes. */
+    public int getLength() {
+        return m_length;
+    }
+
+    /**
+     * Sets the bytes this Frame covers.
+     *
+     * @param offset the index of the first byte relative to 'out'.
+     * @param length the number of bytes.
+     */
+    public void set(int offset, int length) {
+        m_offset = offset;
+        m_length = length;
+    }
+
+    /**
+     * Gets the bladder's ByteBuffer with its position and limit set to
+     * the bytes this Frame covers.  The ByteBuffer is the bladder's own
+     * so this neither copies nor allocates.  Until the bladder's
+     * ByteBuffer is set up again (e.g. by getOutBuffer()) its indexed
+     * get methods can't reach past the end of the frame.
+     *
+     * @param bladder the ByteBladder the frame is in.
+     * @return the bladder's ByteBuffer.
+     */
+    public ByteBuffer getBuffer(ByteBladder bladder) {
+        int start = bladder.getOut() + m_offset;
+        return bladder.getCustomBuffer(start + m_length, start);
+    }
+}
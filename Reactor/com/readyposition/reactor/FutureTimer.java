@@ -0,0 +1,148 @@
+package com.readyposition.reactor;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Abstract base class for a timer whose result another thread needs.
+ * If the same FutureTimer object is to be submitted again, then the
+ * reset() method needs to be called before submission.
+ *
+ * <p>As with FutureWork, completion is published through a
+ * CompletableFuture that is completed on the reactor's thread.  If the
+ * timer is canceled the future is canceled too.
+ *
+ * @param <T> the type of the result.
+ */
+public abstract class FutureTimer<T> extends Timer {
+    /** Completed when the timer is all done. */
+    protected volatile CompletableFuture<T> m_future =
+        new CompletableFuture<T>();
+
+    /** The result to complete the future with. */
+    protected T m_result;
+
+    /** Resets to an uncompleted state. */
+    public void reset() {
+        m_result = null;
+        m_future = new CompletableFuture<T>();
+    }
+
+    /**
+     * Gets the future that completes when the timer is all done.  A
+     * new future is made by reset().
+     *
+     * @return the future for this submission of the timer.
+     */
+    public CompletableFuture<T> getFuture() {
+        return m_future;
+    }
+
+    /**
+     * Sets the result the future will complete with.  This is meant to
+     * be called by doTimer() before it returns 0.
+     *
+     * @param result the result of the timer.
+     */
+    protected void setResult(T result) {
+        m_result = result;
+    }
+
+    /**
+     * Cancels this timer and its future.
+     *
+     * @return true if the Timer was able to be canceled or it was
+     * already canceled.
+     */
+    public boolean cancel() {
+        if (!super.cancel()) {
+            return false;
+        }
+        m_future.cancel(false);
+        return true;
+    }
+
+    /**
+     * Blocks until the timer has completed or been canceled.  If the
+     * thread is interrupted it keeps waiting, but its interrupt status
+     * is set again before returning.
+     */
+    public void await() {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                m_future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            } catch (CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocks until the timer has completed or a timeout expires.
+     *
+     * @param timeout the most time to wait for.
+     * @param unit the units of timeout.
+     * @return true if the timer has completed, false if the time ran out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean await(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        try {
+            m_future.get(timeout, unit);
+        } catch (ExecutionException e) {
+        } catch (CancellationException e) {
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the timer has completed.
+     *
+     * @return true if the timer has completed.
+     */
+    public boolean isCompleted() {
+        return m_future.isDone();
+    }
+
+    /**
+     * The method that will invoke an overridden doTimer method. While
+     * doTimer returns a resubmission time then the timer will be
+     * resubmitted and the timer is not considered to have been
+     * completed yet.  If doTimer throws then the future is completed
+     * exceptionally.
+     */
+    public long timerFire(long scheduledTime, long actualTime) {
+        long nextTime;
+        try {
+            nextTime = doTimer(scheduledTime, actualTime);
+        } catch (RuntimeException e) {
+            m_future.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            m_future.completeExceptionally(e);
+            throw e;
+        }
+        if (nextTime == 0L) {
+            m_future.complete(m_result);
+        }
+        return nextTime;
+    }
+
+    /** Override this to provide work logic. */
+    public abstract long doTimer(long scheduledTime, long actualTime);
+}
@@ -0,0 +1,163 @@
+package com.readyposition.reactor;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Abstract base class for work whose result another thread needs.
+ * If the same FutureWork object is to be submitted again, then the
+ * reset() method needs to be called before submission.
+ *
+ * <p>Completion is published through a CompletableFuture, which is
+ * completed on the reactor's thread without taking any monitor.
+ * Stages attached to it with the non-async methods (thenApply() and so
+ * on) before it completes run on the reactor's thread too, so they
+ * need to be quick.  Callers waiting on several reactors can combine
+ * the futures (e.g. CompletableFuture.allOf()) instead of parking a
+ * thread for each one.
+ *
+ * <p>If the work is canceled the future is canceled too, and if the
+ * reactor drops it (see SubmissionPolicy.DROP_OLDEST) the future is
+ * completed with a RejectedExecutionException, so nothing waits for
+ * work that will never be done.
+ *
+ * @param <T> the type of the result.
+ */
+public abstract class FutureWork<T> extends Work {
+    /** Completed when the work has completed. */
+    protected volatile CompletableFuture<T> m_future =
+        new CompletableFuture<T>();
+
+    /** The result to complete the future with. */
+    protected T m_result;
+
+    /** Resets to an uncompleted state. */
+    public void reset() {
+        m_result = null;
+        m_future = new CompletableFuture<T>();
+    }
+
+    /**
+     * Gets the future that completes when the work has completed.  A
+     * new future is made by reset().
+     *
+     * @return the future for this submission of the work.
+     */
+    public CompletableFuture<T> getFuture() {
+        return m_future;
+    }
+
+    /**
+     * Sets the result the future will complete with.  This is meant to
+     * be called by doWork() before it returns false.
+     *
+     * @param result the result of the work.
+     */
+    protected void setResult(T result) {
+        m_result = result;
+    }
+
+    /**
+     * Cancels this work and its future.
+     *
+     * @return true if the Work was able to be canceled or it was
+     * already canceled.
+     */
+    public boolean cancel() {
+        if (!super.cancel()) {
+            return false;
+        }
+        m_future.cancel(false);
+        return true;
+    }
+
+    // Javadoc from superclass
+    protected void workDropped() {
+        m_future.completeExceptionally(
+            new RejectedExecutionException("Dropped by a full backlog"));
+    }
+
+    /**
+     * Blocks until the work has completed, been canceled or been
+     * dropped.  If the thread is interrupted it keeps waiting, but its
+     * interrupt status is set again before returning.
+     */
+    public void await() {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                m_future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            } catch (CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocks until the work has completed or a timeout expires.
+     *
+     * @param timeout the most time to wait for.
+     * @param unit the units of timeout.
+     * @return true if the work has completed, false if the time ran out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean await(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        try {
+            m_future.get(timeout, unit);
+        } catch (ExecutionException e) {
+        } catch (CancellationException e) {
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the work has completed.
+     * @return true if the work has completed.
+     */
+    public boolean isCompleted() {
+        return m_future.isDone();
+    }
+
+    /**
+     * The method that will invoke an overridden doWork method. While doWork
+     * returns true then the work will be resubmitted and the work is not
+     * considered to have been completed yet.  If doWork throws then the
+     * future is completed exceptionally.
+     */
+    public boolean workFire() {
+        boolean continueWorking;
+        try {
+            continueWorking = doWork();
+        } catch (RuntimeException e) {
+            m_future.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            m_future.completeExceptionally(e);
+            throw e;
+        }
+        if (continueWorking) {
+            return true;
+        }
+        m_future.complete(m_result);
+        return false;
+    }
+
+    /** Override this to provide work logic. */
+    public abstract boolean doWork();
+}
@@ -0,0 +1,64 @@
+package com.readyposition.reactor;
+
+import com.readyposition.collections.heap.HeapLongG;
+
+/**
+ * A TimerStore that keeps Timers in a binary heap ordered by firing
+ * time.  Insertion and removal are O(log n).  This is the default
+ * store used by TimerReactor.
+ */
+public class HeapTimerStore implements TimerStore
+{
+    /** A heap of the registered timers ordered by firing time. */
+    protected HeapLongG<Timer> m_timerHeap = new HeapLongG<Timer>();
+
+    // Javadoc from interface
+    public void insert(Timer timer, long now) {
+        timer.setEntry(m_timerHeap.insert(timer.getDeadline(), timer));
+    }
+
+    // Javadoc from interface
+    public void remove(Timer timer) {
+        int entry = timer.getEntry();
+        if (entry != -1) {
+            m_timerHeap.remove(entry);
+            timer.setEntry(-1);
+        }
+    }
+
+    // Javadoc from interface
+    public long getNextTime() {
+        return m_timerHeap.getEntryKey(m_timerHeap.peek());
+    }
+
+    // Javadoc from interface
+    public boolean isNextNanos() {
+        return m_timerHeap.getEntryValue(m_timerHeap.peek()).isNanos();
+    }
+
+    // Javadoc from interface
+    public void expire(long now, Timer ripe) {
+        while (m_timerHeap.getSize() > 0) {
+            // Check to see if the first timer left on the heap is ripe.
+            int entry = m_timerHeap.peek();
+            long fireTime = m_timerHeap.getEntryKey(entry);
+            if (fireTime > now) {
+                // We have consumed any ripe timers on the heap.
+                break;
+            }
+
+            // Remove the timer from the heap
+            Timer timer = m_timerHeap.getEntryValue(entry);
+            m_timerHeap.remove(entry);
+            timer.setEntry(-1);
+
+            // Place the timer on the ripe queue
+            ripe.insertLeft(timer);
+        }
+    }
+
+    // Javadoc from interface
+    public int getSize() {
+        return m_timerHeap.getSize();
+    }
+}
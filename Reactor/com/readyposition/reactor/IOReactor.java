@@ -3,9 +3,11 @@ package com.readyposition.reactor;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +26,93 @@ public class IOReactor extends TimerReactor
     /** The Selector object used to do I/O multiplexing. */
     protected Selector m_selector;
 
+    /**
+     * The number of channels registered with the Selector as of the
+     * last pass through the reactor loop.
+     */
+    protected volatile int m_channelCount;
+
+    /**
+     * A lock-free stack of Valves with changes requested by other
+     * threads.  Linked through Valve.m_nextPending.
+     */
+    protected final AtomicReference<Valve> m_pendingValves =
+        new AtomicReference<Valve>();
+
+    /**
+     * The keys found ready by the Selector that haven't been handled
+     * yet.  Collecting them here bypasses the Selector's selected-key
+     * HashSet and the garbage its iterator makes.
+     */
+    protected SelectionKey[] m_readyKeys = new SelectionKey[64];
+
+    /** The number of keys in m_readyKeys. */
+    protected int m_readyCount;
+
+    /** The most ready channels handled per pass or 0 for no limit. */
+    protected volatile int m_keyBudget;
+
+    /** Corked channels to write at the end of the pass. */
+    protected ArrayList<VectoredChannel> m_dirtyChannels =
+        new ArrayList<VectoredChannel>();
+
+    /**
+     * The channels being written by flushDirtyChannels(), swapped with
+     * m_dirtyChannels so neither list is allocated per pass.
+     */
+    protected ArrayList<VectoredChannel> m_flushingChannels =
+        new ArrayList<VectoredChannel>();
+
+    /** The default value for m_idleSweepInterval. */
+    public final static long DEFAULT_IDLE_SWEEP_INTERVAL = 1000L;
+
+    /**
+     * When the current pass through the loop started (a la
+     * System.nanoTime()) and so when the channels handled in it were
+     * last active.  Only read from the clock while channels are tracked
+     * for idleness.
+     */
+    protected long m_activityTime;
+
+    /** The first of the Anchors tracked for idleness, linked by m_idleNext. */
+    protected Anchor m_idleHead;
+
+    /** The number of Anchors tracked for idleness. */
+    protected int m_idleCount;
+
+    /** The next Anchor the idle sweep will look at. */
+    protected Anchor m_idleCursor;
+
+    /** The milliseconds between idle sweeps. */
+    protected volatile long m_idleSweepInterval = DEFAULT_IDLE_SWEEP_INTERVAL;
+
+    /** Fires the idle sweep or null while nothing is tracked. */
+    protected Timer m_idleTimer;
+
+    /** Looks for tracked channels that have gone quiet. */
+    protected final TimerHandler m_idleSweeper = new TimerHandler() {
+            public long timerFire(long scheduledTime, long actualTime) {
+                if (m_idleHead == null) {
+                    m_idleTimer = null;
+                    return 0L;
+                }
+                idleSweep(System.nanoTime());
+                return actualTime + m_idleSweepInterval;
+            }
+        };
+
+    /** Handed to the Selector to collect ready keys in m_readyKeys. */
+    protected final Consumer<SelectionKey> m_collector =
+        new Consumer<SelectionKey>() {
+            public void accept(SelectionKey key) {
+                if (m_readyCount == m_readyKeys.length) {
+                    m_readyKeys = Arrays.copyOf(m_readyKeys,
+                                                m_readyCount * 2);
+                }
+                m_readyKeys[m_readyCount++] = key;
+            }
+        };
+
     /**
      * Returns a default IOReactor instance. Every call to this method
      * returns the same IOReactor instance.  In general, there should
@@ -63,16 +152,30 @@ public class IOReactor extends TimerReactor
         return reactor;
     }
 
+    /**
+     * Returns a named IOReactor instance that keeps its timers in a
+     * specific TimerStore.
+     *
+     * @param name the name to assign to the IOReactor thread.
+     * @param timerStore the TimerStore to use (e.g. a WheelTimerStore).
+     * @return an IOReactor instance.
+     */
+    public static IOReactor getIOReactor(String name, TimerStore timerStore) {
+        IOReactor reactor = new IOReactor(name, timerStore);
+        reactor.getThread().start();
+        return reactor;
+    }
+
     /**
      * Constructs a IOReactor instance. The constructor does not start the
      * thread. It is necessary to call start() after the IOReactor has been
      * constructed.
      *
-     * @param name
-     *            the name to assign to the IOReactor thread.
+     * @param name the name to assign to the IOReactor thread.
+     * @param timerStore the TimerStore that will hold the timers.
      */
-    protected IOReactor(String name) {
-        super(name);
+    protected IOReactor(String name, TimerStore timerStore) {
+        super(name, timerStore);
         s_timerReactorCount.incrementAndGet();
         try {
             m_selector = Selector.open();
@@ -81,6 +184,18 @@ public class IOReactor extends TimerReactor
         }
     }
 
+    /**
+     * Constructs a IOReactor instance. The constructor does not start the
+     * thread. It is necessary to call start() after the IOReactor has been
+     * constructed.
+     *
+     * @param name
+     *            the name to assign to the IOReactor thread.
+     */
+    protected IOReactor(String name) {
+        this(name, new HeapTimerStore());
+    }
+
     /**
      * Constructs a IOReactor instance. The constructor does not start the
      * thread. It is necessary to call start() after the IOReactor has been
@@ -92,31 +207,78 @@ public class IOReactor extends TimerReactor
     }
 
     /**
-     * Wait until there is something to do.  If there are ripe timers or there
-     * is any work registered, then this will return right away.  Otherwise,
-     * we will wait until either a timer becomes ripe or until we are woken
-     * up (e.g. when work is submitted or a new timer is registered.
+     * Checks for ready channels without blocking.  Channels that are
+     * already collected but haven't been handled yet count as well.
+     * This is done on every pass through the reactor loop, so it is
+     * also where changes to Valves from other threads are applied.
+     *
+     * @return true if there are ready channels to handle or corked
+     *         channels to write.
      */
-    protected void waitForWork() {
+    protected boolean poll() {
         try {
-            if (isWorkPending()) {
-                // There is work to do and/or ripe timers so don't
-                // block when selecting for IO.
-                m_selector.selectNow();
+            // Bring interest sets up to date before selecting.
+            applyPendingValves();
+            if (m_readyCount == 0) {
+                // Don't select if block() already found something or
+                // the same keys would be collected twice.
+                m_selector.selectNow(m_collector);
+                m_metrics.select();
+            }
+
+            // Channels dirtied during the last flush are written on
+            // this pass rather than after the next wake-up.
+            return m_readyCount > 0 || !m_dirtyChannels.isEmpty();
+        } catch (Throwable t) {
+            // Should never happen
+            s_logger.warn(t.toString(), t);
+            return false;
+        }
+    }
+
+    /**
+     * Blocks in the Selector until a channel is ready, a timer becomes
+     * ripe, a time limit passes or we are woken up (e.g. when work is
+     * submitted or a new timer is registered).
+     *
+     * @param nanos the most nanoseconds to block for or -1 to block for
+     *              as long as it takes.
+     */
+    protected void block(long nanos) {
+        try {
+            long blockTime = getBlockTime(nanos);
+            if (m_readyCount > 0) {
+                // Never happens through waitForWork(), but don't sit
+                // on channels that are ready already.
+                return;
+            }
+            m_metrics.select();
+            boolean isPrecise = isSleepPrecise();
+            if (blockTime < 0) {
+                m_selector.select(m_collector);
+            } else if (blockTime == 0 ||
+                       (isPrecise &&
+                        getSleepTime() - getSpinTime() < NANOS_PER_MILLI))
+            {
+                // Within the spin time, or less time than the selector
+                // can sleep for before a nanosecond timer.  Poll for
+                // I/O until it has passed.
+                if (m_selector.selectNow(m_collector) == 0) {
+                    Thread.onSpinWait();
+                }
             } else {
-                long sleepTime = getSleepTime();
-                if (sleepTime < 0) {
-                    // There are no timers registered and there is
-                    // no work to do so we will sleep until
-                    // something wakes us up.
-                    m_selector.select();
-                } else {
-                    // There is no work to do yet but there is at least
-                    // one timer registered.  We will wait until the timer
-                    // should be fired or until something wakes us up
-                    // first.
-                    m_selector.select(sleepTime);
+                // The selector only deals in milliseconds.  Round down
+                // before a nanosecond timer and let the reactor loop
+                // come back for the remainder.  Otherwise round up, so
+                // a millisecond timer may be up to a millisecond late,
+                // as it always could, rather than polled for.
+                long millis = blockTime / NANOS_PER_MILLI;
+                if (millis * NANOS_PER_MILLI != blockTime &&
+                    (!isPrecise || millis == 0))
+                {
+                    millis++;
                 }
+                m_selector.select(m_collector, millis);
             }
         } catch (Throwable t) {
             // Should never happen
@@ -126,12 +288,20 @@ public class IOReactor extends TimerReactor
 
     /** Perform any work that the reactor needs to do. */
     protected void doWork() {
-        Set<SelectionKey> keys = m_selector.selectedKeys();
-        Iterator<SelectionKey> iterator = keys.iterator();
-
-        while (iterator.hasNext()) {
-            SelectionKey key = iterator.next();
-            Anchor anchor = (Anchor)key.attachment();
+        // Keys collected after this point wait for the next pass.
+        SelectionKey[] keys = m_readyKeys;
+        int count = m_readyCount;
+        m_readyCount = 0;
+        int budget = m_keyBudget;
+        int limit = (budget > 0 && budget < count) ? budget : count;
+        long deadline = getPhaseDeadline();
+        if (m_idleHead != null) {
+            m_activityTime = System.nanoTime();
+        }
+        int i = 0;
+        while (i < limit) {
+            SelectionKey key = keys[i];
+            keys[i++] = null;
             int ops = 0;
             try {
                 if (key.isValid()) {
@@ -139,15 +309,302 @@ public class IOReactor extends TimerReactor
                 }
             } catch (Throwable t) {
                 s_logger.warn(t.toString(), t);
-            } finally {
-                iterator.remove();
             }
-            anchor.fire(ops);
+            ((Anchor)key.attachment()).fire(ops);
+            if (isPastDeadline(deadline)) {
+                break;
+            }
+        }
+        if (i < count) {
+            // The budget ran out.  The rest are handled first on the
+            // next pass, which won't select until they have been.
+            System.arraycopy(keys, i, keys, 0, count - i);
+            Arrays.fill(keys, Math.max(i, count - i), count, null);
+            m_readyCount = count - i;
+            m_metrics.carriedOver();
         }
 
         // We're done with any SelectableChannels that were ready so
         // we can now handle timers and work.
         super.doWork();
+
+        // Everything has had its say so write what the cork held back.
+        flushDirtyChannels();
+
+        // Work may have registered or closed channels.
+        m_channelCount = m_selector.keys().size();
+    }
+
+    /**
+     * Arranges for a corked channel to be written at the end of the
+     * pass.
+     *
+     * @param channel the channel with writes held back.
+     */
+    void flushLater(VectoredChannel channel) {
+        m_dirtyChannels.add(channel);
+    }
+
+    /** Writes every corked channel that has writes held back. */
+    protected void flushDirtyChannels() {
+        if (m_dirtyChannels.isEmpty()) {
+            return;
+        }
+
+        // A writeDrained() handler may write again.  Those channels go
+        // on the fresh list and wait for the next pass, or a channel
+        // that keeps writing could hold this one forever.
+        ArrayList<VectoredChannel> channels = m_dirtyChannels;
+        m_dirtyChannels = m_flushingChannels;
+        m_flushingChannels = channels;
+        for (int i = 0; i < channels.size(); i++) {
+            try {
+                channels.get(i).flushCorked();
+            } catch (Throwable t) {
+                s_logger.warn(t.toString(), t);
+            }
+        }
+        channels.clear();
+    }
+
+    /**
+     * Gets the number of channels registered with this reactor.  This
+     * may be invoked from any thread but is only updated once per pass
+     * through the reactor loop.
+     *
+     * @return the approximate number of registered channels.
+     */
+    public int getChannelCount() {
+        return m_channelCount;
+    }
+
+    /**
+     * Limits the number of ready channels handled per pass through the
+     * loop.  Channels that don't get handled wait for the next pass,
+     * ahead of any found ready later.  This may be invoked from any
+     * thread.
+     *
+     * @param budget the most channels handled per pass or 0 for no
+     *               limit.
+     */
+    public void setKeyBudget(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget == " + budget +
+                                               " needs to be >= 0");
+        }
+        m_keyBudget = budget;
+    }
+
+    /** Gets the most ready channels handled per pass or 0 for no limit. */
+    public int getKeyBudget() {
+        return m_keyBudget;
+    }
+
+    /**
+     * Starts tracking a channel for idleness, or changes how it is
+     * tracked.  Rather than a timer per channel that is pushed back on
+     * every read, the reactor notes when each tracked channel was last
+     * active and a single periodic sweep looks for those that have been
+     * quiet for too long, so activity costs next to nothing.  A channel
+     * is active whenever one of its Valves fires or idleTouch() is
+     * invoked.  Timeouts are only as precise as the sweep interval.
+     *
+     * <p>Tracking stops when the Valve is closed or idleUntrack() is
+     * invoked.  This must be invoked on the reactor's thread.  Other
+     * threads can submit a Work.
+     *
+     * @param valve a Valve registered with this reactor.
+     * @param timeout the number of milliseconds the channel may be
+     *                quiet for.
+     * @param handler told when the channel has been quiet for timeout.
+     */
+    public void idleTrack(Valve valve, long timeout, IdleHandler handler) {
+        checkIdleThread();
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout == " + timeout +
+                                               " needs to be > 0");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        if (valve.getIOReactor() != this || valve.getChannel() == null) {
+            throw new IllegalStateException(
+                "Attempt to track a Valve that isn't registered with this reactor.");
+        }
+        SelectionKey key = getSelectionKey(valve.getChannel());
+        if (key == null) {
+            throw new IllegalStateException(
+                "Attempt to track a channel that couldn't be registered.");
+        }
+        Anchor anchor = (Anchor)key.attachment();
+        long now = System.nanoTime();
+        if (m_idleHead == null) {
+            // Channels that fire later in this pass are active now.
+            m_activityTime = now;
+        }
+        anchor.m_lastActivity = now;
+        anchor.m_idleTimeout = timeout * NANOS_PER_MILLI;
+        anchor.m_idleHandler = handler;
+        if (anchor.m_idleValve == null) {
+            anchor.m_idleNext = m_idleHead;
+            if (m_idleHead != null) {
+                m_idleHead.m_idlePrev = anchor;
+            }
+            m_idleHead = anchor;
+            m_idleCount++;
+        }
+        anchor.m_idleValve = valve;
+        if (m_idleTimer == null) {
+            m_idleTimer = timerCreateRel(m_idleSweepInterval, m_idleSweeper);
+        }
+    }
+
+    /**
+     * Stops tracking a channel for idleness.  Nothing happens if it
+     * isn't tracked.  This must be invoked on the reactor's thread.
+     *
+     * @param valve the Valve the channel was tracked with.
+     */
+    public void idleUntrack(Valve valve) {
+        checkIdleThread();
+        Anchor anchor = getIdleAnchor(valve);
+        if (anchor != null) {
+            idleUnlink(anchor);
+        }
+    }
+
+    /**
+     * Marks a tracked channel as active without one of its Valves
+     * firing, e.g. when it is written to from a Work.  Nothing happens
+     * if it isn't tracked.  This must be invoked on the reactor's
+     * thread.
+     *
+     * @param valve the Valve the channel was tracked with.
+     */
+    public void idleTouch(Valve valve) {
+        checkIdleThread();
+        Anchor anchor = getIdleAnchor(valve);
+        if (anchor != null) {
+            anchor.m_lastActivity = m_activityTime;
+        }
+    }
+
+    /**
+     * Gets the number of channels tracked for idleness.  This is only
+     * up to date on the reactor's thread.
+     *
+     * @return the number of channels tracked.
+     */
+    public int getIdleTrackedCount() {
+        return m_idleCount;
+    }
+
+    /**
+     * Sets the number of milliseconds between idle sweeps, which is
+     * how late an idle timeout may be noticed.  This may be invoked
+     * from any thread and takes effect after the next sweep.
+     *
+     * @param interval the milliseconds between sweeps.
+     */
+    public void setIdleSweepInterval(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval == " + interval +
+                                               " needs to be > 0");
+        }
+        m_idleSweepInterval = interval;
+    }
+
+    /** Gets the number of milliseconds between idle sweeps. */
+    public long getIdleSweepInterval() {
+        return m_idleSweepInterval;
+    }
+
+    /**
+     * Gets the Anchor of a channel tracked for idleness.
+     *
+     * @param valve the Valve the channel was tracked with.
+     * @return the Anchor or null if the channel isn't tracked.
+     */
+    protected Anchor getIdleAnchor(Valve valve) {
+        SelectableChannel channel = valve.getChannel();
+        if (channel == null) {
+            return null;
+        }
+        SelectionKey key = channel.keyFor(m_selector);
+        if (key == null) {
+            return null;
+        }
+        Anchor anchor = (Anchor)key.attachment();
+        return (anchor.m_idleValve == null) ? null : anchor;
+    }
+
+    /**
+     * Removes an Anchor from the idle tracking list.
+     *
+     * @param anchor an Anchor that is tracked.
+     */
+    void idleUnlink(Anchor anchor) {
+        if (anchor == m_idleCursor) {
+            // The sweep is about to look at it.  Skip ahead.
+            m_idleCursor = anchor.m_idleNext;
+        }
+        if (anchor.m_idlePrev == null) {
+            m_idleHead = anchor.m_idleNext;
+        } else {
+            anchor.m_idlePrev.m_idleNext = anchor.m_idleNext;
+        }
+        if (anchor.m_idleNext != null) {
+            anchor.m_idleNext.m_idlePrev = anchor.m_idlePrev;
+        }
+        anchor.m_idlePrev = null;
+        anchor.m_idleNext = null;
+        anchor.m_idleValve = null;
+        anchor.m_idleHandler = null;
+        m_idleCount--;
+    }
+
+    /**
+     * Tells the handlers of tracked channels that have been quiet for
+     * their timeout.  Handlers may close or untrack any channel,
+     * including their own.
+     *
+     * @param now the current time (a la System.nanoTime()).
+     */
+    protected void idleSweep(long now) {
+        Anchor anchor = m_idleHead;
+        while (anchor != null) {
+            m_idleCursor = anchor.m_idleNext;
+            if (!anchor.m_selectionKey.isValid()) {
+                // The channel was closed without closing its Valve.
+                idleUnlink(anchor);
+            } else {
+                long idle = now - anchor.m_lastActivity;
+                if (idle >= anchor.m_idleTimeout) {
+                    // Start another timeout in case it stays quiet.
+                    anchor.m_lastActivity = now;
+                    try {
+                        anchor.m_idleHandler.valveIdle(anchor.m_idleValve,
+                                                       idle / NANOS_PER_MILLI);
+                    } catch (Throwable t) {
+                        s_logger.warn(t.toString(), t);
+                    }
+                }
+            }
+            anchor = m_idleCursor;
+        }
+        m_idleCursor = null;
+    }
+
+    /**
+     * Makes sure idle tracking is used on the reactor's thread.
+     *
+     * @throws IllegalStateException if called by another thread.
+     */
+    protected void checkIdleThread() {
+        if (getThread() != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Attempt to use idle tracking outside the reactor's thread.");
+        }
     }
 
     /** Ensures that the reactor notices newly registered work. */
@@ -187,19 +644,19 @@ public class IOReactor extends TimerReactor
         valve.setChannel(channel);
     }
     
-    /** XXX - javadoc */
-    protected void enable(final Valve valve, final int ops) {
+    /**
+     * Enables operations on a Valve.  Requests from other threads are
+     * coalesced and applied on the next pass through the reactor loop.
+     *
+     * @param valve the Valve to enable operations on.
+     * @param ops the operations to enable.
+     */
+    protected void enable(Valve valve, int ops) {
         if (getThread() == Thread.currentThread()) {
+            valve.supersedePending(ops);
             doEnable(valve, ops);
         } else {
-            // We're not in the same thread as the selector so we will submit
-            // this as work to that selector's thread
-            workSubmit(new Work() {
-                    public boolean workFire() {
-                        doEnable(valve, ops);
-                        return false;
-                    }
-                });
+            submitPending(valve, ops, 0, false);
         }
     }
 
@@ -211,19 +668,19 @@ public class IOReactor extends TimerReactor
         key.interestOps(key.interestOps() | ops);
     }
 
-    /** XXX - javadoc */
-    protected void disable(final Valve valve, final int ops) {
+    /**
+     * Disables operations on a Valve.  Requests from other threads are
+     * coalesced and applied on the next pass through the reactor loop.
+     *
+     * @param valve the Valve to disable operations on.
+     * @param ops the operations to disable.
+     */
+    protected void disable(Valve valve, int ops) {
         if (getThread() == Thread.currentThread()) {
+            valve.supersedePending(ops);
             doDisable(valve, ops);
         } else {
-            // We're not in the same thread as the selector so we will submit
-            // this as work to that selector's thread
-            workSubmit(new Work() {
-                    public boolean workFire() {
-                        doDisable(valve, ops);
-                        return false;
-                    }
-                });
+            submitPending(valve, 0, ops, false);
         }
     }
 
@@ -235,22 +692,92 @@ public class IOReactor extends TimerReactor
         key.interestOps(key.interestOps() & ~ops);
     }
 
-    /** XXX - javadoc */
-    protected void close(final Valve valve) {
+    /**
+     * Closes a Valve and its channel.  Requests from other threads are
+     * applied on the next pass through the reactor loop.
+     *
+     * @param valve the Valve to close.
+     */
+    protected void close(Valve valve) {
         if (getThread() == Thread.currentThread()) {
             doClose(valve);
         } else {
-            // We're not in the same thread as the selector so we will submit
-            // this as work to that selector's thread
-            workSubmit(new Work() {
-                    public boolean workFire() {
+            submitPending(valve, 0, 0, true);
+        }
+    }
+
+    /**
+     * Records a change to a Valve requested by another thread.  The
+     * Valve is queued for the reactor at most once no matter how many
+     * changes are made before the reactor gets to it, so this doesn't
+     * allocate anything.
+     *
+     * @param valve the Valve to change.
+     * @param enableOps the operations to enable.
+     * @param disableOps the operations to disable.
+     * @param close true if the Valve is to be closed.
+     */
+    protected void submitPending(Valve valve, int enableOps, int disableOps,
+                                 boolean close)
+    {
+        if (!valve.addPending(enableOps, disableOps, close)) {
+            // Already queued. The reactor will see our change.
+            return;
+        }
+        for (;;) {
+            Valve head = m_pendingValves.get();
+            valve.m_nextPending = head;
+            if (m_pendingValves.compareAndSet(head, valve)) {
+                break;
+            }
+        }
+        signal();
+    }
+
+    /**
+     * Applies the net changes other threads have requested to their
+     * Valves, with a single update of each SelectionKey's interest set.
+     */
+    protected void applyPendingValves() {
+        if (m_pendingValves.get() == null) {
+            return;
+        }
+        Valve valve = m_pendingValves.getAndSet(null);
+        while (valve != null) {
+            // Unlink first.  The Valve can be queued again as soon as
+            // its pending changes are taken.
+            Valve next = valve.m_nextPending;
+            valve.m_nextPending = null;
+            int pending = valve.takePending();
+            if (valve.getIOReactor() == this && valve.getChannel() != null) {
+                try {
+                    int enableOps = pending & Valve.PENDING_OPS_MASK;
+                    int disableOps = (pending >> Valve.PENDING_DISABLE_SHIFT) &
+                        Valve.PENDING_OPS_MASK;
+                    if ((enableOps | disableOps) != 0) {
+                        SelectionKey key = getSelectionKey(valve.getChannel());
+                        Anchor anchor = (Anchor)key.attachment();
+                        anchor.register(valve, enableOps);
+                        anchor.unregister(valve, disableOps);
+                        key.interestOps((key.interestOps() | enableOps) &
+                                        ~disableOps);
+                    }
+                    if ((pending & Valve.PENDING_CLOSE) != 0) {
                         doClose(valve);
-                        return false;
                     }
-                });
+                } catch (Throwable t) {
+                    s_logger.warn(t.toString(), t);
+                }
+            }
+            valve = next;
         }
     }
 
+    // Javadoc from superclass
+    protected boolean isSubmissionPending() {
+        return m_pendingValves.get() != null || super.isSubmissionPending();
+    }
+
     /** XXX - javadoc */
     protected void doClose(Valve valve) {
         if (valve.getIOReactor() == null || valve.getChannel() == null) {
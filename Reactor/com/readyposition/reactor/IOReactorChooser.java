@@ -0,0 +1,20 @@
+package com.readyposition.reactor;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Policy used by an IOReactorGroup to decide which of its reactors a
+ * newly accepted channel is handed to.  A chooser may be invoked by
+ * several acceptor threads at once.
+ */
+public interface IOReactorChooser
+{
+    /**
+     * Chooses the reactor that will own a channel for its lifetime.
+     *
+     * @param group the group choosing among its reactors.
+     * @param channel the newly accepted channel.
+     * @return the index of the chosen reactor within the group.
+     */
+    int choose(IOReactorGroup group, SocketChannel channel);
+}
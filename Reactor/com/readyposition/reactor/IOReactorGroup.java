@@ -0,0 +1,210 @@
+package com.readyposition.reactor;
+
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A group of IOReactors that share the channels accepted by one or
+ * more Acceptors.  Each channel is handed to a single reactor, chosen
+ * by an IOReactorChooser, and stays there for its whole lifetime.  Its
+ * Valve, its timers and the AcceptorListener callbacks for it are all
+ * handled by that reactor's thread so they need no locking.
+ */
+public class IOReactorGroup
+{
+    /** The reactors in this group. */
+    protected final IOReactor[] m_reactors;
+
+    /**
+     * The number of channels handed to each reactor that it hasn't
+     * taken ownership of yet.
+     */
+    protected final AtomicIntegerArray m_handOffs;
+
+    /** Decides which reactor each channel is handed to. */
+    protected volatile IOReactorChooser m_chooser;
+
+    /**
+     * Returns a named IOReactorGroup with one IOReactor per available
+     * processor that hands out channels round-robin.
+     *
+     * @param name the name of the group.  The reactor threads are
+     *             named name_0, name_1 and so on.
+     * @return an IOReactorGroup instance.
+     */
+    public static IOReactorGroup getIOReactorGroup(String name) {
+        return getIOReactorGroup(name,
+                                 Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns a named IOReactorGroup that hands out channels
+     * round-robin.
+     *
+     * @param name the name of the group.
+     * @param size the number of IOReactors in the group.
+     * @return an IOReactorGroup instance.
+     */
+    public static IOReactorGroup getIOReactorGroup(String name, int size) {
+        return getIOReactorGroup(name, size, new RoundRobinChooser());
+    }
+
+    /**
+     * Returns a named IOReactorGroup.
+     *
+     * @param name the name of the group.
+     * @param size the number of IOReactors in the group.
+     * @param chooser decides which reactor each channel is handed to.
+     * @return an IOReactorGroup instance.
+     */
+    public static IOReactorGroup getIOReactorGroup(String name, int size,
+                                                   IOReactorChooser chooser)
+    {
+        IOReactorGroup group = new IOReactorGroup(name, size, chooser);
+        for (int i = 0; i < group.m_reactors.length; i++) {
+            group.m_reactors[i].getThread().start();
+        }
+        return group;
+    }
+
+    /**
+     * Constructs an IOReactorGroup.  The constructor does not start the
+     * reactor threads.
+     *
+     * @param name the name of the group.
+     * @param size the number of IOReactors in the group.
+     * @param chooser decides which reactor each channel is handed to.
+     */
+    protected IOReactorGroup(String name, int size, IOReactorChooser chooser) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size == " + size +
+                                               " needs to be > 0");
+        }
+        setChooser(chooser);
+        m_reactors = new IOReactor[size];
+        m_handOffs = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            m_reactors[i] = new IOReactor(name + "_" + i);
+        }
+    }
+
+    /** Gets the number of IOReactors in this group. */
+    public int getSize() {
+        return m_reactors.length;
+    }
+
+    /**
+     * Gets one of the IOReactors in this group.
+     *
+     * @param index the index of the reactor.
+     * @return the IOReactor at that index.
+     */
+    public IOReactor getIOReactor(int index) {
+        return m_reactors[index];
+    }
+
+    /**
+     * Gets the approximate number of channels owned by, or on their way
+     * to, one of the reactors in this group.  This may be invoked from
+     * any thread.
+     *
+     * @param index the index of the reactor.
+     * @return the number of channels for that reactor.
+     */
+    public int getLoad(int index) {
+        return m_reactors[index].getChannelCount() + m_handOffs.get(index);
+    }
+
+    /**
+     * Sets the policy that decides which reactor each channel is
+     * handed to.
+     *
+     * @param chooser the IOReactorChooser to use.
+     */
+    public void setChooser(IOReactorChooser chooser) {
+        if (chooser == null) {
+            throw new IllegalArgumentException("chooser is null");
+        }
+        m_chooser = chooser;
+    }
+
+    /** Gets the policy that decides which reactor a channel goes to. */
+    public IOReactorChooser getChooser() {
+        return m_chooser;
+    }
+
+    /**
+     * Hands a newly accepted channel to one of the reactors in this
+     * group.  The listener's accepted() method is invoked on the
+     * chosen reactor's thread.  If it fails, the listener's
+     * acceptFailed() method is invoked on that thread as well and the
+     * channel is closed.  If the reactor's backlog is full and its
+     * policy refuses the hand-off (CALLER_RUNS included, since the
+     * channel must not be handled here), acceptFailed() is invoked on
+     * this thread instead.
+     *
+     * @param channel the newly accepted, non-blocking channel.
+     * @param listener the listener to be informed of the channel.
+     */
+    public void handOff(final SocketChannel channel,
+                        final AcceptorListener listener)
+    {
+        int index = m_chooser.choose(this, channel);
+        final IOReactor reactor = m_reactors[index];
+        if (reactor.getThread() == Thread.currentThread()) {
+            // Already on the right thread.
+            accepted(reactor, channel, listener);
+            return;
+        }
+
+        final int handOff = index;
+        m_handOffs.incrementAndGet(handOff);
+        try {
+            // Never run on this thread, whatever the reactor's policy.
+            reactor.workSubmitOnThread(new Work() {
+                    public boolean workFire() {
+                        m_handOffs.decrementAndGet(handOff);
+                        accepted(reactor, channel, listener);
+                        return false;
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            // The reactor's backlog is full.
+            m_handOffs.decrementAndGet(handOff);
+            try {
+                channel.close();
+            } catch (Throwable t) {
+            }
+            listener.acceptFailed(e);
+        }
+    }
+
+    /**
+     * Informs a listener that a reactor owns a channel now.
+     *
+     * @param reactor the reactor that owns the channel.
+     * @param channel the newly accepted channel.
+     * @param listener the listener to be informed of the channel.
+     */
+    protected void accepted(IOReactor reactor, SocketChannel channel,
+                            AcceptorListener listener)
+    {
+        try {
+            listener.accepted(reactor, channel);
+        } catch (Throwable t) {
+            try {
+                channel.close();
+            } catch (Throwable t2) {
+            }
+            listener.acceptFailed(t);
+        }
+    }
+
+    /** Instructs every IOReactor in this group to stop running. */
+    public void shutdown() {
+        for (int i = 0; i < m_reactors.length; i++) {
+            m_reactors[i].shutdown();
+        }
+    }
+}
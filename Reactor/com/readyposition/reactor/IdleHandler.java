@@ -0,0 +1,21 @@
+package com.readyposition.reactor;
+
+/**
+ * The interface for objects that are told when a channel tracked with
+ * IOReactor.idleTrack() has gone quiet.  Every method is invoked on the
+ * IOReactor's thread.
+ */
+public interface IdleHandler
+{
+    /**
+     * Invoked when nothing has happened on a channel for at least its
+     * idle timeout.  The channel stays tracked, so unless it is closed,
+     * untracked or becomes active this is invoked again after another
+     * timeout.
+     *
+     * @param valve the Valve the channel was tracked with.
+     * @param idleTime the number of milliseconds since the channel was
+     *                 last active.
+     */
+    public void valveIdle(Valve valve, long idleTime);
+}
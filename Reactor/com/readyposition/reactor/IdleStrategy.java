@@ -0,0 +1,31 @@
+package com.readyposition.reactor;
+
+/**
+ * An IdleStrategy decides what a reactor's thread does when a pass
+ * through the loop finds nothing to do.  Blocking frees the CPU but
+ * every submission from another thread then pays for a wakeup.
+ * Spinning keeps the thread hot so that work, timers and I/O are
+ * noticed as soon as they appear.
+ *
+ * <p>The reactor polls for work, ripe timers and (for an IOReactor)
+ * ready channels between calls so a strategy only needs to decide how
+ * long to get out of the way for.  Strategies are invoked only by the
+ * reactor's thread and keep no state of their own, so one instance may
+ * be shared by any number of reactors.
+ *
+ * @see WorkReactor#setIdleStrategy(IdleStrategy)
+ */
+public interface IdleStrategy
+{
+    /**
+     * Invoked by the reactor's thread each time it finds nothing to
+     * do.  Implementations may use WorkReactor.park() to block until
+     * something happens.
+     *
+     * @param reactor the reactor that is idle.
+     * @param idleCount the number of times this method has already been
+     *                  invoked since the reactor last found something
+     *                  to do.
+     */
+    void idle(WorkReactor reactor, int idleCount);
+}
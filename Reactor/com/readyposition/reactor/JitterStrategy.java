@@ -0,0 +1,25 @@
+package com.readyposition.reactor;
+
+/**
+ * How a BackOff spreads out its delays.  Without jitter every client
+ * that failed at the same moment (e.g. because a server restarted)
+ * retries at the same moments too, hitting the server in waves.
+ */
+public enum JitterStrategy {
+    /** The delay doubles each time, exactly. */
+    NONE,
+
+    /**
+     * The delay is picked at random between 0 and the exponentially
+     * growing ceiling.  This spreads retries out the most.
+     */
+    FULL,
+
+    /**
+     * The delay is picked at random between the minimum and three
+     * times the last delay, capped at the maximum.  Delays grow about
+     * as fast as with FULL, but each client's sequence wanders on its
+     * own rather than following a shared ceiling.
+     */
+    DECORRELATED
+}
@@ -0,0 +1,157 @@
+package com.readyposition.reactor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets (in
+ * the style of HdrHistogram).  Every power of two is split into
+ * SUB_BUCKETS equal buckets, so any recorded value is known to within
+ * about 6% while the whole range of a long fits in under a thousand
+ * buckets.
+ *
+ * <p>There must only be one recording thread (e.g. a reactor's own
+ * thread) so recording needs no locks or atomic read-modify-write
+ * instructions.  Any thread may read the histogram at any time.  A
+ * reader racing with the recorder may see the counts of a value or
+ * two disagree slightly with getCount().
+ */
+public class LatencyHistogram
+{
+    /** The number of bits of each value that pick its sub-bucket. */
+    protected final static int SUB_BUCKET_BITS = 4;
+
+    /** The number of buckets each power of two is split into. */
+    public final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The number of buckets needed for every non-negative long. */
+    protected final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** The number of values recorded in each bucket. */
+    protected final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+
+    /** The number of values recorded. */
+    protected final AtomicLong m_count = new AtomicLong();
+
+    /** The sum of the values recorded. */
+    protected final AtomicLong m_total = new AtomicLong();
+
+    /** The largest value recorded. */
+    protected final AtomicLong m_max = new AtomicLong();
+
+    /**
+     * Records a value.  This must only be called by the recording
+     * thread.  Negative values are recorded as 0.
+     *
+     * @param value the value (usually nanoseconds) to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = getIndex(value);
+        m_counts.lazySet(index, m_counts.get(index) + 1);
+        m_count.lazySet(m_count.get() + 1);
+        m_total.lazySet(m_total.get() + value);
+        if (value > m_max.get()) {
+            m_max.lazySet(value);
+        }
+    }
+
+    /**
+     * Works out which bucket a value belongs in.
+     *
+     * @param value a non-negative value.
+     * @return the index of its bucket.
+     */
+    protected static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int)(value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Works out the smallest value that belongs in a bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the smallest value in that bucket.
+     */
+    protected static long getLowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << shift;
+    }
+
+    /** Gets the number of values recorded. */
+    public long getCount() {
+        return m_count.get();
+    }
+
+    /** Gets the sum of the values recorded. */
+    public long getTotal() {
+        return m_total.get();
+    }
+
+    /** Gets the largest value recorded or 0 if there are none. */
+    public long getMax() {
+        return m_max.get();
+    }
+
+    /** Gets the mean of the values recorded or 0 if there are none. */
+    public double getMean() {
+        long count = m_count.get();
+        return (count == 0) ? 0.0 : (double)m_total.get() / count;
+    }
+
+    /**
+     * Gets a value that the given percentage of recorded values are no
+     * larger than.  The answer is the top of the bucket the percentile
+     * falls in so it may overstate the true value by about 6%.
+     *
+     * @param percentile the percentile (e.g. 99.9).
+     * @return the value at that percentile or 0 if there are none.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile == " + percentile +
+                                               " needs to be >= 0 and <= 100");
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += m_counts.get(i);
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long)Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += m_counts.get(i);
+            if (seen >= target) {
+                long top = (i + 1 < BUCKETS) ? getLowestValue(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(top, m_max.get());
+            }
+        }
+        return m_max.get();
+    }
+
+    /**
+     * Summarizes the histogram on one line.
+     *
+     * @return the count, mean, some percentiles and the max.
+     */
+    public String toString() {
+        return String.format(
+            "count=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+            getCount(), getMean(), getValueAtPercentile(50.0),
+            getValueAtPercentile(90.0), getValueAtPercentile(99.0),
+            getValueAtPercentile(99.9), getMax());
+    }
+}
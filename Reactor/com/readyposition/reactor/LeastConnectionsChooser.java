@@ -0,0 +1,28 @@
+package com.readyposition.reactor;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * An IOReactorChooser that hands each channel to the reactor of a
+ * group with the fewest channels.  This evens out the load when
+ * connections have very different lifetimes.  Ties go to the reactor
+ * with the lowest index.
+ *
+ * @see IOReactorGroup#getLoad(int)
+ */
+public class LeastConnectionsChooser implements IOReactorChooser
+{
+    // Javadoc from interface
+    public int choose(IOReactorGroup group, SocketChannel channel) {
+        int result = 0;
+        int least = Integer.MAX_VALUE;
+        for (int i = 0; i < group.getSize(); i++) {
+            int load = group.getLoad(i);
+            if (load < least) {
+                least = load;
+                result = i;
+            }
+        }
+        return result;
+    }
+}
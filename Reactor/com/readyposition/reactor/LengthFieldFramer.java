@@ -0,0 +1,125 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * Frames messages with an unsigned length prefix of 1, 2 or 4 bytes in
+ * the bladder's byte order.  The length doesn't include the prefix.
+ * This keeps no state between invocations so one instance may be
+ * shared by every channel of a reactor.
+ */
+public class LengthFieldFramer
+    implements Decoder, Encoder
+{
+    /** The number of bytes in the length prefix. */
+    protected final int m_fieldLength;
+
+    /** The largest message accepted. */
+    protected final int m_maxLength;
+
+    /**
+     * Constructs a LengthFieldFramer.
+     *
+     * @param fieldLength the number of bytes in the prefix: 1, 2 or 4.
+     * @param maxLength the largest message accepted.  A longer one is
+     *                  taken to mean the stream is corrupt.  It needs to
+     *                  fit in the prefix: at most 255 for 1 byte and
+     *                  65535 for 2.  With the prefix it also needs to
+     *                  fit in an int.
+     */
+    public LengthFieldFramer(int fieldLength, int maxLength) {
+        if (fieldLength != 1 && fieldLength != 2 && fieldLength != 4) {
+            throw new IllegalArgumentException("fieldLength == " + fieldLength +
+                                               " needs to be 1, 2 or 4");
+        }
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("maxLength == " + maxLength +
+                                               " needs to be >= 0");
+        }
+        if (fieldLength < 4 && maxLength >= 1 << (8 * fieldLength)) {
+            // encode() would truncate the length.
+            throw new IllegalArgumentException("maxLength == " + maxLength +
+                                               " needs to be < " +
+                                               (1 << (8 * fieldLength)) +
+                                               " for a " + fieldLength +
+                                               " byte field");
+        }
+        if (maxLength > Integer.MAX_VALUE - fieldLength) {
+            // decode() would overflow adding the prefix.
+            throw new IllegalArgumentException("maxLength == " + maxLength +
+                                               " needs to be <= " +
+                                               (Integer.MAX_VALUE - fieldLength) +
+                                               " for a " + fieldLength +
+                                               " byte field");
+        }
+        m_fieldLength = fieldLength;
+        m_maxLength = maxLength;
+    }
+
+    /** Gets the number of bytes in the length prefix. */
+    public int getFieldLength() {
+        return m_fieldLength;
+    }
+
+    /** Gets the largest message accepted. */
+    public int getMaxLength() {
+        return m_maxLength;
+    }
+
+    // Javadoc from interface
+    public int decode(ByteBladder in, Frame frame) throws IOException {
+        int offset = frame.getOffset();
+        int available = frame.getLength();
+        if (available < m_fieldLength) {
+            return 0;
+        }
+        long length;
+        switch (m_fieldLength) {
+        case 1:
+            length = in.getByte(offset) & 0xffL;
+            break;
+        case 2:
+            length = in.getShort(offset) & 0xffffL;
+            break;
+        default:
+            length = in.getInt(offset) & 0xffffffffL;
+            break;
+        }
+        if (length > m_maxLength) {
+            throw new IOException("Message length == " + length +
+                                  " needs to be <= " + m_maxLength);
+        }
+        long total = m_fieldLength + length;
+        if (available < total) {
+            return 0;
+        }
+        frame.set(offset + m_fieldLength, (int)length);
+        return (int)total;
+    }
+
+    // Javadoc from interface
+    public int getHeaderLength() {
+        return m_fieldLength;
+    }
+
+    // Javadoc from interface
+    public void encode(ByteBladder out, int offset, int length) {
+        if (length > m_maxLength) {
+            throw new IllegalArgumentException("length == " + length +
+                                               " needs to be <= " + m_maxLength);
+        }
+        switch (m_fieldLength) {
+        case 1:
+            out.putByte(offset, (byte)length);
+            break;
+        case 2:
+            out.putShort(offset, (short)length);
+            break;
+        default:
+            out.putInt(offset, length);
+            break;
+        }
+    }
+}
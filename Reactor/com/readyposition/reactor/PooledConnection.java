@@ -0,0 +1,228 @@
+package com.readyposition.reactor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * A connection handed out by a ConnectionPool.  Requests are written
+ * through a CodecChannel and may be pipelined: any number can be sent
+ * without waiting, and since the peer answers them in order each
+ * response is matched to the oldest request still waiting.
+ *
+ * <p>A connection may be released while requests are still waiting.
+ * It can then be handed straight to the next caller, whose requests
+ * queue up behind them, so one connection carries the requests of
+ * many callers.
+ *
+ * <p>Every method must be invoked on the IOReactor's thread.
+ */
+public class PooledConnection implements CodecHandler
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(PooledConnection.class);
+
+    /** The part of the pool the connection belongs to. */
+    protected ConnectionPool.Host m_host;
+
+    /** Frames the requests and responses. */
+    protected CodecChannel m_channel;
+
+    /** The handlers of the requests sent and not yet answered. */
+    protected ArrayDeque<ResponseHandler> m_pending =
+        new ArrayDeque<ResponseHandler>();
+
+    /**
+     * When the connection last made progress: when the oldest waiting
+     * request was sent or the last response arrived.
+     */
+    protected long m_progressTime;
+
+    /** When the connection was last released to the pool. */
+    protected long m_idleSince;
+
+    /** True while the connection is idle in the pool. */
+    protected boolean m_isIdle;
+
+    /** Set once the connection has been closed. */
+    protected boolean m_isClosed;
+
+    /** The number of requests sent. */
+    protected long m_requestCount;
+
+    /**
+     * Constructs a PooledConnection.
+     *
+     * @param host the part of the pool the connection belongs to.
+     * @param ioReactor the IOReactor that will detect readiness.
+     * @param socketChannel a connected socket.
+     * @param decoders the inbound chain, starting with the framer.
+     * @param encoders the outbound chain, ending with the framer.
+     */
+    protected PooledConnection(ConnectionPool.Host host, IOReactor ioReactor,
+                               SocketChannel socketChannel,
+                               Decoder[] decoders, Encoder[] encoders)
+    {
+        m_host = host;
+        m_channel = new CodecChannel(ioReactor, socketChannel, this,
+                                     decoders, encoders);
+    }
+
+    /** Gets the address the connection is connected to. */
+    public SocketAddress getAddress() {
+        return m_host.getAddress();
+    }
+
+    /** Gets the IOReactor the connection belongs to. */
+    public IOReactor getIOReactor() {
+        return m_channel.getIOReactor();
+    }
+
+    /** Gets the CodecChannel, e.g. to set its byte order. */
+    public CodecChannel getChannel() {
+        return m_channel;
+    }
+
+    /** Gets the number of requests waiting for a response. */
+    public int getPendingCount() {
+        return m_pending.size();
+    }
+
+    /** Gets the number of requests sent so far. */
+    public long getRequestCount() {
+        return m_requestCount;
+    }
+
+    /** Gets when the connection last made progress. */
+    public long getProgressTime() {
+        return m_progressTime;
+    }
+
+    /** Determines if the connection has been closed. */
+    public boolean isClosed() {
+        return m_isClosed;
+    }
+
+    /**
+     * Starts a request.  The request is appended to the ByteBladder
+     * returned, after which endRequest() must be called.
+     *
+     * @return the bladder to append the request to.
+     * @throws IllegalStateException if the connection has been closed.
+     */
+    public ByteBladder beginRequest() {
+        return m_channel.beginMessage();
+    }
+
+    /**
+     * Ends the request started by beginRequest() and sends it.  If an
+     * Encoder refuses the request it isn't sent, the handler isn't
+     * queued and the exception is passed on.
+     *
+     * @param handler handles the response.
+     */
+    public void endRequest(ResponseHandler handler) {
+        long progressTime = m_progressTime;
+        if (m_pending.isEmpty()) {
+            m_progressTime = System.currentTimeMillis();
+        }
+        // Queued first so that a failed write fails this request too.
+        m_pending.add(handler);
+        m_requestCount++;
+        try {
+            m_channel.endMessage();
+        } catch (Throwable t) {
+            // The channel took the request back out, so no response
+            // will come for it.  Leaving the handler queued would pair
+            // every later response with the wrong request.
+            if (m_pending.peekLast() == handler) {
+                m_pending.pollLast();
+            }
+            m_requestCount--;
+            m_progressTime = progressTime;
+            if (m_channel.isClosed()) {
+                // The channel couldn't separate the request from the
+                // rest of the stream.
+                fail(new ClosedChannelException());
+            }
+            throw t;
+        }
+    }
+
+    /**
+     * Gives the connection back to the pool.  Requests still waiting
+     * for a response are still answered.
+     *
+     * @throws IllegalStateException if the connection is already in
+     *         the pool.
+     */
+    public void release() {
+        m_host.release(this);
+    }
+
+    /**
+     * Closes the connection.  Requests still waiting fail with a
+     * ClosedChannelException.
+     */
+    public void close() {
+        fail(new ClosedChannelException());
+    }
+
+    /**
+     * Closes the connection, fails the requests still waiting and
+     * takes it out of the pool.
+     *
+     * @param e why the connection is closing.
+     */
+    protected void fail(IOException e) {
+        if (m_isClosed) {
+            return;
+        }
+        m_isClosed = true;
+        m_channel.close();
+        ResponseHandler handler;
+        while ((handler = m_pending.poll()) != null) {
+            try {
+                handler.requestFailed(this, e);
+            } catch (Throwable t) {
+                s_logger.warn(t.toString(), t);
+            }
+        }
+        m_host.closed(this);
+    }
+
+    // Javadoc from interface
+    public void messageReceived(CodecChannel channel, ByteBladder in,
+                                Frame frame) {
+        ResponseHandler handler = m_pending.poll();
+        if (handler == null) {
+            fail(new IOException("Response from " + getAddress() +
+                                 " without a request"));
+            return;
+        }
+        m_progressTime = System.currentTimeMillis();
+        try {
+            handler.responseReceived(this, in, frame);
+        } catch (Throwable t) {
+            s_logger.warn(t.toString(), t);
+        }
+    }
+
+    // Javadoc from interface
+    public void closed(CodecChannel channel, IOException e) {
+        if (e == null) {
+            e = new EOFException("Connection to " + getAddress() +
+                                 " closed by the peer");
+        }
+        fail(e);
+    }
+}
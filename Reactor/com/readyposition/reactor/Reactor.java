@@ -1,6 +1,8 @@
 package com.readyposition.reactor;
 
 import java.nio.channels.SelectableChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 public interface Reactor
 {
@@ -29,6 +31,20 @@ public interface Reactor
      */
     public void workSubmit(Work work);
 
+    /**
+     * Calls a Callable the next time through the reactor loop and
+     * returns a future for its result.  The future is completed on the
+     * reactor's thread.  Canceling the future before the Callable has
+     * been called keeps it from being called.  If the reactor drops the
+     * call (see SubmissionPolicy.DROP_OLDEST) the future is completed
+     * with a RejectedExecutionException.
+     *
+     * @param callable what to call.
+     * @return a future completed with the result of the Callable or
+     *         whatever it threw.
+     */
+    public <T> CompletableFuture<T> submitAsync(Callable<T> callable);
+
     /** Retrieves the number of cycles the reactor loop has executed. */
     public long getCycleCount();
 
@@ -49,7 +65,11 @@ public interface Reactor
     public Timer timerCreateRel(long delta, TimerHandler handler);
 
     /**
-     * Creates a timer that will fire at a specific time.
+     * Creates a timer that will fire at a specific time.  The time is
+     * on the wall clock: if the wall clock is set back while the timer
+     * is pending, the timer waits for the wall clock to reach it.  A
+     * wall clock set forward isn't noticed until the timer comes due,
+     * so the timer may then fire late by up to the size of the step.
      *
      * @param time the time at which the timer should fire (a la
      *             System.currentTimeMillis()). If the time is in the
@@ -62,15 +82,63 @@ public interface Reactor
     public Timer timerCreateAbs(long time, TimerHandler handler);
 
     /**
-     * XXX - javadoc
+     * Creates a timer that will fire in a specified number of
+     * nanoseconds.  The timer's handler will be passed times based on
+     * System.nanoTime() and must return such a time (or 0) as well.
+     *
+     * @param delta the number of nanoseconds from the current time in
+     *              which the timer should fire.  If delta is negative
+     *              the timer will fire the next time through the main
+     *              reactor.
+     * @param handler the TimerHandler that should be invoked when the
+     *                timer is ripe.
+     * @return the Timer that was created.
+     */
+    public Timer timerCreateRelNanos(long delta, TimerHandler handler);
+
+    /**
+     * Submits an existing Timer to fire in a specified number of
+     * milliseconds.
+     *
+     * @param delta the number of milliseconds from the current time
+     *              in which the timer should fire.
+     * @param timer the Timer to submit.
      */
     public void timerSubmitRel(long delta, Timer timer);
 
     /**
-     * XXX - javadoc
+     * Submits an existing Timer to fire at a specific time on the wall
+     * clock.  See timerCreateAbs() for how changes to the wall clock
+     * are handled.
+     *
+     * @param time the time at which the timer should fire (a la
+     *             System.currentTimeMillis()).
+     * @param timer the Timer to submit.
      */
     public void timerSubmitAbs(final long time, final Timer timer);
 
+    /**
+     * Submits an existing Timer to fire in a specified number of
+     * nanoseconds.  The timer's handler will be passed times based on
+     * System.nanoTime() and must return such a time (or 0) as well.
+     *
+     * @param delta the number of nanoseconds from the current time in
+     *              which the timer should fire.
+     * @param timer the Timer to submit.
+     */
+    public void timerSubmitRelNanos(long delta, Timer timer);
+
+    /**
+     * Submits an existing Timer to fire at a specific monotonic time.
+     * The timer's handler will be passed times based on
+     * System.nanoTime() and must return such a time (or 0) as well.
+     *
+     * @param time the time at which the timer should fire (a la
+     *             System.nanoTime()).
+     * @param timer the Timer to submit.
+     */
+    public void timerSubmitAbsNanos(long time, Timer timer);
+
     /**
      * Creates a registered Valve for a SelectableChannel.  No
      * operations will be selected for this Valve yet.  The Valve's
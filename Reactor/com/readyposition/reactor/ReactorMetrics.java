@@ -0,0 +1,407 @@
+package com.readyposition.reactor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation for a reactor: how much work is waiting, how late
+ * timers fire, how the reactor's time splits between blocking and
+ * handlers, and (when handler timing is on) how long each class of
+ * handler takes.  Every reactor has one, see WorkReactor.getMetrics().
+ *
+ * <p>Almost everything is recorded by the reactor's own thread with
+ * plain ordered stores rather than locks or atomic read-modify-write
+ * instructions, so recording costs next to nothing.  Any thread may
+ * read the metrics at any time without disturbing the loop.  Timing
+ * individual handlers costs two System.nanoTime() calls per handler
+ * and is off by default.
+ *
+ * <p>register() publishes the metrics as an MBean named
+ * com.readyposition.reactor:type=ReactorMetrics,name=(thread name).
+ */
+public class ReactorMetrics implements ReactorMetricsMBean
+{
+    /** The reactor being measured. */
+    protected final WorkReactor m_reactor;
+
+    /** The number of Works submitted by other threads. */
+    protected final LongAdder m_submitCount = new LongAdder();
+
+    /** The number of Works from other threads picked up by the reactor. */
+    protected final AtomicLong m_drainCount = new AtomicLong();
+
+    /** The number of Works waiting for the next pass. */
+    protected final AtomicLong m_queuedCount = new AtomicLong();
+
+    /**
+     * The number of Works left to fire on the current pass, including
+     * any a lane's budget has held over to the next.
+     */
+    protected final AtomicLong m_activeCount = new AtomicLong();
+
+    /** The number of timers waiting to become ripe. */
+    protected final AtomicInteger m_timerCount = new AtomicInteger();
+
+    /** The number of times other threads have woken the reactor. */
+    protected final AtomicLong m_wakeupCount = new AtomicLong();
+
+    /** The number of times the reactor has called its Selector. */
+    protected final AtomicLong m_selectCount = new AtomicLong();
+
+    /**
+     * The number of phases of a pass that left something for the next
+     * pass because a budget ran out.
+     */
+    protected final AtomicLong m_carryOverCount = new AtomicLong();
+
+    /** The total nanoseconds spent blocked. */
+    protected final AtomicLong m_blockedTime = new AtomicLong();
+
+    /** The total nanoseconds spent in handlers. */
+    protected final AtomicLong m_handlerTime = new AtomicLong();
+
+    /** How late timers fire relative to their deadlines. */
+    protected final LatencyHistogram m_timerLag = new LatencyHistogram();
+
+    /** How long Works wait between submission and firing. */
+    protected final LatencyHistogram m_queueDelay = new LatencyHistogram();
+
+    /** How long handlers take, by class. */
+    protected final Map<Class<?>, LatencyHistogram> m_handlerTimes =
+        new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+
+    /** True if individual handlers are being timed. */
+    protected volatile boolean m_isHandlerTiming;
+
+    /** The name the MBean is registered under or null. */
+    protected ObjectName m_objectName;
+
+    /**
+     * Constructor.
+     *
+     * @param reactor the reactor being measured.
+     */
+    ReactorMetrics(WorkReactor reactor) {
+        m_reactor = reactor;
+    }
+
+    /**
+     * Adds to a counter that only the reactor's thread changes.
+     *
+     * @param counter the counter.
+     * @param n the amount to add.
+     */
+    protected static void add(AtomicLong counter, long n) {
+        counter.lazySet(counter.get() + n);
+    }
+
+    // Recording.  These are only called by the reactor's thread unless
+    // noted otherwise.
+
+    /** Notes a Work submitted by another thread.  Any thread. */
+    void workSubmitted() {
+        m_submitCount.increment();
+    }
+
+    /** Notes a Work queued by the reactor's own thread. */
+    void workQueued() {
+        add(m_queuedCount, 1);
+    }
+
+    /**
+     * Notes Works from other threads being picked up.
+     *
+     * @param count the number of Works picked up.
+     */
+    void workDrained(int count) {
+        add(m_drainCount, count);
+        add(m_queuedCount, count);
+    }
+
+    /** Notes a queued Work being dropped. */
+    void workDropped() {
+        add(m_queuedCount, -1);
+    }
+
+    /**
+     * Notes the queued Works joining any left over from the last pass
+     * to make up the current pass.
+     */
+    void workActivated() {
+        m_activeCount.lazySet(m_activeCount.get() + m_queuedCount.get());
+        m_queuedCount.lazySet(0);
+    }
+
+    /** Notes a Work of the current pass being done with. */
+    void workRetired() {
+        add(m_activeCount, -1);
+    }
+
+    /**
+     * Notes how long a Work waited to fire.
+     *
+     * @param nanos the number of nanoseconds it waited.
+     */
+    void recordQueueDelay(long nanos) {
+        m_queueDelay.record(nanos);
+    }
+
+    /**
+     * Notes the number of timers waiting.
+     *
+     * @param count the number of timers.
+     */
+    void setTimerCount(int count) {
+        m_timerCount.lazySet(count);
+    }
+
+    /**
+     * Notes how late a timer fired.
+     *
+     * @param nanos the number of nanoseconds past its deadline.
+     */
+    void recordTimerLag(long nanos) {
+        m_timerLag.record(nanos);
+    }
+
+    /** Notes the reactor being woken.  Any thread. */
+    void wakeup() {
+        m_wakeupCount.incrementAndGet();
+    }
+
+    /** Notes a call to the Selector. */
+    void select() {
+        add(m_selectCount, 1);
+    }
+
+    /** Notes a phase leaving something for the next pass. */
+    void carriedOver() {
+        add(m_carryOverCount, 1);
+    }
+
+    /**
+     * Notes time spent blocked.
+     *
+     * @param nanos the number of nanoseconds.
+     */
+    void addBlockedTime(long nanos) {
+        add(m_blockedTime, nanos);
+    }
+
+    /**
+     * Notes time spent handling a pass of the loop.
+     *
+     * @param nanos the number of nanoseconds.
+     */
+    void addHandlerTime(long nanos) {
+        add(m_handlerTime, nanos);
+    }
+
+    /**
+     * Notes how long a single handler took.
+     *
+     * @param task the Work, Timer or Valve that fired.
+     * @param nanos the number of nanoseconds it took.
+     */
+    void recordHandler(Object task, long nanos) {
+        Class<?> type = getHandler(task).getClass();
+        LatencyHistogram histogram = m_handlerTimes.get(type);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            m_handlerTimes.put(type, histogram);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Finds the handler a Work, Timer or Valve fires.  Handlers are
+     * reported by class, so a Task that is its own handler (i.e. a
+     * subclass) reports as itself.
+     *
+     * @param task the Work, Timer or Valve.
+     * @return its handler or the task itself if it has none.
+     */
+    static Object getHandler(Object task) {
+        Object handler = null;
+        if (task instanceof Work) {
+            handler = ((Work)task).getHandler();
+        } else if (task instanceof Timer) {
+            handler = ((Timer)task).getHandler();
+        } else if (task instanceof Valve) {
+            handler = ((Valve)task).getHandler();
+        }
+        return (handler != null) ? handler : task;
+    }
+
+    // Reading.  Any thread.
+
+    /** Gets the reactor being measured. */
+    public WorkReactor getReactor() {
+        return m_reactor;
+    }
+
+    // Javadoc from interface
+    public long getCycleCount() {
+        return m_reactor.getCycleCount();
+    }
+
+    // Javadoc from interface
+    public long getBusyCycleCount() {
+        return m_reactor.getBusyCycleCount();
+    }
+
+    // Javadoc from interface
+    public long getIdleCycleCount() {
+        return m_reactor.getIdleCycleCount();
+    }
+
+    // Javadoc from interface
+    public long getPendingWorkCount() {
+        return Math.max(0L, m_submitCount.sum() - m_drainCount.get());
+    }
+
+    // Javadoc from interface
+    public long getQueuedWorkCount() {
+        return m_queuedCount.get();
+    }
+
+    // Javadoc from interface
+    public long getActiveWorkCount() {
+        return m_activeCount.get();
+    }
+
+    // Javadoc from interface
+    public int getTimerCount() {
+        return m_timerCount.get();
+    }
+
+    // Javadoc from interface
+    public int getChannelCount() {
+        if (m_reactor instanceof IOReactor) {
+            return ((IOReactor)m_reactor).getChannelCount();
+        }
+        return 0;
+    }
+
+    // Javadoc from interface
+    public long getWakeupCount() {
+        return m_wakeupCount.get();
+    }
+
+    // Javadoc from interface
+    public long getSelectCount() {
+        return m_selectCount.get();
+    }
+
+    // Javadoc from interface
+    public long getCarryOverCount() {
+        return m_carryOverCount.get();
+    }
+
+    // Javadoc from interface
+    public long getBlockedTime() {
+        return m_blockedTime.get();
+    }
+
+    // Javadoc from interface
+    public long getHandlerTime() {
+        return m_handlerTime.get();
+    }
+
+    /** Gets how late timers have fired relative to their deadlines. */
+    public LatencyHistogram getTimerLagHistogram() {
+        return m_timerLag;
+    }
+
+    /** Gets how long Works have waited before firing. */
+    public LatencyHistogram getQueueDelayHistogram() {
+        return m_queueDelay;
+    }
+
+    /**
+     * Gets how long one class of handler has taken.
+     *
+     * @param type the class of the handler (or Task if it has none).
+     * @return the histogram or null if none have been timed.
+     */
+    public LatencyHistogram getHandlerHistogram(Class<?> type) {
+        return m_handlerTimes.get(type);
+    }
+
+    // Javadoc from interface
+    public String getTimerLag() {
+        return m_timerLag.toString();
+    }
+
+    // Javadoc from interface
+    public String getQueueDelay() {
+        return m_queueDelay.toString();
+    }
+
+    // Javadoc from interface
+    public String[] getHandlerTimes() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<Class<?>, LatencyHistogram> entry :
+                 m_handlerTimes.entrySet())
+        {
+            result.add(entry.getKey().getName() + ": " + entry.getValue());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    // Javadoc from interface
+    public boolean isHandlerTiming() {
+        return m_isHandlerTiming;
+    }
+
+    /**
+     * Turns timing of individual handlers (and of how long Works wait
+     * before firing) on or off.  This may be invoked from any thread.
+     *
+     * @param isHandlerTiming true to time handlers.
+     */
+    public void setHandlerTiming(boolean isHandlerTiming) {
+        m_isHandlerTiming = isHandlerTiming;
+    }
+
+    /**
+     * Publishes these metrics in the platform MBeanServer.
+     *
+     * @throws JMException if the MBean couldn't be registered (e.g.
+     *                     another reactor has the same name).
+     */
+    public synchronized void register() throws JMException {
+        if (m_objectName != null) {
+            return;
+        }
+        ObjectName name = new ObjectName(
+            "com.readyposition.reactor:type=ReactorMetrics,name=" +
+            ObjectName.quote(m_reactor.getThread().getName()));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        m_objectName = name;
+    }
+
+    /** Withdraws these metrics from the platform MBeanServer. */
+    public synchronized void unregister() {
+        if (m_objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(m_objectName);
+        } catch (JMException e) {
+            // Somebody else already did.
+        }
+        m_objectName = null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.readyposition.reactor;
+
+/**
+ * The management interface through which ReactorMetrics are published
+ * over JMX.  Times are in nanoseconds.
+ */
+public interface ReactorMetricsMBean
+{
+    /** Gets the number of passes through the reactor loop. */
+    public long getCycleCount();
+
+    /** Gets the number of passes that found work without waiting. */
+    public long getBusyCycleCount();
+
+    /** Gets the number of times the reactor had nothing to do. */
+    public long getIdleCycleCount();
+
+    /** Gets the number of Works submitted by other threads not yet picked up. */
+    public long getPendingWorkCount();
+
+    /** Gets the number of Works waiting for the next pass. */
+    public long getQueuedWorkCount();
+
+    /** Gets the number of Works left to fire on the current pass. */
+    public long getActiveWorkCount();
+
+    /** Gets the number of timers waiting to become ripe. */
+    public int getTimerCount();
+
+    /** Gets the number of registered channels (0 if not an IOReactor). */
+    public int getChannelCount();
+
+    /** Gets the number of times other threads have woken the reactor. */
+    public long getWakeupCount();
+
+    /** Gets the number of times the reactor has called its Selector. */
+    public long getSelectCount();
+
+    /**
+     * Gets the number of phases of a pass (I/O, timers, Work) that left
+     * something for the next pass because a budget ran out.
+     */
+    public long getCarryOverCount();
+
+    /** Gets the total time spent blocked (e.g. in select). */
+    public long getBlockedTime();
+
+    /** Gets the total time spent handling Works, Timers and Valves. */
+    public long getHandlerTime();
+
+    /** Summarizes how late timers have fired. */
+    public String getTimerLag();
+
+    /** Summarizes how long Works have waited before firing. */
+    public String getQueueDelay();
+
+    /** Summarizes the time taken by each class of handler. */
+    public String[] getHandlerTimes();
+
+    /** Determines if individual handlers are being timed. */
+    public boolean isHandlerTiming();
+
+    /** Turns timing of individual handlers on or off. */
+    public void setHandlerTiming(boolean isHandlerTiming);
+}
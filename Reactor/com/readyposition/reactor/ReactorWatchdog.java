@@ -0,0 +1,248 @@
+package com.readyposition.reactor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches reactors for handlers (workFire(), timerFire() or
+ * valveFire()) that run too long.  A slow handler holds up everything
+ * else on its reactor, e.g. every channel of an IOReactor, so when one
+ * runs past the budget the watchdog logs the reactor thread's stack,
+ * showing what it is stuck on, and counts an overrun against the
+ * handler's class.  Each run of a handler is reported once.
+ *
+ * <p>The watchdog runs on a thread of its own and samples the start
+ * time of each reactor's running handler.  While watched, a reactor
+ * only stores that time and the Task being fired before each handler,
+ * with no locks or allocation, so watching a reactor is cheap.  A
+ * handler can overrun by up to the sampling interval before it is
+ * noticed.
+ */
+public class ReactorWatchdog implements Runnable
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(ReactorWatchdog.class);
+
+    /** The number of nanoseconds in a millisecond. */
+    protected final static long NANOS_PER_MILLI = 1000000L;
+
+    /** The reactors being watched. */
+    protected final CopyOnWriteArrayList<WorkReactor> m_reactors =
+        new CopyOnWriteArrayList<WorkReactor>();
+
+    /**
+     * The start time of the handler last reported on each reactor so
+     * that each overrun is only reported once.
+     */
+    protected final Map<WorkReactor, Long> m_reported =
+        new ConcurrentHashMap<WorkReactor, Long>();
+
+    /** The number of overruns, by handler class. */
+    protected final Map<Class<?>, AtomicLong> m_overruns =
+        new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    /** How long a handler may run for in nanoseconds. */
+    protected volatile long m_budget;
+
+    /** How often the reactors are sampled in milliseconds. */
+    protected final long m_interval;
+
+    /** The thread that does the watching. */
+    protected final Thread m_thread;
+
+    /** When true, the watchdog stops. */
+    protected volatile boolean m_done;
+
+    /**
+     * Returns a running ReactorWatchdog that samples often enough to
+     * notice an overrun within about a quarter of the budget.
+     *
+     * @param name the name of the watchdog's thread.
+     * @param budget how long a handler may run for in milliseconds.
+     * @return a ReactorWatchdog instance.
+     */
+    public static ReactorWatchdog getReactorWatchdog(String name, long budget) {
+        return getReactorWatchdog(name, budget, Math.max(1L, budget / 4));
+    }
+
+    /**
+     * Returns a running ReactorWatchdog.
+     *
+     * @param name the name of the watchdog's thread.
+     * @param budget how long a handler may run for in milliseconds.
+     * @param interval how often to sample the reactors in milliseconds.
+     * @return a ReactorWatchdog instance.
+     */
+    public static ReactorWatchdog getReactorWatchdog(String name, long budget,
+                                                     long interval)
+    {
+        ReactorWatchdog watchdog = new ReactorWatchdog(name, budget, interval);
+        watchdog.m_thread.start();
+        return watchdog;
+    }
+
+    /**
+     * Constructs a ReactorWatchdog.  The constructor does not start
+     * the thread.
+     *
+     * @param name the name of the watchdog's thread.
+     * @param budget how long a handler may run for in milliseconds.
+     * @param interval how often to sample the reactors in milliseconds.
+     */
+    protected ReactorWatchdog(String name, long budget, long interval) {
+        setBudget(budget);
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval == " + interval +
+                                               " needs to be > 0");
+        }
+        m_interval = interval;
+        m_thread = new Thread(this, name);
+        m_thread.setDaemon(true);
+    }
+
+    /**
+     * Sets how long a handler may run for.  This may be invoked from
+     * any thread.
+     *
+     * @param budget the budget in milliseconds.
+     */
+    public void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget == " + budget +
+                                               " needs to be > 0");
+        }
+        m_budget = budget * NANOS_PER_MILLI;
+    }
+
+    /** Gets how long a handler may run for in milliseconds. */
+    public long getBudget() {
+        return m_budget / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Starts watching a reactor.  A reactor should only be watched by
+     * one watchdog at a time.
+     *
+     * @param reactor the reactor to watch.
+     */
+    public void watch(WorkReactor reactor) {
+        if (m_reactors.addIfAbsent(reactor)) {
+            reactor.setWatched(true);
+        }
+    }
+
+    /**
+     * Stops watching a reactor.
+     *
+     * @param reactor the reactor to stop watching.
+     */
+    public void unwatch(WorkReactor reactor) {
+        if (m_reactors.remove(reactor)) {
+            reactor.setWatched(false);
+            m_reported.remove(reactor);
+        }
+    }
+
+    /**
+     * Gets the number of times handlers of a class have overrun.
+     *
+     * @param type the class of the handler (or Task if it has none).
+     * @return the number of overruns.
+     */
+    public long getOverrunCount(Class<?> type) {
+        AtomicLong count = m_overruns.get(type);
+        return (count == null) ? 0L : count.get();
+    }
+
+    /**
+     * Gets the number of overruns of every handler class that has
+     * overrun.
+     *
+     * @return a map from handler class name to overrun count.
+     */
+    public Map<String, Long> getOverrunCounts() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<Class<?>, AtomicLong> entry : m_overruns.entrySet()) {
+            result.put(entry.getKey().getName(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /** Stops the watchdog and stops watching every reactor. */
+    public void shutdown() {
+        m_done = true;
+        m_thread.interrupt();
+        for (WorkReactor reactor : m_reactors) {
+            unwatch(reactor);
+        }
+    }
+
+    /** The thread's run method.  Samples until shutdown() is called. */
+    public void run() {
+        while (!m_done) {
+            try {
+                Thread.sleep(m_interval);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            for (WorkReactor reactor : m_reactors) {
+                try {
+                    check(reactor);
+                } catch (Throwable t) {
+                    s_logger.warn(t.toString(), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks a reactor's running handler against the budget.
+     *
+     * @param reactor the reactor to check.
+     */
+    protected void check(WorkReactor reactor) {
+        long start = reactor.getHandlerStart();
+        if (start == WorkReactor.NO_TIME) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (elapsed <= m_budget) {
+            return;
+        }
+        Long reported = m_reported.get(reactor);
+        if (reported != null && reported.longValue() == start) {
+            return;
+        }
+        Object task = reactor.getHandlerTask();
+        if (task == null || reactor.getHandlerStart() != start) {
+            // It finished while we were looking.
+            return;
+        }
+        m_reported.put(reactor, start);
+
+        Class<?> type = ReactorMetrics.getHandler(task).getClass();
+        AtomicLong count = m_overruns.get(type);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong existing = m_overruns.putIfAbsent(type, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+
+        Thread thread = reactor.getThread();
+        Exception stack = new Exception("Stack of " + thread.getName());
+        stack.setStackTrace(thread.getStackTrace());
+        s_logger.warn(type.getName() + " has run for " +
+                      elapsed / NANOS_PER_MILLI + "ms on " + thread.getName() +
+                      " (budget " + getBudget() + "ms)", stack);
+    }
+}
@@ -0,0 +1,35 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * The interface for objects waiting for the response to a request sent
+ * over a PooledConnection.  Responses are matched to requests in the
+ * order the requests were sent.  Every method is invoked on the
+ * IOReactor's thread.
+ */
+public interface ResponseHandler
+{
+    /**
+     * Invoked with the response.  Like CodecHandler.messageReceived()
+     * the response is read in place and must be copied out if it is
+     * to be kept.
+     *
+     * @param connection the connection the response arrived on.
+     * @param in the bladder holding the response.
+     * @param frame where the response is in the bladder.
+     */
+    public void responseReceived(PooledConnection connection, ByteBladder in,
+                                 Frame frame);
+
+    /**
+     * Invoked when the connection closed or timed out before the
+     * response arrived.
+     *
+     * @param connection the connection that failed.
+     * @param e why it failed.
+     */
+    public void requestFailed(PooledConnection connection, IOException e);
+}
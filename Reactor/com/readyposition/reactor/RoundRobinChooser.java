@@ -0,0 +1,19 @@
+package com.readyposition.reactor;
+
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An IOReactorChooser that deals channels out to the reactors of a
+ * group in turn.  This is the default policy of IOReactorGroup.
+ */
+public class RoundRobinChooser implements IOReactorChooser
+{
+    /** The number of channels handed out so far.  Allowed to wrap. */
+    protected final AtomicInteger m_count = new AtomicInteger();
+
+    // Javadoc from interface
+    public int choose(IOReactorGroup group, SocketChannel channel) {
+        return Math.floorMod(m_count.getAndIncrement(), group.getSize());
+    }
+}
@@ -0,0 +1,144 @@
+package com.readyposition.reactor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follows the sequence numbers of messages from a number of sources
+ * (e.g. the senders of a multicast feed) and counts the ones that went
+ * missing.  A message whose sequence number skips ahead opens a gap;
+ * one that arrives late (i.e. at or below the highest number seen) is
+ * counted as out of order rather than filling the gap.
+ *
+ * <p>This is not thread safe.  It is meant to be used by the reactor
+ * thread that receives the messages, and read from elsewhere only as
+ * a rough indication.
+ */
+public class SequenceTracker
+{
+    /** What is known about one source. */
+    protected static class Source {
+        /** The highest sequence number seen. */
+        protected long m_last;
+
+        /** The number of messages received. */
+        protected long m_received;
+
+        /** The number of sequence numbers skipped over. */
+        protected long m_missing;
+
+        /** The number of times the sequence skipped ahead. */
+        protected long m_gaps;
+
+        /** The number of messages at or below the highest seen. */
+        protected long m_outOfOrder;
+    }
+
+    /** The sources seen so far. */
+    protected final Map<Object, Source> m_sources = new HashMap<Object, Source>();
+
+    /** The number of sequence numbers skipped over by every source. */
+    protected long m_missing;
+
+    /** The number of times any source's sequence skipped ahead. */
+    protected long m_gaps;
+
+    /**
+     * Notes a message.
+     *
+     * @param source where it came from (e.g. its SocketAddress).
+     * @param sequence its sequence number.
+     * @return the number of sequence numbers it skipped over, i.e. 0
+     *         if it was the next one expected or out of order.
+     */
+    public long track(Object source, long sequence) {
+        Source stats = m_sources.get(source);
+        if (stats == null) {
+            // The first message from a source starts its sequence.
+            stats = new Source();
+            stats.m_last = sequence;
+            stats.m_received = 1;
+            m_sources.put(source, stats);
+            return 0;
+        }
+        stats.m_received++;
+        long missing = sequence - stats.m_last - 1;
+        if (missing < 0) {
+            stats.m_outOfOrder++;
+            return 0;
+        }
+        stats.m_last = sequence;
+        if (missing > 0) {
+            stats.m_missing += missing;
+            stats.m_gaps++;
+            m_missing += missing;
+            m_gaps++;
+        }
+        return missing;
+    }
+
+    /** Gets the number of sequence numbers skipped over by all sources. */
+    public long getMissingCount() {
+        return m_missing;
+    }
+
+    /** Gets the number of times any source's sequence skipped ahead. */
+    public long getGapCount() {
+        return m_gaps;
+    }
+
+    /**
+     * Gets the number of sequence numbers a source skipped over.
+     *
+     * @param source the source.
+     * @return the number missing or 0 if the source hasn't been seen.
+     */
+    public long getMissingCount(Object source) {
+        Source stats = m_sources.get(source);
+        return (stats == null) ? 0L : stats.m_missing;
+    }
+
+    /**
+     * Gets the number of times a source's sequence skipped ahead.
+     *
+     * @param source the source.
+     * @return the number of gaps or 0 if the source hasn't been seen.
+     */
+    public long getGapCount(Object source) {
+        Source stats = m_sources.get(source);
+        return (stats == null) ? 0L : stats.m_gaps;
+    }
+
+    /**
+     * Gets the number of messages from a source that arrived after a
+     * later one.
+     *
+     * @param source the source.
+     * @return the number out of order or 0 if the source hasn't been
+     *         seen.
+     */
+    public long getOutOfOrderCount(Object source) {
+        Source stats = m_sources.get(source);
+        return (stats == null) ? 0L : stats.m_outOfOrder;
+    }
+
+    /**
+     * Gets the number of messages received from a source.
+     *
+     * @param source the source.
+     * @return the number received or 0 if the source hasn't been seen.
+     */
+    public long getReceivedCount(Object source) {
+        Source stats = m_sources.get(source);
+        return (stats == null) ? 0L : stats.m_received;
+    }
+
+    /**
+     * Forgets a source, e.g. when a sender restarts its sequence.
+     *
+     * @param source the source.
+     */
+    public void reset(Object source) {
+        m_sources.remove(source);
+    }
+}
@@ -0,0 +1,43 @@
+package com.readyposition.reactor;
+
+/**
+ * An IdleStrategy that spins for a while and then yields the CPU to
+ * other threads each time it is idle.  The reactor thread never
+ * blocks, but it shares its core with other threads.
+ */
+public class SpinYieldIdleStrategy implements IdleStrategy
+{
+    /** The default value for m_spins. */
+    public final static int DEFAULT_SPINS = 100;
+
+    /** The number of times to spin before starting to yield. */
+    protected final int m_spins;
+
+    /**
+     * Constructs a SpinYieldIdleStrategy.
+     *
+     * @param spins the number of idle passes to spin for before
+     *              yielding.
+     */
+    public SpinYieldIdleStrategy(int spins) {
+        if (spins < 0) {
+            throw new IllegalArgumentException("spins == " + spins +
+                                               " needs to be >= 0");
+        }
+        m_spins = spins;
+    }
+
+    /** Constructs a SpinYieldIdleStrategy that spins DEFAULT_SPINS times. */
+    public SpinYieldIdleStrategy() {
+        this(DEFAULT_SPINS);
+    }
+
+    // Javadoc from interface
+    public void idle(WorkReactor reactor, int idleCount) {
+        if (idleCount < m_spins) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.readyposition.reactor;
+
+/**
+ * What a WorkReactor with a capacity does with Work submitted by other
+ * threads while its backlog is full.  See WorkReactor.setCapacity().
+ */
+public enum SubmissionPolicy {
+    /**
+     * The submitting thread waits until there is room.  A reactor's
+     * thread is never made to wait, since two reactors feeding each
+     * other could deadlock, so its submissions are refused as under
+     * FAIL instead.
+     */
+    BLOCK,
+
+    /**
+     * The submission is refused with a RejectedExecutionException and
+     * the Work is left untouched.
+     */
+    FAIL,
+
+    /**
+     * The submission is accepted and the reactor drops the oldest Work
+     * from other threads that hasn't fired yet, telling the
+     * BackPressureListener.  Since the reactor does the dropping, the
+     * backlog can briefly exceed the capacity.  Hand-offs that have to
+     * fire on the reactor's thread (e.g. newly accepted channels) are
+     * never dropped.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The submitting thread fires the Work itself, which slows it down
+     * to the reactor's pace.  The Work must then be safe to run off
+     * the reactor's thread.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,76 @@
+package com.readyposition.reactor;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Implementation class representing a lock-free multi-producer,
+ * single-consumer queue of Tasks submitted to a reactor by other
+ * threads.  The queue is intrusive.  Tasks are chained together
+ * through their own Yoke links so no nodes are allocated.
+ *
+ * <p>Producers push onto a stack with a single compareAndSet.  The
+ * reactor thread detaches the whole stack with a single getAndSet and
+ * splices it, oldest first, onto the end of one of its own Yoke lists.
+ * The resulting order is the order in which the pushes succeeded,
+ * which is the same order the old synchronized queue produced.
+ */
+class SubmissionQueue<T extends Task<T>> {
+    /** The most recently pushed Task or null if the queue is empty. */
+    protected final AtomicReference<T> m_head = new AtomicReference<T>();
+
+    /**
+     * Pushes a Task onto the queue.  May be called from any thread.
+     * The Task must not be in any other list.
+     *
+     * @param task the Task to push.
+     * @return true if the queue was empty before this push.
+     */
+    boolean push(T task) {
+        T head;
+        do {
+            head = m_head.get();
+            task.setNext(head);
+        } while (!m_head.compareAndSet(head, task));
+        return head == null;
+    }
+
+    /**
+     * Determines if the queue is empty.
+     *
+     * @return true if there are no Tasks in the queue.
+     */
+    boolean isEmpty() {
+        return m_head.get() == null;
+    }
+
+    /**
+     * Moves every Task in the queue to the left of (i.e. to the end
+     * of) a list in the order in which the Tasks were pushed.  This
+     * must only be called by the consuming thread.
+     *
+     * @param list the sentinel of the list that receives the Tasks.
+     * @return the number of Tasks moved.
+     */
+    int drainTo(T list) {
+        if (m_head.get() == null) {
+            // Avoid dirtying the cache line when there is nothing to do.
+            return 0;
+        }
+        T task = m_head.getAndSet(null);
+
+        // The stack is newest first.  Each task is inserted to the
+        // left of the one that was pushed right after it so the list
+        // ends up oldest first without a separate reversal pass.
+        int count = 0;
+        T right = list;
+        while (task != null) {
+            T next = task.getNext();
+            task.unlink();
+            right.insertLeft(task);
+            right = task;
+            task = next;
+            count++;
+        }
+        return count;
+    }
+}
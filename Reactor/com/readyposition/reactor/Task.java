@@ -90,4 +90,31 @@ public abstract class Task<T extends Task<T>> extends Yoke<T>
     public boolean isCanceled() {
         return m_state.get() == STATE_CANCELED;
     }
+
+    /**
+     * Points the right link of this task at another task without
+     * maintaining the circular list invariants.  This is used by
+     * SubmissionQueue to chain tasks together while they are in
+     * flight between threads.
+     *
+     * @param next the task to link to or null to terminate the chain.
+     */
+    void setNext(T next) {
+        m_right = next;
+    }
+
+    /**
+     * Gets the task linked to by setNext().
+     *
+     * @return the next task in the chain or null at the end.
+     */
+    T getNext() {
+        return m_right;
+    }
+
+    /** Restores this task to a single element circular list. */
+    @SuppressWarnings("unchecked")
+    void unlink() {
+        m_right = m_left = (T)this;
+    }
 }
@@ -11,14 +11,37 @@ public abstract class Timer
     /** The reactor that manages this timer. */
     protected TimerReactor m_timerReactor;
 
-    /** The absolute time in milliseconds when this timer should fire. */
+    /**
+     * The absolute time when this timer should fire.  This is in
+     * milliseconds (a la System.currentTimeMillis()) unless m_isNanos
+     * is set in which case it is in nanoseconds (a la System.nanoTime()).
+     */
     protected long m_time;
 
     /**
-     * The entry number of this Timer in the heap of timers owned by
-     * the TimerReactor.
+     * The absolute time in nanoseconds (a la System.nanoTime()) when
+     * this timer should fire.  This is what the reactor schedules on.
      */
-    protected int m_entry;
+    protected long m_deadline;
+
+    /**
+     * True if the times passed to and returned from timerFire() are
+     * based on System.nanoTime() rather than System.currentTimeMillis().
+     */
+    protected boolean m_isNanos;
+
+    /**
+     * True if m_time is a wall clock time that m_deadline was worked
+     * out from, so the reactor checks it against the wall clock again
+     * when the deadline comes.
+     */
+    protected boolean m_isWallClock;
+
+    /**
+     * The entry number of this Timer in the TimerStore owned by the
+     * TimerReactor or -1 if the Timer isn't in a TimerStore.
+     */
+    protected int m_entry = -1;
 
     /**
      * The TimerHandler that will be invoked the next time through
@@ -72,6 +95,26 @@ public abstract class Timer
         return m_handler;
     }
 
+    /**
+     * Cancels this timer.  When called from the thread of the reactor
+     * that owns the timer, the timer is removed from the reactor right
+     * away.  Otherwise the reactor is asked to remove it on its next
+     * pass.
+     *
+     * @return true if the Timer was able to be canceled or it was
+     * already canceled.
+     */
+    public boolean cancel() {
+        if (!super.cancel()) {
+            return false;
+        }
+        TimerReactor timerReactor = m_timerReactor;
+        if (timerReactor != null) {
+            timerReactor.timerCanceled(this);
+        }
+        return true;
+    }
+
     /**
      * Gets the reactor that is controlling this timer.
      *
@@ -106,12 +149,76 @@ public abstract class Timer
         m_time = time;
     }
 
-    /** XXX - javadoc */
+    /**
+     * Gets the monotonic time (a la System.nanoTime()) at which this
+     * Timer is scheduled to fire.
+     *
+     * @return the monotonic time at which this Timer is scheduled to fire.
+     */
+    public long getDeadline() {
+        return m_deadline;
+    }
+
+    /**
+     * Sets the monotonic time at which the Timer is scheduled to fire.
+     * This is used internally when the timer is submitted.
+     */
+    protected void setDeadline(long deadline) {
+        m_deadline = deadline;
+    }
+
+    /**
+     * Determines if this Timer's times are based on System.nanoTime().
+     *
+     * @return true if times are in nanoseconds (a la System.nanoTime())
+     *         or false if they are in milliseconds (a la
+     *         System.currentTimeMillis()).
+     */
+    public boolean isNanos() {
+        return m_isNanos;
+    }
+
+    /**
+     * Sets whether this Timer's times are based on System.nanoTime().
+     * This is used internally when the timer is submitted.
+     */
+    protected void setNanos(boolean isNanos) {
+        m_isNanos = isNanos;
+    }
+
+    /**
+     * Determines if this Timer was submitted for a wall clock time
+     * (a la System.currentTimeMillis()) rather than after a delay.
+     *
+     * @return true if this Timer fires at a wall clock time.
+     */
+    public boolean isWallClock() {
+        return m_isWallClock;
+    }
+
+    /**
+     * Sets whether this Timer was submitted for a wall clock time.
+     * This is used internally when the timer is submitted.
+     */
+    protected void setWallClock(boolean isWallClock) {
+        m_isWallClock = isWallClock;
+    }
+
+    /**
+     * Sets the entry number of this Timer in a TimerStore.  This is
+     * used by TimerStore implementations.
+     *
+     * @param entry the entry number or -1 if not in a TimerStore.
+     */
     public void setEntry(int entry) {
         m_entry = entry;
     }
 
-    /** XXX - javadoc */
+    /**
+     * Gets the entry number of this Timer in a TimerStore.
+     *
+     * @return the entry number or -1 if not in a TimerStore.
+     */
     public int getEntry() {
         return m_entry;
     }
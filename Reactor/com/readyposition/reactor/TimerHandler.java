@@ -7,7 +7,10 @@ package com.readyposition.reactor;
 public interface TimerHandler
 {
     /**
-     * This method is invoked when a timer has expired.
+     * This method is invoked when a timer has expired.  Times are in
+     * milliseconds (a la System.currentTimeMillis()) unless the timer
+     * was submitted with one of the reactor's ...Nanos() methods, in
+     * which case they are in nanoseconds (a la System.nanoTime()).
      *
      * @param scheduledTime at which the timer was scheduled.
      * @param actualTime the time at which the timer actually fired.
@@ -2,12 +2,11 @@ package com.readyposition.reactor;
 
 import java.nio.channels.SelectableChannel;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.readyposition.collections.heap.HeapLongG;
-
 public class TimerReactor extends WorkReactor
 {
     /** Class wide logger. */
@@ -20,18 +19,48 @@ public class TimerReactor extends WorkReactor
     /** Count of TimerReactor thread created so far. */
     private static AtomicLong s_timerReactorCount = new AtomicLong();
 
-    /** A heap of the registered timers ordered by firing time. */
-    protected HeapLongG<Timer> m_timerHeap = new HeapLongG<Timer>();
+    /** The registered timers waiting to become ripe. */
+    protected TimerStore m_timerStore;
 
     /** A linked list of active timers. */
     protected Timer m_activeTimers = new SimpleTimer();
 
-    /** The amount of time to sleep until the first timer needs to fire. */
+    /** The number of nanoseconds in a millisecond. */
+    protected final static long NANOS_PER_MILLI = 1000000L;
+
+    /** The default value for m_spinTime. */
+    public final static long DEFAULT_SPIN_TIME = 50000L;
+
+    /**
+     * The number of nanoseconds to sleep until the first timer needs to
+     * fire or -1 if there are no timers.
+     */
     protected long m_sleepTime;
 
-    /** The TimerReactor's notion of the "current time". */
+    /**
+     * The TimerReactor's notion of the "current time" in milliseconds
+     * (a la System.currentTimeMillis()).  This is only refreshed when
+     * there are ripe timers.
+     */
     protected long m_now;
 
+    /**
+     * The TimerReactor's notion of the "current time" in nanoseconds
+     * (a la System.nanoTime()).  This is the time base timers are
+     * actually scheduled with.
+     */
+    protected long m_nowNanos;
+
+    /**
+     * When the first timer is due within this many nanoseconds, the
+     * reactor spins instead of parking.  Parking is only accurate to
+     * tens of microseconds on most platforms.
+     */
+    protected volatile long m_spinTime = DEFAULT_SPIN_TIME;
+
+    /** The most ripe timers fired per pass or 0 for no limit. */
+    protected volatile int m_timerBudget;
+
     /**
      * Returns a default TimerReactor instance. Every call to this
      * method returns the same TimerReactor instance.
@@ -67,16 +96,46 @@ public class TimerReactor extends WorkReactor
         return reactor;
     }
 
+    /**
+     * Returns a named TimerReactor instance that keeps its timers in a
+     * specific TimerStore.
+     *
+     * @param name the name to assign to the TimerReactor thread.
+     * @param timerStore the TimerStore to use (e.g. a WheelTimerStore).
+     * @return a TimerReactor instance.
+     */
+    public static TimerReactor getTimerReactor(String name,
+                                               TimerStore timerStore)
+    {
+        TimerReactor reactor = new TimerReactor(name, timerStore);
+        reactor.getThread().start();
+        return reactor;
+    }
+
     /**
      * Constructs a TimerReactor instance. The constructor does not
      * start the thread. It is necessary to call start() after the
      * TimerReactor has been constructed.
      *
      * @param name the name to assign to the TimerReactor thread.
+     * @param timerStore the TimerStore that will hold the timers.
      */
-    protected TimerReactor(String name) {
+    protected TimerReactor(String name, TimerStore timerStore) {
         super(name);
         s_timerReactorCount.incrementAndGet();
+        m_timerStore = timerStore;
+    }
+
+    /**
+     * Constructs a TimerReactor instance that keeps its timers in a
+     * HeapTimerStore. The constructor does not start the thread. It is
+     * necessary to call start() after the TimerReactor has been
+     * constructed.
+     *
+     * @param name the name to assign to the TimerReactor thread.
+     */
+    protected TimerReactor(String name) {
+        this(name, new HeapTimerStore());
     }
 
     /**
@@ -102,7 +161,28 @@ public class TimerReactor extends WorkReactor
      * @return the Timer that was created.
      */
     public Timer timerCreateRel(long delta, TimerHandler handler) {
-        return timerCreateAbs(System.currentTimeMillis() + delta, handler);
+        Timer timer = new SimpleTimer(handler);
+        timerSubmitRel(delta, timer);
+        return timer;
+    }
+
+    /**
+     * Creates a timer that will fire in a specified number of
+     * nanoseconds.  The timer's handler will be passed times based on
+     * System.nanoTime() and must return such a time (or 0) as well.
+     *
+     * @param delta the number of nanoseconds from the current time in
+     *              which the timer should fire. If delta is negative
+     *              the timer will fire the next time through the main
+     *              reactor.
+     * @param handler the TimerHandler that should be invoked when the
+     *                timer is ripe.
+     * @return the Timer that was created.
+     */
+    public Timer timerCreateRelNanos(long delta, TimerHandler handler) {
+        Timer timer = new SimpleTimer(handler);
+        timerSubmitRelNanos(delta, timer);
+        return timer;
     }
 
     /**
@@ -123,32 +203,120 @@ public class TimerReactor extends WorkReactor
     }
 
     /**
-     * XXX - javadoc
+     * Submits an existing Timer to fire in a specified number of
+     * milliseconds.  The delay is measured with the monotonic clock so
+     * it is unaffected by changes to the wall clock.
+     *
+     * @param delta the number of milliseconds from the current time
+     *              in which the timer should fire.
+     * @param timer the Timer to submit.
      */
     public void timerSubmitRel(long delta, Timer timer) {
-        timerSubmitAbs(System.currentTimeMillis() + delta, timer);
+        checkSubmit(timer);
+        timer.setTime(System.currentTimeMillis() + delta);
+        timer.setDeadline(System.nanoTime() + delta * NANOS_PER_MILLI);
+        timer.setNanos(false);
+        timer.setWallClock(false);
+        submit(timer);
     }
 
     /**
-     * XXX - javadoc
+     * Submits an existing Timer to fire at a specific wall clock time.
+     * The timer is scheduled on the monotonic clock for when the wall
+     * clock is expected to get there and checked against the wall
+     * clock again when that comes.  If the wall clock has been set
+     * back in the meantime the timer is scheduled again for the rest
+     * of the way.  See Reactor.timerCreateAbs().
+     *
+     * @param time the time at which the timer should fire (a la
+     *             System.currentTimeMillis()).
+     * @param timer the Timer to submit.
      */
-    public void timerSubmitAbs(final long time, final Timer timer) {
+    public void timerSubmitAbs(long time, Timer timer) {
+        checkSubmit(timer);
+        long delta = time - System.currentTimeMillis();
+        timer.setTime(time);
+        timer.setDeadline(System.nanoTime() + clampMillis(delta) * NANOS_PER_MILLI);
+        timer.setNanos(false);
+        timer.setWallClock(true);
+        submit(timer);
+    }
+
+    /**
+     * Submits an existing Timer to fire in a specified number of
+     * nanoseconds.  The timer's handler will be passed times based on
+     * System.nanoTime() and must return such a time (or 0) as well.
+     *
+     * @param delta the number of nanoseconds from the current time in
+     *              which the timer should fire.
+     * @param timer the Timer to submit.
+     */
+    public void timerSubmitRelNanos(long delta, Timer timer) {
+        timerSubmitAbsNanos(System.nanoTime() + delta, timer);
+    }
+
+    /**
+     * Submits an existing Timer to fire at a specific monotonic time.
+     * The timer's handler will be passed times based on
+     * System.nanoTime() and must return such a time (or 0) as well.
+     *
+     * @param time the time at which the timer should fire (a la
+     *             System.nanoTime()).
+     * @param timer the Timer to submit.
+     */
+    public void timerSubmitAbsNanos(long time, Timer timer) {
+        checkSubmit(timer);
+        timer.setTime(time);
+        timer.setDeadline(time);
+        timer.setNanos(true);
+        timer.setWallClock(false);
+        submit(timer);
+    }
+
+    /**
+     * Makes sure a Timer can be submitted.
+     *
+     * @param timer the Timer about to be submitted.
+     * @throws IllegalStateException if the timer is busy.
+     */
+    protected void checkSubmit(Timer timer) {
         if (!timer.isPending()) {
             throw new IllegalStateException(
-                                            "Attempt to submit a Timer that is already busy.");
+                "Attempt to submit a Timer that is already busy.");
         }
-        timer.setTime(time);
+    }
+
+    /**
+     * Limits a number of milliseconds so that it can be converted to
+     * nanoseconds without overflowing.
+     */
+    protected static long clampMillis(long millis) {
+        long limit = Long.MAX_VALUE / (4 * NANOS_PER_MILLI);
+        return Math.max(-limit, Math.min(limit, millis));
+    }
+
+    /**
+     * Hands a Timer whose times have been set to the TimerStore.
+     *
+     * @param timer the Timer being submitted.
+     */
+    protected void submit(final Timer timer) {
         timer.setTimerReactor(this);
         if (getThread() == Thread.currentThread()) {
             // We're in the same thread as the reactor so it is safe to
             // do whatever we want.
-            timer.setEntry(m_timerHeap.insert(time, timer));
+            m_timerStore.insert(timer, System.nanoTime());
         } else {
             // We're in a different thread from the reactor so we'll
             // queue work to set up the timer.
-            workSubmit(new Work() {
+            submitInternal(new Work() {
                     public boolean workFire() {
-                        timer.setEntry(m_timerHeap.insert(time, timer));
+                        if (timer.isCanceled()) {
+                            // Canceled before it even got here.
+                            timer.setToPending();
+                        } else {
+                            m_timerStore.insert(timer, System.nanoTime());
+                        }
                         return false;
                     }
                 });
@@ -156,33 +324,148 @@ public class TimerReactor extends WorkReactor
     }
 
     /**
-     * Wait until there is something to do.  If there are ripe timers or there
-     * is any work registered, then this will return right away.  Otherwise,
-     * we will wait until either a timer becomes ripe or until we are woken
-     * up (e.g. when work is submitted or a new timer is registered.
-     */
-    protected void waitForWork() {
-        while (!isWorkPending()) {
-            synchronized (this) {
-                try {
-                    if (m_sleepTime < 0) {
-                        // There are no timers registered and there is
-                        // no work to do so we will sleep until
-                        // something wakes us up.
-                        wait();
-                    } else {
-                        // There is no work to do yet but there is at least
-                        // one timer registered.  We will wait until the timer
-                        // should be fired or until something wakes us up
-                        // first.
-                        wait(m_sleepTime);
+     * Removes a timer that has just been canceled from this reactor.
+     * This may be invoked from any thread.  From another thread the
+     * removal is left to the reactor's thread so that the timer is
+     * unlinked rather than left in the TimerStore until it ripens.
+     *
+     * @param timer the timer that has been canceled.
+     */
+    protected void timerCanceled(final Timer timer) {
+        if (getThread() == Thread.currentThread()) {
+            timerRemove(timer);
+        } else {
+            // Housekeeping, so never refused or run on this thread.
+            submitInternal(new Work() {
+                    public boolean workFire() {
+                        // Unless it has been discarded and resubmitted
+                        // in the meantime.
+                        if (timer.isCanceled()) {
+                            timerRemove(timer);
+                        }
+                        return false;
                     }
-                } catch (InterruptedException e) {
-                }
-            }
+                });
+        }
+    }
+
+    /**
+     * Removes a canceled timer from this reactor.  This must only be
+     * called from the reactor's thread.
+     *
+     * @param timer the timer that has been canceled.
+     */
+    protected void timerRemove(Timer timer) {
+        // The timer is either in the store, on the active list waiting
+        // to be fired during this pass (or the next if the budget ran
+        // out), or nowhere at all.  In the last
+        // case it may still be on its way here from another thread so
+        // it stays canceled for the submitting Work to discard.
+        if (timer.getEntry() != -1 || timer.getRight() != timer) {
+            m_timerStore.remove(timer);
+            timer.remove();
+            timer.setToPending();
         }
     }
 
+    /**
+     * Gets the number of timers waiting to become ripe.  This must only
+     * be called from the reactor's thread.
+     *
+     * @return the number of timers waiting to become ripe.
+     */
+    public int getTimerCount() {
+        return m_timerStore.getSize();
+    }
+
+    /**
+     * Sets how close to a timer's deadline the reactor stops parking
+     * and starts spinning.  Larger values make timers more punctual at
+     * the cost of CPU time.
+     *
+     * @param spinTime the number of nanoseconds to spin before a
+     *                 timer is due.  0 disables spinning.
+     */
+    public void setSpinTime(long spinTime) {
+        if (spinTime < 0) {
+            throw new IllegalArgumentException("spinTime == " + spinTime +
+                                               " needs to be >= 0");
+        }
+        m_spinTime = spinTime;
+    }
+
+    /**
+     * Gets how close to a timer's deadline the reactor starts spinning.
+     *
+     * @return the number of nanoseconds to spin before a timer is due.
+     */
+    public long getSpinTime() {
+        return m_spinTime;
+    }
+
+    /**
+     * Limits the number of ripe timers fired per pass through the
+     * loop.  Ripe timers that don't get to fire wait for the next
+     * pass, ahead of any that ripen later.  This may be invoked from
+     * any thread.
+     *
+     * @param budget the most timers fired per pass or 0 for no limit.
+     */
+    public void setTimerBudget(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget == " + budget +
+                                               " needs to be >= 0");
+        }
+        m_timerBudget = budget;
+    }
+
+    /** Gets the most timers fired per pass or 0 for no limit. */
+    public int getTimerBudget() {
+        return m_timerBudget;
+    }
+
+    /**
+     * Blocks until either a timer becomes ripe, a time limit passes or
+     * we are woken up (e.g. when work is submitted or a new timer is
+     * registered).
+     *
+     * @param nanos the most nanoseconds to block for or -1 to block for
+     *              as long as it takes.
+     */
+    protected void block(long nanos) {
+        long blockTime = getBlockTime(nanos);
+        if (blockTime == 0) {
+            // The first timer is due very soon.
+            Thread.onSpinWait();
+        } else {
+            super.block(blockTime);
+        }
+    }
+
+    /**
+     * Works out how long to block for given the time until the first
+     * timer is ripe.  Deadlines closer than the spin time are waited
+     * out by spinning (the reactor loop calls us again until the timer
+     * is ripe).  Further deadlines block until the spin time before
+     * they are due.
+     *
+     * @param nanos the most nanoseconds the caller wants to block for
+     *              or -1 for as long as it takes.
+     * @return the number of nanoseconds to block for, 0 to spin or -1
+     *         to block until woken up.
+     */
+    protected long getBlockTime(long nanos) {
+        if (m_sleepTime < 0) {
+            // There are no timers registered.
+            return nanos;
+        }
+        if (m_sleepTime <= m_spinTime) {
+            return 0L;
+        }
+        long timerTime = m_sleepTime - m_spinTime;
+        return (nanos < 0 || timerTime < nanos) ? timerTime : nanos;
+    }
+
     /**
      * Determines if there is work pending. We check to see if there as it least
      * one ripe timer. If not we check if the superclass has work to do. We
@@ -194,36 +477,59 @@ public class TimerReactor extends WorkReactor
      * @return true if there is work pending.
      */
     protected boolean isWorkPending() {
-        int numTimers = m_timerHeap.getSize();
-        if (numTimers > 0) {
+        boolean isTimerRipe = false;
+        if (m_activeTimers != m_activeTimers.getRight()) {
+            // Ripe timers were left over from the last pass.
+            m_nowNanos = System.nanoTime();
+            m_sleepTime = 0;
+            m_now = System.currentTimeMillis();
+            isTimerRipe = true;
+        } else if (m_timerStore.getSize() > 0) {
             // There are timers. Let's see if any are ripe.
-            int firstEntry = m_timerHeap.peek();
-            Timer timer = m_timerHeap.getEntryValue(firstEntry);
+            long nextTime = m_timerStore.getNextTime();
 
             // Make a note of the time. If there are ripe timers
             // we'll end up passing this time to them.
-            m_now = System.currentTimeMillis();
+            m_nowNanos = System.nanoTime();
 
             // Also note how much time to sleep in case there are no
             // ripe timers.
-            m_sleepTime = timer.getTime() - m_now;
+            m_sleepTime = nextTime - m_nowNanos;
 
             if (m_sleepTime <= 0) {
                 // There is at least 1 ripe timer
                 m_sleepTime = 0;
-                return true;
+                m_now = System.currentTimeMillis();
+                isTimerRipe = true;
             }
         } else {
             // Indicates that there are no timers so we can sleep
             // indefinitely.
             m_sleepTime = -1;
         }
-        return super.isWorkPending();
+
+        // Always ask the superclass, even with ripe timers, so that
+        // work submitted by other threads is drained on this pass too.
+        // Otherwise timers carried over under the budget would starve
+        // it.
+        return super.isWorkPending() || isTimerRipe;
     }
 
     /**
-     * Gets the amount of time to sleep until the first timer will
-     * become ripe.
+     * Determines if the wait for the first timer needs to be more
+     * precise than a millisecond, i.e. it was submitted in nanoseconds.
+     * Millisecond timers were never promised better.
+     *
+     * @return true if the first timer needs sub-millisecond precision.
+     */
+    protected boolean isSleepPrecise() {
+        return m_sleepTime >= 0 && m_timerStore.getSize() > 0 &&
+            m_timerStore.isNextNanos();
+    }
+
+    /**
+     * Gets the number of nanoseconds to sleep until the first timer
+     * will become ripe or -1 if there are no timers.
      */
     protected long getSleepTime() {
         return m_sleepTime;
@@ -232,30 +538,26 @@ public class TimerReactor extends WorkReactor
     /** XXX - javadoc */
     protected void doWork() {
         if (m_sleepTime >= 0) {
-            // Compile a queue of timers that are ripe.
-            while (m_timerHeap.getSize() > 0) {
-                // Check to see if the first timer left on the heap is ripe.
-                int entry = m_timerHeap.peek();
-                long fireTime = m_timerHeap.getEntryKey(entry);
-                if (fireTime > m_now) {
-                    // We have consumed any ripe timers on the heap.
-                    break;
-                }
-
-                // Remove the timer from the heap
-                Timer timer = m_timerHeap.getEntryValue(entry);
-                m_timerHeap.remove(entry);
-                timer.setEntry(-1);
-
-                // Place the timer on the active queue
-                m_activeTimers.insertLeft(timer);
-            }
+            // Compile a queue of timers that are ripe, behind any left
+            // over from the last pass.
+            m_timerStore.expire(m_nowNanos, m_activeTimers);
 
             // Now execute the queued timers
+            int budget = m_timerBudget;
+            int fired = 0;
+            long deadline = getPhaseDeadline();
             for (Timer timer = m_activeTimers.getRight();
                  timer != m_activeTimers;
                  timer = m_activeTimers.getRight())
                 {
+                    if ((budget > 0 && fired >= budget) ||
+                        (fired > 0 && isPastDeadline(deadline)))
+                    {
+                        // The rest wait for the next pass.
+                        m_metrics.carriedOver();
+                        break;
+                    }
+
                     // Take the timer off of the queue now
                     timer.remove();
 
@@ -270,15 +572,35 @@ public class TimerReactor extends WorkReactor
                         continue;
                     }
 
+                    if (timer.isWallClock() && timer.getTime() > m_now) {
+                        // The wall clock was set back while the timer
+                        // was pending.  Wait for it to catch up.
+                        timer.setToPending();
+                        timer.setDeadline(
+                            m_nowNanos +
+                            clampMillis(timer.getTime() - m_now) * NANOS_PER_MILLI);
+                        m_timerStore.insert(timer, m_nowNanos);
+                        continue;
+                    }
+
                     // If we're here, then the timer is active
+                    fired++;
+                    m_metrics.recordTimerLag(m_nowNanos - timer.getDeadline());
+                    long start = beginHandler(timer);
                     try {
+                        boolean isNanos = timer.isNanos();
                         long nextTime =
-                            timer.timerFire(timer.getTime(), m_now);
+                            timer.timerFire(timer.getTime(),
+                                            isNanos ? m_nowNanos : m_now);
 
                         if (nextTime != 0L) {
                             // The timer wants to be rescheduled
                             if (timer.complete()) {
-                                timerSubmitAbs(nextTime, timer);
+                                if (isNanos) {
+                                    timerSubmitAbsNanos(nextTime, timer);
+                                } else {
+                                    timerSubmitAbs(nextTime, timer);
+                                }
                             } else {
                                 // We were not able to successfully transition
                                 // back to the pending state.  This means that the
@@ -293,8 +615,10 @@ public class TimerReactor extends WorkReactor
                     } catch (Throwable t) {
                         s_logger.warn(t.toString(), t);
                     }
+                    endHandler(timer, start);
                 }
         }
+        m_metrics.setTimerCount(m_timerStore.getSize());
 
         // We're done with any ripe timers.  Now handle the work queue.
         super.doWork();
@@ -0,0 +1,73 @@
+package com.readyposition.reactor;
+
+/**
+ * A TimerStore holds the Timers that have been submitted to a
+ * TimerReactor and are waiting to become ripe.  A TimerStore is only
+ * ever touched by the thread of the reactor that owns it so
+ * implementations need no synchronization.
+ *
+ * <p>All times are monotonic times in nanoseconds (a la
+ * System.nanoTime()) and Timers are ordered by their deadlines.
+ *
+ * <p>Stores are free to keep track of Timers through the Timer's entry
+ * number (see Timer.setEntry()) and its Yoke links.  A Timer's entry
+ * must be -1 whenever it is not held by the store.
+ */
+public interface TimerStore
+{
+    /**
+     * Adds a Timer to the store.  The Timer's deadline has already
+     * been set.
+     *
+     * @param timer the Timer to add.
+     * @param now the reactor's current time.
+     */
+    void insert(Timer timer, long now);
+
+    /**
+     * Removes a Timer from the store.  Nothing happens if the Timer is
+     * not held by the store.
+     *
+     * @param timer the Timer to remove.
+     */
+    void remove(Timer timer);
+
+    /**
+     * Gets the time at which the store next needs attention.  This is
+     * never later than the deadline of the earliest Timer in the store,
+     * but it may be earlier.  In that case expire() may not find any
+     * ripe Timers when called at that time.
+     *
+     * @return the time at which expire() should next be called.  The
+     *         result is undefined if the store is empty.
+     */
+    long getNextTime();
+
+    /**
+     * Determines if the Timer getNextTime() is for was submitted with
+     * a deadline in nanoseconds (see Timer.isNanos()), so the reactor
+     * should wait for it to better than a millisecond.  A store that
+     * can't tell cheaply may answer true whenever it holds such a
+     * Timer at all.
+     *
+     * @return true if the next Timer needs sub-millisecond precision.
+     *         The result is undefined if the store is empty.
+     */
+    boolean isNextNanos();
+
+    /**
+     * Removes every Timer whose deadline is no later than now from the
+     * store and places it to the left of (i.e. at the end of) a list.
+     *
+     * @param now the reactor's current time.
+     * @param ripe the sentinel of the list that receives ripe Timers.
+     */
+    void expire(long now, Timer ripe);
+
+    /**
+     * Gets the number of Timers in the store.
+     *
+     * @return the number of Timers in the store.
+     */
+    int getSize();
+}
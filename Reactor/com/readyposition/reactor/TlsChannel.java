@@ -0,0 +1,697 @@
+package com.readyposition.reactor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.readyposition.collections.common.ByteBladder;
+
+/**
+ * A connection secured with TLS by an SSLEngine.  The handshake and
+ * every wrap and unwrap happen on the IOReactor's thread.  The
+ * SSLEngine's delegated tasks (e.g. certificate checks and key
+ * exchange) may be handed to a separate WorkReactor so that they
+ * don't hold up the reactor's other channels.
+ *
+ * <p>Once the handshake is done the channel is read and written as a
+ * ByteChannel of plaintext, e.g. with ByteBladder.read() and write().
+ * setReadEnabled() and setWriteEnabled() stand in for enabling
+ * OP_READ and OP_WRITE on a Valve: the TlsHandler is told when
+ * plaintext is readable and when the channel can take more, and, like
+ * a Valve, keeps being told each pass while decrypted bytes are left
+ * unread.
+ *
+ * <p>Ciphertext on its way in or out is held in direct ByteBladders
+ * borrowed from a ByteBladderPool, as is decrypted plaintext that
+ * hasn't been read yet.  They are given back as soon as they are
+ * empty, so an idle connection holds no buffers.
+ *
+ * <p>Every method must be invoked on the IOReactor's thread.  Other
+ * threads can submit a Work to that reactor.
+ */
+public class TlsChannel implements ValveHandler, ByteChannel
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(TlsChannel.class);
+
+    /** Wrapped when the handshake needs to send something. */
+    private final static ByteBuffer s_empty = ByteBuffer.allocate(0);
+
+    /** The IOReactor that detects readiness for the socket. */
+    protected IOReactor m_ioReactor;
+
+    /** The socket being handled. */
+    protected SocketChannel m_socketChannel;
+
+    /** Does the TLS. */
+    protected SSLEngine m_engine;
+
+    /** Handles the channel's events. */
+    protected TlsHandler m_handler;
+
+    /** Runs delegated tasks or null to run them on m_ioReactor. */
+    protected WorkReactor m_taskReactor;
+
+    /** Lends the ByteBladders. */
+    protected ByteBladderPool m_pool;
+
+    /** The Valve for the socket. */
+    protected Valve m_valve;
+
+    /** Ciphertext read and not yet unwrapped or null if none. */
+    protected ByteBladder m_netIn;
+
+    /** Ciphertext wrapped and not yet written or null if none. */
+    protected ByteBladder m_netOut;
+
+    /** Plaintext unwrapped and not yet read or null if none. */
+    protected ByteBladder m_appIn;
+
+    /** The least room to make for a TLS record. */
+    protected int m_packetSize;
+
+    /** The least room to make for the plaintext of a TLS record. */
+    protected int m_appSize;
+
+    /** True while handshaking. */
+    protected boolean m_isHandshaking;
+
+    /** Set once the first handshake has completed. */
+    protected boolean m_isHandshakeDone;
+
+    /** True while delegated tasks are running. */
+    protected boolean m_isTaskRunning;
+
+    /** True if the handler wants readReady() events. */
+    protected boolean m_isReadEnabled;
+
+    /** True if the handler wants writeReady() events. */
+    protected boolean m_isWriteEnabled;
+
+    /** Set once the peer has closed its side. */
+    protected boolean m_isInputShutdown;
+
+    /** Set once the channel has been closed. */
+    protected boolean m_isClosed;
+
+    /** Hands readReady() events out while plaintext is left unread. */
+    protected Work m_readWork;
+
+    /** Runs delegated tasks on m_taskReactor. */
+    protected WorkHandler m_taskHandler;
+
+    /** Carries on with the handshake once the tasks have run. */
+    protected WorkHandler m_resumeHandler;
+
+    /**
+     * Constructs a TlsChannel.  Call start() to begin the handshake.
+     *
+     * @param ioReactor the IOReactor that will detect readiness.
+     * @param socketChannel a connected socket.
+     * @param engine the SSLEngine, already set up for client or server
+     *               mode.
+     * @param handler handles the channel's events.
+     * @param taskReactor runs the SSLEngine's delegated tasks or null
+     *                    to run them on ioReactor.
+     * @param pool lends direct ByteBladders.  It may be shared by the
+     *             other channels of ioReactor.
+     */
+    public TlsChannel(IOReactor ioReactor, SocketChannel socketChannel,
+                      SSLEngine engine, TlsHandler handler,
+                      WorkReactor taskReactor, ByteBladderPool pool)
+    {
+        m_ioReactor = ioReactor;
+        m_socketChannel = socketChannel;
+        m_engine = engine;
+        m_handler = handler;
+        m_taskReactor = taskReactor;
+        m_pool = pool;
+        m_packetSize = engine.getSession().getPacketBufferSize();
+        m_appSize = engine.getSession().getApplicationBufferSize();
+        m_readWork = new SimpleWork(new WorkHandler() {
+                public boolean workFire() {
+                    if (!m_isClosed && !m_isHandshaking && m_isReadEnabled) {
+                        m_handler.readReady(TlsChannel.this);
+                        return settle();
+                    }
+                    return false;
+                }
+            });
+        m_taskHandler = new WorkHandler() {
+                public boolean workFire() {
+                    Runnable task;
+                    while ((task = m_engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    // Housekeeping that mustn't be refused or run here
+                    // by the reactor's SubmissionPolicy, or the
+                    // handshake would hang or leave the reactor.
+                    m_ioReactor.submitInternal(new SimpleWork(m_resumeHandler));
+                    return false;
+                }
+            };
+        m_resumeHandler = new WorkHandler() {
+                public boolean workFire() {
+                    m_isTaskRunning = false;
+                    if (!m_isClosed) {
+                        handshake();
+                    }
+                    return false;
+                }
+            };
+        m_valve = ioReactor.valveCreate(socketChannel, this);
+    }
+
+    /** Gets the IOReactor that detects readiness for the socket. */
+    public IOReactor getIOReactor() {
+        return m_ioReactor;
+    }
+
+    /** Gets the socket being handled. */
+    public SocketChannel getSocketChannel() {
+        return m_socketChannel;
+    }
+
+    /** Gets the SSLEngine. */
+    public SSLEngine getEngine() {
+        return m_engine;
+    }
+
+    /** Determines if a handshake is under way. */
+    public boolean isHandshaking() {
+        return m_isHandshaking;
+    }
+
+    // Javadoc from interface
+    public boolean isOpen() {
+        return !m_isClosed;
+    }
+
+    /**
+     * Makes the socket non-blocking and begins the handshake.
+     * TlsHandler.handshakeCompleted() is invoked once it's done.
+     *
+     * @throws IOException if the socket can't be made non-blocking or
+     *         the handshake can't begin.
+     */
+    public void start() throws IOException {
+        checkThread();
+        m_socketChannel.configureBlocking(false);
+        m_engine.beginHandshake();
+        m_isHandshaking = true;
+        handshake();
+    }
+
+    /**
+     * Stops or restarts readReady() events.
+     *
+     * @param isEnabled true to deliver readReady() events.
+     */
+    public void setReadEnabled(boolean isEnabled) {
+        checkThread();
+        m_isReadEnabled = isEnabled;
+        settle();
+    }
+
+    /**
+     * Stops or restarts writeReady() events.
+     *
+     * @param isEnabled true to deliver writeReady() events.
+     */
+    public void setWriteEnabled(boolean isEnabled) {
+        checkThread();
+        m_isWriteEnabled = isEnabled;
+        updateInterest();
+    }
+
+    /**
+     * Reads plaintext.
+     *
+     * @param dst the buffer to read into.
+     * @return the number of bytes read, 0 if none are available (which
+     *         is always the case while handshaking) or -1 once the
+     *         peer has closed.
+     * @throws IOException if the read failed.
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        checkThread();
+        if (m_isClosed) {
+            throw new ClosedChannelException();
+        }
+        if (m_isHandshaking) {
+            return 0;
+        }
+        fill(true);
+        if (m_appIn != null) {
+            ByteBuffer src = m_appIn.getOutBuffer();
+            int n = Math.min(src.remaining(), dst.remaining());
+            src.limit(src.position() + n);
+            dst.put(src);
+            m_appIn.consume(n);
+            if (m_appIn.getUsed() == 0) {
+                m_pool.release(m_appIn);
+                m_appIn = null;
+            }
+            return n;
+        }
+        return m_isInputShutdown ? -1 : 0;
+    }
+
+    /**
+     * Writes plaintext.  As much is wrapped as the socket will take,
+     * so like a non-blocking SocketChannel this may write only part of
+     * src, or nothing while handshaking.
+     *
+     * @param src the bytes to write.
+     * @return the number of bytes written.
+     * @throws IOException if the write failed.
+     */
+    public int write(ByteBuffer src) throws IOException {
+        checkThread();
+        if (m_isClosed) {
+            throw new ClosedChannelException();
+        }
+        if (m_isHandshaking || !flushNet()) {
+            return 0;
+        }
+        int total = 0;
+        while (src.hasRemaining()) {
+            SSLEngineResult result = wrap(src);
+            total += result.bytesConsumed();
+            if (result.getStatus() == Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            if (!flushNet()) {
+                // The rest waits for OP_WRITE.
+                break;
+            }
+        }
+        updateInterest();
+        return total;
+    }
+
+    /**
+     * Sends a close_notify, as far as the socket will take it, and
+     * closes the channel.
+     */
+    public void close() {
+        if (m_isClosed) {
+            return;
+        }
+        m_engine.closeOutbound();
+        try {
+            while (!m_engine.isOutboundDone()) {
+                wrap(s_empty);
+            }
+            flushNet();
+        } catch (IOException e) {
+            // We're closing anyway.
+        }
+        shutdown();
+    }
+
+    /** Closes the socket and gives back the ByteBladders. */
+    protected void shutdown() {
+        m_isClosed = true;
+        m_valve.close();
+        if (m_netIn != null) {
+            m_pool.release(m_netIn);
+            m_netIn = null;
+        }
+        if (m_netOut != null) {
+            m_pool.release(m_netOut);
+            m_netOut = null;
+        }
+        if (m_appIn != null) {
+            m_pool.release(m_appIn);
+            m_appIn = null;
+        }
+    }
+
+    /**
+     * Closes the channel after a failure and tells the handler.
+     *
+     * @param e why the channel failed.
+     */
+    protected void fail(IOException e) {
+        shutdown();
+        try {
+            m_handler.closed(this, e);
+        } catch (Throwable t) {
+            s_logger.warn(t.toString(), t);
+        }
+    }
+
+    /**
+     * Carries the handshake as far as it will go without waiting for
+     * the socket or for delegated tasks.
+     */
+    protected void handshake() {
+        try {
+            while (m_isHandshaking && !m_isClosed) {
+                if (!flushNet()) {
+                    // Wait for OP_WRITE.
+                    break;
+                }
+                SSLEngineResult result;
+                switch (m_engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    result = wrap(s_empty);
+                    if (result.getStatus() == Status.CLOSED) {
+                        flushNet();
+                        throw new SSLException("Handshake closed by " +
+                                               "the SSLEngine");
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    result = unwrap();
+                    if (result != null && result.getStatus() == Status.CLOSED) {
+                        throw new SSLException("Handshake closed by the peer");
+                    }
+                    if (isStarved(result)) {
+                        int n = readNet();
+                        if (n < 0) {
+                            throw new EOFException("Peer closed during " +
+                                                   "the handshake");
+                        }
+                        if (n == 0) {
+                            // Wait for OP_READ.
+                            updateInterest();
+                            return;
+                        }
+                    }
+                    break;
+                case NEED_TASK:
+                    runTasks();
+                    return;
+                default:
+                    m_isHandshaking = false;
+                    if (!m_isHandshakeDone) {
+                        m_isHandshakeDone = true;
+                        m_handler.handshakeCompleted(this);
+                    }
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        settle();
+    }
+
+    /** Hands the SSLEngine's delegated tasks to m_taskReactor. */
+    protected void runTasks() {
+        m_isTaskRunning = true;
+        updateInterest();
+        if (m_taskReactor == null) {
+            m_taskHandler.workFire();
+        } else {
+            // A new Work each time since the last one may not have
+            // finished returning.  Handshakes are rare enough.  Not
+            // workSubmit(): its SubmissionPolicy could refuse the
+            // tasks, run them here or park this reactor's thread.
+            m_taskReactor.submitInternal(new SimpleWork(m_taskHandler));
+        }
+    }
+
+    /**
+     * Unwraps ciphertext that has been read until there is plaintext
+     * to read, more ciphertext is needed or the peer has closed.
+     *
+     * @param isReading true to read the socket if more ciphertext is
+     *                  needed.
+     * @throws IOException if reading or unwrapping failed.
+     */
+    protected void fill(boolean isReading) throws IOException {
+        while (m_appIn == null && !m_isInputShutdown && !m_isHandshaking) {
+            SSLEngineResult result = unwrap();
+            if (isStarved(result)) {
+                if (!isReading) {
+                    return;
+                }
+                int n = readNet();
+                if (n < 0) {
+                    // Closed without a close_notify.
+                    m_isInputShutdown = true;
+                    try {
+                        m_engine.closeInbound();
+                    } catch (SSLException e) {
+                        s_logger.debug("Truncated: " + e);
+                    }
+                    return;
+                }
+                if (n == 0) {
+                    return;
+                }
+                continue;
+            }
+            if (result.getStatus() == Status.CLOSED) {
+                // A close_notify.  close() answers it.
+                m_isInputShutdown = true;
+                return;
+            }
+            HandshakeStatus status = result.getHandshakeStatus();
+            if (status != HandshakeStatus.NOT_HANDSHAKING &&
+                status != HandshakeStatus.FINISHED)
+            {
+                // A renegotiation or a post-handshake message.
+                m_isHandshaking = true;
+                handshake();
+            }
+        }
+    }
+
+    /**
+     * Determines if an unwrap got nowhere because it needs more
+     * ciphertext.
+     *
+     * @param result what unwrap() returned.
+     * @return true if more needs to be read from the socket.
+     */
+    protected boolean isStarved(SSLEngineResult result) {
+        return result == null ||
+            result.getStatus() == Status.BUFFER_UNDERFLOW ||
+            (result.getStatus() == Status.OK &&
+             result.bytesConsumed() == 0 && result.bytesProduced() == 0);
+    }
+
+    /**
+     * Reads ciphertext from the socket.
+     *
+     * @return the number of bytes read or -1 at end of stream.
+     * @throws IOException if the read failed.
+     */
+    protected int readNet() throws IOException {
+        if (m_netIn == null) {
+            m_netIn = m_pool.acquire();
+        }
+        int n = m_netIn.read(m_socketChannel, m_packetSize);
+        if (m_netIn.getUsed() == 0) {
+            m_pool.release(m_netIn);
+            m_netIn = null;
+        }
+        return n;
+    }
+
+    /**
+     * Unwraps one TLS record from m_netIn into m_appIn.
+     *
+     * @return what the SSLEngine returned or null if there is no
+     *         ciphertext to unwrap.
+     * @throws SSLException if the SSLEngine failed.
+     */
+    protected SSLEngineResult unwrap() throws SSLException {
+        if (m_netIn == null) {
+            return null;
+        }
+        if (m_appIn == null) {
+            m_appIn = m_pool.acquire();
+        }
+        m_appIn.makeRoom(m_appSize);
+        ByteBuffer dst = m_appIn.getInBuffer();
+        SSLEngineResult result = m_engine.unwrap(m_netIn.getOutBuffer(), dst);
+        m_netIn.consume(result.bytesConsumed());
+        m_appIn.produce(result.bytesProduced());
+        if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+            // The session has grown its records.
+            m_appSize = Math.max(m_appSize * 2,
+                                 m_engine.getSession().getApplicationBufferSize());
+        }
+        if (m_netIn.getUsed() == 0) {
+            m_pool.release(m_netIn);
+            m_netIn = null;
+        }
+        if (m_appIn.getUsed() == 0) {
+            m_pool.release(m_appIn);
+            m_appIn = null;
+        }
+        return result;
+    }
+
+    /**
+     * Wraps plaintext into m_netOut.
+     *
+     * @param src the plaintext.
+     * @return what the SSLEngine returned.
+     * @throws SSLException if the SSLEngine failed.
+     */
+    protected SSLEngineResult wrap(ByteBuffer src) throws SSLException {
+        if (m_netOut == null) {
+            m_netOut = m_pool.acquire();
+        }
+        m_netOut.makeRoom(m_packetSize);
+        SSLEngineResult result = m_engine.wrap(src, m_netOut.getInBuffer());
+        m_netOut.produce(result.bytesProduced());
+        if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+            // The session has grown its records.
+            m_packetSize = Math.max(m_packetSize * 2,
+                                    m_engine.getSession().getPacketBufferSize());
+        }
+        return result;
+    }
+
+    /**
+     * Writes as much of m_netOut as the socket will take.
+     *
+     * @return true if everything has been written.
+     * @throws IOException if the write failed.
+     */
+    protected boolean flushNet() throws IOException {
+        if (m_netOut == null) {
+            return true;
+        }
+        if (m_netOut.getUsed() > 0) {
+            m_netOut.write(m_socketChannel);
+        }
+        if (m_netOut.getUsed() > 0) {
+            return false;
+        }
+        m_pool.release(m_netOut);
+        m_netOut = null;
+        return true;
+    }
+
+    /**
+     * Brings the Valve's operations up to date and arranges for
+     * another readReady() if plaintext is left unread.
+     *
+     * @return true if plaintext is left unread.
+     */
+    protected boolean settle() {
+        if (m_isClosed) {
+            return false;
+        }
+        boolean isReadable = false;
+        if (!m_isHandshaking && !m_isTaskRunning && m_isReadEnabled) {
+            try {
+                fill(false);
+            } catch (IOException e) {
+                fail(e);
+                return false;
+            }
+            isReadable = (m_appIn != null || m_isInputShutdown) &&
+                !m_isHandshaking;
+        }
+        updateInterest();
+        if (isReadable && m_readWork.isPending()) {
+            // Otherwise m_readWork is running and resubmits itself.
+            m_ioReactor.workSubmit(m_readWork);
+        }
+        return isReadable;
+    }
+
+    /** Enables the socket operations the channel is waiting for. */
+    protected void updateInterest() {
+        if (m_isClosed) {
+            return;
+        }
+        boolean isBlocked = (m_netOut != null);
+        boolean isRead;
+        boolean isWrite;
+        if (m_isTaskRunning) {
+            isRead = false;
+            isWrite = isBlocked;
+        } else if (m_isHandshaking) {
+            HandshakeStatus status = m_engine.getHandshakeStatus();
+            isRead = !isBlocked &&
+                (status == HandshakeStatus.NEED_UNWRAP ||
+                 status == HandshakeStatus.NEED_UNWRAP_AGAIN);
+            isWrite = isBlocked;
+        } else {
+            isRead = m_isReadEnabled && !m_isInputShutdown;
+            isWrite = isBlocked || m_isWriteEnabled;
+        }
+        if (isRead) {
+            m_valve.enable(SelectionKey.OP_READ);
+        } else {
+            m_valve.disable(SelectionKey.OP_READ);
+        }
+        if (isWrite) {
+            m_valve.enable(SelectionKey.OP_WRITE);
+        } else {
+            m_valve.disable(SelectionKey.OP_WRITE);
+        }
+    }
+
+    // Javadoc from interface
+    public void valveFire(Valve valve, SelectionKey selectedKey) {
+        if (m_isClosed) {
+            return;
+        }
+        int ops = selectedKey.readyOps();
+        boolean isDrained;
+        try {
+            isDrained = flushNet();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (m_isTaskRunning) {
+            updateInterest();
+            return;
+        }
+        if (m_isHandshaking) {
+            handshake();
+            return;
+        }
+        if ((ops & SelectionKey.OP_WRITE) != 0 && isDrained &&
+            m_isWriteEnabled)
+        {
+            m_handler.writeReady(this);
+        }
+        if ((ops & SelectionKey.OP_READ) != 0 && m_isReadEnabled &&
+            !m_isClosed && !m_isHandshaking)
+        {
+            m_handler.readReady(this);
+        }
+        settle();
+    }
+
+    /**
+     * Makes sure the channel is used on the reactor's thread.
+     *
+     * @throws IllegalStateException if called by another thread.
+     */
+    protected void checkThread() {
+        if (m_ioReactor.getThread() != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Attempt to use a TlsChannel outside its reactor.");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+/**
+ * The interface for objects that handle the events of a TlsChannel.
+ * Every method is invoked on the IOReactor's thread.
+ */
+public interface TlsHandler
+{
+    /**
+     * Invoked once the handshake has completed.  Reads and writes are
+     * possible from now on.
+     *
+     * @param channel the channel that is ready.
+     */
+    public void handshakeCompleted(TlsChannel channel);
+
+    /**
+     * Invoked while reading is enabled and there is plaintext to read
+     * (or the peer has closed).  Like a Valve this keeps being invoked
+     * once per pass for as long as decrypted bytes are left unread.
+     *
+     * @param channel the channel that is readable.
+     */
+    public void readReady(TlsChannel channel);
+
+    /**
+     * Invoked while writing is enabled and the channel can take more
+     * plaintext.
+     *
+     * @param channel the channel that is writable.
+     */
+    public void writeReady(TlsChannel channel);
+
+    /**
+     * Invoked when the channel has closed because the handshake, a
+     * read or a write failed.  The peer closing shows up instead as
+     * read() returning -1.
+     *
+     * @param channel the channel that closed.
+     * @param e why it closed.
+     */
+    public void closed(TlsChannel channel, IOException e);
+}
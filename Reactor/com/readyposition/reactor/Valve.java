@@ -2,6 +2,7 @@ package com.readyposition.reactor;
 
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Valve represents a unit of work to be done during a pass through
@@ -24,6 +25,29 @@ public class Valve implements ValveHandler
      */
     protected ValveHandler m_handler;
 
+    /** Mask of the operations in each half of m_pendingOps. */
+    final static int PENDING_OPS_MASK = 0xff;
+
+    /** Shift of the operations to disable within m_pendingOps. */
+    final static int PENDING_DISABLE_SHIFT = 8;
+
+    /** Set in m_pendingOps when the Valve is to be closed. */
+    final static int PENDING_CLOSE = 1 << 16;
+
+    /** Set in m_pendingOps while the Valve is queued on its reactor. */
+    final static int PENDING_QUEUED = 1 << 17;
+
+    /**
+     * Changes requested by threads other than the reactor's that the
+     * reactor hasn't applied yet.  The low byte holds operations to
+     * enable and the next byte operations to disable.  For each
+     * operation only the latest request is kept.
+     */
+    final AtomicInteger m_pendingOps = new AtomicInteger();
+
+    /** Links Valves queued on their reactor for pending changes. */
+    Valve m_nextPending;
+
     /** Constructor. */
     public Valve() {}
 
@@ -78,6 +102,62 @@ public class Valve implements ValveHandler
         m_ioReactor.close(this);
     }
 
+    /**
+     * Records a change requested by a thread other than the reactor's.
+     * Only the net effect of all such changes is applied when the
+     * reactor gets to this Valve.
+     *
+     * @param enableOps the operations to enable.
+     * @param disableOps the operations to disable.
+     * @param close true if the Valve is to be closed.
+     * @return true if the caller needs to queue the Valve on its
+     *         reactor, false if it is already queued.
+     */
+    boolean addPending(int enableOps, int disableOps, boolean close) {
+        for (;;) {
+            int pending = m_pendingOps.get();
+            int update = pending;
+            update = (update | enableOps) & ~disableOps;
+            update = (update | (disableOps << PENDING_DISABLE_SHIFT)) &
+                ~(enableOps << PENDING_DISABLE_SHIFT);
+            if (close) {
+                update |= PENDING_CLOSE;
+            }
+            update |= PENDING_QUEUED;
+            if (m_pendingOps.compareAndSet(pending, update)) {
+                return (pending & PENDING_QUEUED) == 0;
+            }
+        }
+    }
+
+    /**
+     * Forgets any pending changes to some operations because the
+     * reactor's thread has just changed them directly.
+     *
+     * @param ops the operations that were changed.
+     */
+    void supersedePending(int ops) {
+        int mask = ops | (ops << PENDING_DISABLE_SHIFT);
+        for (;;) {
+            int pending = m_pendingOps.get();
+            if ((pending & mask) == 0 ||
+                m_pendingOps.compareAndSet(pending, pending & ~mask))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes all of the pending changes and marks the Valve as no
+     * longer queued.
+     *
+     * @return the pending changes.
+     */
+    int takePending() {
+        return m_pendingOps.getAndSet(0);
+    }
+
     /**
      * Sets the IOReactor that will control this Valve
      *
@@ -114,6 +194,17 @@ public class Valve implements ValveHandler
         return m_channel;
     }
 
+    /**
+     * Gets the operations enabled by the reactor's thread.  Changes
+     * requested by other threads that haven't been applied yet are not
+     * included.
+     *
+     * @return the enabled operations (see SelectionKey).
+     */
+    public int getOps() {
+        return m_ops;
+    }
+
     /**
      * Sets the ValveHandler that will be invoked via this Valve.
      *
@@ -0,0 +1,452 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection that writes from a queue of ByteBuffer segments with
+ * gathering writes and reads with scattering reads.  A framed message
+ * (e.g. header, payload and trailer) can be queued as separate
+ * segments without first copying them into one buffer, and however
+ * many messages are queued they go out in as few write calls as the
+ * socket allows.
+ *
+ * <p>write() queues segments and tries to write them straight away.
+ * Whatever the socket won't take is written when the Valve says the
+ * socket is writable again, picking up part way through a segment if
+ * need be.  The queue holds on to the ByteBuffers themselves, so they
+ * must not be changed until VectoredHandler.writeDrained() is invoked.
+ *
+ * <p>A corked channel (see setCorked()) doesn't write straight away.
+ * Everything written during a pass through the reactor loop is
+ * written together at the end of the pass, so many small messages
+ * cost one system call instead of one each.  Unlike Nagle's algorithm
+ * this never holds bytes back past the end of the pass.  A byte limit
+ * and a time limit can force an earlier write during a long pass.
+ *
+ * <p>Every method must be invoked on the IOReactor's thread.  Other
+ * threads can submit a Work to that reactor.
+ */
+public class VectoredChannel implements ValveHandler
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(VectoredChannel.class);
+
+    /**
+     * The most segments handed to a single gathering write.  Operating
+     * systems limit how many buffers one writev() takes (IOV_MAX, 1024
+     * on Linux) and the JDK splits larger arrays anyway.
+     */
+    public final static int MAX_SEGMENTS_PER_WRITE = 1024;
+
+    /** The IOReactor that detects readiness for the socket. */
+    protected IOReactor m_ioReactor;
+
+    /** The socket being handled. */
+    protected SocketChannel m_socketChannel;
+
+    /** Handles reads and the state of the write queue. */
+    protected VectoredHandler m_handler;
+
+    /** The Valve for the socket. */
+    protected Valve m_valve;
+
+    /**
+     * The queued segments.  Those from m_head up to m_tail are still to
+     * be written.
+     */
+    protected ByteBuffer[] m_segments = new ByteBuffer[16];
+
+    /** The index of the first segment still to be written. */
+    protected int m_head;
+
+    /** The index after the last queued segment. */
+    protected int m_tail;
+
+    /** The number of queued bytes not yet written. */
+    protected long m_queuedBytes;
+
+    /** True while waiting for the socket to become writable. */
+    protected boolean m_isWriteBlocked;
+
+    /** The number of write calls made. */
+    protected long m_writeCount;
+
+    /** Set once the channel has been closed. */
+    protected boolean m_isClosed;
+
+    /** True if writes wait for the end of the pass. */
+    protected boolean m_isCorked;
+
+    /**
+     * The number of queued bytes that makes a corked channel write
+     * straight away or 0 for no limit.
+     */
+    protected long m_corkBytes;
+
+    /**
+     * The most nanoseconds a corked write may be held back within a
+     * pass or 0 for no limit.
+     */
+    protected long m_corkNanos;
+
+    /**
+     * True while the channel is waiting for the IOReactor to flush it
+     * at the end of the pass.
+     */
+    protected boolean m_isDirty;
+
+    /**
+     * When the first write held back by the cork was queued or
+     * WorkReactor.NO_TIME.
+     */
+    protected long m_corkTime = WorkReactor.NO_TIME;
+
+    /**
+     * Constructs a VectoredChannel.  Call start() to begin reading.
+     *
+     * @param ioReactor the IOReactor that will detect readiness.
+     * @param socketChannel a connected socket.
+     * @param handler handles reads and the state of the write queue.
+     */
+    public VectoredChannel(IOReactor ioReactor, SocketChannel socketChannel,
+                           VectoredHandler handler)
+    {
+        m_ioReactor = ioReactor;
+        m_socketChannel = socketChannel;
+        m_handler = handler;
+        m_valve = ioReactor.valveCreate(socketChannel, this);
+    }
+
+    /** Gets the IOReactor that detects readiness for the socket. */
+    public IOReactor getIOReactor() {
+        return m_ioReactor;
+    }
+
+    /** Gets the socket being handled. */
+    public SocketChannel getSocketChannel() {
+        return m_socketChannel;
+    }
+
+    /** Determines if the channel has been closed. */
+    public boolean isClosed() {
+        return m_isClosed;
+    }
+
+    /** Gets the number of queued bytes not yet written. */
+    public long getQueuedBytes() {
+        return m_queuedBytes;
+    }
+
+    /** Gets the number of queued segments not yet completely written. */
+    public int getQueuedSegments() {
+        return m_tail - m_head;
+    }
+
+    /** Gets the number of write calls made so far. */
+    public long getWriteCount() {
+        return m_writeCount;
+    }
+
+    /**
+     * Makes the socket non-blocking and starts delivering readReady()
+     * events.
+     *
+     * @throws IOException if the socket can't be made non-blocking.
+     */
+    public void start() throws IOException {
+        checkThread();
+        m_socketChannel.configureBlocking(false);
+        m_valve.enable(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Stops or restarts readReady() events, e.g. while the write queue
+     * is too long.
+     *
+     * @param isEnabled true to deliver readReady() events.
+     */
+    public void setReadEnabled(boolean isEnabled) {
+        checkThread();
+        if (isEnabled) {
+            m_valve.enable(SelectionKey.OP_READ);
+        } else {
+            m_valve.disable(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Queues segments to be written and writes as much as the socket
+     * will take.  The bytes between each segment's position and limit
+     * are written in order.  If the write fails the channel is closed
+     * and VectoredHandler.writeFailed() is invoked.
+     *
+     * @param segments the ByteBuffers to write.
+     * @throws IllegalStateException if the channel has been closed.
+     */
+    public void write(ByteBuffer... segments) {
+        enqueue(segments);
+        if (m_isWriteBlocked) {
+            // The queue goes out when the socket drains.
+            return;
+        }
+        if (!m_isCorked ||
+            (m_corkBytes > 0 && m_queuedBytes >= m_corkBytes))
+        {
+            flush();
+        } else {
+            if (!m_isDirty) {
+                m_isDirty = true;
+                m_ioReactor.flushLater(this);
+            }
+            if (m_corkNanos > 0) {
+                long now = WorkReactor.nanoTime();
+                if (m_corkTime == WorkReactor.NO_TIME) {
+                    m_corkTime = now;
+                } else if (now - m_corkTime >= m_corkNanos) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns corking on or off.  While corked, writes are held back
+     * until the end of the current pass through the reactor loop.
+     * Uncorking writes anything held back straight away.
+     *
+     * @param isCorked true to cork the channel.
+     */
+    public void setCorked(boolean isCorked) {
+        checkThread();
+        m_isCorked = isCorked;
+        if (!isCorked && !m_isWriteBlocked) {
+            flush();
+        }
+    }
+
+    /** Determines if writes wait for the end of the pass. */
+    public boolean isCorked() {
+        return m_isCorked;
+    }
+
+    /**
+     * Sets when a corked channel writes before the end of the pass.
+     *
+     * @param bytes write once this many bytes are queued or 0 for no
+     *              limit.
+     * @param nanos write once the oldest held back write has waited
+     *              this many nanoseconds or 0 for no limit.  This is
+     *              only checked when more is written.
+     */
+    public void setCorkLimits(long bytes, long nanos) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes == " + bytes +
+                                               " needs to be >= 0");
+        }
+        if (nanos < 0) {
+            throw new IllegalArgumentException("nanos == " + nanos +
+                                               " needs to be >= 0");
+        }
+        m_corkBytes = bytes;
+        m_corkNanos = nanos;
+    }
+
+    /**
+     * Writes whatever the cork held back.  Invoked by the IOReactor at
+     * the end of the pass.
+     */
+    void flushCorked() {
+        m_isDirty = false;
+        if (!m_isClosed && !m_isWriteBlocked) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds segments to the end of the queue.
+     *
+     * @param segments the ByteBuffers to queue.
+     * @throws IllegalStateException if the channel has been closed.
+     */
+    protected void enqueue(ByteBuffer[] segments) {
+        checkThread();
+        if (m_isClosed) {
+            throw new IllegalStateException(
+                "Attempt to write to a closed VectoredChannel.");
+        }
+        if (m_tail + segments.length > m_segments.length) {
+            makeRoom(segments.length);
+        }
+        for (ByteBuffer segment : segments) {
+            int remaining = segment.remaining();
+            if (remaining > 0) {
+                m_segments[m_tail++] = segment;
+                m_queuedBytes += remaining;
+            }
+        }
+    }
+
+    /**
+     * Makes room at the end of the queue by moving the unwritten
+     * segments to the front and, if that isn't enough, growing it.
+     *
+     * @param count the number of segments that need to fit.
+     */
+    protected void makeRoom(int count) {
+        int queued = m_tail - m_head;
+        ByteBuffer[] segments = m_segments;
+        if (queued + count > segments.length) {
+            segments = new ByteBuffer[
+                Math.max(segments.length * 2, queued + count)];
+        }
+        System.arraycopy(m_segments, m_head, segments, 0, queued);
+        if (segments == m_segments) {
+            for (int i = queued; i < m_tail; i++) {
+                segments[i] = null;
+            }
+        }
+        m_segments = segments;
+        m_head = 0;
+        m_tail = queued;
+    }
+
+    /**
+     * Writes as much of the queue as the socket will take, with one
+     * gathering write per MAX_SEGMENTS_PER_WRITE segments.  OP_WRITE is
+     * enabled while anything is left and disabled once the queue is
+     * empty.
+     *
+     * @return the number of bytes written or -1 if the write failed.
+     */
+    public long flush() {
+        checkThread();
+        m_corkTime = WorkReactor.NO_TIME;
+        if (m_head == m_tail) {
+            return 0;
+        }
+        long total = 0;
+        try {
+            while (m_head < m_tail) {
+                int length = Math.min(m_tail - m_head, MAX_SEGMENTS_PER_WRITE);
+                int end = m_head + length;
+                long n = m_socketChannel.write(m_segments, m_head, length);
+                m_writeCount++;
+                total += n;
+                m_queuedBytes -= n;
+
+                // Let go of the segments that have been written
+                // completely.  The first one left may be part way
+                // through, which its position keeps track of.
+                while (m_head < end && !m_segments[m_head].hasRemaining()) {
+                    m_segments[m_head++] = null;
+                }
+                if (m_head < end) {
+                    // The socket's buffer is full.
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            return -1;
+        }
+        if (m_head == m_tail) {
+            m_head = m_tail = 0;
+            m_isWriteBlocked = false;
+            m_valve.disable(SelectionKey.OP_WRITE);
+            m_handler.writeDrained(this);
+        } else {
+            m_isWriteBlocked = true;
+            m_valve.enable(SelectionKey.OP_WRITE);
+        }
+        return total;
+    }
+
+    /**
+     * Reads into a sequence of buffers with a single scattering read,
+     * filling each before moving on to the next.
+     *
+     * @param dsts the buffers to read into.
+     * @return the number of bytes read or -1 at end of stream.
+     * @throws IOException if the read failed.
+     */
+    public long read(ByteBuffer... dsts) throws IOException {
+        checkThread();
+        return m_socketChannel.read(dsts);
+    }
+
+    /**
+     * Reads into part of a sequence of buffers with a single scattering
+     * read.
+     *
+     * @param dsts the buffers to read into.
+     * @param offset the index of the first buffer to use.
+     * @param length the number of buffers to use.
+     * @return the number of bytes read or -1 at end of stream.
+     * @throws IOException if the read failed.
+     */
+    public long read(ByteBuffer[] dsts, int offset, int length)
+        throws IOException
+    {
+        checkThread();
+        return m_socketChannel.read(dsts, offset, length);
+    }
+
+    /**
+     * Closes the channel.  Queued segments that haven't been written
+     * are discarded.
+     */
+    public void close() {
+        m_isClosed = true;
+        m_valve.close();
+        for (int i = m_head; i < m_tail; i++) {
+            m_segments[i] = null;
+        }
+        m_head = m_tail = 0;
+        m_queuedBytes = 0;
+        m_isWriteBlocked = false;
+    }
+
+    /**
+     * Closes the channel after a failed write and tells the handler.
+     *
+     * @param e why the write failed.
+     */
+    protected void fail(IOException e) {
+        close();
+        try {
+            m_handler.writeFailed(this, e);
+        } catch (Throwable t) {
+            s_logger.warn(t.toString(), t);
+        }
+    }
+
+    // Javadoc from interface
+    public void valveFire(Valve valve, SelectionKey selectedKey) {
+        int ops = selectedKey.readyOps();
+        if ((ops & SelectionKey.OP_WRITE) != 0) {
+            flush();
+        }
+        if ((ops & SelectionKey.OP_READ) != 0 && !m_isClosed) {
+            m_handler.readReady(this);
+        }
+    }
+
+    /**
+     * Makes sure the channel is used on the reactor's thread.
+     *
+     * @throws IllegalStateException if called by another thread.
+     */
+    protected void checkThread() {
+        if (m_ioReactor.getThread() != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Attempt to use a VectoredChannel outside its reactor.");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.readyposition.reactor;
+
+import java.io.IOException;
+
+/**
+ * The interface for objects that handle the events of a
+ * VectoredChannel.  Every method is invoked on the IOReactor's thread.
+ */
+public interface VectoredHandler
+{
+    /**
+     * Invoked when the socket has bytes to read (or has reached end of
+     * stream).  The handler reads them with one of the channel's read()
+     * methods.
+     *
+     * @param channel the channel that is readable.
+     */
+    public void readReady(VectoredChannel channel);
+
+    /**
+     * Invoked when every queued segment has been written.  The
+     * ByteBuffers that were queued may now be reused.
+     *
+     * @param channel the channel whose queue is empty.
+     */
+    public void writeDrained(VectoredChannel channel);
+
+    /**
+     * Invoked when a write fails.  The channel has been closed and the
+     * queued segments discarded.
+     *
+     * @param channel the channel that failed.
+     * @param e why the write failed.
+     */
+    public void writeFailed(VectoredChannel channel, IOException e);
+}
@@ -0,0 +1,352 @@
+package com.readyposition.reactor;
+
+/**
+ * A TimerStore implemented as a hierarchical hashed timing wheel.
+ * Insertion and removal are O(1).  This suits reactors with very
+ * large numbers of Timers that are mostly canceled before they fire
+ * (e.g. connection timeouts and heartbeats).
+ *
+ * <p>Time is divided into ticks of a fixed duration.  There are
+ * LEVELS wheels of SLOTS slots each.  The level 0 wheel holds Timers
+ * due within SLOTS ticks, one slot per tick.  Each slot of the level
+ * n wheel covers SLOTS^n ticks.  Whenever the current tick crosses a
+ * level n boundary the next level n slot is cascaded, which means its
+ * Timers are redistributed into the lower level wheels.  Timers
+ * further out than the top wheel can reach are parked in the top
+ * wheel and redistributed as it turns.
+ *
+ * <p>Each slot is a Yoke list of Timers headed by a sentinel so a
+ * Timer is unlinked from its slot in constant time when it is removed.
+ * A Timer's entry number records the slot it is in.
+ *
+ * <p>Timers never fire early, but they may fire up to one tick late.
+ * Since the next tick may just be a boundary to cascade at,
+ * isNextNanos() answers for the whole store.
+ */
+public class WheelTimerStore implements TimerStore
+{
+    /** The number of bits of the tick number used to index a wheel. */
+    protected final static int SLOT_BITS = 8;
+
+    /** The number of slots in each wheel. */
+    protected final static int SLOTS = 1 << SLOT_BITS;
+
+    /** Mask to extract a slot index from a tick number. */
+    protected final static int SLOT_MASK = SLOTS - 1;
+
+    /** The number of wheels. */
+    protected final static int LEVELS = 4;
+
+    /** The number of ticks from the current tick the wheels can reach. */
+    protected final static long RANGE = 1L << (SLOT_BITS * LEVELS);
+
+    /** The entry number of the list of Timers that are already due. */
+    protected final static int DUE = LEVELS * SLOTS;
+
+    /** The duration of a tick in nanoseconds. */
+    protected final long m_tick;
+
+    /**
+     * The sentinels for every slot of every wheel.  Slot s of level l
+     * is at index (l * SLOTS + s).  The extra sentinel at DUE heads a
+     * list of Timers that were already due when they were inserted.
+     */
+    protected final Timer[] m_slots = new Timer[LEVELS * SLOTS + 1];
+
+    /** The number of Timers held by each wheel. */
+    protected final int[] m_levelSizes = new int[LEVELS];
+
+    /** The number of Timers on the DUE list. */
+    protected int m_dueSize;
+
+    /** The number of Timers held by all of the wheels. */
+    protected int m_size;
+
+    /** The number of those Timers that were submitted in nanoseconds. */
+    protected int m_nanosSize;
+
+    /**
+     * The next tick to be processed.  Every tick before this one has
+     * been processed already.
+     */
+    protected long m_current;
+
+    /** Value of m_nextTick when it needs to be recomputed. */
+    protected final static long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * The earliest tick that may have a ripe Timer or UNKNOWN if it
+     * needs to be recomputed.
+     */
+    protected long m_nextTick = UNKNOWN;
+
+    /** Scratch list used while cascading a slot. */
+    protected final Timer m_cascade = new SimpleTimer();
+
+    /** The default duration of a tick (one millisecond). */
+    public final static long DEFAULT_TICK = 1000000L;
+
+    /**
+     * Constructs a WheelTimerStore.
+     *
+     * @param tick the duration of a tick in nanoseconds.
+     */
+    public WheelTimerStore(long tick) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("tick == " + tick +
+                                               " needs to be > 0");
+        }
+        m_tick = tick;
+        for (int i = 0; i < m_slots.length; i++) {
+            m_slots[i] = new SimpleTimer();
+        }
+    }
+
+    /** Constructs a WheelTimerStore with a tick of one millisecond. */
+    public WheelTimerStore() {
+        this(DEFAULT_TICK);
+    }
+
+    /** Gets the duration of a tick in nanoseconds. */
+    public long getTick() {
+        return m_tick;
+    }
+
+    // Javadoc from interface
+    public void insert(Timer timer, long now) {
+        if (m_size == 0) {
+            // Nothing is being tracked so we can jump straight to the
+            // present instead of turning the wheels through idle time.
+            m_current = Math.floorDiv(now, m_tick);
+            m_nextTick = UNKNOWN;
+        }
+        if (timer.isNanos()) {
+            m_nanosSize++;
+        }
+        place(timer);
+    }
+
+    // Javadoc from interface
+    public void remove(Timer timer) {
+        int entry = timer.getEntry();
+        if (entry != -1) {
+            timer.remove();
+            timer.setEntry(-1);
+            if (entry == DUE) {
+                m_dueSize--;
+            } else {
+                m_levelSizes[entry >> SLOT_BITS]--;
+            }
+            m_size--;
+            if (timer.isNanos()) {
+                m_nanosSize--;
+            }
+        }
+    }
+
+    // Javadoc from interface
+    public long getNextTime() {
+        if (m_dueSize > 0) {
+            // The last tick processed is no later than the present.
+            return (m_current - 1) * m_tick;
+        }
+        if (m_nextTick == UNKNOWN) {
+            m_nextTick = findNextTick();
+        }
+        return m_nextTick * m_tick;
+    }
+
+    // Javadoc from interface
+    public boolean isNextNanos() {
+        return m_nanosSize > 0;
+    }
+
+    // Javadoc from interface
+    public void expire(long now, Timer ripe) {
+        if (m_dueSize > 0) {
+            Timer due = m_slots[DUE];
+            for (Timer timer = due.getRight();
+                 timer != due;
+                 timer = due.getRight())
+            {
+                timer.remove();
+                timer.setEntry(-1);
+                m_dueSize--;
+                m_size--;
+                if (timer.isNanos()) {
+                    m_nanosSize--;
+                }
+                if (timer.isCanceled()) {
+                    // Canceled by another thread. Discard the tombstone.
+                    timer.setToPending();
+                } else {
+                    ripe.insertLeft(timer);
+                }
+            }
+        }
+
+        long target = Math.floorDiv(now, m_tick);
+        while (m_current <= target && m_size > 0) {
+            int index = (int)(m_current & SLOT_MASK);
+            if (index == 0) {
+                // Crossing a level 1 boundary, and perhaps higher
+                // level boundaries as well.
+                for (int level = 1; level < LEVELS; level++) {
+                    int levelIndex =
+                        (int)((m_current >>> (SLOT_BITS * level)) & SLOT_MASK);
+                    cascade(level, levelIndex);
+                    if (levelIndex != 0) {
+                        break;
+                    }
+                }
+            }
+
+            // Everything in this level 0 slot is due on this tick.
+            Timer slot = m_slots[index];
+            for (Timer timer = slot.getRight();
+                 timer != slot;
+                 timer = slot.getRight())
+            {
+                timer.remove();
+                timer.setEntry(-1);
+                m_levelSizes[0]--;
+                m_size--;
+                if (timer.isNanos()) {
+                    m_nanosSize--;
+                }
+                if (timer.isCanceled()) {
+                    // Canceled by another thread. Discard the tombstone.
+                    timer.setToPending();
+                } else {
+                    ripe.insertLeft(timer);
+                }
+            }
+            m_current++;
+
+            // Skip straight to the next boundary that could cascade
+            // something if the wheels below it are empty.
+            int level = 0;
+            while (level < LEVELS && m_levelSizes[level] == 0) {
+                level++;
+            }
+            if (level > 0) {
+                long mask = (1L << (SLOT_BITS * level)) - 1;
+                long next = (m_current + mask) & ~mask;
+                m_current = Math.min(next, target + 1);
+            }
+        }
+        m_nextTick = UNKNOWN;
+    }
+
+    // Javadoc from interface
+    public int getSize() {
+        return m_size;
+    }
+
+    /**
+     * Places a Timer in the slot appropriate for its time relative to
+     * the current tick.
+     *
+     * @param timer the Timer to place.
+     */
+    protected void place(Timer timer) {
+        // Round up so that we never fire early.
+        long time = timer.getDeadline();
+        long deadline = Math.floorDiv(time, m_tick);
+        if (deadline * m_tick != time) {
+            deadline++;
+        }
+        if (deadline < m_current) {
+            // The tick it belongs to has already gone by.
+            m_slots[DUE].insertLeft(timer);
+            timer.setEntry(DUE);
+            m_dueSize++;
+            m_size++;
+            return;
+        }
+        long delta = deadline - m_current;
+        if (delta >= RANGE) {
+            // Too far out to place accurately. Park it in the top
+            // wheel and it will be placed again as the wheel turns.
+            deadline = m_current + RANGE - 1;
+            delta = RANGE - 1;
+        }
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int entry = (level << SLOT_BITS) |
+            (int)((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        m_slots[entry].insertLeft(timer);
+        timer.setEntry(entry);
+        m_levelSizes[level]++;
+        m_size++;
+        if (m_nextTick != UNKNOWN && deadline < m_nextTick) {
+            m_nextTick = deadline;
+        }
+    }
+
+    /**
+     * Redistributes the Timers in a slot into the lower level wheels.
+     *
+     * @param level the level of the wheel.
+     * @param index the index of the slot within the wheel.
+     */
+    protected void cascade(int level, int index) {
+        Timer slot = m_slots[(level << SLOT_BITS) | index];
+        if (slot.getRight() == slot) {
+            return;
+        }
+
+        // Detach the whole slot first so that Timers placed back into
+        // this same slot aren't visited twice.
+        m_cascade.insertLeft(slot);
+        slot.remove();
+        for (Timer timer = m_cascade.getRight();
+             timer != m_cascade;
+             timer = m_cascade.getRight())
+        {
+            timer.remove();
+            timer.setEntry(-1);
+            m_levelSizes[level]--;
+            m_size--;
+            if (timer.isCanceled()) {
+                // Canceled by another thread. Discard the tombstone.
+                timer.setToPending();
+                if (timer.isNanos()) {
+                    m_nanosSize--;
+                }
+            } else {
+                place(timer);
+            }
+        }
+    }
+
+    /**
+     * Finds the earliest tick at which expire() may have something to
+     * do.  This is the earlier of the first occupied level 0 slot and
+     * the next boundary at which a Timer might be cascaded down.
+     *
+     * @return the earliest tick that needs attention.
+     */
+    protected long findNextTick() {
+        long result = Long.MAX_VALUE;
+        int level = 1;
+        while (level < LEVELS && m_levelSizes[level] == 0) {
+            level++;
+        }
+        if (level < LEVELS) {
+            long mask = (1L << (SLOT_BITS * level)) - 1;
+            result = (m_current + mask) & ~mask;
+        }
+        if (m_levelSizes[0] > 0) {
+            for (long tick = m_current; tick < result; tick++) {
+                Timer slot = m_slots[(int)(tick & SLOT_MASK)];
+                if (slot.getRight() != slot) {
+                    return tick;
+                }
+            }
+        }
+        return result;
+    }
+}
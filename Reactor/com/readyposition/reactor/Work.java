@@ -14,6 +14,26 @@ public abstract class Work
      */
     protected WorkHandler m_handler;
 
+    /**
+     * When this Work was last submitted (a la System.nanoTime()) or
+     * WorkReactor.NO_TIME.  Only set while the reactor's handler timing
+     * is on.
+     */
+    protected long m_submitTime = WorkReactor.NO_TIME;
+
+    /**
+     * True while this Work counts towards its reactor's backlog of
+     * Work from other threads.
+     */
+    protected boolean m_isBacklogged;
+
+    /**
+     * True if this Work has to fire on its reactor's thread, in which
+     * case the DROP_OLDEST policy never drops it while it is
+     * backlogged.
+     */
+    protected boolean m_isPinned;
+
     /**
      * This method is invoked when the system is ready to have this
      * work done.
@@ -23,6 +43,13 @@ public abstract class Work
      */
     public abstract boolean workFire();
 
+    /**
+     * This method is invoked on the reactor's thread when the reactor
+     * drops this work without firing it (see
+     * SubmissionPolicy.DROP_OLDEST).  It does nothing by default.
+     */
+    protected void workDropped() {}
+
     /** Constructor for a Work that doesn't need a WorkHandler. */
     protected Work() {}
 
@@ -0,0 +1,26 @@
+package com.readyposition.reactor;
+
+/**
+ * The lanes a WorkReactor keeps Work in.  Each pass through the loop
+ * fires the URGENT lane first, then NORMAL, then BULK, each up to its
+ * per-pass budget (see WorkReactor.setLaneBudget()).  Work a lane
+ * doesn't get to is carried over to the next pass ahead of anything
+ * newer in that lane.
+ */
+public enum WorkPriority {
+    /**
+     * Control-plane work such as heartbeats, setting up timers for
+     * other threads and shutting down.  Reactor housekeeping always
+     * goes here.
+     */
+    URGENT,
+
+    /** Ordinary work.  workSubmit(Work) uses this lane. */
+    NORMAL,
+
+    /**
+     * Bulk data-plane work that may be held back so that it can't
+     * delay the other lanes or I/O.
+     */
+    BULK
+}
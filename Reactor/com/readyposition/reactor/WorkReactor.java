@@ -1,7 +1,15 @@
 package com.readyposition.reactor;
 
 import java.nio.channels.SelectableChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,18 +26,76 @@ public class WorkReactor implements Reactor, Runnable
     /** Count of WorkReactor thread created so far. */
     private static AtomicLong s_workReactorCount = new AtomicLong();
 
-    /** A linked list of pending Work objects. */
-    protected Work m_queuedWorks = new SimpleWork();
+    /** The reactor whose loop the current thread runs, if any. */
+    private final static ThreadLocal<WorkReactor> s_currentReactor =
+        new ThreadLocal<WorkReactor>();
 
-    /** A linked list of active work objects. */
-    protected Work m_activeWorks = new SimpleWork();
+    /** The number of Works the BULK lane fires per pass by default. */
+    public final static int DEFAULT_BULK_BUDGET = 64;
 
-    /** A linked list of work from other threads pending to be submitted */
-    protected Work m_pendingWorks = new SimpleWork();
+    /**
+     * The Work of one WorkPriority.  Each lane has its own queues so
+     * that the reactor can fire the lanes in order of priority.
+     */
+    protected static class WorkLane {
+        /** The priority of the Work in this lane. */
+        protected final WorkPriority m_priority;
+
+        /** A linked list of pending Work objects. */
+        protected final Work m_queuedWorks = new SimpleWork();
+
+        /**
+         * A linked list of active work objects.  Work left over when
+         * the budget runs out stays here for the next pass.
+         */
+        protected final Work m_activeWorks = new SimpleWork();
+
+        /** A lock-free queue of work from other threads pending to be submitted */
+        protected final SubmissionQueue<Work> m_pendingWorks =
+            new SubmissionQueue<Work>();
+
+        /** The most Works fired per pass or 0 for no limit. */
+        protected volatile int m_budget;
+
+        /**
+         * Constructor.
+         *
+         * @param priority the priority of the Work in this lane.
+         * @param budget the most Works fired per pass or 0.
+         */
+        protected WorkLane(WorkPriority priority, int budget) {
+            m_priority = priority;
+            m_budget = budget;
+        }
+    }
+
+    /** The lanes, indexed by WorkPriority.ordinal(). */
+    protected final WorkLane[] m_lanes = new WorkLane[] {
+        new WorkLane(WorkPriority.URGENT, 0),
+        new WorkLane(WorkPriority.NORMAL, 0),
+        new WorkLane(WorkPriority.BULK, DEFAULT_BULK_BUDGET)
+    };
+
+    /**
+     * True while the reactor thread is (about to be) blocked waiting
+     * for work.  Other threads only wake the reactor up when this is
+     * set.
+     */
+    protected AtomicBoolean m_isParked = new AtomicBoolean();
 
     /** When true, the loop will terminate. */
     protected boolean m_done;
 
+    /**
+     * Set by shutdown() so that threads waiting for room under the
+     * BLOCK policy give up rather than wait forever.
+     */
+    protected volatile boolean m_isShuttingDown;
+
+    /** The threads parked waiting for room under the BLOCK policy. */
+    protected final ConcurrentLinkedQueue<Thread> m_blockedSubmitters =
+        new ConcurrentLinkedQueue<Thread>();
+
     /** The thread that will run the loop. */
     protected Thread m_thread;
 
@@ -42,6 +108,80 @@ public class WorkReactor implements Reactor, Runnable
      */
     protected long m_cycleCount;
 
+    /**
+     * The number of passes through the reactor loop that found
+     * something to do without having to wait for it.
+     */
+    protected long m_busyCycleCount;
+
+    /**
+     * The number of times the reactor has been idle (i.e. the number of
+     * times the IdleStrategy has been invoked).
+     */
+    protected long m_idleCycleCount;
+
+    /** Decides what the reactor does when it has nothing to do. */
+    protected volatile IdleStrategy m_idleStrategy = new BlockingIdleStrategy();
+
+    /**
+     * The most Works from other threads that may be waiting to fire or
+     * 0 for no limit.
+     */
+    protected volatile int m_capacity;
+
+    /** What to do with submissions when the backlog is full. */
+    protected volatile SubmissionPolicy m_policy = SubmissionPolicy.BLOCK;
+
+    /** The backlog at which the BackPressureListener is told or 0. */
+    protected volatile int m_highWatermark;
+
+    /** The backlog at which the BackPressureListener is told it drained. */
+    protected volatile int m_lowWatermark;
+
+    /** Informed of the backlog's ups and downs. */
+    protected volatile BackPressureListener m_backPressureListener;
+
+    /**
+     * The number of Works from other threads waiting to fire.  Only
+     * counted while there is a capacity or a BackPressureListener.
+     */
+    protected final AtomicInteger m_backlog = new AtomicInteger();
+
+    /** True from reaching the high watermark until the low one. */
+    protected final AtomicBoolean m_isBacklogHigh = new AtomicBoolean();
+
+    /** The most Works fired per pass, across all lanes, or 0. */
+    protected volatile int m_workBudget;
+
+    /**
+     * The most nanoseconds each phase of a pass (I/O, timers, Work)
+     * may take before the rest waits for the next pass, or 0.
+     */
+    protected volatile long m_phaseTimeBudget;
+
+    /** Instrumentation for this reactor. */
+    protected final ReactorMetrics m_metrics = new ReactorMetrics(this);
+
+    /** True while a ReactorWatchdog is watching this reactor. */
+    protected volatile boolean m_isWatched;
+
+    /**
+     * Stands for "no time" wherever a System.nanoTime() value is kept,
+     * since any other value, 0 included, may be a real time.  See
+     * nanoTime().
+     */
+    protected final static long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * When the running handler started (a la System.nanoTime()) or
+     * NO_TIME if none is running.  Only kept up to date while watched.
+     */
+    protected final AtomicLong m_handlerStart = new AtomicLong(NO_TIME);
+
+    /** The Work, Timer or Valve being handled.  Only kept while watched. */
+    protected final AtomicReference<Object> m_handlerTask =
+        new AtomicReference<Object>();
+
     /**
      * Returns a default WorkReactor instance. Every call to this method
      * returns the same WorkReactor instance.
@@ -123,6 +263,27 @@ public class WorkReactor implements Reactor, Runnable
         return work;
     }
 
+    /**
+     * Creates a Work that will be invoked when its lane next gets to
+     * it.
+     *
+     * @param handler the WorkHandler that will be invoked.
+     * @param priority the lane to put the Work in.
+     * @return the Work that was created.
+     */
+    public Work workCreate(WorkHandler handler, WorkPriority priority) {
+        Work work = new SimpleWork(handler);
+        workSubmit(work, priority);
+        return work;
+    }
+
+    // Javadoc from interface
+    public <T> CompletableFuture<T> submitAsync(Callable<T> callable) {
+        CallableWork<T> work = new CallableWork<T>(callable);
+        workSubmit(work);
+        return work.getFuture();
+    }
+
     /**
      * Place an existing Work on the work queue.
      *
@@ -130,36 +291,510 @@ public class WorkReactor implements Reactor, Runnable
      *             subclass created elsewhere
      */
     public void workSubmit(Work work) {
+        workSubmit(work, WorkPriority.NORMAL);
+    }
+
+    /**
+     * Place an existing Work on the work queue of a lane.
+     *
+     * @param work A Work created previously by workCreate or a work
+     *             subclass created elsewhere
+     * @param priority the lane to put the Work in.
+     */
+    public void workSubmit(Work work, WorkPriority priority) {
         if (!work.isPending()) {
             throw new IllegalStateException(
                 "Attempt to submit a Work that is already busy.");
         }
+        if (m_thread != Thread.currentThread() &&
+            (m_capacity > 0 || m_backPressureListener != null) &&
+            !admit(work, priority))
+        {
+            // The caller ran it.
+            return;
+        }
+        submit(work, m_lanes[priority.ordinal()]);
+    }
+
+    /**
+     * Places Work that has to fire on this reactor's thread (e.g.
+     * handing it a newly accepted channel) on the NORMAL lane.  It is
+     * admitted just like workSubmit() except that under CALLER_RUNS a
+     * full backlog refuses it, as FAIL would, rather than fire it on
+     * the caller's thread.  DROP_OLDEST counts it
+     * towards the backlog but never drops it.
+     *
+     * @param work the Work to submit.
+     * @throws RejectedExecutionException if the Work is refused.
+     */
+    void workSubmitOnThread(Work work) {
+        if (!work.isPending()) {
+            throw new IllegalStateException(
+                "Attempt to submit a Work that is already busy.");
+        }
+        if (m_thread != Thread.currentThread() &&
+            (m_capacity > 0 || m_backPressureListener != null))
+        {
+            admit(work, WorkPriority.NORMAL, false);
+        }
+        submit(work, m_lanes[WorkPriority.NORMAL.ordinal()]);
+    }
+
+    /**
+     * Places housekeeping Work (e.g. setting up a timer for another
+     * thread) on the URGENT lane.  Such Work is never refused, dropped
+     * or counted towards the backlog.
+     *
+     * @param work the Work to submit.
+     */
+    protected void submitInternal(Work work) {
+        if (!work.isPending()) {
+            throw new IllegalStateException(
+                "Attempt to submit a Work that is already busy.");
+        }
+        submit(work, m_lanes[WorkPriority.URGENT.ordinal()]);
+    }
+
+    /**
+     * Places a Work that has been allowed in on the work queue.
+     *
+     * @param work the Work to submit.
+     * @param lane the lane to put it in.
+     */
+    protected void submit(Work work, WorkLane lane) {
+        work.m_submitTime = m_metrics.isHandlerTiming() ? nanoTime() : NO_TIME;
         if (m_thread != Thread.currentThread()) {
             // Another thread is sending us work.  Put it on the
-            // pending queue.  The loop in doWork() will consume these
-            // at the appropriate time.
-            synchronized (this) {
-                m_pendingWorks.insertLeft(work);
-                wakeup();
-            }
+            // pending queue.  The loop in isWorkPending() will
+            // consume these at the appropriate time.
+            m_metrics.workSubmitted();
+            lane.m_pendingWorks.push(work);
+            signal();
         } else {
             // Since this is the WorkReactor's thread, we don't need
             // to synchronize here.  We can add work directly to the
             // end of the queue.
-            m_queuedWorks.insertLeft(work);
+            lane.m_queuedWorks.insertLeft(work);
+            m_metrics.workQueued();
+        }
+    }
+
+    /**
+     * Makes room in the backlog for a Work from another thread
+     * according to the SubmissionPolicy.
+     *
+     * @param work the Work being submitted.
+     * @param priority the lane it is for.
+     * @return true if the Work should be queued, false if the caller
+     *         has already run it.
+     * @throws RejectedExecutionException if the Work is refused.
+     */
+    protected boolean admit(Work work, WorkPriority priority) {
+        return admit(work, priority, true);
+    }
+
+    /**
+     * Makes room in the backlog for a Work from another thread
+     * according to the SubmissionPolicy.
+     *
+     * @param work the Work being submitted.
+     * @param priority the lane it is for.
+     * @param isCallerRunsAllowed false if the Work must fire on this
+     *                            reactor's thread, in which case
+     *                            CALLER_RUNS refuses it and
+     *                            DROP_OLDEST never drops it.
+     * @return true if the Work should be queued, false if the caller
+     *         has already run it.
+     * @throws RejectedExecutionException if the Work is refused.
+     */
+    protected boolean admit(Work work, WorkPriority priority,
+                            boolean isCallerRunsAllowed)
+    {
+        for (;;) {
+            // Read again every time round in case setCapacity() woke
+            // us up.
+            int capacity = m_capacity;
+            SubmissionPolicy policy = m_policy;
+            int backlog = m_backlog.get();
+            if (capacity <= 0 || backlog < capacity ||
+                policy == SubmissionPolicy.DROP_OLDEST)
+            {
+                if (!m_backlog.compareAndSet(backlog, backlog + 1)) {
+                    continue;
+                }
+                work.m_isBacklogged = true;
+                work.m_isPinned = !isCallerRunsAllowed;
+                if (policy == SubmissionPolicy.BLOCK &&
+                    backlog + 1 < capacity &&
+                    !m_blockedSubmitters.isEmpty())
+                {
+                    // There is room for the next waiting thread too.
+                    LockSupport.unpark(m_blockedSubmitters.peek());
+                }
+                int high = m_highWatermark;
+                if (high > 0 && backlog + 1 >= high &&
+                    !m_isBacklogHigh.get() &&
+                    m_isBacklogHigh.compareAndSet(false, true))
+                {
+                    BackPressureListener listener = m_backPressureListener;
+                    if (listener != null) {
+                        try {
+                            listener.highWatermark(this, backlog + 1);
+                        } catch (Throwable t) {
+                            s_logger.warn(t.toString(), t);
+                        }
+                    }
+                }
+                return true;
+            }
+            switch (policy) {
+            case FAIL:
+                throw new RejectedExecutionException(
+                    m_thread.getName() + " has a full backlog of " + backlog);
+            case CALLER_RUNS:
+                if (!isCallerRunsAllowed) {
+                    throw new RejectedExecutionException(
+                        m_thread.getName() + " has a full backlog of " +
+                        backlog);
+                }
+                runOnCaller(work, priority);
+                return false;
+            default:
+                if (s_currentReactor.get() != null) {
+                    // Parking one reactor's loop on another's backlog
+                    // could deadlock two reactors feeding each other.
+                    throw new RejectedExecutionException(
+                        m_thread.getName() + " has a full backlog of " +
+                        backlog);
+                }
+                waitForRoom();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Parks a submitting thread under the BLOCK policy until release()
+     * makes room.  setCapacity() and shutdown() wake it up too.
+     *
+     * @throws RejectedExecutionException if the thread is interrupted
+     *         or the reactor is shutting down.
+     */
+    protected void waitForRoom() {
+        Thread current = Thread.currentThread();
+        m_blockedSubmitters.add(current);
+        try {
+            // Checked after joining the queue so a release() or
+            // shutdown() in between can't be missed.
+            while (!m_isShuttingDown && !current.isInterrupted() &&
+                   m_policy == SubmissionPolicy.BLOCK && m_capacity > 0 &&
+                   m_backlog.get() >= m_capacity)
+            {
+                LockSupport.park(this);
+            }
+        } finally {
+            m_blockedSubmitters.remove(current);
+        }
+        if (m_isShuttingDown) {
+            throw new RejectedExecutionException(
+                m_thread.getName() + " is shutting down");
+        }
+        if (current.isInterrupted()) {
+            throw new RejectedExecutionException(
+                "Interrupted waiting for room on " + m_thread.getName());
+        }
+    }
+
+    /**
+     * Fires a Work on the submitting thread for as long as it wants
+     * to be resubmitted and the backlog stays full.
+     *
+     * @param work the Work to fire.
+     * @param priority the lane it is for.
+     */
+    protected void runOnCaller(Work work, WorkPriority priority) {
+        for (;;) {
+            if (work.isCanceled() || !work.activate()) {
+                work.setToPending();
+                return;
+            }
+            boolean again = false;
+            try {
+                again = work.workFire() && work.complete();
+            } catch (Throwable t) {
+                s_logger.warn(t.toString(), t);
+            }
+            work.setToPending();
+            if (!again) {
+                return;
+            }
+            int capacity = m_capacity;
+            if (capacity <= 0 || m_backlog.get() < capacity) {
+                workSubmit(work, priority);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Notes that a Work from another thread is no longer waiting.
+     *
+     * @param work the Work that fired or was dropped.
+     */
+    protected void release(Work work) {
+        work.m_isBacklogged = false;
+        int backlog = m_backlog.decrementAndGet();
+        if (backlog < m_capacity && !m_blockedSubmitters.isEmpty()) {
+            // Wake the longest waiting thread.  If there is more room
+            // it wakes the next one once it gets in.
+            LockSupport.unpark(m_blockedSubmitters.peek());
+        }
+        if (backlog <= m_lowWatermark && m_isBacklogHigh.get() &&
+            m_isBacklogHigh.compareAndSet(true, false))
+        {
+            BackPressureListener listener = m_backPressureListener;
+            if (listener != null) {
+                try {
+                    listener.lowWatermark(this, backlog);
+                } catch (Throwable t) {
+                    s_logger.warn(t.toString(), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest Works from other threads until the backlog is
+     * within capacity, the BULK lane's first.  Within a lane the Works
+     * carried over from the last pass go before the queued ones.
+     * Pinned Works are skipped, so if nothing else is left the backlog
+     * stays over capacity until they fire.  Only for the DROP_OLDEST
+     * policy.
+     */
+    protected void dropOldest() {
+        for (int i = m_lanes.length - 1; i >= 0; i--) {
+            dropOldest(m_lanes[i].m_activeWorks);
+            dropOldest(m_lanes[i].m_queuedWorks);
+        }
+    }
+
+    /**
+     * Drops the oldest Works from other threads on a list until the
+     * backlog is within capacity.
+     *
+     * @param works the list to drop Works from.
+     */
+    protected void dropOldest(Work works) {
+        int capacity = m_capacity;
+        for (Work work = works.getRight();
+             work != works && m_backlog.get() > capacity;)
+        {
+            Work next = work.getRight();
+            if (work.m_isBacklogged && !work.m_isPinned) {
+                work.remove();
+                m_metrics.workDropped();
+                release(work);
+                try {
+                    work.workDropped();
+                } catch (Throwable t) {
+                    s_logger.warn(t.toString(), t);
+                }
+                BackPressureListener listener = m_backPressureListener;
+                if (listener != null) {
+                    try {
+                        listener.workDropped(this, work);
+                    } catch (Throwable t) {
+                        s_logger.warn(t.toString(), t);
+                    }
+                }
+            }
+            work = next;
+        }
+    }
+
+    /**
+     * Limits the number of Works from other threads that may be
+     * waiting to fire.  Work submitted by the reactor's own thread is
+     * never limited.  This may be invoked from any thread.
+     *
+     * @param capacity the most Works that may wait or 0 for no limit.
+     * @param policy what to do with submissions when the backlog is
+     *               full.
+     */
+    public void setCapacity(int capacity, SubmissionPolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity == " + capacity +
+                                               " needs to be >= 0");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy is null");
+        }
+        m_policy = policy;
+        m_capacity = capacity;
+
+        // Let waiting threads check again under the new limits.
+        for (Thread thread : m_blockedSubmitters) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** Gets the most Works from other threads that may wait or 0. */
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /** Gets what is done with submissions when the backlog is full. */
+    public SubmissionPolicy getSubmissionPolicy() {
+        return m_policy;
+    }
+
+    /**
+     * Asks to be told when the backlog of Works from other threads
+     * reaches a high watermark and when it falls back to a low one.
+     * This may be invoked from any thread.
+     *
+     * @param high the backlog that counts as high or 0 for never.
+     * @param low the backlog that counts as drained.
+     * @param listener the object to tell or null for nobody.
+     */
+    public void setWatermarks(int high, int low, BackPressureListener listener) {
+        if (low < 0 || (high > 0 && low >= high)) {
+            throw new IllegalArgumentException("low == " + low +
+                                               " needs to be >= 0 and < high == " +
+                                               high);
         }
+        m_lowWatermark = low;
+        m_highWatermark = high;
+        m_backPressureListener = listener;
+    }
+
+    /**
+     * Gets the number of Works from other threads waiting to fire.
+     * This is only counted while there is a capacity or a
+     * BackPressureListener.
+     *
+     * @return the backlog.
+     */
+    public int getBacklog() {
+        return m_backlog.get();
+    }
+
+    /**
+     * Limits the number of Works a lane fires per pass through the
+     * loop.  Works the lane doesn't get to wait for the next pass, so
+     * a busy lane can't hold up I/O, timers or the lanes after it for
+     * long.  This may be invoked from any thread.
+     *
+     * @param priority the lane.
+     * @param budget the most Works fired per pass or 0 for no limit.
+     */
+    public void setLaneBudget(WorkPriority priority, int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget == " + budget +
+                                               " needs to be >= 0");
+        }
+        m_lanes[priority.ordinal()].m_budget = budget;
+    }
+
+    /**
+     * Gets the number of Works a lane fires per pass through the loop.
+     *
+     * @param priority the lane.
+     * @return the most Works fired per pass or 0 for no limit.
+     */
+    public int getLaneBudget(WorkPriority priority) {
+        return m_lanes[priority.ordinal()].m_budget;
+    }
+
+    /**
+     * Limits the number of Works fired per pass through the loop
+     * across all lanes.  Works that don't get to fire wait for the
+     * next pass, ahead of newer Work in their lane.  This may be
+     * invoked from any thread.
+     *
+     * @param budget the most Works fired per pass or 0 for no limit.
+     */
+    public void setWorkBudget(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget == " + budget +
+                                               " needs to be >= 0");
+        }
+        m_workBudget = budget;
+    }
+
+    /** Gets the most Works fired per pass or 0 for no limit. */
+    public int getWorkBudget() {
+        return m_workBudget;
+    }
+
+    /**
+     * Limits how long each phase of a pass through the loop may take.
+     * Once a phase has run past the budget, whatever it hasn't got to
+     * (ready channels, ripe timers or Works) waits for the next pass
+     * so that the other phases, and the Selector, get their turn.  The
+     * clock is only checked between handlers, so a single slow handler
+     * still runs to completion.  This may be invoked from any thread.
+     *
+     * @param nanos the most nanoseconds per phase or 0 for no limit.
+     */
+    public void setPhaseTimeBudget(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("nanos == " + nanos +
+                                               " needs to be >= 0");
+        }
+        m_phaseTimeBudget = nanos;
+    }
+
+    /** Gets the most nanoseconds per phase or 0 for no limit. */
+    public long getPhaseTimeBudget() {
+        return m_phaseTimeBudget;
+    }
+
+    /**
+     * Works out when the phase that is starting has to stop.
+     *
+     * @return the deadline (a la System.nanoTime()) or 0 if phases
+     *         aren't limited.
+     */
+    protected long getPhaseDeadline() {
+        long nanos = m_phaseTimeBudget;
+        return (nanos > 0) ? System.nanoTime() + nanos : 0L;
+    }
+
+    /**
+     * Determines if a phase has run past its deadline.
+     *
+     * @param deadline what getPhaseDeadline() returned.
+     * @return true if the phase should stop.
+     */
+    protected boolean isPastDeadline(long deadline) {
+        return deadline != 0L && System.nanoTime() - deadline >= 0;
     }
 
     /** The thread's run method. Handles events until shutdown() is called. */
     public void run() {
+        s_currentReactor.set(this);
         while (!m_done) {
             waitForWork();
+            long start = System.nanoTime();
             doWork();
+            m_metrics.addHandlerTime(System.nanoTime() - start);
             m_cycleCount++;
             if (m_cycleCount < 0L) {
                 m_cycleCount = 0L;
             }
         }
+        m_metrics.unregister();
+    }
+
+    /**
+     * Gets the instrumentation for this reactor.  It may be read from
+     * any thread.
+     *
+     * @return the metrics for this reactor.
+     */
+    public ReactorMetrics getMetrics() {
+        return m_metrics;
     }
 
     /** Retrieves the number of cycles the reactor loop has executed. */
@@ -167,15 +802,141 @@ public class WorkReactor implements Reactor, Runnable
         return m_cycleCount;
     }
 
-    /** XXX - javadoc */
-    protected synchronized void waitForWork() {
-        // While there is nothing in the work queue
-        while (!isWorkPending()) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
+    /**
+     * Retrieves the number of cycles of the reactor loop that found
+     * something to do straight away.  Along with getCycleCount() this
+     * shows how close to saturation the reactor is.
+     */
+    public long getBusyCycleCount() {
+        return m_busyCycleCount;
+    }
+
+    /**
+     * Retrieves the number of times the reactor has been idle (i.e.
+     * the number of times its IdleStrategy has been invoked).
+     */
+    public long getIdleCycleCount() {
+        return m_idleCycleCount;
+    }
+
+    /**
+     * Sets the IdleStrategy that decides what the reactor does when it
+     * has nothing to do.  This may be invoked from any thread.
+     *
+     * @param idleStrategy the IdleStrategy to use.
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        if (idleStrategy == null) {
+            throw new IllegalArgumentException("idleStrategy is null");
+        }
+        m_idleStrategy = idleStrategy;
+
+        // Don't leave the reactor blocked under the old strategy.
+        signal();
+    }
+
+    /**
+     * Gets the IdleStrategy that decides what the reactor does when it
+     * has nothing to do.
+     *
+     * @return the IdleStrategy in use.
+     */
+    public IdleStrategy getIdleStrategy() {
+        return m_idleStrategy;
+    }
+
+    /**
+     * Wait until there is something to do.  The IdleStrategy is
+     * consulted every time a pass finds nothing to do.
+     */
+    protected void waitForWork() {
+        int idleCount = 0;
+        while (true) {
+            // Always poll so that ready I/O isn't starved by work.
+            boolean isReady = poll();
+            if (isWorkPending() || isReady) {
+                break;
+            }
+            m_idleStrategy.idle(this, idleCount);
+            m_idleCycleCount++;
+            if (idleCount < Integer.MAX_VALUE) {
+                idleCount++;
+            }
+        }
+        if (idleCount == 0) {
+            m_busyCycleCount++;
+        }
+    }
+
+    /**
+     * Checks for outside events (e.g. ready I/O) without blocking.
+     *
+     * @return true if there are events to handle.
+     */
+    protected boolean poll() {
+        return false;
+    }
+
+    /**
+     * Blocks the reactor thread until something happens (work is
+     * submitted, a timer becomes ripe, etc.) or a time limit passes.
+     * This is meant to be invoked by an IdleStrategy.  Spurious returns
+     * are possible and harmless.
+     *
+     * <p>The parked flag is raised before the submission queue is
+     * checked one last time so that a submitting thread either sees
+     * the flag and wakes us up or its work is seen here and we don't
+     * block at all.
+     *
+     * @param nanos the most nanoseconds to block for or -1 to block for
+     *              as long as it takes.
+     */
+    public void park(long nanos) {
+        if (m_thread != Thread.currentThread()) {
+            throw new IllegalStateException(
+                "Only the reactor's thread can park the reactor.");
+        }
+        m_isParked.set(true);
+        if (!isSubmissionPending()) {
+            long start = System.nanoTime();
+            block(nanos);
+            m_metrics.addBlockedTime(System.nanoTime() - start);
+        }
+        m_isParked.set(false);
+
+        // Interrupts are ignored, just like the old wait() loop did,
+        // but the flag must be cleared or park() won't block.
+        Thread.interrupted();
+    }
+
+    /**
+     * Determines if other threads have handed the reactor anything
+     * that it hasn't picked up yet.
+     *
+     * @return true if there are submissions waiting.
+     */
+    protected boolean isSubmissionPending() {
+        for (WorkLane lane : m_lanes) {
+            if (!lane.m_pendingWorks.isEmpty()) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Blocks the reactor thread until wakeup() is called or a time
+     * limit passes.
+     *
+     * @param nanos the most nanoseconds to block for or -1 to block for
+     *              as long as it takes.
+     */
+    protected void block(long nanos) {
+        if (nanos < 0) {
+            LockSupport.park(this);
+        } else {
+            LockSupport.parkNanos(this, nanos);
+        }
     }
 
     /**
@@ -185,16 +946,29 @@ public class WorkReactor implements Reactor, Runnable
      * @return true if ther is work pending.
      */
     protected boolean isWorkPending() {
-        // See if there is any pending work submitted by other threads
-        synchronized (this) {
-            if (m_pendingWorks != m_pendingWorks.getRight()) {
-                // Transfer any pending work submitted by other threads
-                // to the active queue
-                m_queuedWorks.insertLeft(m_pendingWorks);
-                m_pendingWorks.remove();
+        // Transfer any pending work submitted by other threads to the
+        // end of each lane's queue.
+        int drained = 0;
+        for (WorkLane lane : m_lanes) {
+            drained += lane.m_pendingWorks.drainTo(lane.m_queuedWorks);
+        }
+        if (drained > 0) {
+            m_metrics.workDrained(drained);
+            if (m_policy == SubmissionPolicy.DROP_OLDEST &&
+                m_capacity > 0 && m_backlog.get() > m_capacity)
+            {
+                dropOldest();
+            }
+        }
+        m_isWorkToDo = false;
+        for (WorkLane lane : m_lanes) {
+            if (lane.m_queuedWorks != lane.m_queuedWorks.getRight() ||
+                lane.m_activeWorks != lane.m_activeWorks.getRight())
+            {
+                m_isWorkToDo = true;
+                break;
             }
         }
-        m_isWorkToDo = (m_queuedWorks != m_queuedWorks.getRight());
         return m_isWorkToDo;
     }
 
@@ -205,21 +979,74 @@ public class WorkReactor implements Reactor, Runnable
             return;
         }
 
-        // Transfer the works to another queue that can't be
-        // touched by callbacks.
-        if (m_queuedWorks != m_queuedWorks.getRight()) {
-            m_activeWorks.insertLeft(m_queuedWorks);
-            m_queuedWorks.remove();
+        // Transfer the works to other queues that can't be touched by
+        // callbacks, behind any left over from the last pass.  This
+        // is done for every lane up front so that Work submitted by
+        // callbacks always waits for the next pass.
+        for (WorkLane lane : m_lanes) {
+            if (lane.m_queuedWorks != lane.m_queuedWorks.getRight()) {
+                lane.m_activeWorks.insertLeft(lane.m_queuedWorks);
+                lane.m_queuedWorks.remove();
+            }
         }
+        m_metrics.workActivated();
+
+        int remaining = m_workBudget;
+        long deadline = getPhaseDeadline();
+        for (WorkLane lane : m_lanes) {
+            int budget = lane.m_budget;
+            if (remaining > 0 && (budget == 0 || remaining < budget)) {
+                budget = remaining;
+            }
+            int fired = doWork(lane, budget, deadline);
+            if (remaining > 0) {
+                remaining -= fired;
+                if (remaining == 0) {
+                    break;
+                }
+            }
+            if (fired > 0 && isPastDeadline(deadline)) {
+                break;
+            }
+        }
+        for (WorkLane lane : m_lanes) {
+            if (lane.m_activeWorks != lane.m_activeWorks.getRight()) {
+                m_metrics.carriedOver();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Fires the active Works of a lane until the budget or the
+     * deadline runs out.  The rest are left for the next pass.
+     *
+     * @param lane the lane to fire.
+     * @param budget the most Works to fire or 0 for no limit.
+     * @param deadline what getPhaseDeadline() returned.
+     * @return the number of Works fired.
+     */
+    protected int doWork(WorkLane lane, int budget, long deadline) {
+        Work activeWorks = lane.m_activeWorks;
+        int fired = 0;
 
         // We can execute the work items on the temp queue without
         // worrying about synchronization issues.
-        for (Work work = m_activeWorks.getRight();
-             work != m_activeWorks;
-             work = m_activeWorks.getRight())
+        for (Work work = activeWorks.getRight();
+             work != activeWorks;
+             work = activeWorks.getRight())
         {
+            if (budget > 0 && fired >= budget) {
+                // The rest wait for the next pass.
+                break;
+            }
+
             // Take the work off the queue now since we may return early
             work.remove();
+            m_metrics.workRetired();
+            if (work.m_isBacklogged) {
+                release(work);
+            }
 
             if (work.isCanceled() || !work.activate()) {
                 // If the work was canceled then we're almost done
@@ -233,11 +1060,17 @@ public class WorkReactor implements Reactor, Runnable
             }
 
             // If we're here then the work is active
+            fired++;
+            long start = beginHandler(work);
+            if (start != NO_TIME && work.m_submitTime != NO_TIME) {
+                m_metrics.recordQueueDelay(start - work.m_submitTime);
+                work.m_submitTime = NO_TIME;
+            }
             try {
                 if (work.workFire()) {
                     // The work wants to be resubmitted.
                     if (work.complete()) {
-                        workSubmit(work);
+                        workSubmit(work, lane.m_priority);
                     } else {
                         // We were not able to successfully transition
                         // back to the pending state.  This means that
@@ -254,18 +1087,130 @@ public class WorkReactor implements Reactor, Runnable
                 // with a failed Work, no?
                 s_logger.warn(t.toString(), t);
             }
+            endHandler(work, start);
+            if (isPastDeadline(deadline)) {
+                break;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Notes that a handler is about to run.  This does nothing, and
+     * costs next to nothing, unless handlers are being timed or
+     * watched.
+     *
+     * @param task the Work, Timer or Valve about to fire.
+     * @return the time the handler started or NO_TIME if it isn't
+     *         being timed or watched.
+     */
+    protected long beginHandler(Object task) {
+        boolean isWatched = m_isWatched;
+        if (!isWatched && !m_metrics.isHandlerTiming()) {
+            return NO_TIME;
+        }
+        long now = nanoTime();
+        if (isWatched) {
+            // The task goes first so the watchdog never pairs a start
+            // time with an older task.
+            m_handlerTask.lazySet(task);
+            m_handlerStart.lazySet(now);
+        }
+        return now;
+    }
+
+    /**
+     * Notes that a handler has finished.
+     *
+     * @param task the Work, Timer or Valve that fired.
+     * @param start what beginHandler() returned.
+     */
+    protected void endHandler(Object task, long start) {
+        if (start == NO_TIME) {
+            return;
+        }
+        if (m_handlerStart.get() != NO_TIME) {
+            m_handlerStart.lazySet(NO_TIME);
+            m_handlerTask.lazySet(null);
+        }
+        if (m_metrics.isHandlerTiming()) {
+            m_metrics.recordHandler(task, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Turns on or off the bookkeeping a ReactorWatchdog relies on.
+     *
+     * @param isWatched true while being watched.
+     */
+    void setWatched(boolean isWatched) {
+        m_isWatched = isWatched;
+        if (!isWatched) {
+            m_handlerStart.set(NO_TIME);
+            m_handlerTask.set(null);
+        }
+    }
+
+    /**
+     * Gets when the running handler started.  Only maintained while a
+     * ReactorWatchdog is watching.
+     *
+     * @return the start time (a la System.nanoTime()) or NO_TIME if
+     *         no handler is running.
+     */
+    long getHandlerStart() {
+        return m_handlerStart.get();
+    }
+
+    /**
+     * Reads System.nanoTime() for a time that is kept, nudging the one
+     * value that would read as NO_TIME by a nanosecond.
+     *
+     * @return the current time (a la System.nanoTime()), never NO_TIME.
+     */
+    static long nanoTime() {
+        long now = System.nanoTime();
+        return (now == NO_TIME) ? now + 1 : now;
+    }
+
+    /**
+     * Gets the Work, Timer or Valve being handled.  Only maintained
+     * while a ReactorWatchdog is watching.
+     *
+     * @return the task or null if no handler is running.
+     */
+    Object getHandlerTask() {
+        return m_handlerTask.get();
+    }
+
+    /**
+     * Wakes up the reactor thread if, and only if, it is parked.  Only
+     * one of any number of concurrent callers will actually call
+     * wakeup().
+     */
+    protected void signal() {
+        if (m_isParked.get() && m_isParked.compareAndSet(true, false)) {
+            m_metrics.wakeup();
+            wakeup();
         }
     }
 
     /** Ensures that the reactor notices newly registered work. */
-    protected synchronized void wakeup() {
-        notify();
+    protected void wakeup() {
+        LockSupport.unpark(m_thread);
     }
 
     /** Instructs the WorkReactor to stop running in the near future. */
     public void shutdown() {
+        // Threads waiting for room would otherwise wait forever once
+        // the loop stops.
+        m_isShuttingDown = true;
+        for (Thread thread : m_blockedSubmitters) {
+            LockSupport.unpark(thread);
+        }
+
         // Register a Work that will tell the reactor loop to stop running.
-        workSubmit(new Work() {
+        submitInternal(new Work() {
                 public boolean workFire() {
                     m_done = true;
                     return false;
@@ -306,6 +1251,18 @@ public class WorkReactor implements Reactor, Runnable
         throw new UnsupportedOperationException("WorkReactor doesn't do Timer operations");
     }
 
+    public Timer timerCreateRelNanos(long delta, TimerHandler handler) {
+        throw new UnsupportedOperationException("WorkReactor doesn't do Timer operations");
+    }
+
+    public void timerSubmitRelNanos(long delta, Timer timer) {
+        throw new UnsupportedOperationException("WorkReactor doesn't do Timer operations");
+    }
+
+    public void timerSubmitAbsNanos(long time, Timer timer) {
+        throw new UnsupportedOperationException("WorkReactor doesn't do Timer operations");
+    }
+
     /**
      * Creates a registered Valve for a SelectableChannel.  No
      * operations will be selected for this Valve yet.  The Valve's
@@ -0,0 +1,390 @@
+package com.readyposition.reactor;
+
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Reactor that runs Works on a pool of work-stealing threads rather
+ * than a single thread.  This is for CPU-bound handlers (e.g. parsing
+ * or risk calculations) that would otherwise cap a WorkReactor at one
+ * core.  Works follow the same contract as they do on a WorkReactor:
+ * they must be pending to be submitted, they can be canceled until
+ * they fire, and they are resubmitted if workFire() returns true.
+ *
+ * <p>Unlike a WorkReactor, Works submitted to the pool may run in any
+ * order and at the same time as each other.  Works that need to run
+ * one at a time, in the order they were submitted, can be submitted
+ * with an affinity key.  All Works with equal keys run serially
+ * (as do some Works whose keys merely hash alike).
+ *
+ * <p>Every Work goes through one of a fixed set of serial lanes, so
+ * submitting doesn't allocate.  Works without a key are dealt out to
+ * the lanes in turn, which means one that runs for a long time holds
+ * up the few that land behind it in its lane.
+ *
+ * <p>The pool has no timers or Valves, and since it has no single
+ * thread getThread() returns null.
+ */
+public class WorkReactorPool implements Reactor
+{
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(WorkReactorPool.class);
+
+    /** The number of serial lanes per thread. */
+    protected final static int LANES_PER_THREAD = 4;
+
+    /** The work-stealing threads that run the Works. */
+    protected ForkJoinPool m_pool;
+
+    /**
+     * The serial lanes that keyed Works are hashed onto and unkeyed
+     * Works are dealt out to.
+     */
+    protected Lane[] m_lanes;
+
+    /** The number of unkeyed Works submitted, which picks their lane. */
+    protected AtomicInteger m_unkeyedCount = new AtomicInteger();
+
+    /** The number of Works fired so far. */
+    protected LongAdder m_fireCount = new LongAdder();
+
+    /**
+     * Runs the Works submitted to it one at a time in the order they
+     * were submitted.  A lane is scheduled on the pool whenever it has
+     * Works waiting and isn't already scheduled.
+     */
+    protected class Lane implements Runnable {
+        /** Works submitted to this lane that it hasn't picked up yet. */
+        protected SubmissionQueue<Work> m_pendingWorks =
+            new SubmissionQueue<Work>();
+
+        /** Works picked up by the running lane. */
+        protected Work m_queuedWorks = new SimpleWork();
+
+        /** True while this lane is scheduled or running on the pool. */
+        protected AtomicBoolean m_isScheduled = new AtomicBoolean();
+
+        /**
+         * Adds a Work to the end of this lane.
+         *
+         * @param work the Work to add.
+         */
+        protected void submit(Work work) {
+            m_pendingWorks.push(work);
+            schedule();
+        }
+
+        /** Makes sure this lane will run if it has anything to do. */
+        protected void schedule() {
+            if (!m_isScheduled.get() && m_isScheduled.compareAndSet(false, true)) {
+                try {
+                    m_pool.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Don't leave the lane looking scheduled or it will
+                    // never be scheduled again.
+                    m_isScheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        /** Runs the Works that were waiting when the lane started. */
+        public void run() {
+            m_pendingWorks.drainTo(m_queuedWorks);
+            for (Work work = m_queuedWorks.getRight();
+                 work != m_queuedWorks;
+                 work = m_queuedWorks.getRight())
+            {
+                work.remove();
+                if (fire(work)) {
+                    // Back of the line to keep the lane fair.
+                    m_pendingWorks.push(work);
+                }
+            }
+
+            // Anything submitted while we were running needs another
+            // turn.  Rescheduling, rather than looping, lets other
+            // lanes have the thread in between.
+            m_isScheduled.set(false);
+            if (!m_pendingWorks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Returns a named WorkReactorPool with a thread per available
+     * processor.
+     *
+     * @param name the name of the pool.  The threads are named name_0,
+     *             name_1 and so on.
+     * @return a WorkReactorPool instance.
+     */
+    public static WorkReactorPool getWorkReactorPool(String name) {
+        return getWorkReactorPool(name,
+                                  Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns a named WorkReactorPool.
+     *
+     * @param name the name of the pool.
+     * @param parallelism the number of threads in the pool.
+     * @return a WorkReactorPool instance.
+     */
+    public static WorkReactorPool getWorkReactorPool(String name,
+                                                     int parallelism)
+    {
+        return new WorkReactorPool(name, parallelism);
+    }
+
+    /**
+     * Constructs a WorkReactorPool.  The threads are started as they
+     * are needed.
+     *
+     * @param name the name of the pool.
+     * @param parallelism the number of threads in the pool.
+     */
+    protected WorkReactorPool(final String name, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism == " + parallelism +
+                                               " needs to be > 0");
+        }
+        final AtomicLong threadCount = new AtomicLong();
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory =
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread =
+                        ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName(name + "_" + threadCount.getAndIncrement());
+                    return thread;
+                }
+            };
+
+        // Async mode gives FIFO order for Works that are never joined.
+        m_pool = new ForkJoinPool(parallelism, factory, null, true);
+        m_lanes = new Lane[parallelism * LANES_PER_THREAD];
+        for (int i = 0; i < m_lanes.length; i++) {
+            m_lanes[i] = new Lane();
+        }
+    }
+
+    /** Gets the number of threads in this pool. */
+    public int getParallelism() {
+        return m_pool.getParallelism();
+    }
+
+    /**
+     * A pool has no single thread.
+     *
+     * @return null.
+     */
+    public Thread getThread() {
+        return null;
+    }
+
+    /**
+     * Creates a Work that will be invoked by one of the pool's threads.
+     *
+     * @param handler the WorkHandler that will be invoked.
+     * @return the Work that was created.
+     */
+    public Work workCreate(WorkHandler handler) {
+        Work work = new SimpleWork(handler);
+        workSubmit(work);
+        return work;
+    }
+
+    /**
+     * Creates a Work that will be invoked after every Work previously
+     * submitted with the same affinity key.
+     *
+     * @param key the affinity key.
+     * @param handler the WorkHandler that will be invoked.
+     * @return the Work that was created.
+     */
+    public Work workCreate(Object key, WorkHandler handler) {
+        Work work = new SimpleWork(handler);
+        workSubmit(key, work);
+        return work;
+    }
+
+    /**
+     * Calls a Callable on one of the pool's threads and returns a
+     * future for its result.
+     *
+     * @param callable what to call.
+     * @return a future completed with the result of the Callable or
+     *         whatever it threw.
+     */
+    public <T> CompletableFuture<T> submitAsync(Callable<T> callable) {
+        CallableWork<T> work = new CallableWork<T>(callable);
+        workSubmit(work);
+        return work.getFuture();
+    }
+
+    /**
+     * Calls a Callable after every Work previously submitted with the
+     * same affinity key and returns a future for its result.
+     *
+     * @param key the affinity key.
+     * @param callable what to call.
+     * @return a future completed with the result of the Callable or
+     *         whatever it threw.
+     */
+    public <T> CompletableFuture<T> submitAsync(Object key, Callable<T> callable) {
+        CallableWork<T> work = new CallableWork<T>(callable);
+        workSubmit(key, work);
+        return work.getFuture();
+    }
+
+    /**
+     * Hands an existing Work to one of the pool's threads.  If the Work
+     * is resubmitted (i.e. workFire() returns true) it goes to the back
+     * of the lane it was dealt to.
+     *
+     * @param work A Work created previously by workCreate or a work
+     *             subclass created elsewhere
+     */
+    public void workSubmit(Work work) {
+        checkSubmit(work);
+        int lane = m_unkeyedCount.getAndIncrement();
+        m_lanes[Math.floorMod(lane, m_lanes.length)].submit(work);
+    }
+
+    /**
+     * Hands an existing Work to the pool to run after every Work
+     * previously submitted with the same affinity key.  If the Work is
+     * resubmitted (i.e. workFire() returns true) it goes to the back of
+     * the same line.
+     *
+     * @param key the affinity key.
+     * @param work A Work created previously by workCreate or a work
+     *             subclass created elsewhere
+     */
+    public void workSubmit(Object key, Work work) {
+        checkSubmit(work);
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        m_lanes[Math.floorMod(hash, m_lanes.length)].submit(work);
+    }
+
+    /**
+     * Makes sure a Work can be submitted.
+     *
+     * @param work the Work being submitted.
+     */
+    protected void checkSubmit(Work work) {
+        if (!work.isPending()) {
+            throw new IllegalStateException(
+                "Attempt to submit a Work that is already busy.");
+        }
+    }
+
+    /**
+     * Fires a Work.  This follows the same steps as WorkReactor.doWork().
+     *
+     * @param work the Work to fire.
+     * @return true if the Work needs to be resubmitted.
+     */
+    protected boolean fire(Work work) {
+        if (work.isCanceled() || !work.activate()) {
+            // Canceled before it got a chance to run.
+            work.setToPending();
+            return false;
+        }
+        m_fireCount.increment();
+        try {
+            if (work.workFire()) {
+                if (work.complete()) {
+                    return true;
+                }
+                // Canceled while it was running.
+            }
+        } catch (Throwable t) {
+            s_logger.warn(t.toString(), t);
+        }
+        work.setToPending();
+        return false;
+    }
+
+    /** Retrieves the number of Works the pool has fired. */
+    public long getCycleCount() {
+        return m_fireCount.sum();
+    }
+
+    /**
+     * Instructs the pool to stop.  Works already submitted are still
+     * run but no new ones are accepted.
+     */
+    public void shutdown() {
+        m_pool.shutdown();
+    }
+
+    /**
+     * Waits for the pool to stop after shutdown().
+     *
+     * @param timeout the most time to wait for.
+     * @param unit the units of timeout.
+     * @return true if the pool stopped, false if the time ran out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return m_pool.awaitTermination(timeout, unit);
+    }
+
+    public Timer timerCreateRel(long delta, TimerHandler handler) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public Timer timerCreateAbs(long time, TimerHandler handler) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public Timer timerCreateRelNanos(long delta, TimerHandler handler) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public void timerSubmitRel(long delta, Timer timer) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public void timerSubmitAbs(long time, Timer timer) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public void timerSubmitRelNanos(long delta, Timer timer) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public void timerSubmitAbsNanos(long time, Timer timer) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do Timer operations");
+    }
+
+    public Valve valveCreate(SelectableChannel channel, ValveHandler handler) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do I/O operations");
+    }
+
+    public void valveRegisgter(SelectableChannel channel, Valve valve) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do I/O operations");
+    }
+
+    public int valveRegister(SelectableChannel channel, Valve valve) {
+        throw new UnsupportedOperationException("WorkReactorPool doesn't do I/O operations");
+    }
+}
@@ -13,6 +13,7 @@ import com.readyposition.collections.common.ByteBladder;
 import com.readyposition.reactor.Acceptor;
 import com.readyposition.reactor.AcceptorAdapter;
 import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.IOReactorGroup;
 import com.readyposition.reactor.Valve;
 import com.readyposition.reactor.ValveHandler;
 
@@ -38,11 +39,11 @@ public class EchoServer {
     /** The port on which to listen for incoming connections. */
     private int m_port;
 
-    /** The reactor loop dispatching our events. */
-    private IOReactor m_ioReactor;
+    /** The reactor loops dispatching our events. */
+    private IOReactorGroup m_group;
 
-    /** Returns the reactor loop. */
-    public IOReactor getIOReactor() { return m_ioReactor; }
+    /** Returns the reactor loop that listens for connections. */
+    public IOReactor getIOReactor() { return m_group.getIOReactor(0); }
 
     /**
      * Constructor.
@@ -54,6 +55,9 @@ public class EchoServer {
 
     /** Represents an active connection to this server. */
     protected class EchoServerPeer implements ValveHandler {
+        /** The reactor loop that owns this connection. */
+        protected IOReactor m_ioReactor;
+
         /** The socket channel for this connection. */
         protected SocketChannel m_socketChannel;
 
@@ -68,9 +72,11 @@ public class EchoServer {
 
         /**
          * Constructor.
+         * @param ioReactor the reactor loop that owns this connection.
          * @param socketChannel the socket channel for this connection.
          */
-        public EchoServerPeer(SocketChannel socketChannel) {
+        public EchoServerPeer(IOReactor ioReactor, SocketChannel socketChannel) {
+            m_ioReactor = ioReactor;
             m_socketChannel = socketChannel;
         }
 
@@ -162,15 +168,15 @@ public class EchoServer {
     	}
 
     	public void peerCreate(IOReactor ioReactor, SocketChannel socketChannel) {
-            EchoServerPeer peer = new EchoServerPeer(socketChannel);
+            EchoServerPeer peer = new EchoServerPeer(ioReactor, socketChannel);
             peer.init();
     	}
     }
 
     /** Start accepting connections */
     public void init() {
-    	m_ioReactor = IOReactor.getDefaultIOReactor();
-    	Acceptor a = new Acceptor(m_ioReactor,
+    	m_group = IOReactorGroup.getIOReactorGroup("EchoServer");
+    	Acceptor a = new Acceptor(m_group,
                                   new EchoAcceptorAdapter("EchoServerAcceptor",
                                                           m_port));
     	a.listen();
@@ -0,0 +1,96 @@
+package com.readyposition.reactor.examples;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.Valve;
+import com.readyposition.reactor.ValveHandler;
+
+/**
+ * Measures how fast an IOReactor dispatches ready channels.  A number
+ * of pipes are filled with a byte that is never read, so every one of
+ * them is ready on every pass through the reactor loop, and the
+ * handlers do nothing but count.  What is left is the cost of
+ * selecting and dispatching.
+ */
+public class SelectBenchmark {
+    /** Class wide logger. */
+    private final static Logger s_logger =
+        LoggerFactory.getLogger(SelectBenchmark.class);
+
+    /** Prints a usage message. */
+    private static void usage(String msg) {
+        s_logger.error(msg + "\n" +
+                       "usage: java " + SelectBenchmark.class.getName() +
+                       " [channels=2000] [seconds=5]");
+    }
+
+    /** Counts the dispatches.  Only touched by the reactor thread. */
+    protected long m_fires;
+
+    /** The main event. */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 2) {
+            usage("Too many arguments");
+            System.exit(1);
+        }
+        int channels = 2000;
+        int seconds = 5;
+        try {
+            if (args.length > 0) {
+                channels = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                seconds = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException e) {
+            usage(e.getMessage());
+            System.exit(1);
+        }
+        new SelectBenchmark().run(channels, seconds);
+        System.exit(0);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param channels the number of always-ready channels.
+     * @param seconds how long to measure for (after a warm-up of the
+     *                same length).
+     */
+    public void run(int channels, int seconds) throws Exception {
+        IOReactor ioReactor = IOReactor.getIOReactor("SelectBenchmark");
+        ValveHandler handler = new ValveHandler() {
+                public void valveFire(Valve valve, SelectionKey selectedKey) {
+                    m_fires++;
+                }
+            };
+        for (int i = 0; i < channels; i++) {
+            Pipe pipe = Pipe.open();
+            pipe.source().configureBlocking(false);
+            pipe.sink().write(ByteBuffer.wrap(new byte[] { 0 }));
+            ioReactor.valveCreate(pipe.source(), handler)
+                .enable(SelectionKey.OP_READ);
+        }
+
+        Thread.sleep(seconds * 1000L);
+        long cycles = ioReactor.getCycleCount();
+        long fires = m_fires;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        cycles = ioReactor.getCycleCount() - cycles;
+        fires = m_fires - fires;
+
+        s_logger.info(String.format(
+            "%d channels: %.0f cycles/s, %.0f dispatches/s, %.1f ns/dispatch",
+            channels, cycles / elapsed, fires / elapsed,
+            elapsed * 1e9 / fires));
+        ioReactor.shutdown();
+    }
+}
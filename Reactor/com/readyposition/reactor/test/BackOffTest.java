@@ -0,0 +1,76 @@
+package com.readyposition.reactor.test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.readyposition.reactor.BackOff;
+import com.readyposition.reactor.JitterStrategy;
+
+public class BackOffTest
+{
+    /** Tests that without jitter the delay doubles up to the maximum. */
+    @Test
+    public void testNoJitter() {
+        BackOff backOff = new BackOff(10, 100);
+        long[] expected = { 10, 20, 40, 80, 100, 100 };
+        for (long delay : expected) {
+            assertEquals(delay, backOff.getNext());
+        }
+        backOff.reset();
+        assertEquals(10, backOff.getNext());
+    }
+
+    /** Tests that full jitter stays under the growing ceiling. */
+    @Test
+    public void testFullJitter() {
+        BackOff backOff = new BackOff(10, 1000, JitterStrategy.FULL,
+                                      new Random(1));
+        Set<Long> seen = new HashSet<Long>();
+        long ceiling = 10;
+        for (int i = 0; i < 50; i++) {
+            long delay = backOff.getNext();
+            assertTrue("delay == " + delay, delay >= 0 && delay <= ceiling);
+            ceiling = Math.min(ceiling * 2, 1000);
+            seen.add(delay);
+        }
+        assertTrue("Delays weren't spread out", seen.size() > 10);
+    }
+
+    /**
+     * Tests that decorrelated jitter stays between the minimum and the
+     * maximum and within three times the last delay.
+     */
+    @Test
+    public void testDecorrelatedJitter() {
+        BackOff backOff = new BackOff(10, 1000, JitterStrategy.DECORRELATED,
+                                      new Random(2));
+        long last = 10;
+        boolean isCapped = false;
+        for (int i = 0; i < 200; i++) {
+            long delay = backOff.getNext();
+            assertTrue("delay == " + delay, delay >= 10 && delay <= 1000);
+            assertTrue("delay == " + delay + " after " + last,
+                       delay <= last * 3);
+            isCapped |= (delay > 500);
+            last = delay;
+        }
+        assertTrue("Delays never grew", isCapped);
+
+        // Two clients that fail together don't retry together.
+        BackOff a = new BackOff(10, 1000, JitterStrategy.DECORRELATED,
+                                new Random(3));
+        BackOff b = new BackOff(10, 1000, JitterStrategy.DECORRELATED,
+                                new Random(4));
+        int same = 0;
+        for (int i = 0; i < 20; i++) {
+            if (a.getNext() == b.getNext()) {
+                same++;
+            }
+        }
+        assertTrue(same < 5);
+    }
+}
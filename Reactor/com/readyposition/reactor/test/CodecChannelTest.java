@@ -0,0 +1,310 @@
+package com.readyposition.reactor.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.collections.common.ByteBladder;
+import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.CodecChannel;
+import com.readyposition.reactor.CodecHandler;
+import com.readyposition.reactor.Decoder;
+import com.readyposition.reactor.DelimiterFramer;
+import com.readyposition.reactor.Encoder;
+import com.readyposition.reactor.FixedLengthFramer;
+import com.readyposition.reactor.Frame;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.LengthFieldFramer;
+
+public class CodecChannelTest
+{
+    /** Asynchronous multiplexed I/O reactor. */
+    private IOReactor m_ioReactor;
+
+    /** Set up tests. */
+    @Before
+    public void setUp() {
+        m_ioReactor = IOReactor.getIOReactor("CodecChannelTestIOReactor");
+    }
+
+    /** Tear down tests. */
+    @After
+    public void tearDown() {
+        m_ioReactor.shutdown();
+        m_ioReactor = null;
+    }
+
+    /** Tests that the framers find whole messages and wait for partial ones. */
+    @Test
+    public void testFramers() throws Exception {
+        ByteBladder in = new ByteBladder(8);
+        Frame frame = new Frame();
+
+        // Two length prefixed messages and the start of a third.
+        LengthFieldFramer lengthFramer = new LengthFieldFramer(2, 8);
+        in.putShort((short)3).putBytes("abc".getBytes());
+        in.putShort((short)0);
+        in.putShort((short)5).putBytes("de".getBytes());
+        frame.set(0, in.getUsed());
+        assertEquals(5, lengthFramer.decode(in, frame));
+        assertEquals(2, frame.getOffset());
+        assertEquals(3, frame.getLength());
+        assertEquals('c', in.getByte(frame.getOffset() + 2));
+        in.consume(5);
+        frame.set(0, in.getUsed());
+        assertEquals(2, lengthFramer.decode(in, frame));
+        assertEquals(0, frame.getLength());
+        in.consume(2);
+        frame.set(0, in.getUsed());
+        assertEquals(0, lengthFramer.decode(in, frame));
+        in.putBytes("fgh".getBytes());
+        frame.set(0, in.getUsed());
+        assertEquals(7, lengthFramer.decode(in, frame));
+        assertEquals("defgh", new String(bytes(in, frame)));
+        in.clear();
+        in.putShort((short)9);
+        frame.set(0, in.getUsed());
+        try {
+            lengthFramer.decode(in, frame);
+            fail("Accepted a message that was too long");
+        } catch (IOException e) {
+        }
+
+        // The largest length has to fit in the prefix.
+        new LengthFieldFramer(1, 255);
+        new LengthFieldFramer(2, 65535);
+        try {
+            new LengthFieldFramer(1, 256);
+            fail("Accepted a length a byte can't hold");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new LengthFieldFramer(2, 65536);
+            fail("Accepted a length a short can't hold");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // Nor may the prefix and the largest length overflow an int.
+        try {
+            new LengthFieldFramer(4, Integer.MAX_VALUE);
+            fail("Accepted a length that overflows with the prefix");
+        } catch (IllegalArgumentException e) {
+        }
+        LengthFieldFramer intFramer =
+            new LengthFieldFramer(4, Integer.MAX_VALUE - 4);
+        in.clear();
+        in.putInt(Integer.MAX_VALUE - 4).putBytes("ab".getBytes());
+        frame.set(0, in.getUsed());
+        assertEquals(0, intFramer.decode(in, frame));
+        in.clear();
+        in.putInt(Integer.MAX_VALUE);
+        frame.set(0, in.getUsed());
+        try {
+            intFramer.decode(in, frame);
+            fail("Accepted a corrupt length");
+        } catch (IOException e) {
+        }
+
+        // A delimiter split across reads.
+        DelimiterFramer lineFramer = new DelimiterFramer("\r\n".getBytes(), 8);
+        in.clear();
+        in.putBytes("hello\r".getBytes());
+        frame.set(0, in.getUsed());
+        assertEquals(0, lineFramer.decode(in, frame));
+        in.putBytes("\nx\r\n".getBytes());
+        frame.set(0, in.getUsed());
+        assertEquals(7, lineFramer.decode(in, frame));
+        assertEquals("hello", new String(bytes(in, frame)));
+        in.consume(7);
+        frame.set(0, in.getUsed());
+        assertEquals(3, lineFramer.decode(in, frame));
+        assertEquals("x", new String(bytes(in, frame)));
+        in.clear();
+        in.putBytes("1234567890".getBytes());
+        frame.set(0, in.getUsed());
+        try {
+            lineFramer.decode(in, frame);
+            fail("Accepted a line that was too long");
+        } catch (IOException e) {
+        }
+
+        FixedLengthFramer fixedFramer = new FixedLengthFramer(4);
+        in.clear();
+        in.putBytes("abcdef".getBytes());
+        frame.set(0, in.getUsed());
+        assertEquals(4, fixedFramer.decode(in, frame));
+        assertEquals(4, frame.getLength());
+        in.consume(4);
+        frame.set(0, in.getUsed());
+        assertEquals(0, fixedFramer.decode(in, frame));
+    }
+
+    /** Copies a frame's bytes out of a bladder. */
+    private static byte[] bytes(ByteBladder in, Frame frame) {
+        byte[] b = new byte[frame.getLength()];
+        frame.getBuffer(in).get(b);
+        in.getOutBuffer();
+        return b;
+    }
+
+    /**
+     * Tests that several messages arriving together are each handed
+     * on and that replies are encoded on the way out.
+     */
+    @Test(timeout=10000)
+    public void testEcho() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open();
+        client.connect(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        // Length prefixed requests are answered with lines.
+        final AtomicReference<IOException> failure =
+            new AtomicReference<IOException>();
+        final CodecChannel channel = new CodecChannel(
+            m_ioReactor, peer,
+            new CodecHandler() {
+                public void messageReceived(CodecChannel channel,
+                                            ByteBladder in, Frame frame) {
+                    ByteBladder out = channel.beginMessage();
+                    out.put(frame.getBuffer(in));
+                    channel.endMessage();
+                }
+                public void closed(CodecChannel channel, IOException e) {
+                    failure.set(e);
+                }
+            },
+            new Decoder[] { new LengthFieldFramer(4, 1024) },
+            new Encoder[] { new DelimiterFramer("\n".getBytes(), 1024) });
+        channel.setByteOrder(ByteOrder.BIG_ENDIAN);
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        channel.start();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(start);
+        start.await();
+
+        // Three whole requests and half of a fourth in one write.
+        String[] requests = { "one", "", "three", "four" };
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (String request : requests) {
+            buffer.putInt(request.length()).put(request.getBytes());
+        }
+        buffer.flip();
+        int total = buffer.limit();
+        buffer.limit(total - 2);
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+        Thread.sleep(50);
+        buffer.limit(total);
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+
+        StringBuilder replies = new StringBuilder();
+        ByteBuffer reply = ByteBuffer.allocate(64);
+        int lines = 0;
+        while (lines < requests.length) {
+            reply.clear();
+            assertTrue("Connection closed early", client.read(reply) > 0);
+            reply.flip();
+            while (reply.hasRemaining()) {
+                char c = (char)reply.get();
+                replies.append(c);
+                if (c == '\n') {
+                    lines++;
+                }
+            }
+        }
+        assertEquals("one\n\nthree\nfour\n", replies.toString());
+        assertEquals(requests.length, channel.getMessageCount());
+        assertNull(failure.get());
+
+        client.close();
+        AwaitableWork flush = new AwaitableWork() {
+                public boolean doWork() {
+                    return false;
+                }
+            };
+        for (int i = 0; i < 100 && !channel.isClosed(); i++) {
+            Thread.sleep(10);
+        }
+        m_ioReactor.workSubmit(flush);
+        flush.await();
+        assertTrue("Didn't notice end of stream", channel.isClosed());
+        assertNull(failure.get());
+    }
+
+    /**
+     * Tests that a message an Encoder refuses is taken back out rather
+     * than sent half-encoded.
+     */
+    @Test(timeout=10000)
+    public void testEncoderFailure() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open();
+        client.connect(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        final CodecChannel channel = new CodecChannel(
+            m_ioReactor, peer,
+            new CodecHandler() {
+                public void messageReceived(CodecChannel channel,
+                                            ByteBladder in, Frame frame) {}
+                public void closed(CodecChannel channel, IOException e) {}
+            },
+            new Decoder[] { new LengthFieldFramer(1, 4) },
+            new Encoder[] { new LengthFieldFramer(1, 4) });
+        final AtomicReference<Throwable> refused = new AtomicReference<Throwable>();
+        AwaitableWork send = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        channel.start();
+                        channel.beginMessage().putBytes("too long".getBytes());
+                        try {
+                            channel.endMessage();
+                        } catch (IllegalArgumentException e) {
+                            refused.set(e);
+                        }
+                        channel.beginMessage().putBytes("ok".getBytes());
+                        channel.endMessage();
+                    } catch (IOException e) {
+                        refused.set(e);
+                    }
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(send);
+        send.await();
+        assertTrue(refused.get() instanceof IllegalArgumentException);
+
+        ByteBuffer reply = ByteBuffer.allocate(3);
+        while (reply.hasRemaining()) {
+            assertTrue("Connection closed early", client.read(reply) > 0);
+        }
+        assertEquals(2, reply.get(0));
+        assertEquals("ok", new String(reply.array(), 1, 2));
+        client.close();
+    }
+}
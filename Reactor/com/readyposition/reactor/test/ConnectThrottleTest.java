@@ -0,0 +1,99 @@
+package com.readyposition.reactor.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.readyposition.reactor.ConnectThrottle;
+import com.readyposition.reactor.Connector;
+import com.readyposition.reactor.ConnectorListener;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.Work;
+
+public class ConnectThrottleTest
+{
+    /** Tests the burst, the rate and the cap on attempts in flight. */
+    @Test
+    public void testLimits() throws Exception {
+        ConnectThrottle throttle = new ConnectThrottle(20.0, 2, 3);
+        SocketAddress a = new InetSocketAddress("10.0.0.1", 80);
+        SocketAddress b = new InetSocketAddress("10.0.0.2", 80);
+
+        // The burst is spent straight away, then attempts wait.
+        assertEquals(0, throttle.tryAcquire(a));
+        assertEquals(0, throttle.tryAcquire(a));
+        long wait = throttle.tryAcquire(a);
+        assertTrue("wait == " + wait, wait > 0 && wait <= 100);
+        assertEquals(1, throttle.getDeniedCount());
+
+        // Each destination has its own bucket.
+        assertEquals(0, throttle.tryAcquire(b));
+        assertEquals(2, throttle.getInFlight(a));
+        assertEquals(1, throttle.getInFlight(b));
+
+        // A token comes back every 50 ms.
+        Thread.sleep(60);
+        assertEquals(0, throttle.tryAcquire(a));
+        assertEquals(3, throttle.getInFlight(a));
+
+        // Too many in flight, however many tokens there are.
+        Thread.sleep(120);
+        assertTrue(throttle.tryAcquire(a) > 0);
+        throttle.release(a);
+        assertEquals(0, throttle.tryAcquire(a));
+    }
+
+    /** Tests that a throttled Connector waits its turn and connects. */
+    @Test(timeout=10000)
+    public void testConnector() throws Exception {
+        ServerSocket server =
+            new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final SocketAddress address = server.getLocalSocketAddress();
+        ConnectThrottle throttle = new ConnectThrottle(10.0, 1, 1);
+        IOReactor ioReactor = IOReactor.getIOReactor("ConnectThrottleTest");
+        final CountDownLatch connected = new CountDownLatch(2);
+        ConnectorListener listener = new ConnectorListener() {
+                public SocketAddress getSocketAddress() {
+                    return address;
+                }
+                public void setup(SocketChannel socketChannel) {}
+                public void connecting() {}
+                public long connectionFailed(Throwable t) {
+                    return Long.MIN_VALUE;
+                }
+                public void connected(IOReactor ioReactor,
+                                      SocketChannel socketChannel) {
+                    connected.countDown();
+                }
+            };
+        try {
+            long start = System.nanoTime();
+            final Connector first = new Connector(ioReactor, listener, throttle);
+            final Connector second = new Connector(ioReactor, listener, throttle);
+            ioReactor.workSubmit(new Work() {
+                    public boolean workFire() {
+                        first.connect();
+                        second.connect();
+                        return false;
+                    }
+                });
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+
+            // The second had to wait for a token.
+            assertTrue("elapsed == " + elapsed, elapsed >= 90);
+            assertEquals(0, throttle.getInFlight(address));
+            assertTrue(throttle.getDeniedCount() > 0);
+        } finally {
+            ioReactor.shutdown();
+            server.close();
+        }
+    }
+}
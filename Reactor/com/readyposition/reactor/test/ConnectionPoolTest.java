@@ -0,0 +1,293 @@
+package com.readyposition.reactor.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.collections.common.ByteBladder;
+import com.readyposition.reactor.AcquireHandler;
+import com.readyposition.reactor.ConnectionPool;
+import com.readyposition.reactor.Decoder;
+import com.readyposition.reactor.Encoder;
+import com.readyposition.reactor.Frame;
+import com.readyposition.reactor.IOReactorGroup;
+import com.readyposition.reactor.LengthFieldFramer;
+import com.readyposition.reactor.PooledConnection;
+import com.readyposition.reactor.ResponseHandler;
+import com.readyposition.reactor.Work;
+
+public class ConnectionPoolTest
+{
+    /** Echoes every byte it receives on each connection. */
+    private ServerSocket m_server;
+
+    /** The number of connections the echo server has accepted. */
+    private volatile int m_acceptCount;
+
+    /** The reactors of the pool. */
+    private IOReactorGroup m_group;
+
+    /** Starts an echo server. */
+    @Before
+    public void setUp() throws IOException {
+        m_server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread("ConnectionPoolTestEcho") {
+                public void run() {
+                    try {
+                        for (;;) {
+                            final Socket socket = m_server.accept();
+                            m_acceptCount++;
+                            Thread echo = new Thread() {
+                                    public void run() {
+                                        echo(socket);
+                                    }
+                                };
+                            echo.setDaemon(true);
+                            echo.start();
+                        }
+                    } catch (IOException e) {
+                        // Closed.
+                    }
+                }
+            };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Tear down tests. */
+    @After
+    public void tearDown() throws IOException {
+        m_server.close();
+        if (m_group != null) {
+            m_group.shutdown();
+            m_group = null;
+        }
+    }
+
+    /** Copies a socket's input to its output until end of stream. */
+    private static void echo(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /** A pool of connections whose messages have a 2 byte length. */
+    private static class TestPool extends ConnectionPool {
+        TestPool(IOReactorGroup group) {
+            super(group);
+        }
+
+        protected Decoder[] createDecoders() {
+            return new Decoder[] { new LengthFieldFramer(2, 1024) };
+        }
+
+        protected Encoder[] createEncoders() {
+            return new Encoder[] { new LengthFieldFramer(2, 1024) };
+        }
+    }
+
+    /** Collects the responses to requests. */
+    private static class Responses implements ResponseHandler {
+        final BlockingQueue<String> m_responses =
+            new LinkedBlockingQueue<String>();
+
+        public void responseReceived(PooledConnection connection,
+                                     ByteBladder in, Frame frame) {
+            byte[] b = new byte[frame.getLength()];
+            frame.getBuffer(in).get(b);
+            m_responses.add(new String(b));
+        }
+
+        public void requestFailed(PooledConnection connection,
+                                  IOException e) {
+            m_responses.add("failed: " + e);
+        }
+    }
+
+    /** Sends a request. */
+    private static void send(PooledConnection connection, String request,
+                             ResponseHandler handler) {
+        connection.beginRequest().putBytes(request.getBytes());
+        connection.endRequest(handler);
+    }
+
+    /**
+     * Tests that pipelined responses come back in order, that released
+     * connections are reused on the same reactor and that callers are
+     * spread across the group.
+     */
+    @Test(timeout=10000)
+    public void testPipelining() throws Exception {
+        m_group = IOReactorGroup.getIOReactorGroup("ConnectionPoolTest", 2);
+        final TestPool pool = new TestPool(m_group);
+        pool.setMaxConnections(1);
+        final SocketAddress address = m_server.getLocalSocketAddress();
+        final Responses responses = new Responses();
+        final PooledConnection[] acquired = new PooledConnection[3];
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            final int index = i;
+            final String prefix = Integer.toString(i);
+            pool.acquire(address, 5000, new AcquireHandler() {
+                    public void acquired(PooledConnection connection) {
+                        acquired[index] = connection;
+                        send(connection, prefix + "a", responses);
+                        send(connection, prefix + "b", responses);
+                        send(connection, prefix + "c", responses);
+                        // Released with the requests still waiting.
+                        connection.release();
+                        done.countDown();
+                    }
+                    public void acquireFailed(Throwable t) {
+                        fail(t.toString());
+                    }
+                });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // Each caller's responses arrive in the order sent.
+        List<String> all = new ArrayList<String>();
+        for (int i = 0; i < 9; i++) {
+            all.add(responses.m_responses.poll(5, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < 3; i++) {
+            int a = all.indexOf(i + "a");
+            int b = all.indexOf(i + "b");
+            int c = all.indexOf(i + "c");
+            assertTrue(all.toString(), a >= 0 && a < b && b < c);
+        }
+
+        // Two reactors, one connection each.
+        assertEquals(2, pool.getConnectCount());
+        assertEquals(2, m_acceptCount);
+        assertSame(acquired[0], acquired[2]);
+        assertNotSame(acquired[0], acquired[1]);
+        assertNotSame(acquired[0].getIOReactor(), acquired[1].getIOReactor());
+        pool.close();
+    }
+
+    /**
+     * Tests that callers wait in order, that a caller gives up after
+     * its timeout and that idle connections are closed.
+     */
+    @Test(timeout=10000)
+    public void testWaiting() throws Exception {
+        m_group = IOReactorGroup.getIOReactorGroup("ConnectionPoolTest", 1);
+        final TestPool pool = new TestPool(m_group);
+        pool.setMaxConnections(1);
+        pool.setTimeouts(200, 0, 20);
+        final SocketAddress address = m_server.getLocalSocketAddress();
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+        final BlockingQueue<PooledConnection> held =
+            new LinkedBlockingQueue<PooledConnection>();
+
+        // The first caller keeps the only connection.
+        pool.acquire(address, 5000, new AcquireHandler() {
+                public void acquired(PooledConnection connection) {
+                    held.add(connection);
+                }
+                public void acquireFailed(Throwable t) {
+                    events.add(t);
+                }
+            });
+        final PooledConnection connection = held.poll(5, TimeUnit.SECONDS);
+        assertNotNull(connection);
+
+        pool.acquire(address, 5000, new AcquireHandler() {
+                public void acquired(PooledConnection connection) {
+                    events.add("second");
+                    connection.release();
+                }
+                public void acquireFailed(Throwable t) {
+                    events.add(t);
+                }
+            });
+        pool.acquire(address, 50, new AcquireHandler() {
+                public void acquired(PooledConnection connection) {
+                    events.add("third");
+                    connection.release();
+                }
+                public void acquireFailed(Throwable t) {
+                    events.add(t);
+                }
+            });
+        assertTrue(events.poll(5, TimeUnit.SECONDS) instanceof
+                   TimeoutException);
+
+        // Handing the connection back serves the second caller.
+        m_group.getIOReactor(0).workSubmit(new Work() {
+                public boolean workFire() {
+                    connection.release();
+                    return false;
+                }
+            });
+        assertEquals("second", events.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, pool.getConnectCount());
+
+        // Left idle, the connection is closed.
+        for (int i = 0; i < 100 && !connection.isClosed(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue("Idle connection not closed", connection.isClosed());
+        pool.close();
+    }
+
+    /**
+     * Tests that a request an Encoder refuses isn't matched with the
+     * response to the next one.
+     */
+    @Test(timeout=10000)
+    public void testRefusedRequest() throws Exception {
+        m_group = IOReactorGroup.getIOReactorGroup("ConnectionPoolTest", 1);
+        final TestPool pool = new TestPool(m_group);
+        final SocketAddress address = m_server.getLocalSocketAddress();
+        final Responses responses = new Responses();
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+        pool.acquire(address, 5000, new AcquireHandler() {
+                public void acquired(PooledConnection connection) {
+                    try {
+                        send(connection, new String(new byte[2000]), responses);
+                        events.add("sent");
+                    } catch (IllegalArgumentException e) {
+                        events.add(e);
+                    }
+                    send(connection, "ok", responses);
+                    events.add(Long.valueOf(connection.getRequestCount()));
+                    connection.release();
+                }
+                public void acquireFailed(Throwable t) {
+                    events.add(t);
+                }
+            });
+        assertTrue(events.poll(5, TimeUnit.SECONDS) instanceof
+                   IllegalArgumentException);
+        assertEquals(Long.valueOf(1), events.poll(5, TimeUnit.SECONDS));
+        assertEquals("ok", responses.m_responses.poll(5, TimeUnit.SECONDS));
+        assertNull(responses.m_responses.poll(100, TimeUnit.MILLISECONDS));
+        pool.close();
+    }
+}
@@ -0,0 +1,135 @@
+package com.readyposition.reactor.test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.DatagramAdapter;
+import com.readyposition.reactor.DatagramEndpoint;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.SequenceTracker;
+
+public class DatagramEndpointTest
+{
+    /** Used for synchronization. */
+    protected Object m_lock;
+
+    /** The number of datagrams handed to the adapter. */
+    protected int m_received;
+
+    /** The sum of the sequence numbers received. */
+    protected long m_sum;
+
+    /** Asynchronous multiplexed I/O reactor. */
+    private IOReactor m_ioReactor;
+
+    /** Set up tests. */
+    @Before
+    public void setUp() {
+        m_ioReactor = IOReactor.getIOReactor("DatagramEndpointTestIOReactor");
+        m_received = 0;
+        m_sum = 0;
+        m_lock = new Object();
+    }
+
+    /** Tear down tests. */
+    @After
+    public void tearDown() {
+        m_ioReactor.shutdown();
+        m_ioReactor = null;
+        m_lock = null;
+    }
+
+    /**
+     * DatagramAdapter whose datagrams start with a sequence number
+     * and that notes how many arrive.
+     */
+    protected class TestDatagramAdapter extends DatagramAdapter {
+        TestDatagramAdapter() {
+            super("test", "127.0.0.1", 0);
+        }
+
+        protected long getSequence(ByteBuffer datagram) {
+            return datagram.getLong(datagram.position());
+        }
+
+        protected void datagramReceived(DatagramEndpoint endpoint,
+                                        SocketAddress source,
+                                        ByteBuffer datagram)
+        {
+            synchronized (m_lock) {
+                m_received++;
+                m_sum += datagram.getLong();
+                m_lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Tests that datagrams are received in batches and that the
+     * sequence numbers skipped over are counted per source.
+     */
+    @Test(timeout=10000)
+    public void testReceive() throws Exception {
+        TestDatagramAdapter adapter = new TestDatagramAdapter();
+        DatagramEndpoint endpoint = new DatagramEndpoint(m_ioReactor, adapter);
+        endpoint.setMaxReceives(8);
+        endpoint.bind();
+        SocketAddress local = endpoint.getLocalAddress();
+        assertNotNull("Endpoint didn't bind", local);
+        int port = ((InetSocketAddress) local).getPort();
+
+        DatagramChannel sender = DatagramChannel.open();
+        sender.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketAddress target = new InetSocketAddress("127.0.0.1", port);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        int sent = 0;
+        long sum = 0;
+        for (long seq = 0; seq < 100; seq++) {
+            if ((seq >= 10 && seq < 13) || seq == 50) {
+                // Lose these.
+                continue;
+            }
+            buffer.clear();
+            buffer.putLong(seq).putLong(0).flip();
+            sender.send(buffer, target);
+            sent++;
+            sum += seq;
+        }
+
+        synchronized (m_lock) {
+            while (m_received < sent) {
+                m_lock.wait();
+            }
+            assertEquals("Wrong datagrams", sum, m_sum);
+        }
+        SocketAddress source = sender.getLocalAddress();
+        sender.close();
+
+        assertEquals(sent, endpoint.getReceiveCount());
+        assertTrue("Never received a batch", endpoint.getBatchCount() > 0);
+        assertTrue("Batches too big",
+                   endpoint.getBatchCount() * 8 >= endpoint.getReceiveCount());
+
+        SequenceTracker tracker = adapter.getSequenceTracker();
+        assertEquals(sent, tracker.getReceivedCount(source));
+        assertEquals(2, tracker.getGapCount(source));
+        assertEquals(4, tracker.getMissingCount(source));
+        assertEquals(4, tracker.getMissingCount());
+        assertEquals(0, tracker.getOutOfOrderCount(source));
+
+        // Late arrivals don't fill the gap.
+        assertEquals(0, tracker.track(source, 11));
+        assertEquals(1, tracker.getOutOfOrderCount(source));
+        assertEquals(4, tracker.getMissingCount(source));
+
+        endpoint.shutdown();
+        assertNull(endpoint.getLocalAddress());
+    }
+}
@@ -0,0 +1,198 @@
+package com.readyposition.reactor.test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.FileTransfer;
+import com.readyposition.reactor.FileTransferHandler;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.Valve;
+import com.readyposition.reactor.ValveHandler;
+
+public class FileTransferTest
+{
+    /** Asynchronous multiplexed I/O reactor. */
+    private IOReactor m_ioReactor;
+
+    /** The file being sent. */
+    private File m_file;
+
+    /** Set up tests. */
+    @Before
+    public void setUp() throws IOException {
+        m_ioReactor = IOReactor.getIOReactor("FileTransferTestIOReactor");
+        m_file = File.createTempFile("FileTransferTest", ".dat");
+        m_file.deleteOnExit();
+    }
+
+    /** Tear down tests. */
+    @After
+    public void tearDown() {
+        m_ioReactor.shutdown();
+        m_ioReactor = null;
+        m_file.delete();
+    }
+
+    /** Remembers how a transfer finished. */
+    private static class Result implements FileTransferHandler {
+        final CountDownLatch m_done = new CountDownLatch(1);
+        final AtomicReference<IOException> m_failure =
+            new AtomicReference<IOException>();
+        volatile boolean m_isRestored;
+
+        public void transferCompleted(FileTransfer transfer) {
+            m_isRestored = !(transfer.getValve().getHandler() instanceof
+                             FileTransfer);
+            m_done.countDown();
+        }
+
+        public void transferFailed(FileTransfer transfer, IOException e) {
+            m_failure.set(e);
+            m_done.countDown();
+        }
+    }
+
+    /** Writes length bytes of a known pattern to the file. */
+    private FileChannel createFile(int length) throws IOException {
+        FileChannel file = FileChannel.open(m_file.toPath(),
+                                            StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte)(i * 31));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+        return file;
+    }
+
+    /**
+     * Tests that a region bigger than the socket's buffer is sent in
+     * several goes, that OP_READ still reaches the previous handler and
+     * that the Valve is handed back afterwards.
+     */
+    @Test(timeout=20000)
+    public void testTransfer() throws Exception {
+        final int length = 4 * 1024 * 1024;
+        final int offset = 1000;
+        final FileChannel file = createFile(length);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open();
+        client.connect(server.getLocalAddress());
+        final SocketChannel peer = server.accept();
+        server.close();
+        peer.configureBlocking(false);
+
+        final CountDownLatch readSeen = new CountDownLatch(1);
+        final AtomicBoolean sawWrite = new AtomicBoolean();
+        final Result result = new Result();
+        final AtomicReference<FileTransfer> transfer =
+            new AtomicReference<FileTransfer>();
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    Valve valve = m_ioReactor.valveCreate(
+                        peer,
+                        new ValveHandler() {
+                            public void valveFire(Valve valve,
+                                                  SelectionKey key) {
+                                if ((key.readyOps() &
+                                     SelectionKey.OP_WRITE) != 0) {
+                                    sawWrite.set(true);
+                                }
+                                ByteBuffer b = ByteBuffer.allocate(16);
+                                try {
+                                    if (peer.read(b) > 0) {
+                                        readSeen.countDown();
+                                    }
+                                } catch (IOException e) {
+                                    valve.close();
+                                }
+                            }
+                        });
+                    valve.enable(SelectionKey.OP_READ);
+                    FileTransfer t = new FileTransfer(valve, file, offset,
+                                                      length - offset, result);
+                    t.setMaxBytesPerFire(256 * 1024);
+                    transfer.set(t);
+                    t.start();
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(start);
+        start.await();
+
+        // Let the socket's buffer fill before reading any of it.
+        Thread.sleep(100);
+        assertTrue(transfer.get().getRemaining() > 0);
+        client.write(ByteBuffer.wrap("ping".getBytes()));
+
+        ByteBuffer received = ByteBuffer.allocate(length - offset);
+        while (received.hasRemaining()) {
+            assertTrue("Connection closed early", client.read(received) > 0);
+        }
+        assertTrue(result.m_done.await(10, TimeUnit.SECONDS));
+        assertNull(result.m_failure.get());
+        assertTrue("Valve not handed back", result.m_isRestored);
+        assertTrue(readSeen.await(10, TimeUnit.SECONDS));
+        assertFalse("Previous handler saw OP_WRITE", sawWrite.get());
+        assertEquals(length - offset, transfer.get().getTransferred());
+        assertEquals(length, transfer.get().getPosition());
+        assertTrue(transfer.get().getTransferCount() > 1);
+        received.flip();
+        for (int i = offset; i < length; i++) {
+            assertEquals("Byte " + i, (byte)(i * 31), received.get());
+        }
+        client.close();
+        file.close();
+    }
+
+    /** Tests that asking for more than the file holds fails. */
+    @Test(timeout=10000)
+    public void testShortFile() throws Exception {
+        final FileChannel file = createFile(100);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open();
+        client.connect(server.getLocalAddress());
+        final SocketChannel peer = server.accept();
+        server.close();
+        peer.configureBlocking(false);
+
+        final Result result = new Result();
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    Valve valve = m_ioReactor.valveCreate(peer, null);
+                    new FileTransfer(valve, file, 0, 200, result).start();
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(start);
+        start.await();
+        assertTrue(result.m_done.await(5, TimeUnit.SECONDS));
+        assertTrue(result.m_failure.get() instanceof EOFException);
+        client.close();
+        file.close();
+    }
+}
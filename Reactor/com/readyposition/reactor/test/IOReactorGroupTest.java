@@ -0,0 +1,404 @@
+package com.readyposition.reactor.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.Acceptor;
+import com.readyposition.reactor.AcceptorAdapter;
+import com.readyposition.reactor.AcceptorGroup;
+import com.readyposition.reactor.AcceptorListener;
+import com.readyposition.reactor.AddressHashChooser;
+import com.readyposition.reactor.BlockingWork;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.IOReactorChooser;
+import com.readyposition.reactor.IOReactorGroup;
+import com.readyposition.reactor.RoundRobinChooser;
+import com.readyposition.reactor.SubmissionPolicy;
+import com.readyposition.reactor.Work;
+
+public class IOReactorGroupTest
+{
+    /** The number of IOReactors in the group. */
+    protected final static int SIZE = 3;
+
+    /** The number of connections made per reactor. */
+    protected final static int CONNECTIONS = 4;
+
+    /** The group under test. */
+    protected IOReactorGroup m_group;
+
+    /** The Acceptor handing connections to the group. */
+    protected Acceptor m_acceptor;
+
+    /** The Acceptors listening on every reactor of the group. */
+    protected AcceptorGroup m_acceptorGroup;
+
+    /** The port the Acceptor ended up listening on. */
+    protected volatile int m_localPort;
+
+    /** Counts down as the Acceptor starts listening. */
+    protected CountDownLatch m_listening;
+
+    /** Counts down as connections are handed to the group. */
+    protected CountDownLatch m_accepted;
+
+    /** The number of connections handed to each reactor. */
+    protected AtomicIntegerArray m_counts;
+
+    /** Set if a connection was handled on the wrong thread. */
+    protected AtomicBoolean m_wrongThread;
+
+    /** Client ends of the connections. */
+    protected Socket[] m_sockets;
+
+    /** Records which reactor each connection was handed to. */
+    protected class TestAcceptorAdapter extends AcceptorAdapter {
+        protected ServerSocketChannel m_serverChannel;
+
+        TestAcceptorAdapter(int port) {
+            super("IOReactorGroupTest", port);
+        }
+
+        public void setup(ServerSocketChannel serverChannel) {
+            super.setup(serverChannel);
+            m_serverChannel = serverChannel;
+        }
+
+        public void listening() {
+            super.listening();
+            m_localPort = m_serverChannel.socket().getLocalPort();
+            m_listening.countDown();
+        }
+
+        public void peerCreate(IOReactor ioReactor, SocketChannel socketChannel) {
+            if (ioReactor.getThread() != Thread.currentThread()) {
+                m_wrongThread.set(true);
+            }
+            for (int i = 0; i < m_group.getSize(); i++) {
+                if (m_group.getIOReactor(i) == ioReactor) {
+                    m_counts.incrementAndGet(i);
+                }
+            }
+            m_accepted.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_counts = new AtomicIntegerArray(SIZE);
+        m_wrongThread = new AtomicBoolean();
+        m_listening = new CountDownLatch(1);
+        m_accepted = new CountDownLatch(SIZE * CONNECTIONS);
+        m_sockets = new Socket[SIZE * CONNECTIONS];
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket socket : m_sockets) {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+        if (m_acceptor != null) {
+            m_acceptor.shutdown();
+        }
+        if (m_acceptorGroup != null) {
+            m_acceptorGroup.shutdown();
+        }
+        m_group.shutdown();
+    }
+
+    /**
+     * Starts a group and an Acceptor and makes connections to it.
+     *
+     * @param chooser the policy the group should use.
+     */
+    protected void connect(IOReactorChooser chooser) throws Exception {
+        m_group = IOReactorGroup.getIOReactorGroup("TestIOReactorGroup",
+                                                   SIZE, chooser);
+        m_acceptor = new Acceptor(m_group, new TestAcceptorAdapter(0));
+        m_acceptor.setMaxAccepts(2);
+        m_acceptor.listen();
+        assertTrue("Acceptor never listened",
+                   m_listening.await(10L, TimeUnit.SECONDS));
+        connect();
+    }
+
+    /** Makes connections to the port being listened on. */
+    protected void connect() throws Exception {
+
+        for (int i = 0; i < m_sockets.length; i++) {
+            m_sockets[i] = new Socket();
+            m_sockets[i].connect(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                      m_localPort));
+        }
+        assertTrue("Connections were never handed off",
+                   m_accepted.await(10L, TimeUnit.SECONDS));
+        assertFalse("Connection handled on the wrong thread",
+                    m_wrongThread.get());
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        connect(new RoundRobinChooser());
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals("Reactor " + i + " got the wrong share",
+                         CONNECTIONS, m_counts.get(i));
+        }
+    }
+
+    @Test
+    public void testReusePort() throws Exception {
+        assumeTrue(AcceptorGroup.isReusePortSupported());
+
+        // Every Acceptor needs to bind the same, fixed port.
+        ServerSocket probe = new ServerSocket(0);
+        int port = probe.getLocalPort();
+        probe.close();
+
+        m_listening = new CountDownLatch(SIZE);
+        m_group = IOReactorGroup.getIOReactorGroup("TestIOReactorGroup", SIZE);
+        m_acceptorGroup = new AcceptorGroup(m_group,
+                                            new TestAcceptorAdapter(port));
+        m_acceptorGroup.listen();
+        assertTrue("Acceptors never listened",
+                   m_listening.await(10L, TimeUnit.SECONDS));
+        connect();
+    }
+
+    @Test
+    public void testAddressHash() throws Exception {
+        connect(new AddressHashChooser());
+
+        // Every connection comes from the same address
+        int used = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (m_counts.get(i) != 0) {
+                used++;
+            }
+        }
+        assertEquals("Connections from one host were spread out", 1, used);
+    }
+
+    /**
+     * Tests that a connection the Acceptor fails to hand off gets
+     * closed rather than leaked.
+     */
+    @Test(timeout=20000)
+    public void testHandOffFailure() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        m_group = IOReactorGroup.getIOReactorGroup("TestIOReactorGroup", 1,
+            new IOReactorChooser() {
+                public int choose(IOReactorGroup group, SocketChannel channel) {
+                    throw new IllegalStateException("expected");
+                }
+            });
+        m_acceptor = new Acceptor(m_group, new TestAcceptorAdapter(0) {
+                public void acceptFailed(Throwable t) {
+                    failure.set(t);
+                }
+            });
+        m_acceptor.listen();
+        assertTrue("Acceptor never listened",
+                   m_listening.await(10L, TimeUnit.SECONDS));
+        m_sockets[0] = new Socket();
+        m_sockets[0].connect(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), m_localPort));
+        m_sockets[0].setSoTimeout(10000);
+        assertEquals("Failed connection left open",
+                     -1, m_sockets[0].getInputStream().read());
+        assertTrue(failure.get() instanceof IllegalStateException);
+    }
+
+    /**
+     * Tests that a hand-off to a reactor with a full backlog is
+     * refused under CALLER_RUNS rather than run on the accepting
+     * thread.
+     */
+    @Test
+    public void testHandOffCallerRuns() throws Exception {
+        m_group = IOReactorGroup.getIOReactorGroup("TestIOReactorGroup", 1);
+        IOReactor reactor = m_group.getIOReactor(0);
+        reactor.setCapacity(1, SubmissionPolicy.CALLER_RUNS);
+        BlockingWork bw = new BlockingWork();
+        reactor.workSubmit(bw);
+        bw.waitForFireStart();
+        reactor.workSubmit(new Work() {
+                public boolean workFire() {
+                    return false;
+                }
+            });
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        SocketChannel channel = SocketChannel.open();
+        try {
+            m_group.handOff(channel, new AcceptorListener() {
+                    public SocketAddress getSocketAddress() {
+                        return null;
+                    }
+                    public void setup(ServerSocketChannel serverChannel) {}
+                    public void listening() {}
+                    public long listenFailed(Throwable t) {
+                        return Long.MIN_VALUE;
+                    }
+                    public void accepted(IOReactor ioReactor,
+                                         SocketChannel socketChannel) {
+                        m_wrongThread.set(true);
+                    }
+                    public void acceptFailed(Throwable t) {
+                        failure.set(t);
+                    }
+                });
+        } finally {
+            bw.proceed();
+        }
+        assertFalse("Hand-off ran on the caller", m_wrongThread.get());
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+        assertFalse("Refused channel left open", channel.isOpen());
+    }
+
+    /**
+     * Tests that a hand-off from one reactor's thread to another
+     * reactor with a full backlog under BLOCK is refused rather than
+     * parking the first reactor.
+     */
+    @Test(timeout=10000)
+    public void testHandOffBlockFromReactor() throws Exception {
+        m_group = IOReactorGroup.getIOReactorGroup("TestIOReactorGroup", 2);
+        m_group.setChooser(new IOReactorChooser() {
+                public int choose(IOReactorGroup group, SocketChannel channel) {
+                    return 1;
+                }
+            });
+        IOReactor reactor = m_group.getIOReactor(1);
+        reactor.setCapacity(1, SubmissionPolicy.BLOCK);
+        BlockingWork bw = new BlockingWork();
+        reactor.workSubmit(bw);
+        bw.waitForFireStart();
+        reactor.workSubmit(new Work() {
+                public boolean workFire() {
+                    return false;
+                }
+            });
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            m_group.getIOReactor(0).workSubmit(new Work() {
+                    public boolean workFire() {
+                        m_group.handOff(channel, new AcceptorListener() {
+                                public SocketAddress getSocketAddress() {
+                                    return null;
+                                }
+                                public void setup(ServerSocketChannel serverChannel) {}
+                                public void listening() {}
+                                public long listenFailed(Throwable t) {
+                                    return Long.MIN_VALUE;
+                                }
+                                public void accepted(IOReactor ioReactor,
+                                                     SocketChannel socketChannel) {
+                                }
+                                public void acceptFailed(Throwable t) {
+                                    failure.set(t);
+                                }
+                            });
+                        done.countDown();
+                        return false;
+                    }
+                });
+            assertTrue("Hand-off parked the reactor",
+                       done.await(5, TimeUnit.SECONDS));
+        } finally {
+            bw.proceed();
+        }
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+        assertFalse("Refused channel left open", channel.isOpen());
+    }
+
+    /**
+     * Tests that hand-offs to a reactor whose backlog overflows under
+     * DROP_OLDEST are never dropped: every one is either accepted or
+     * reported through acceptFailed(), and the group's load goes back
+     * down.
+     */
+    @Test(timeout=10000)
+    public void testHandOffDropOldest() throws Exception {
+        final int handOffs = 8;
+        m_group = IOReactorGroup.getIOReactorGroup("TestIOReactorGroup", 1);
+        IOReactor reactor = m_group.getIOReactor(0);
+        reactor.setCapacity(2, SubmissionPolicy.DROP_OLDEST);
+        BlockingWork bw = new BlockingWork();
+        reactor.workSubmit(bw);
+        bw.waitForFireStart();
+
+        final CountDownLatch done = new CountDownLatch(handOffs);
+        final AtomicIntegerArray outcomes = new AtomicIntegerArray(2);
+        AcceptorListener listener = new AcceptorListener() {
+                public SocketAddress getSocketAddress() {
+                    return null;
+                }
+                public void setup(ServerSocketChannel serverChannel) {}
+                public void listening() {}
+                public long listenFailed(Throwable t) {
+                    return Long.MIN_VALUE;
+                }
+                public void accepted(IOReactor ioReactor,
+                                     SocketChannel socketChannel) {
+                    outcomes.incrementAndGet(0);
+                    done.countDown();
+                }
+                public void acceptFailed(Throwable t) {
+                    outcomes.incrementAndGet(1);
+                    done.countDown();
+                }
+            };
+        SocketChannel[] channels = new SocketChannel[handOffs];
+        try {
+            for (int i = 0; i < handOffs; i++) {
+                // Plain Works in between so there is something to drop.
+                reactor.workSubmit(new Work() {
+                        public boolean workFire() {
+                            return false;
+                        }
+                    });
+                channels[i] = SocketChannel.open();
+                m_group.handOff(channels[i], listener);
+            }
+        } finally {
+            bw.proceed();
+        }
+        try {
+            assertTrue("Hand-offs were lost",
+                       done.await(5, TimeUnit.SECONDS));
+            assertEquals("Hand-offs were dropped",
+                         handOffs, outcomes.get(0));
+            assertEquals(0, outcomes.get(1));
+            assertEquals("Load never went back down", 0, m_group.getLoad(0));
+        } finally {
+            for (SocketChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+}
@@ -1,12 +1,43 @@
 package com.readyposition.reactor.test;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.readyposition.collections.common.ByteBladder;
+import com.readyposition.reactor.BlockingChannel;
+import com.readyposition.reactor.BlockingHandler;
+import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.BlockingWork;
+import com.readyposition.reactor.FutureWork;
 import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.IdleHandler;
+import com.readyposition.reactor.Valve;
+import com.readyposition.reactor.ValveHandler;
+import com.readyposition.reactor.VectoredChannel;
+import com.readyposition.reactor.VectoredHandler;
 
 public class IOReactorTest extends TimerReactorTest {
     /** The number of TimerReactors created during testing. */
@@ -37,4 +68,593 @@ public class IOReactorTest extends TimerReactorTest {
     public void testNothing() {
         // Stub
     }
+
+    @Test
+    public void testValveFromOtherThread() throws Exception {
+        final Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        final AtomicInteger reads = new AtomicInteger();
+        Valve valve = m_ioReactor.valveCreate(pipe.source(), new ValveHandler() {
+                public void valveFire(Valve valve, SelectionKey selectedKey) {
+                    try {
+                        pipe.source().read(ByteBuffer.allocate(16));
+                    } catch (Exception e) {
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+
+        // Change our minds several times while the reactor is busy.
+        // Only the last change should stick.
+        BlockingWork bw = new BlockingWork();
+        m_ioReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        for (int i = 0; i < ITERATIONS; i++) {
+            valve.enable(SelectionKey.OP_READ);
+            valve.disable(SelectionKey.OP_READ);
+        }
+        pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+        bw.proceed();
+
+        // Give the reactor a few passes to (not) notice the data
+        for (int i = 0; i < ITERATIONS; i++) {
+            CountdownWork work = new CountdownWork();
+            m_ioReactor.workSubmit(work);
+            work.await();
+        }
+        assertEquals("Disabled Valve fired", 0, reads.get());
+
+        // Now enable it for real
+        valve.enable(SelectionKey.OP_READ);
+        for (int i = 0; i < 1000 && reads.get() == 0; i++) {
+            Thread.sleep(1L);
+        }
+        assertTrue("Enabled Valve never fired", reads.get() > 0);
+
+        valve.close();
+        pipe.sink().close();
+    }
+
+    @Test
+    public void testValvePerOperation() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+        peer.configureBlocking(false);
+
+        // Readable and writable at the same time, with a different
+        // Valve for each.  Both need to fire.
+        client.write(ByteBuffer.wrap(new byte[] { 1 }));
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+        final Valve reader = m_ioReactor.valveCreate(peer, new ValveHandler() {
+                public void valveFire(Valve valve, SelectionKey selectedKey) {
+                    reads.incrementAndGet();
+                    valve.disable(SelectionKey.OP_READ);
+                }
+            });
+        final Valve writer = m_ioReactor.valveCreate(peer, new ValveHandler() {
+                public void valveFire(Valve valve, SelectionKey selectedKey) {
+                    writes.incrementAndGet();
+                    valve.disable(SelectionKey.OP_WRITE);
+                }
+            });
+        BlockingWork bw = new BlockingWork();
+        m_ioReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        reader.enable(SelectionKey.OP_READ);
+        writer.enable(SelectionKey.OP_WRITE);
+        bw.proceed();
+
+        for (int i = 0; i < 1000 && (reads.get() == 0 || writes.get() == 0); i++) {
+            Thread.sleep(1L);
+        }
+        assertEquals("Read Valve didn't fire once", 1, reads.get());
+        assertEquals("Write Valve didn't fire once", 1, writes.get());
+
+        reader.close();
+        client.close();
+    }
+
+    @Test
+    public void testKeyBudget() throws Exception {
+        final int budget = 2;
+        m_ioReactor.setKeyBudget(budget);
+        assertEquals(budget, m_ioReactor.getKeyBudget());
+
+        // Make a batch of channels ready at once.
+        final List<Long> cycles = new ArrayList<Long>();
+        ValveHandler handler = new ValveHandler() {
+                public void valveFire(Valve valve, SelectionKey selectedKey) {
+                    synchronized (cycles) {
+                        cycles.add(m_ioReactor.getCycleCount());
+                    }
+                    valve.disable(SelectionKey.OP_READ);
+                }
+            };
+        Pipe[] pipes = new Pipe[ITERATIONS];
+        Valve[] valves = new Valve[ITERATIONS];
+        BlockingWork bw = new BlockingWork();
+        m_ioReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        for (int i = 0; i < ITERATIONS; i++) {
+            pipes[i] = Pipe.open();
+            pipes[i].source().configureBlocking(false);
+            pipes[i].sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+            valves[i] = m_ioReactor.valveCreate(pipes[i].source(), handler);
+            valves[i].enable(SelectionKey.OP_READ);
+        }
+        bw.proceed();
+
+        for (int i = 0; i < 1000 && cycles.size() < ITERATIONS; i++) {
+            Thread.sleep(1L);
+        }
+        synchronized (cycles) {
+            assertEquals("Not every Valve fired once", ITERATIONS, cycles.size());
+            for (int i = budget; i < cycles.size(); i++) {
+                assertTrue("Pass " + cycles.get(i) + " went over budget",
+                           cycles.get(i) > cycles.get(i - budget));
+            }
+        }
+        assertTrue(m_ioReactor.getMetrics().getCarryOverCount() > 0);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            valves[i].close();
+            pipes[i].sink().close();
+        }
+    }
+
+    /**
+     * Tests that waiting for a millisecond timer selects with a timeout
+     * rather than polling the Selector for the last millisecond.
+     */
+    @Test(timeout=10000)
+    public void testMillisTimerDoesntPoll() throws Exception {
+        m_ioReactor.setSpinTime(0L);
+        CountdownTimer timer = new CountdownTimer(INTERVAL, ITERATIONS);
+        long selects = m_ioReactor.getMetrics().getSelectCount();
+        m_ioReactor.timerSubmitRel(INTERVAL, timer);
+        timer.await();
+        long polls = m_ioReactor.getMetrics().getSelectCount() - selects;
+        assertTrue("Polled " + polls + " times", polls < 20 * ITERATIONS);
+    }
+
+    @Test
+    public void testBlockingChannel() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        // An echo handler written as plain blocking code.  Far more is
+        // sent than the socket buffers hold so both reads and writes
+        // have to wait on the reactor.
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        BlockingChannel channel = new BlockingChannel(m_ioReactor, peer, new BlockingHandler() {
+                public void run(BlockingChannel channel) throws Exception {
+                    try {
+                        channel.sleep(10L);
+                        ByteBladder buf = new ByteBladder();
+                        while (channel.read(buf) >= 0) {
+                            channel.write(buf);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+        channel.start();
+
+        final int size = 1 << 22;
+        Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        ByteBuffer out = ByteBuffer.allocate(size);
+                        for (int i = 0; i < size; i++) {
+                            out.put((byte)i);
+                        }
+                        out.flip();
+                        while (out.hasRemaining()) {
+                            client.write(out);
+                        }
+                        client.shutdownOutput();
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+        writer.start();
+
+        ByteBuffer in = ByteBuffer.allocate(size + 1);
+        while (client.read(in) >= 0) {
+        }
+        writer.join();
+        assertNull("Handler failed", failure.get());
+        assertEquals("Wrong number of bytes echoed", size, in.position());
+        for (int i = 0; i < size; i++) {
+            assertEquals("Wrong byte echoed", (byte)i, in.get(i));
+        }
+        channel.getThread().join(10000L);
+        assertTrue("Channel not closed after the handler finished",
+                   channel.isClosed());
+        client.close();
+    }
+
+    /**
+     * Tests that a handler retrying a read after being interrupted,
+     * while the reactor hasn't yet run the first read's arming, gets an
+     * AsynchronousCloseException rather than arming it a second time.
+     */
+    @Test(timeout=20000)
+    public void testBlockingChannelRetryAfterClose() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        BlockingWork bw = new BlockingWork();
+        m_ioReactor.workSubmit(bw);
+        bw.waitForFireStart();
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        BlockingChannel channel = new BlockingChannel(m_ioReactor, peer, new BlockingHandler() {
+                public void run(BlockingChannel channel) throws Exception {
+                    ByteBladder buf = new ByteBladder();
+                    for (int i = 0; i < 2; i++) {
+                        try {
+                            channel.read(buf);
+                        } catch (IOException e) {
+                            failures.add(e);
+                            Thread.interrupted();
+                        }
+                    }
+                }
+            });
+        channel.start();
+        try {
+            Thread thread = channel.getThread();
+            while (thread.getState() != Thread.State.WAITING) {
+                assertTrue("Handler never blocked", thread.isAlive());
+                Thread.sleep(1L);
+            }
+            thread.interrupt();
+            thread.join(10000L);
+            assertFalse("Handler never finished", thread.isAlive());
+        } finally {
+            bw.proceed();
+        }
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0) instanceof ClosedByInterruptException);
+        assertTrue(failures.get(1) instanceof AsynchronousCloseException);
+
+        // The reactor's queues are still intact.
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(work);
+        assertTrue("Reactor stuck", work.await(10L, TimeUnit.SECONDS));
+        assertTrue(channel.isClosed());
+        client.close();
+    }
+
+    @Test
+    public void testVectoredChannel() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final SocketChannel client = SocketChannel.open();
+        client.setOption(StandardSocketOptions.SO_RCVBUF, 8192);
+        client.connect(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        peer.setOption(StandardSocketOptions.SO_SNDBUF, 8192);
+        server.close();
+
+        // Answer a request with a burst of framed messages, each queued
+        // as a header, a shared payload and a trailer.  Far more is
+        // sent than the socket buffers hold so writes are partial.
+        final int messages = 20000;
+        final ByteBuffer payload = ByteBuffer.allocate(100);
+        for (int i = 0; i < payload.capacity(); i++) {
+            payload.put(i, (byte)i);
+        }
+        final int frame = 4 + payload.capacity() + 1;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger drained = new AtomicInteger();
+        final ByteBuffer request = ByteBuffer.allocate(4);
+        final ByteBuffer requestBody = ByteBuffer.allocate(4);
+        final VectoredChannel channel = new VectoredChannel(m_ioReactor, peer, new VectoredHandler() {
+                public void readReady(VectoredChannel channel) {
+                    try {
+                        channel.read(request, requestBody);
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                    if (requestBody.hasRemaining()) {
+                        return;
+                    }
+                    channel.setReadEnabled(false);
+                    for (int i = 0; i < messages; i++) {
+                        ByteBuffer header = ByteBuffer.allocate(4).putInt(0, i);
+                        ByteBuffer trailer = ByteBuffer.allocate(1).put(0, (byte)'\n');
+                        channel.write(header, payload.duplicate(), trailer);
+                    }
+                }
+                public void writeDrained(VectoredChannel channel) {
+                    drained.incrementAndGet();
+                }
+                public void writeFailed(VectoredChannel channel, IOException e) {
+                    failure.set(e);
+                }
+            });
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        channel.start();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(start);
+        start.await();
+
+        // The request arrives split across the two buffers it is read into.
+        client.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+        ByteBuffer in = ByteBuffer.allocate(messages * frame);
+        while (in.hasRemaining() && client.read(in) >= 0) {
+        }
+        for (int i = 0; i < 1000 && drained.get() == 0; i++) {
+            Thread.sleep(1L);
+        }
+        assertNull("Channel failed", failure.get());
+        assertEquals("Request not scattered", 0x01020304, request.getInt(0));
+        assertEquals("Request not scattered", 0x05060708, requestBody.getInt(0));
+        for (int i = 0; i < messages; i++) {
+            int base = i * frame;
+            assertEquals("Wrong header", i, in.getInt(base));
+            assertEquals("Wrong payload", (byte)99, in.get(base + 4 + 99));
+            assertEquals("Wrong trailer", (byte)'\n', in.get(base + frame - 1));
+        }
+
+        // Messages written while the socket was full were queued and
+        // went out together.
+        assertTrue("Queue never drained", drained.get() > 0);
+        assertTrue("Socket never filled", drained.get() < messages);
+        assertTrue("writes == " + channel.getWriteCount(),
+                   channel.getWriteCount() < messages);
+        client.close();
+    }
+
+    @Test
+    public void testCorkedChannel() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final VectoredChannel channel = new VectoredChannel(m_ioReactor, peer, new VectoredHandler() {
+                public void readReady(VectoredChannel channel) {
+                }
+                public void writeDrained(VectoredChannel channel) {
+                }
+                public void writeFailed(VectoredChannel channel, IOException e) {
+                    failure.set(e);
+                }
+            });
+
+        // Lots of small messages from one pass go out in one write.
+        final int messages = 1000;
+        final long[] writes = new long[3];
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        channel.start();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                    channel.setCorked(true);
+                    for (int i = 0; i < messages; i++) {
+                        channel.write(ByteBuffer.allocate(4).putInt(0, i));
+                    }
+                    writes[0] = channel.getWriteCount();
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(work);
+        work.await();
+
+        // A byte limit writes early, every 100 messages here.
+        work = new AwaitableWork() {
+                public boolean doWork() {
+                    writes[1] = channel.getWriteCount();
+                    channel.setCorkLimits(400L, 0L);
+                    for (int i = messages; i < 2 * messages; i++) {
+                        channel.write(ByteBuffer.allocate(4).putInt(0, i));
+                    }
+                    writes[2] = channel.getWriteCount();
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(work);
+        work.await();
+
+        ByteBuffer in = ByteBuffer.allocate(2 * messages * 4);
+        while (in.hasRemaining() && client.read(in) >= 0) {
+        }
+        assertNull("Channel failed", failure.get());
+        assertEquals("Corked write went out early", 0L, writes[0]);
+        assertEquals("Corked writes weren't flushed once", 1L, writes[1]);
+        assertEquals("Byte limit ignored", messages / 100, writes[2] - writes[1]);
+        for (int i = 0; i < 2 * messages; i++) {
+            assertEquals("Wrong message", i, in.getInt(i * 4));
+        }
+        client.close();
+    }
+
+    /**
+     * Tests that a corked channel that writes again from writeDrained()
+     * is flushed once per pass rather than holding up the reactor.
+     */
+    @Test(timeout=10000)
+    public void testCorkedRewrite() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        final int messages = 20;
+        final List<Long> cycles = new ArrayList<Long>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final VectoredChannel channel = new VectoredChannel(m_ioReactor, peer, new VectoredHandler() {
+                public void readReady(VectoredChannel channel) {
+                }
+                public void writeDrained(VectoredChannel channel) {
+                    cycles.add(m_ioReactor.getCycleCount());
+                    if (cycles.size() < messages) {
+                        channel.write(ByteBuffer.allocate(4).putInt(0, cycles.size()));
+                    }
+                }
+                public void writeFailed(VectoredChannel channel, IOException e) {
+                    failure.set(e);
+                }
+            });
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        channel.start();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                    channel.setCorked(true);
+                    channel.write(ByteBuffer.allocate(4).putInt(0, 0));
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(work);
+        work.await();
+
+        // Nothing else wakes the reactor up in the meantime.
+        ByteBuffer in = ByteBuffer.allocate(messages * 4);
+        while (in.hasRemaining() && client.read(in) >= 0) {
+        }
+        assertNull("Channel failed", failure.get());
+        for (int i = 0; i < messages; i++) {
+            assertEquals("Wrong message", i, in.getInt(i * 4));
+        }
+        AwaitableWork sync = new AwaitableWork() {
+                public boolean doWork() {
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(sync);
+        sync.await();
+        for (int i = 1; i < cycles.size(); i++) {
+            assertTrue("Flushed twice in one pass",
+                       cycles.get(i) > cycles.get(i - 1));
+        }
+        client.close();
+    }
+
+    /**
+     * Tests that quiet channels are reported, that active ones aren't
+     * and that handlers can close or untrack channels mid-sweep.
+     */
+    @Test(timeout=10000)
+    public void testIdleTracking() throws Exception {
+        m_ioReactor.setIdleSweepInterval(20);
+        final Pipe active = Pipe.open();
+        final Pipe quiet = Pipe.open();
+        final Pipe untracked = Pipe.open();
+        active.source().configureBlocking(false);
+        quiet.source().configureBlocking(false);
+        untracked.source().configureBlocking(false);
+        final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        final Valve[] valves = new Valve[3];
+        final IdleHandler handler = new IdleHandler() {
+                public void valveIdle(Valve valve, long idleTime) {
+                    if (valve == valves[0]) {
+                        events.add("active " + idleTime);
+                        valve.close();
+                    } else if (valve == valves[1]) {
+                        events.add("quiet " + idleTime);
+                        valve.close();
+                        // Tracked after this one so the sweep is about
+                        // to look at it.
+                        m_ioReactor.idleUntrack(valves[2]);
+                    } else {
+                        events.add("untracked " + idleTime);
+                    }
+                }
+            };
+        AwaitableWork track = new AwaitableWork() {
+                public boolean doWork() {
+                    valves[2] = m_ioReactor.valveCreate(untracked.source(), null);
+                    m_ioReactor.idleTrack(valves[2], 100, handler);
+                    valves[1] = m_ioReactor.valveCreate(quiet.source(), null);
+                    m_ioReactor.idleTrack(valves[1], 100, handler);
+                    valves[0] = m_ioReactor.valveCreate(active.source(),
+                                                        new ValveHandler() {
+                            public void valveFire(Valve valve,
+                                                  SelectionKey selectedKey) {
+                                try {
+                                    active.source().read(ByteBuffer.allocate(16));
+                                } catch (IOException e) {
+                                    valve.close();
+                                }
+                            }
+                        });
+                    valves[0].enable(SelectionKey.OP_READ);
+                    m_ioReactor.idleTrack(valves[0], 300, handler);
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(track);
+        track.await();
+
+        // Keep one channel busy for well past its timeout.
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 900000000L) {
+            active.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+            Thread.sleep(20);
+        }
+        String event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertTrue(event, event.startsWith("quiet "));
+        assertTrue(event, Long.parseLong(event.substring(6)) >= 100);
+        assertNull("Busy channel reported idle", events.poll());
+
+        // Once it goes quiet it's reported too.
+        event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertTrue(event, event.startsWith("active "));
+        assertTrue(event, Long.parseLong(event.substring(7)) >= 300);
+
+        // Closing both Valves stopped their tracking.
+        FutureWork<Integer> count = new FutureWork<Integer>() {
+                public boolean doWork() {
+                    setResult(m_ioReactor.getIdleTrackedCount());
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(count);
+        count.await();
+        assertEquals(0, count.getFuture().get().intValue());
+        assertNull("Untracked channel reported idle",
+                   events.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(valves[0].getChannel());
+        assertNull(valves[1].getChannel());
+        active.sink().close();
+        quiet.sink().close();
+        untracked.source().close();
+        untracked.sink().close();
+    }
 }
@@ -0,0 +1,139 @@
+package com.readyposition.reactor.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.AwaitableTimer;
+import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.LatencyHistogram;
+import com.readyposition.reactor.ReactorMetrics;
+
+public class ReactorMetricsTest
+{
+    /** The number of Works and Timers to submit. */
+    protected final static int ITERATIONS = 100;
+
+    /** The reactor under test. */
+    protected IOReactor m_ioReactor;
+
+    /** Its metrics. */
+    protected ReactorMetrics m_metrics;
+
+    /** A Work that sleeps a little so that it shows up in the timings. */
+    protected static class SleepyWork extends AwaitableWork {
+        public boolean doWork() {
+            try {
+                Thread.sleep(1L);
+            } catch (InterruptedException e) {
+            }
+            return false;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_ioReactor = IOReactor.getIOReactor("TestReactorMetrics");
+        m_metrics = m_ioReactor.getMetrics();
+    }
+
+    @After
+    public void tearDown() {
+        m_ioReactor.shutdown();
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+
+        // Buckets are accurate to 1/16th.
+        long p50 = histogram.getValueAtPercentile(50.0);
+        assertTrue("p50 == " + p50, p50 >= 500000L && p50 <= 500000L * 17 / 16);
+        long p99 = histogram.getValueAtPercentile(99.0);
+        assertTrue("p99 == " + p99, p99 >= 990000L && p99 <= 1000000L);
+        assertEquals(1000000L, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        m_metrics.setHandlerTiming(true);
+        SleepyWork[] works = new SleepyWork[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            works[i] = new SleepyWork();
+            m_ioReactor.workSubmit(works[i]);
+        }
+        AwaitableTimer timer = new AwaitableTimer() {
+                int m_count = ITERATIONS;
+
+                public long doTimer(long scheduledTime, long actualTime) {
+                    return (--m_count == 0) ? 0L : scheduledTime + 100000L;
+                }
+            };
+        m_ioReactor.timerSubmitRelNanos(100000L, timer);
+
+        // Read while the reactor is busy.  Setting up the timer from
+        // this thread is one more Work.
+        long pending = m_metrics.getPendingWorkCount();
+        assertTrue("pending == " + pending,
+                   pending >= 0 && pending <= ITERATIONS + 1);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertTrue(works[i].await(10L, TimeUnit.SECONDS));
+        }
+        assertTrue(timer.await(10L, TimeUnit.SECONDS));
+
+        // Let the reactor finish the pass the timer fired on.
+        AwaitableWork flush = new AwaitableWork() {
+                public boolean doWork() {
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(flush);
+        assertTrue(flush.await(10L, TimeUnit.SECONDS));
+
+        LatencyHistogram handler = m_metrics.getHandlerHistogram(SleepyWork.class);
+        assertNotNull("SleepyWork wasn't timed", handler);
+        assertEquals(ITERATIONS, handler.getCount());
+        assertTrue("SleepyWork too quick", handler.getValueAtPercentile(50.0) >= 1000000L);
+        assertTrue(m_metrics.getQueueDelayHistogram().getCount() >= ITERATIONS);
+        assertEquals(ITERATIONS, m_metrics.getTimerLagHistogram().getCount());
+        assertTrue(m_metrics.getHandlerTime() >= ITERATIONS * 1000000L);
+        assertTrue(m_metrics.getSelectCount() > 0);
+        assertEquals(0L, m_metrics.getPendingWorkCount());
+        assertEquals(0, m_metrics.getTimerCount());
+
+        // The same numbers over JMX.
+        m_metrics.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(
+                "com.readyposition.reactor:type=ReactorMetrics,name=" +
+                ObjectName.quote("TestReactorMetrics"));
+            Long handlerTime = (Long)server.getAttribute(name, "HandlerTime");
+            assertTrue(handlerTime >= ITERATIONS * 1000000L);
+            String[] handlerTimes = (String[])server.getAttribute(name, "HandlerTimes");
+            boolean found = false;
+            for (String line : handlerTimes) {
+                found |= line.startsWith(SleepyWork.class.getName() + ": count=" + ITERATIONS);
+            }
+            assertTrue("SleepyWork missing over JMX", found);
+        } finally {
+            m_metrics.unregister();
+        }
+    }
+}
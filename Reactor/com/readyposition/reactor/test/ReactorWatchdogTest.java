@@ -0,0 +1,83 @@
+package com.readyposition.reactor.test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.ReactorWatchdog;
+
+public class ReactorWatchdogTest
+{
+    /** The reactor being watched. */
+    protected IOReactor m_ioReactor;
+
+    /** The watchdog under test. */
+    protected ReactorWatchdog m_watchdog;
+
+    /** A Work that sleeps for a while. */
+    protected static class SleepyWork extends AwaitableWork {
+        protected long m_millis;
+
+        public SleepyWork(long millis) {
+            m_millis = millis;
+        }
+
+        public boolean doWork() {
+            try {
+                Thread.sleep(m_millis);
+            } catch (InterruptedException e) {
+            }
+            return false;
+        }
+    }
+
+    /** A Work that returns straight away. */
+    protected static class QuickWork extends AwaitableWork {
+        public boolean doWork() {
+            return false;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_ioReactor = IOReactor.getIOReactor("TestReactorWatchdog");
+        m_watchdog = ReactorWatchdog.getReactorWatchdog("TestWatchdog", 20L, 5L);
+        m_watchdog.watch(m_ioReactor);
+    }
+
+    @After
+    public void tearDown() {
+        m_watchdog.shutdown();
+        m_ioReactor.shutdown();
+    }
+
+    @Test
+    public void testOverrun() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            QuickWork quick = new QuickWork();
+            m_ioReactor.workSubmit(quick);
+            assertTrue(quick.await(10L, TimeUnit.SECONDS));
+        }
+        SleepyWork slow = new SleepyWork(200L);
+        m_ioReactor.workSubmit(slow);
+        assertTrue(slow.await(10L, TimeUnit.SECONDS));
+
+        // One long run is one overrun, however often it was sampled.
+        assertEquals(1L, m_watchdog.getOverrunCount(SleepyWork.class));
+        assertEquals(0L, m_watchdog.getOverrunCount(QuickWork.class));
+        assertEquals(Long.valueOf(1L),
+                     m_watchdog.getOverrunCounts().get(SleepyWork.class.getName()));
+
+        // Unwatched reactors aren't checked.
+        m_watchdog.unwatch(m_ioReactor);
+        slow = new SleepyWork(100L);
+        m_ioReactor.workSubmit(slow);
+        assertTrue(slow.await(10L, TimeUnit.SECONDS));
+        assertEquals(1L, m_watchdog.getOverrunCount(SleepyWork.class));
+    }
+}
@@ -1,5 +1,11 @@
 package com.readyposition.reactor.test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.Assert.*;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -9,7 +15,9 @@ import org.junit.Test;
 
 import com.readyposition.reactor.Timer;
 import com.readyposition.reactor.AwaitableTimer;
+import com.readyposition.reactor.AwaitableWork;
 import com.readyposition.reactor.BlockingTimer;
+import com.readyposition.reactor.TimerHandler;
 import com.readyposition.reactor.TimerReactor;
 
 public class TimerReactorTest extends WorkReactorTest {
@@ -60,6 +68,10 @@ public class TimerReactorTest extends WorkReactorTest {
             m_count = count;
         }
 
+        public void setScheduledTime(long time) {
+            setTime(time);
+        }
+
         public long doTimer(long scheduledTime, long actualTime) {
             return (--m_count == 0) ? 0L : actualTime + m_interval;
         }
@@ -98,6 +110,30 @@ public class TimerReactorTest extends WorkReactorTest {
         timer.await();
     }
 
+    @Test
+    public void testTimerNanos() {
+        final long interval = 200000L;
+        final long[] early = new long[1];
+        AwaitableTimer timer = new AwaitableTimer() {
+                int m_count = ITERATIONS;
+
+                public long doTimer(long scheduledTime, long actualTime) {
+                    // Times are from System.nanoTime() so a timer that
+                    // fires early shows up as actual < scheduled.
+                    if (actualTime < scheduledTime) {
+                        early[0]++;
+                    }
+                    return (--m_count == 0) ? 0L : scheduledTime + interval;
+                }
+            };
+        long start = System.nanoTime();
+        m_timerReactor.timerSubmitRelNanos(interval, timer);
+        timer.await();
+        assertEquals("Timers fired early", 0L, early[0]);
+        assertTrue("Timers finished too soon",
+                   System.nanoTime() - start >= ITERATIONS * interval);
+    }
+
     @Test
     public void testTimerMultiple() {
         // Make sure nothing happens until we're ready
@@ -171,4 +207,206 @@ public class TimerReactorTest extends WorkReactorTest {
         assertEquals("The CounterTimer value is wrong", (ITERATIONS - 1),
                      counterTimer.getCount());
     }
+
+    /**
+     * Tests that canceling a FutureTimer cancels its future, so that
+     * nothing waits for a timer that will never fire.
+     */
+    @Test(timeout=10000)
+    public void testCancelFuture() throws Exception {
+        CountdownTimer timer = new CountdownTimer();
+        m_timerReactor.timerSubmitRel(60000L, timer);
+        CompletableFuture<Void> future = timer.getFuture();
+        CompletableFuture<Void> both =
+            CompletableFuture.allOf(future,
+                                    CompletableFuture.completedFuture(null));
+        assertTrue("Couldn't cancel inactive timer", timer.cancel());
+        assertTrue("Future not canceled", future.isCancelled());
+        assertTrue("Joined future still waiting",
+                   both.isCompletedExceptionally());
+        timer.await();
+        assertTrue(timer.await(10L, TimeUnit.MILLISECONDS));
+        assertTrue(timer.isCompleted());
+    }
+
+    @Test
+    public void testCancelInReactor() {
+        // Submit and cancel a bunch of timers from the reactor's own
+        // thread.  They should be gone right away rather than lingering
+        // until they would have fired.
+        final CounterTimer counterTimer = new CounterTimer();
+        final int[] counts = new int[2];
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    Timer[] timers = new Timer[ITERATIONS];
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        timers[i] = m_timerReactor.timerCreateRel(
+                            (i + 1) * 60000L, counterTimer);
+                    }
+                    counts[0] = m_timerReactor.getTimerCount();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        timers[i].cancel();
+                    }
+                    counts[1] = m_timerReactor.getTimerCount();
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(work);
+        work.await();
+
+        assertEquals("Timers weren't added", ITERATIONS, counts[0]);
+        assertEquals("Canceled timers weren't removed", 0, counts[1]);
+        assertEquals("A canceled timer fired", 0, counterTimer.getCount());
+    }
+
+    @Test
+    public void testCancelFromOtherThread() {
+        // Timers canceled from another thread should be unlinked by the
+        // reactor on its next pass, not left until they would have
+        // fired.
+        CounterTimer counterTimer = new CounterTimer();
+        Timer[] timers = new Timer[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            timers[i] = m_timerReactor.timerCreateRel((i + 1) * 60000L,
+                                                      counterTimer);
+        }
+        final int[] counts = new int[2];
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    counts[0] = m_timerReactor.getTimerCount();
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(work);
+        work.await();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertTrue("Couldn't cancel inactive timer", timers[i].cancel());
+        }
+        work = new AwaitableWork() {
+                public boolean doWork() {
+                    counts[1] = m_timerReactor.getTimerCount();
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(work);
+        work.await();
+
+        assertEquals("Timers weren't added", ITERATIONS, counts[0]);
+        assertEquals("Canceled timers weren't removed", 0, counts[1]);
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertTrue("Canceled timer wasn't released",
+                       timers[i].isPending());
+        }
+    }
+
+    @Test
+    public void testTimerBudget() {
+        final int budget = 3;
+        m_timerReactor.setTimerBudget(budget);
+        assertEquals(budget, m_timerReactor.getTimerBudget());
+
+        // Ripen a batch of timers at once.  The first cancels the last,
+        // which is still waiting its turn.
+        final List<Long> cycles = new ArrayList<Long>();
+        final Timer[] timers = new Timer[ITERATIONS];
+        final TimerHandler handler = new TimerHandler() {
+                public long timerFire(long scheduledTime, long actualTime) {
+                    cycles.add(m_timerReactor.getCycleCount());
+                    if (cycles.size() == 1) {
+                        timers[ITERATIONS - 1].cancel();
+                    }
+                    return 0L;
+                }
+            };
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        timers[i] = m_timerReactor.timerCreateRel(0L, handler);
+                    }
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(work);
+        work.await();
+        CountdownTimer last = new CountdownTimer();
+        m_timerReactor.timerSubmitRel(1L, last);
+        last.await();
+
+        assertEquals("Canceled timer fired", ITERATIONS - 1, cycles.size());
+        for (int i = budget; i < cycles.size(); i++) {
+            assertTrue("Pass " + cycles.get(i) + " went over budget",
+                       cycles.get(i) > cycles.get(i - budget));
+        }
+        assertTrue(m_timerReactor.getMetrics().getCarryOverCount() > 0);
+    }
+
+    /**
+     * Tests that work from other threads still runs while the timer
+     * budget keeps carrying ripe timers over to the next pass.
+     */
+    @Test(timeout=10000)
+    public void testWorkWithCarriedOverTimers() throws Exception {
+        m_timerReactor.setTimerBudget(1);
+        final AtomicBoolean isStopped = new AtomicBoolean();
+        final TimerHandler handler = new TimerHandler() {
+                public long timerFire(long scheduledTime, long actualTime) {
+                    // Ripe again straight away.
+                    return isStopped.get() ? 0L : actualTime;
+                }
+            };
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    for (int i = 0; i < 4; i++) {
+                        m_timerReactor.timerCreateRel(0L, handler);
+                    }
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(start);
+        start.await();
+
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(work);
+        try {
+            assertTrue("Work starved by timers",
+                       work.await(5, TimeUnit.SECONDS));
+        } finally {
+            isStopped.set(true);
+        }
+    }
+
+    /**
+     * Tests that an absolute timer is checked against the wall clock
+     * when it comes due.  Moving the timer's time on stands in for the
+     * wall clock being set back after it was submitted.
+     */
+    @Test(timeout=10000)
+    public void testAbsFollowsWallClock() throws Exception {
+        final long[] times = new long[2];
+        final CountdownTimer timer = new CountdownTimer() {
+                public long doTimer(long scheduledTime, long actualTime) {
+                    times[1] = System.currentTimeMillis();
+                    return super.doTimer(scheduledTime, actualTime);
+                }
+            };
+        AwaitableWork work = new AwaitableWork() {
+                public boolean doWork() {
+                    long now = System.currentTimeMillis();
+                    m_timerReactor.timerSubmitAbs(now + INTERVAL, timer);
+                    times[0] = now + 20 * INTERVAL;
+                    timer.setScheduledTime(times[0]);
+                    return false;
+                }
+            };
+        m_timerReactor.workSubmit(work);
+        work.await();
+        timer.await();
+        assertTrue("Timer fired " + (times[0] - times[1]) + "ms early",
+                   times[1] >= times[0]);
+        assertTrue(timer.isWallClock());
+    }
 }
@@ -0,0 +1,340 @@
+package com.readyposition.reactor.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.ByteBladderPool;
+import com.readyposition.reactor.IOReactor;
+import com.readyposition.reactor.SubmissionPolicy;
+import com.readyposition.reactor.TlsChannel;
+import com.readyposition.reactor.TlsHandler;
+import com.readyposition.reactor.WorkHandler;
+import com.readyposition.reactor.WorkReactor;
+
+public class TlsChannelTest
+{
+    /**
+     * A PKCS12 key store holding a self-signed EC certificate for
+     * CN=localhost under the alias "test".
+     */
+    private final static String KEY_STORE =
+        "MIID7AIBAzCCA5YGCSqGSIb3DQEHAaCCA4cEggODMIIDfzCCASYGCSqGSIb3DQEHAaCCARcE" +
+        "ggETMIIBDzCCAQsGCyqGSIb3DQEMCgECoIG9MIG6MGYGCSqGSIb3DQEFDTBZMDgGCSqGSIb3" +
+        "DQEFDDArBBTbU3KZI+33X31/a/7ITpQ0AHzl5AICJxACASAwDAYIKoZIhvcNAgkFADAdBglg" +
+        "hkgBZQMEASoEEOYScLc3LBOOn9dtQ31XG30EUMn8iCphos2G/1nBbsCLn3Rk5y4i1tc2xQcn" +
+        "9hUwmIdOxHIhhWlfpfdeKDwxeHYrFmuk3n6Zfmw+FIc3jT9lmZZvmZVthpSbM7OFhK6vn+Mo" +
+        "MTwwFwYJKoZIhvcNAQkUMQoeCAB0AGUAcwB0MCEGCSqGSIb3DQEJFTEUBBJUaW1lIDE3OTIz" +
+        "MjAwMDg1NjAwggJRBgkqhkiG9w0BBwagggJCMIICPgIBADCCAjcGCSqGSIb3DQEHATBmBgkq" +
+        "hkiG9w0BBQ0wWTA4BgkqhkiG9w0BBQwwKwQUyRUXEiaI1wEHdL4EAMQ1qCEJHA8CAicQAgEg" +
+        "MAwGCCqGSIb3DQIJBQAwHQYJYIZIAWUDBAEqBBAtWq/ol4k4400DjExEwy2bgIIBwIrrWTZi" +
+        "8R7L/ptzvfwE8107EJdt8B1+aRiA2cZxKd4D5Mq3NCJ+Haj0SOMxp41/dSk5BYInQDb/oIf0" +
+        "tfRy75rvXnXqqSQvjzfFYHB0LrkuVshWOPnpcJjxeCXo0HZgETiNRhnpRLI67CzJjh1xh7K0" +
+        "LrrOki55Gr+w4kjIHx+8nDeKlXh1yY8q38+Y8Euyx1TL12MisqRmhXQzNUuVg9f1WmTYu7vr" +
+        "lUoBsg6Z7gRgEw6Weuv2TlpikP4xPlf8CIBV+qhZ+pxcS/VFyNhQgQE4rmJ+166yxxOeilcL" +
+        "aFlWv86r7OEYam6yrcUYzoPpp+901nhVWYwxfFjk5JF7nk4cfHYu3OAbFegGN79AhNxtqiY1" +
+        "/E9OoTHyVBIjiRzAA7xz/BoxodqIbXPcN6gv2cbgS5GXFfWKacDqUmscnYdkNf0v9QEP/4dc" +
+        "TIBNZMCGHk0C6qzS97bQm0bH6rEV1wajhahIGvZSQ/rGmFbgwaivLEKF2wvRB78OTOcqr8zI" +
+        "s26NFfC79WtHC3ktZXXi089w4IMydJoMP13O5fKYAMP6w4OJMPHRBvnLBRwi98aSN4UWO0y3" +
+        "ECnQEJtLLbLO6SIwTTAxMA0GCWCGSAFlAwQCAQUABCDTQT1waaoq8vK5Cu7NpSwEAD+7nBdq" +
+        "JHOujz8wB/Jd8gQUe/WM0NLa1KlPiJLJ9M0m9AmYxGgCAicQ";
+
+    /** The key store's password. */
+    private final static char[] PASSWORD = "changeit".toCharArray();
+
+    /** Asynchronous multiplexed I/O reactor. */
+    private IOReactor m_ioReactor;
+
+    /** Runs the SSLEngine's delegated tasks. */
+    private WorkReactor m_taskReactor;
+
+    /** Set up tests. */
+    @Before
+    public void setUp() {
+        m_ioReactor = IOReactor.getIOReactor("TlsChannelTestIOReactor");
+        m_taskReactor = WorkReactor.getWorkReactor("TlsChannelTestTasks");
+    }
+
+    /** Tear down tests. */
+    @After
+    public void tearDown() {
+        m_ioReactor.shutdown();
+        m_ioReactor = null;
+        m_taskReactor.shutdown();
+        m_taskReactor = null;
+    }
+
+    /** Makes an SSLContext that trusts its own certificate. */
+    private static SSLContext createContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(new ByteArrayInputStream(
+                          Base64.getDecoder().decode(KEY_STORE)), PASSWORD);
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+            KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+            TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    /** Echoes whatever it reads and remembers what went wrong. */
+    private static class EchoHandler implements TlsHandler {
+        final AtomicReference<IOException> m_failure =
+            new AtomicReference<IOException>();
+        final ByteBuffer m_buffer = ByteBuffer.allocate(100000);
+        final CountDownLatch m_closed = new CountDownLatch(1);
+
+        public void handshakeCompleted(TlsChannel channel) {
+            channel.setReadEnabled(true);
+        }
+
+        public void readReady(TlsChannel channel) {
+            try {
+                if (m_buffer.position() == 0) {
+                    int n = channel.read(m_buffer);
+                    if (n < 0) {
+                        channel.close();
+                        m_closed.countDown();
+                        return;
+                    }
+                }
+                writeReady(channel);
+            } catch (IOException e) {
+                m_failure.set(e);
+            }
+        }
+
+        public void writeReady(TlsChannel channel) {
+            try {
+                m_buffer.flip();
+                channel.write(m_buffer);
+                m_buffer.compact();
+                channel.setWriteEnabled(m_buffer.position() > 0);
+            } catch (IOException e) {
+                m_failure.set(e);
+            }
+        }
+
+        public void closed(TlsChannel channel, IOException e) {
+            m_failure.set(e);
+            m_closed.countDown();
+        }
+    }
+
+    /** Collects what it reads. */
+    private static class ClientHandler implements TlsHandler {
+        final AtomicReference<IOException> m_failure =
+            new AtomicReference<IOException>();
+        final CountDownLatch m_handshake = new CountDownLatch(1);
+        final ByteBuffer m_received = ByteBuffer.allocate(100000);
+        final CountDownLatch m_done;
+        ByteBuffer m_toSend;
+
+        ClientHandler(byte[] message) {
+            m_toSend = ByteBuffer.wrap(message);
+            m_done = new CountDownLatch(message.length);
+        }
+
+        public void handshakeCompleted(TlsChannel channel) {
+            m_handshake.countDown();
+            channel.setReadEnabled(true);
+            channel.setWriteEnabled(true);
+        }
+
+        public void readReady(TlsChannel channel) {
+            try {
+                int n = channel.read(m_received);
+                for (int i = 0; i < n; i++) {
+                    m_done.countDown();
+                }
+            } catch (IOException e) {
+                m_failure.set(e);
+            }
+        }
+
+        public void writeReady(TlsChannel channel) {
+            try {
+                channel.write(m_toSend);
+                channel.setWriteEnabled(m_toSend.hasRemaining());
+            } catch (IOException e) {
+                m_failure.set(e);
+            }
+        }
+
+        public void closed(TlsChannel channel, IOException e) {
+            m_failure.set(e);
+        }
+    }
+
+    /**
+     * Tests a handshake with delegated tasks on another reactor, an
+     * echo bigger than a TLS record and an orderly close.
+     */
+    @Test(timeout=20000)
+    public void testEcho() throws Exception {
+        SSLContext context = createContext();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open();
+        client.connect(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        SSLEngine serverEngine = context.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        SSLEngine clientEngine = context.createSSLEngine("localhost", 0);
+        clientEngine.setUseClientMode(true);
+
+        byte[] message = new byte[50000];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte)i;
+        }
+        final ByteBladderPool pool = new ByteBladderPool(1024);
+        final EchoHandler echo = new EchoHandler();
+        final ClientHandler clientHandler = new ClientHandler(message);
+        final TlsChannel serverChannel = new TlsChannel(
+            m_ioReactor, peer, serverEngine, echo, m_taskReactor, pool);
+        final TlsChannel clientChannel = new TlsChannel(
+            m_ioReactor, client, clientEngine, clientHandler, null, pool);
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        serverChannel.start();
+                        clientChannel.start();
+                    } catch (IOException e) {
+                        fail(e.toString());
+                    }
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(start);
+        start.await();
+
+        assertTrue("No handshake",
+                   clientHandler.m_handshake.await(10, TimeUnit.SECONDS));
+        assertTrue("No echo",
+                   clientHandler.m_done.await(10, TimeUnit.SECONDS));
+        assertNull(echo.m_failure.get());
+        assertNull(clientHandler.m_failure.get());
+        assertArrayEquals(message, Arrays.copyOf(
+                              clientHandler.m_received.array(), message.length));
+
+        AwaitableWork close = new AwaitableWork() {
+                public boolean doWork() {
+                    clientChannel.close();
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(close);
+        close.await();
+        assertTrue("Server didn't see the close",
+                   echo.m_closed.await(10, TimeUnit.SECONDS));
+        assertNull(echo.m_failure.get());
+
+        // Every buffer went back to the pool.
+        AwaitableWork check = new AwaitableWork() {
+                public boolean doWork() {
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(check);
+        check.await();
+        assertEquals(pool.getAllocateCount(), pool.getPooledCount());
+    }
+
+    /**
+     * Tests that a task reactor with a full backlog doesn't refuse the
+     * delegated tasks and leave the handshake hanging.
+     */
+    @Test(timeout=20000)
+    public void testFullTaskReactor() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        m_taskReactor.setCapacity(1, SubmissionPolicy.FAIL);
+        m_taskReactor.workCreate(new WorkHandler() {
+                public boolean workFire() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return false;
+                }
+            });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        m_taskReactor.workCreate(new WorkHandler() {
+                public boolean workFire() {
+                    return false;
+                }
+            });
+
+        SSLContext context = createContext();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open();
+        client.connect(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        server.close();
+
+        SSLEngine serverEngine = context.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        SSLEngine clientEngine = context.createSSLEngine("localhost", 0);
+        clientEngine.setUseClientMode(true);
+
+        final ByteBladderPool pool = new ByteBladderPool(1024);
+        final EchoHandler echo = new EchoHandler();
+        final ClientHandler clientHandler = new ClientHandler(new byte[1]);
+        final TlsChannel serverChannel = new TlsChannel(
+            m_ioReactor, peer, serverEngine, echo, m_taskReactor, pool);
+        final TlsChannel clientChannel = new TlsChannel(
+            m_ioReactor, client, clientEngine, clientHandler, null, pool);
+        AwaitableWork start = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        serverChannel.start();
+                        clientChannel.start();
+                    } catch (IOException e) {
+                        fail(e.toString());
+                    }
+                    return false;
+                }
+            };
+        m_ioReactor.workSubmit(start);
+        start.await();
+        // The server's delegated tasks wait behind the first Work.
+        assertFalse(clientHandler.m_handshake.await(500, TimeUnit.MILLISECONDS));
+        release.countDown();
+
+        assertTrue("No handshake",
+                   clientHandler.m_handshake.await(10, TimeUnit.SECONDS));
+        assertTrue("No echo",
+                   clientHandler.m_done.await(10, TimeUnit.SECONDS));
+        assertNull(echo.m_failure.get());
+        assertNull(clientHandler.m_failure.get());
+    }
+}
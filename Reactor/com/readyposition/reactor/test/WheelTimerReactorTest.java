@@ -0,0 +1,32 @@
+package com.readyposition.reactor.test;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import com.readyposition.reactor.TimerReactor;
+import com.readyposition.reactor.WheelTimerStore;
+
+/** Runs all of the TimerReactor tests against a timing wheel. */
+public class WheelTimerReactorTest extends TimerReactorTest {
+    @BeforeClass
+    public static void setUpBeforeClass() {}
+
+    @AfterClass
+    public static void tearDownAfterClass() {}
+
+    @Before
+    public void setUp() {
+        m_timerReactor =
+            TimerReactor.getTimerReactor("TestWheelTimerReactor_" +
+                                         ++m_reactorCount,
+                                         new WheelTimerStore());
+        m_workReactor = m_timerReactor;
+    }
+
+    @After
+    public void tearDown() {
+        m_timerReactor.shutdown();
+    }
+}
@@ -0,0 +1,312 @@
+package com.readyposition.reactor.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.SimpleTimer;
+import com.readyposition.reactor.Timer;
+import com.readyposition.reactor.WheelTimerStore;
+
+/**
+ * Drives a WheelTimerStore directly with made up times so that timers
+ * cascade down from every level, cross wheel boundaries and get parked
+ * beyond the reach of the wheels without waiting for a real clock.
+ */
+public class WheelTimerStoreTest
+{
+    /** The duration of a tick in nanoseconds. */
+    protected final static long TICK = 1000L;
+
+    /** The number of ticks covered by a slot of each level. */
+    protected final static long LEVEL_1 = 1L << 8;
+    protected final static long LEVEL_2 = 1L << 16;
+    protected final static long LEVEL_3 = 1L << 24;
+
+    /** The number of ticks the wheels reach (WheelTimerStore.RANGE). */
+    protected final static long RANGE = 1L << 32;
+
+    /** The store under test. */
+    protected WheelTimerStore m_store;
+
+    /** The time last handed to the store. */
+    protected long m_now;
+
+    /** Timers that are in the store and haven't been canceled. */
+    protected Set<TestTimer> m_pending;
+
+    /** Timers that were canceled while in the store. */
+    protected List<TestTimer> m_canceled;
+
+    /** A Timer that can be given a deadline without a reactor. */
+    protected static class TestTimer extends SimpleTimer {
+        public TestTimer(long deadline) {
+            setDeadline(deadline);
+        }
+
+        public TestTimer(long deadline, boolean isNanos) {
+            this(deadline);
+            setNanos(isNanos);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_store = new WheelTimerStore(TICK);
+        m_now = 0L;
+        m_pending = new HashSet<TestTimer>();
+        m_canceled = new ArrayList<TestTimer>();
+    }
+
+    /**
+     * Gets the tick a deadline rounds up to, which is the earliest
+     * tick at which its timer may fire.
+     */
+    protected static long ceilTick(long deadline) {
+        return -Math.floorDiv(-deadline, TICK);
+    }
+
+    /**
+     * Inserts a timer at the current time.
+     *
+     * @param deadline the timer's deadline.
+     * @return the timer.
+     */
+    protected TestTimer insert(long deadline) {
+        TestTimer timer = new TestTimer(deadline);
+        m_store.insert(timer, m_now);
+        assertTrue("Timer not tracked", timer.getEntry() != -1);
+        m_pending.add(timer);
+        return timer;
+    }
+
+    /**
+     * Cancels a timer held by the store, leaving a tombstone for the
+     * store to discard the way a cancel from another thread does.
+     */
+    protected void cancel(TestTimer timer) {
+        assertTrue("Couldn't cancel timer", timer.cancel());
+        assertTrue(m_pending.remove(timer));
+        m_canceled.add(timer);
+    }
+
+    /**
+     * Expires the store and checks that exactly the timers whose tick
+     * has come were handed back, each of them once.
+     *
+     * @param now the time to expire at.
+     */
+    protected void expire(long now) {
+        Timer ripe = new SimpleTimer();
+        m_store.expire(now, ripe);
+        m_now = now;
+        long tick = Math.floorDiv(now, TICK);
+        for (Timer t = ripe.getRight(); t != ripe; t = ripe.getRight()) {
+            t.remove();
+            TestTimer timer = (TestTimer)t;
+            assertFalse("A canceled timer fired", timer.isCanceled());
+            assertTrue("A timer fired twice", m_pending.remove(timer));
+            assertEquals("A ripe timer is still tracked", -1, timer.getEntry());
+            assertTrue("A timer fired early: " + timer.getDeadline() +
+                       " at " + now, ceilTick(timer.getDeadline()) <= tick);
+        }
+        for (TestTimer timer : m_pending) {
+            assertTrue("A timer fired late: " + timer.getDeadline() +
+                       " at " + now, ceilTick(timer.getDeadline()) > tick);
+        }
+    }
+
+    /**
+     * Checks that getNextTime() is no later than the tick the
+     * earliest timer rounds up to, or than the current time if that
+     * has gone by already.
+     *
+     * @return what getNextTime() returned.
+     */
+    protected long checkNextTime() {
+        long next = m_store.getNextTime();
+        long earliest = Long.MAX_VALUE;
+        for (TestTimer timer : m_pending) {
+            earliest = Math.min(earliest, ceilTick(timer.getDeadline()));
+        }
+        if (earliest != Long.MAX_VALUE) {
+            assertTrue("Next time " + next + " is after a deadline",
+                       next <= Math.max(earliest * TICK, m_now));
+        }
+        return next;
+    }
+
+    /**
+     * Expires the store at the times it asks for until it is empty,
+     * then checks that every timer fired and every tombstone went.
+     *
+     * @param maxSteps the most calls to expire() it should take.
+     */
+    protected void runOut(int maxSteps) {
+        int steps = 0;
+        while (m_store.getSize() > 0) {
+            assertTrue("Took too many steps", ++steps <= maxSteps);
+            expire(Math.max(checkNextTime(), m_now));
+        }
+        assertTrue("Timers never fired: " + m_pending.size(),
+                   m_pending.isEmpty());
+        for (TestTimer timer : m_canceled) {
+            assertEquals("Tombstone still tracked", -1, timer.getEntry());
+            assertTrue("Tombstone not discarded", timer.isPending());
+        }
+    }
+
+    @Test
+    public void testLevelBoundaries() {
+        // Start part way through a level 1 slot so that boundaries
+        // are crossed at odd distances.
+        m_now = 200L * TICK + 17L;
+        long[] deltas = {
+            0L, 1L, 55L, 56L, 57L, LEVEL_1 - 1, LEVEL_1, LEVEL_1 + 1,
+            2 * LEVEL_1 + 3, LEVEL_2 - 201, LEVEL_2 - 200, LEVEL_2 - 199,
+            LEVEL_2, LEVEL_2 + 1, 3 * LEVEL_2 + LEVEL_1 + 7,
+            LEVEL_3 - 200, LEVEL_3 - 1, LEVEL_3, LEVEL_3 + LEVEL_2 + 1,
+            RANGE - 201, RANGE - 200, RANGE - 1
+        };
+        for (long delta : deltas) {
+            // Deadlines on, just before and just after a tick.
+            long deadline = m_now + delta * TICK;
+            insert(deadline - 1L);
+            insert(deadline);
+            insert(deadline + 1L);
+        }
+        assertEquals(3 * deltas.length, m_store.getSize());
+        runOut(10000);
+    }
+
+    @Test
+    public void testFarOut() {
+        m_now = 5L * LEVEL_3 * TICK + 100L * TICK;
+        TestTimer[] timers = {
+            insert(m_now + RANGE * TICK),
+            insert(m_now + (RANGE + 1) * TICK - 1L),
+            insert(m_now + 3 * RANGE * TICK + 12345L * TICK + 1L)
+        };
+
+        // Coarse steps short of the deadlines leave them alone.
+        for (int i = 1; i < 256; i++) {
+            expire(m_now + LEVEL_3 * TICK);
+        }
+        for (TestTimer timer : timers) {
+            assertTrue("A parked timer was lost", timer.getEntry() != -1);
+        }
+        runOut(10000);
+    }
+
+    @Test
+    public void testCanceledDuringCascade() {
+        List<TestTimer> timers = new ArrayList<TestTimer>();
+        for (long delta = 1L; delta < RANGE; delta *= 3) {
+            timers.add(insert(m_now + delta * TICK));
+            timers.add(insert(m_now + delta * TICK + 1L));
+        }
+
+        // Tombstones left in every level are discarded as their slots
+        // cascade.
+        for (int i = 1; i < timers.size(); i += 2) {
+            cancel(timers.get(i));
+        }
+        expire(m_now + LEVEL_2 * TICK);
+        for (TestTimer timer : m_canceled) {
+            if (timer.getDeadline() <= m_now) {
+                assertEquals("Tombstone not discarded",
+                             -1, timer.getEntry());
+            }
+        }
+
+        // Cancel more of the rest now that they've cascaded down a
+        // level or two.
+        for (int i = 0; i < timers.size(); i += 4) {
+            TestTimer timer = timers.get(i);
+            if (m_pending.contains(timer)) {
+                cancel(timer);
+            }
+        }
+        runOut(10000);
+        assertEquals(0, m_store.getSize());
+    }
+
+    @Test
+    public void testDue() {
+        m_now = 1000L * TICK;
+        TestTimer far = insert(m_now + 10L * LEVEL_2 * TICK);
+        expire(m_now + 300L * TICK + 1L);
+
+        // Deadlines behind the wheels go on the DUE list.
+        TestTimer late = insert(m_now - 50L * TICK);
+        TestTimer stale = insert(m_now - 40L * TICK);
+        TestTimer past = insert(m_now - 1L);
+        cancel(stale);
+        assertTrue("DUE list not due", checkNextTime() <= m_now);
+        expire(m_now);
+        assertFalse(m_pending.contains(late));
+        assertFalse(m_pending.contains(past));
+        assertEquals("Tombstone still tracked", -1, stale.getEntry());
+        assertTrue(m_pending.contains(far));
+        runOut(10000);
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(12345L);
+        m_now = random.nextLong() >> 8;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                // Log-uniform distances from 0 ticks up past RANGE.
+                long delta = (long)Math.pow(2.0, random.nextDouble() * 34.0);
+                TestTimer timer =
+                    insert(m_now + delta * TICK + random.nextInt((int)TICK));
+                if (random.nextInt(8) == 0) {
+                    cancel(timer);
+                }
+            }
+
+            // Step by arbitrary amounts rather than when asked to.
+            for (int i = 0; i < 50; i++) {
+                long step = (long)Math.pow(2.0, random.nextDouble() * 26.0);
+                expire(m_now + step * TICK + random.nextInt((int)TICK));
+                checkNextTime();
+            }
+        }
+        runOut(100000);
+    }
+
+    @Test
+    public void testNextNanos() {
+        insert(100L * TICK);
+        assertFalse(m_store.isNextNanos());
+
+        // Counted wherever a nanosecond timer leaves the store.
+        TestTimer removed = new TestTimer(LEVEL_2 * TICK, true);
+        m_store.insert(removed, m_now);
+        assertTrue(m_store.isNextNanos());
+        m_store.remove(removed);
+        assertFalse(m_store.isNextNanos());
+
+        TestTimer canceled = new TestTimer(LEVEL_2 * TICK, true);
+        m_store.insert(canceled, m_now);
+        m_canceled.add(canceled);
+        canceled.cancel();
+        TestTimer fired = new TestTimer(LEVEL_1 * TICK, true);
+        m_store.insert(fired, m_now);
+        m_pending.add(fired);
+        assertTrue(m_store.isNextNanos());
+        expire(2 * LEVEL_1 * TICK);
+        assertFalse(m_pending.contains(fired));
+        assertTrue(m_store.isNextNanos());
+        runOut(10000);
+        insert(m_now + TICK);
+        assertFalse(m_store.isNextNanos());
+    }
+}
@@ -0,0 +1,194 @@
+package com.readyposition.reactor.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.readyposition.reactor.Work;
+import com.readyposition.reactor.WorkReactorPool;
+
+public class WorkReactorPoolTest
+{
+    /** The number of threads in the pool. */
+    protected final static int PARALLELISM = 4;
+
+    /** The number of affinity keys. */
+    protected final static int KEYS = 8;
+
+    /** Number of Works submitted per key. */
+    protected final static int SUBMISSIONS = 2000;
+
+    /** The pool under test. */
+    protected WorkReactorPool m_pool;
+
+    @Before
+    public void setUp() {
+        m_pool = WorkReactorPool.getWorkReactorPool("TestWorkReactorPool",
+                                                    PARALLELISM);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        m_pool.shutdown();
+        assertTrue("Pool never stopped",
+                   m_pool.awaitTermination(10L, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Work that checks that Works for its key run one at a time and in
+     * order.
+     */
+    protected static class KeyedWork extends Work {
+        protected AtomicInteger m_lastSeen;
+        protected AtomicBoolean m_isBusy;
+        protected AtomicBoolean m_failed;
+        protected CountDownLatch m_done;
+        protected int m_sequence;
+
+        public KeyedWork(AtomicInteger lastSeen, AtomicBoolean isBusy,
+                         AtomicBoolean failed, CountDownLatch done,
+                         int sequence)
+        {
+            m_lastSeen = lastSeen;
+            m_isBusy = isBusy;
+            m_failed = failed;
+            m_done = done;
+            m_sequence = sequence;
+        }
+
+        public boolean workFire() {
+            if (!m_isBusy.compareAndSet(false, true)) {
+                m_failed.set(true);
+            }
+            if (m_lastSeen.get() + 1 != m_sequence) {
+                m_failed.set(true);
+            }
+            m_lastSeen.set(m_sequence);
+            m_isBusy.set(false);
+            m_done.countDown();
+            return false;
+        }
+    }
+
+    @Test
+    public void testWorkResubmit() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(SUBMISSIONS);
+        m_pool.workSubmit(new Work() {
+                public boolean workFire() {
+                    done.countDown();
+                    return done.getCount() > 0;
+                }
+            });
+        assertTrue("Resubmitted Work didn't finish",
+                   done.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWorkCancel() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicBoolean fired = new AtomicBoolean();
+
+        // Tie up the key so that the next Work waits its turn
+        m_pool.workSubmit("key", new Work() {
+                public boolean workFire() {
+                    started.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                    }
+                    return false;
+                }
+            });
+        started.await();
+        Work work = new Work() {
+                public boolean workFire() {
+                    fired.set(true);
+                    return false;
+                }
+            };
+        m_pool.workSubmit("key", work);
+        assertTrue("Couldn't cancel inactive work", work.cancel());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        m_pool.workSubmit("key", new Work() {
+                public boolean workFire() {
+                    done.countDown();
+                    return false;
+                }
+            });
+        proceed.countDown();
+        assertTrue("Work after the canceled one never ran",
+                   done.await(10L, TimeUnit.SECONDS));
+        assertFalse("Canceled Work ran", fired.get());
+    }
+
+    @Test
+    public void testAffinity() throws InterruptedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(KEYS * SUBMISSIONS);
+
+        // One producer per key so that each key's order is well defined
+        Thread[] producers = new Thread[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            final Integer key = i;
+            final AtomicInteger lastSeen = new AtomicInteger(-1);
+            final AtomicBoolean isBusy = new AtomicBoolean();
+            producers[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < SUBMISSIONS; j++) {
+                            m_pool.workSubmit(key, new KeyedWork(
+                                lastSeen, isBusy, failed, done, j));
+                        }
+                    }
+                };
+            producers[i].start();
+        }
+        for (int i = 0; i < KEYS; i++) {
+            producers[i].join();
+        }
+
+        assertTrue("Keyed Works didn't all run",
+                   done.await(10L, TimeUnit.SECONDS));
+        assertFalse("Works for one key overlapped or ran out of order",
+                    failed.get());
+        assertEquals("Wrong number of Works fired",
+                     (long)(KEYS * SUBMISSIONS), m_pool.getCycleCount());
+    }
+
+    @Test
+    public void testSubmitAfterShutdown() throws InterruptedException {
+        m_pool.shutdown();
+        Work work = new Work() {
+                public boolean workFire() {
+                    return false;
+                }
+            };
+        try {
+            m_pool.workSubmit(work);
+            fail("Accepted unkeyed work after shutdown");
+        } catch (RejectedExecutionException e) {
+        }
+
+        // The lane is still free to be scheduled again, so it refuses
+        // the next Work too rather than quietly sitting on it.
+        for (int i = 0; i < 2; i++) {
+            try {
+                m_pool.workSubmit("key", new Work() {
+                        public boolean workFire() {
+                            return false;
+                        }
+                    });
+                fail("Accepted keyed work after shutdown");
+            } catch (RejectedExecutionException e) {
+            }
+        }
+    }
+}
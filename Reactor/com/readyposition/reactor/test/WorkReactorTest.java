@@ -1,5 +1,16 @@
 package com.readyposition.reactor.test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
 import static org.junit.Assert.*;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -8,8 +19,16 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.readyposition.reactor.AwaitableWork;
+import com.readyposition.reactor.BackPressureListener;
+import com.readyposition.reactor.BackoffIdleStrategy;
+import com.readyposition.reactor.BlockingIdleStrategy;
 import com.readyposition.reactor.BlockingWork;
+import com.readyposition.reactor.BusySpinIdleStrategy;
+import com.readyposition.reactor.IdleStrategy;
+import com.readyposition.reactor.SpinYieldIdleStrategy;
+import com.readyposition.reactor.SubmissionPolicy;
 import com.readyposition.reactor.Work;
+import com.readyposition.reactor.WorkPriority;
 import com.readyposition.reactor.WorkReactor;
 
 public class WorkReactorTest
@@ -23,6 +42,12 @@ public class WorkReactorTest
     /** Number of times CountDownWorker should resubmit itself. */
     protected final static int ITERATIONS = 10;
 
+    /** Number of threads submitting work concurrently. */
+    protected final static int PRODUCERS = 16;
+
+    /** Number of Works submitted by each producer thread. */
+    protected final static int SUBMISSIONS = 10000;
+
     @BeforeClass
     public static void setUpBeforeClass() {}
 
@@ -80,6 +105,129 @@ public class WorkReactorTest
         }
     }
 
+    /**
+     * Work class that records the order in which Works from several
+     * producers are fired.  Only ever touched by the reactor thread
+     * once submitted.
+     */
+    protected static class SequenceWork extends Work {
+        protected int[] m_lastSeen;
+        protected int m_producer;
+        protected int m_sequence;
+        protected boolean[] m_outOfOrder;
+
+        public SequenceWork(int[] lastSeen, boolean[] outOfOrder,
+                            int producer, int sequence)
+        {
+            m_lastSeen = lastSeen;
+            m_outOfOrder = outOfOrder;
+            m_producer = producer;
+            m_sequence = sequence;
+        }
+
+        public boolean workFire() {
+            if (m_lastSeen[m_producer] + 1 != m_sequence) {
+                m_outOfOrder[0] = true;
+            }
+            m_lastSeen[m_producer] = m_sequence;
+            return false;
+        }
+    }
+
+    /**
+     * Work class that records which lane it was fired from and on
+     * which pass of the loop.  Only ever touched by the reactor thread
+     * once submitted.
+     */
+    protected static class LaneWork extends AwaitableWork {
+        protected WorkReactor m_reactor;
+        protected WorkPriority m_priority;
+        protected List<WorkPriority> m_order;
+        protected List<Long> m_cycles;
+
+        public LaneWork(WorkReactor reactor, WorkPriority priority,
+                        List<WorkPriority> order, List<Long> cycles)
+        {
+            m_reactor = reactor;
+            m_priority = priority;
+            m_order = order;
+            m_cycles = cycles;
+        }
+
+        public boolean doWork() {
+            m_order.add(m_priority);
+            m_cycles.add(m_reactor.getCycleCount());
+            return false;
+        }
+    }
+
+    @Test
+    public void testWorkManyProducers() throws InterruptedException {
+        final int[] lastSeen = new int[PRODUCERS];
+        final boolean[] outOfOrder = new boolean[1];
+        for (int i = 0; i < PRODUCERS; i++) {
+            lastSeen[i] = -1;
+        }
+
+        // Hammer the reactor from many threads at once
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int producer = i;
+            producers[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < SUBMISSIONS; j++) {
+                            m_workReactor.workSubmit(
+                                new SequenceWork(lastSeen, outOfOrder,
+                                                 producer, j));
+                        }
+                    }
+                };
+            producers[i].start();
+        }
+        for (int i = 0; i < PRODUCERS; i++) {
+            producers[i].join();
+        }
+
+        // Everything submitted before this has to run before it
+        CountdownWork work = new CountdownWork();
+        m_workReactor.workSubmit(work);
+        work.await();
+
+        assertFalse("Work from one producer ran out of order", outOfOrder[0]);
+        for (int i = 0; i < PRODUCERS; i++) {
+            assertEquals("Work from producer " + i + " was lost",
+                         SUBMISSIONS - 1, lastSeen[i]);
+        }
+    }
+
+    @Test
+    public void testIdleStrategies() throws InterruptedException {
+        IdleStrategy[] strategies = {
+            new BusySpinIdleStrategy(),
+            new SpinYieldIdleStrategy(),
+            new BackoffIdleStrategy(),
+            new BlockingIdleStrategy()
+        };
+        for (IdleStrategy strategy : strategies) {
+            m_workReactor.setIdleStrategy(strategy);
+            assertSame("Strategy wasn't set",
+                       strategy, m_workReactor.getIdleStrategy());
+
+            // Let the reactor go idle before handing it some work
+            long idleCount = m_workReactor.getIdleCycleCount();
+            Thread.sleep(5L);
+            CountdownWork work = new CountdownWork(ITERATIONS);
+            m_workReactor.workSubmit(work);
+            work.await();
+            assertTrue("Reactor never went idle under " + strategy,
+                       m_workReactor.getIdleCycleCount() > idleCount);
+        }
+
+        // Resubmitted work keeps the reactor busy between passes
+        assertTrue("Reactor was never busy",
+                   m_workReactor.getBusyCycleCount() > 0L);
+    }
+
     @Test
     public void testWorkSimple() {
         CountdownWork work = new CountdownWork(ITERATIONS);
@@ -168,4 +316,463 @@ public class WorkReactorTest
         assertEquals("The CounterWork value is wrong",
                      (ITERATIONS - 1), counterWork.getCount());
     }
+
+    @Test
+    public void testSubmitAsync() throws Exception {
+        // Fan out to the reactor and join without a thread per call.
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int n = i;
+            futures[i] = m_workReactor.submitAsync(new Callable<Thread>() {
+                    public Thread call() {
+                        return Thread.currentThread();
+                    }
+                }).thenApply(new Function<Thread, Integer>() {
+                        public Integer apply(Thread thread) {
+                            assertSame("Completed on the wrong thread",
+                                       m_workReactor.getThread(), thread);
+                            return n;
+                        }
+                    });
+        }
+        CompletableFuture.allOf(futures).get(10L, TimeUnit.SECONDS);
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals("Wrong result", i, futures[i].get());
+        }
+
+        // Failures go to the future rather than the reactor's log.
+        CompletableFuture<Object> failed =
+            m_workReactor.submitAsync(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        throw new Exception("expected");
+                    }
+                });
+        try {
+            failed.get(10L, TimeUnit.SECONDS);
+            fail("The Callable's exception was lost");
+        } catch (ExecutionException e) {
+            assertEquals("expected", e.getCause().getMessage());
+        }
+
+        // Timed awaits give up while the reactor is held up.
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        CountdownWork work = new CountdownWork();
+        m_workReactor.workSubmit(work);
+        assertFalse("Work completed while the reactor was blocked",
+                    work.await(10L, TimeUnit.MILLISECONDS));
+        bw.proceed();
+        assertTrue("Work never completed", work.await(10L, TimeUnit.SECONDS));
+        assertTrue("Future not done", work.getFuture().isDone());
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        final AtomicInteger highs = new AtomicInteger();
+        final AtomicInteger lows = new AtomicInteger();
+        final AtomicInteger drops = new AtomicInteger();
+        m_workReactor.setWatermarks(8, 2, new BackPressureListener() {
+                public void highWatermark(WorkReactor reactor, int backlog) {
+                    highs.incrementAndGet();
+                }
+                public void lowWatermark(WorkReactor reactor, int backlog) {
+                    lows.incrementAndGet();
+                }
+                public void workDropped(WorkReactor reactor, Work work) {
+                    drops.incrementAndGet();
+                }
+            });
+
+        // Fail fast once ITERATIONS Works are waiting.
+        m_workReactor.setCapacity(ITERATIONS, SubmissionPolicy.FAIL);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        CountdownWork[] works = new CountdownWork[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            works[i] = new CountdownWork();
+            m_workReactor.workSubmit(works[i]);
+        }
+        assertEquals(ITERATIONS, m_workReactor.getBacklog());
+        CountdownWork refused = new CountdownWork();
+        try {
+            m_workReactor.workSubmit(refused);
+            fail("Submission past capacity wasn't refused");
+        } catch (RejectedExecutionException e) {
+        }
+        assertTrue("Refused Work was left busy", refused.isPending());
+        assertEquals("High watermark not reported once", 1, highs.get());
+
+        // Caller runs: the submitting thread does the work itself.
+        final Thread[] ranOn = new Thread[1];
+        m_workReactor.setCapacity(ITERATIONS, SubmissionPolicy.CALLER_RUNS);
+        m_workReactor.workSubmit(new Work() {
+                public boolean workFire() {
+                    ranOn[0] = Thread.currentThread();
+                    return false;
+                }
+            });
+        assertSame(Thread.currentThread(), ranOn[0]);
+
+        bw.proceed();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertTrue(works[i].await(10L, TimeUnit.SECONDS));
+        }
+        CountdownWork flush = new CountdownWork();
+        m_workReactor.workSubmit(flush);
+        assertTrue(flush.await(10L, TimeUnit.SECONDS));
+        assertEquals(0, m_workReactor.getBacklog());
+        assertEquals("Low watermark not reported once", 1, lows.get());
+
+        // Drop oldest: the newest ITERATIONS survive.
+        m_workReactor.setCapacity(ITERATIONS, SubmissionPolicy.DROP_OLDEST);
+        bw.reset();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        works = new CountdownWork[2 * ITERATIONS];
+        for (int i = 0; i < works.length; i++) {
+            works[i] = new CountdownWork();
+            m_workReactor.workSubmit(works[i]);
+        }
+        bw.proceed();
+        for (int i = ITERATIONS; i < works.length; i++) {
+            assertTrue(works[i].await(10L, TimeUnit.SECONDS));
+        }
+        assertEquals(ITERATIONS, drops.get());
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertTrue("An old Work wasn't dropped",
+                       works[i].getFuture().isCompletedExceptionally());
+        }
+
+        // Block: the producer waits for the reactor to catch up.
+        m_workReactor.setCapacity(1, SubmissionPolicy.BLOCK);
+        bw.reset();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        final CountdownWork first = new CountdownWork();
+        final CountdownWork second = new CountdownWork();
+        m_workReactor.workSubmit(first);
+        Thread producer = new Thread() {
+                public void run() {
+                    m_workReactor.workSubmit(second);
+                }
+            };
+        producer.start();
+        producer.join(50L);
+        assertTrue("Producer didn't block", producer.isAlive());
+        bw.proceed();
+        producer.join(10000L);
+        assertFalse("Producer never unblocked", producer.isAlive());
+        assertTrue(second.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPriorityLanes() throws Exception {
+        final int budget = 10;
+        m_workReactor.setLaneBudget(WorkPriority.BULK, budget);
+        assertEquals(budget, m_workReactor.getLaneBudget(WorkPriority.BULK));
+        assertEquals(0, m_workReactor.getLaneBudget(WorkPriority.URGENT));
+        try {
+            m_workReactor.setLaneBudget(WorkPriority.NORMAL, -1);
+            fail("Negative budget accepted");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // Hold the reactor while every lane fills up, lowest first.
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        List<WorkPriority> order = new ArrayList<WorkPriority>();
+        List<Long> cycles = new ArrayList<Long>();
+        WorkPriority[] priorities = {
+            WorkPriority.BULK, WorkPriority.NORMAL, WorkPriority.URGENT
+        };
+        List<LaneWork> works = new ArrayList<LaneWork>();
+        for (WorkPriority priority : priorities) {
+            for (int i = 0; i < 3 * budget; i++) {
+                LaneWork work = new LaneWork(m_workReactor, priority, order, cycles);
+                m_workReactor.workSubmit(work, priority);
+                works.add(work);
+            }
+        }
+        bw.proceed();
+        for (LaneWork work : works) {
+            assertTrue(work.await(10L, TimeUnit.SECONDS));
+        }
+
+        // Urgent, then normal, then bulk, with bulk spread over passes.
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals("Work " + i + " out of order",
+                         priorities[2 - i / (3 * budget)], order.get(i));
+        }
+        long firstBulk = cycles.get(6 * budget);
+        long lastBulk = cycles.get(cycles.size() - 1);
+        assertEquals(cycles.get(0).longValue(), firstBulk);
+        assertTrue("Bulk lane ignored its budget", lastBulk - firstBulk >= 2);
+    }
+
+    @Test
+    public void testWorkBudget() throws Exception {
+        final int budget = 5;
+        m_workReactor.setWorkBudget(budget);
+        assertEquals(budget, m_workReactor.getWorkBudget());
+
+        // A Work that keeps resubmitting itself only gets one go a pass
+        // and can't push the others back.
+        CountdownWork chatty = new CountdownWork(1000);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        m_workReactor.workSubmit(chatty);
+        List<WorkPriority> order = new ArrayList<WorkPriority>();
+        List<Long> cycles = new ArrayList<Long>();
+        List<LaneWork> works = new ArrayList<LaneWork>();
+        for (int i = 0; i < 4 * budget; i++) {
+            LaneWork work = new LaneWork(m_workReactor, WorkPriority.NORMAL,
+                                         order, cycles);
+            m_workReactor.workSubmit(work);
+            works.add(work);
+        }
+        bw.proceed();
+        for (LaneWork work : works) {
+            assertTrue(work.await(10L, TimeUnit.SECONDS));
+        }
+        assertTrue(chatty.await(10L, TimeUnit.SECONDS));
+
+        // Leftovers carry over, ahead of the chatty Work's
+        // resubmissions: at most budget Works fire on any one pass.
+        for (int i = budget; i < cycles.size(); i++) {
+            assertTrue("Pass " + cycles.get(i) + " went over budget",
+                       cycles.get(i) > cycles.get(i - budget));
+        }
+        assertTrue(m_workReactor.getMetrics().getCarryOverCount() > 0);
+
+        // A time budget lets at least one Work fire per lane.
+        m_workReactor.setWorkBudget(0);
+        m_workReactor.setPhaseTimeBudget(1L);
+        assertEquals(1L, m_workReactor.getPhaseTimeBudget());
+        CountdownWork slow = new CountdownWork(ITERATIONS);
+        m_workReactor.workSubmit(slow);
+        assertTrue(slow.await(10L, TimeUnit.SECONDS));
+        try {
+            m_workReactor.setPhaseTimeBudget(-1L);
+            fail("Negative time budget accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Tests that shutdown() wakes up producers waiting for room under
+     * the BLOCK policy.
+     */
+    @Test(timeout=10000)
+    public void testShutdownWhileBlocked() throws Exception {
+        m_workReactor.setCapacity(1, SubmissionPolicy.BLOCK);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        m_workReactor.workSubmit(new CountdownWork());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread producer = new Thread() {
+                public void run() {
+                    try {
+                        m_workReactor.workSubmit(new CountdownWork());
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+        producer.start();
+        producer.join(50L);
+        assertTrue("Producer didn't block", producer.isAlive());
+        m_workReactor.shutdown();
+        producer.join(5000L);
+        bw.proceed();
+        assertFalse("Producer never woke up", producer.isAlive());
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+    }
+
+    /**
+     * Tests that producers waiting for room under the BLOCK policy
+     * park until the reactor makes room, rather than poll, and that
+     * all of them get in.
+     */
+    @Test(timeout=10000)
+    public void testBlockWakesProducers() throws Exception {
+        m_workReactor.setCapacity(2, SubmissionPolicy.BLOCK);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        m_workReactor.workSubmit(new CountdownWork());
+        m_workReactor.workSubmit(new CountdownWork());
+
+        final CountdownWork[] works = new CountdownWork[4];
+        Thread[] producers = new Thread[works.length];
+        for (int i = 0; i < works.length; i++) {
+            final CountdownWork work = works[i] = new CountdownWork();
+            producers[i] = new Thread() {
+                    public void run() {
+                        m_workReactor.workSubmit(work);
+                    }
+                };
+            producers[i].start();
+        }
+        try {
+            for (Thread producer : producers) {
+                while (producer.getState() != Thread.State.WAITING) {
+                    assertTrue("Producer got in", producer.isAlive());
+                    Thread.sleep(1L);
+                }
+            }
+        } finally {
+            bw.proceed();
+        }
+        for (int i = 0; i < works.length; i++) {
+            producers[i].join(10000L);
+            assertFalse("Producer never unblocked", producers[i].isAlive());
+            assertTrue(works[i].await(10L, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Tests that a reactor's thread submitting to another reactor with
+     * a full backlog under BLOCK is refused rather than parked.
+     */
+    @Test(timeout=10000)
+    public void testBlockFromReactor() throws Exception {
+        m_workReactor.setCapacity(1, SubmissionPolicy.BLOCK);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        m_workReactor.workSubmit(new CountdownWork());
+
+        WorkReactor other = WorkReactor.getWorkReactor("OtherWorkReactor");
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        AwaitableWork submit = new AwaitableWork() {
+                public boolean doWork() {
+                    try {
+                        m_workReactor.workSubmit(new CountdownWork());
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                    return false;
+                }
+            };
+        try {
+            other.workSubmit(submit);
+            assertTrue("The other reactor was parked",
+                       submit.await(5L, TimeUnit.SECONDS));
+        } finally {
+            bw.proceed();
+            other.shutdown();
+        }
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+    }
+
+    /**
+     * Tests that DROP_OLDEST drops Works carried over from the last
+     * pass before newer, merely queued ones.
+     */
+    @Test(timeout=10000)
+    public void testDropOldestCarriedOver() throws Exception {
+        m_workReactor.setWorkBudget(1);
+        m_workReactor.setCapacity(2, SubmissionPolicy.DROP_OLDEST);
+        BlockingWork first = new BlockingWork();
+        m_workReactor.workSubmit(first);
+        first.waitForFireStart();
+        BlockingWork second = new BlockingWork();
+        CountdownWork carried = new CountdownWork();
+        m_workReactor.workSubmit(second);
+        m_workReactor.workSubmit(carried);
+        first.proceed();
+
+        // Only second fires on its pass, so carried is left over.
+        second.waitForFireStart();
+        CountdownWork[] works = { new CountdownWork(), new CountdownWork() };
+        for (CountdownWork work : works) {
+            m_workReactor.workSubmit(work);
+        }
+        second.proceed();
+        for (CountdownWork work : works) {
+            assertTrue(work.await(10L, TimeUnit.SECONDS));
+        }
+        assertTrue("The carried over Work wasn't dropped",
+                   carried.getFuture().isCompletedExceptionally());
+    }
+
+    /**
+     * Tests that a Work run by its caller under CALLER_RUNS goes back
+     * to the reactor once the capacity is lifted.
+     */
+    @Test(timeout=10000)
+    public void testCallerRunsUnlimited() throws Exception {
+        m_workReactor.setCapacity(1, SubmissionPolicy.CALLER_RUNS);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+        m_workReactor.workSubmit(new CountdownWork());
+        final Thread[] ranOn = new Thread[2];
+        CountdownWork work = new CountdownWork(2) {
+                public boolean doWork() {
+                    int i = (ranOn[0] == null) ? 0 : 1;
+                    ranOn[i] = Thread.currentThread();
+                    m_workReactor.setCapacity(0, SubmissionPolicy.CALLER_RUNS);
+                    return super.doWork();
+                }
+            };
+        m_workReactor.workSubmit(work);
+        bw.proceed();
+        assertTrue(work.await(10L, TimeUnit.SECONDS));
+        assertSame(Thread.currentThread(), ranOn[0]);
+        assertSame(m_workReactor.getThread(), ranOn[1]);
+    }
+
+    /**
+     * Tests that futures of Work the reactor drops or that is canceled
+     * complete rather than leave their waiters hanging.
+     */
+    @Test(timeout=10000)
+    public void testDroppedAndCanceledFutures() throws Exception {
+        m_workReactor.setCapacity(1, SubmissionPolicy.DROP_OLDEST);
+        BlockingWork bw = new BlockingWork();
+        m_workReactor.workSubmit(bw);
+        bw.waitForFireStart();
+
+        // Canceled while queued, so it never fires.
+        CountdownWork canceled = new CountdownWork();
+        m_workReactor.workSubmit(canceled);
+        assertTrue("Couldn't cancel pending work", canceled.cancel());
+        assertTrue("Future not canceled", canceled.getFuture().isCancelled());
+        canceled.await();
+
+        // These two are older than the last Work, so get dropped.
+        CompletableFuture<Object> call =
+            m_workReactor.submitAsync(new Callable<Object>() {
+                    public Object call() {
+                        return null;
+                    }
+                });
+        CountdownWork dropped = new CountdownWork();
+        m_workReactor.workSubmit(dropped);
+        CountdownWork kept = new CountdownWork();
+        m_workReactor.workSubmit(kept);
+        bw.proceed();
+
+        try {
+            CompletableFuture.allOf(call, dropped.getFuture(),
+                                    kept.getFuture())
+                .get(10L, TimeUnit.SECONDS);
+            fail("Dropped work completed normally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(call.isCompletedExceptionally());
+        assertTrue(dropped.getFuture().isCompletedExceptionally());
+        assertTrue(dropped.await(10L, TimeUnit.SECONDS));
+        assertTrue("Kept work never completed",
+                   kept.await(10L, TimeUnit.SECONDS));
+        assertFalse(kept.getFuture().isCompletedExceptionally());
+    }
 }